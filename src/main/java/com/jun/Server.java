@@ -42,6 +42,8 @@ public class Server {
         // NioServerService constructor now takes ServerConfig.
         // Pass a new instance, NioServerService will read static fields from ServerConfig class as implemented.
         NioServerService nioService = new NioServerService(new ServerConfig());
+        // a SIGTERM, e.g. from a rolling restart, lets the requests in progress finish first
+        Runtime.getRuntime().addShutdownHook(new Thread(nioService::drain, "NioServerService-drain"));
 
         try {
             nioService.start();    // This method now internally handles all setup and starts the acceptor thread.
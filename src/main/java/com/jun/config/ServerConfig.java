@@ -30,10 +30,87 @@ public class ServerConfig {
     public static int NIO_ACCEPTOR_NUM_READER_THREADS;
     /** Number of worker threads for writing socket data in IOReactors. */
     public static int NIO_ACCEPTOR_NUM_WRITER_THREADS;
+    /** Number of threads per IOReactor that run TLS handshakes, apart from the reader threads; a client that does not finish its handshake holds one until the handshake timeout. */
+    public static int NIO_ACCEPTOR_NUM_HANDSHAKE_THREADS;
     /** Whether the Acceptor's main socket channel is in blocking mode (true) or non-blocking mode (false). */
     public static boolean NIO_ACCEPTOR_IS_BLOCKING;
     /** Whether client sockets accepted by the NIO Acceptor should be in blocking mode (true) or non-blocking mode (false). */
     public static boolean CLIENT_SOCKET_BLOCKING_MODE;
+    /** Whether Nagle's algorithm is disabled on accepted sockets, so that a file sent after its response header is not held back. */
+    public static boolean CLIENT_SOCKET_TCP_NODELAY;
+    /** Strategy for assigning accepted connections to IOReactors: round-robin, least-connections, least-bytes or power-of-two. */
+    public static String NIO_ACCEPTOR_REACTOR_SELECTOR;
+    /** Open connections at which the Acceptor stops accepting until some close; 0 for no limit. */
+    public static int NIO_ACCEPTOR_MAX_CONNECTIONS;
+    /** Open connections per client address (IPv4 address or IPv6 /64) beyond which new ones are closed right away; 0 for no limit. */
+    public static int NIO_ACCEPTOR_MAX_CONNECTIONS_PER_ADDRESS;
+    /** Connections queued for a reactor's message handler at which the Acceptor pauses; it resumes below half of it. 0 disables the check. */
+    public static int NIO_ACCEPTOR_PAUSE_QUEUE_DEPTH;
+    /** Milliseconds a reactor's message handler queue may stay non-empty before the Acceptor pauses; it resumes below half of it. 0 disables the check. */
+    public static int NIO_ACCEPTOR_PAUSE_BACKLOG_MS;
+    /** Milliseconds between load checks while accepting is paused. */
+    public static int NIO_ACCEPTOR_PAUSE_CHECK_MS;
+    /** Bytes queued for writing on a connection above which it stops being writable. */
+    public static int NIO_SOCKET_WRITE_HIGH_WATERMARK;
+    /** Bytes queued for writing on a connection below which an unwritable connection becomes writable again. */
+    public static int NIO_SOCKET_WRITE_LOW_WATERMARK;
+    /** Whether a response is written on the thread that produced it when the connection has nothing else to write. */
+    public static boolean NIO_SOCKET_DIRECT_WRITE;
+    /** Bytes read from a connection per read event before it yields the reader thread to other connections. */
+    public static int NIO_READ_BUDGET_BYTES;
+    /** Read buffers filled per read event before the connection yields the reader thread. */
+    public static int NIO_READ_BUDGET_READS;
+    /** Bytes read from a connection but not parsed yet above which it is not read; also the largest incomplete request kept. */
+    public static int NIO_READ_BACKLOG_MAX_BYTES;
+    /** Requests of a connection parsed but not handled yet above which it is not read; 0 for no limit. */
+    public static int NIO_READ_BACKLOG_MAX_REQUESTS;
+    /** Bytes written to a connection per write event before it yields the writer thread to other connections. */
+    public static int NIO_WRITE_BUDGET_BYTES;
+    /** Channel write calls per write event before the connection yields the writer thread. */
+    public static int NIO_WRITE_SPIN_COUNT;
+    /** Resolution of each reactor's timer wheel in milliseconds. */
+    public static int NIO_TIMER_TICK_MS;
+    /** Buckets in each reactor's timer wheel, rounded up to a power of two. */
+    public static int NIO_TIMER_WHEEL_SIZE;
+    /** Milliseconds a TLS handshake may take; 0 disables the timeout, as for the timeouts below. */
+    public static int NIO_TIMEOUT_HANDSHAKE_MS;
+    /** Milliseconds from the first byte of a request until its header must be complete. */
+    public static int NIO_TIMEOUT_HEADER_READ_MS;
+    /** Milliseconds a request body may go without receiving any data. */
+    public static int NIO_TIMEOUT_BODY_READ_MS;
+    /** Milliseconds queued response data may go without any of it being written. */
+    public static int NIO_TIMEOUT_WRITE_STALL_MS;
+    /** Milliseconds a connection may stay open without a request in progress or data to write. */
+    public static int NIO_TIMEOUT_IDLE_MS;
+    /** Queueing delay in milliseconds that requests waiting for a reactor's message handler should stay below; while it has been exceeded for a whole interval, requests that waited over twice as long get 503. 0 disables shedding. */
+    public static int NIO_SHED_TARGET_MS;
+    /** Milliseconds over which the shortest queueing delay is compared with the target. */
+    public static int NIO_SHED_INTERVAL_MS;
+    /** Retry-After seconds sent with the 503 response of a shed request. */
+    public static int NIO_SHED_RETRY_AFTER_SECONDS;
+    /** Requests per second each client may send on average before getting 429; 0 disables rate limiting. */
+    public static int NIO_RATELIMIT_REQUESTS_PER_SECOND;
+    /** Requests a client may send at once after being idle. */
+    public static int NIO_RATELIMIT_BURST;
+    /** Clients the rate limiter keeps track of at the same time; beyond that, the least limited start over. */
+    public static int NIO_RATELIMIT_TABLE_SIZE;
+    /** Whether a request's X-Api-Key header, where present, identifies its client instead of the client address. */
+    public static boolean NIO_RATELIMIT_BY_API_KEY;
+    /**
+     * Milliseconds after it was received that a request is no longer worth handling, 0 for no
+     * deadline. An X-Request-Timeout-Ms header can make it shorter.
+     */
+    public static int NIO_REQUEST_DEADLINE_MS;
+    /** Comma-separated path prefixes of health checks, which the message handlers take before any other request. */
+    public static String NIO_PRIORITY_HEALTH_PATHS;
+    /** Comma-separated path prefixes of control requests, which the message handlers take by their weight. */
+    public static String NIO_PRIORITY_CONTROL_PATHS;
+    /** Share of control requests among the requests handled while both control and other requests wait. */
+    public static int NIO_PRIORITY_CONTROL_WEIGHT;
+    /** Share of the other requests, against the control weight. */
+    public static int NIO_PRIORITY_DEFAULT_WEIGHT;
+    /** Milliseconds a graceful shutdown waits for connections to answer the requests they received before closing them. */
+    public static int NIO_DRAIN_TIMEOUT_MS;
 
     // SSL Configuration (Common for NIO server if SSL is enabled)
     /** Path to the SSL keystore file (e.g., JKS). */
@@ -55,6 +132,28 @@ public class ServerConfig {
     /** Format string for the HTML response body, taking two integer arguments (socket ID, message ID). */
     public static String NIO_MSG_HANDLER_RESPONSE_BODY_FORMAT;
 
+    // Static File Configuration
+    /** Whether the NIO server serves files from {@link #NIO_STATIC_ROOT} instead of the static response. */
+    public static boolean NIO_STATIC_ENABLED;
+    /** Directory the static file handler serves files from. */
+    public static String NIO_STATIC_ROOT;
+    /** Total bytes of file content kept in memory by the static file handler; 0 disables the cache. */
+    public static long NIO_STATIC_CACHE_MAX_BYTES;
+    /** Largest file that is cached; larger files are always sent from disk. */
+    public static long NIO_STATIC_CACHE_MAX_FILE_BYTES;
+    /** Files of at least this size are memory-mapped instead of copied into a direct buffer. */
+    public static long NIO_STATIC_CACHE_MAP_THRESHOLD;
+    /** How often, at most, a cached file is checked for changes of its size or modification time. */
+    public static long NIO_STATIC_CACHE_CHECK_INTERVAL_MS;
+    /** Whether text responses are gzip-encoded for clients that accept it. */
+    public static boolean NIO_STATIC_GZIP_ENABLED;
+    /** Smallest cached file that is compressed on the fly. */
+    public static int NIO_STATIC_GZIP_MIN_BYTES;
+    /** Deflate level (1-9) for on-the-fly compression. */
+    public static int NIO_STATIC_GZIP_LEVEL;
+    /** Threads compressing cached content in the background. */
+    public static int NIO_STATIC_GZIP_THREADS;
+
     // Server Type Configuration
     /** System property key used to specify the server type (e.g., "nio" or "threaded"). */
     public static String SERVER_TYPE_PROPERTY_KEY;
@@ -94,8 +193,45 @@ public class ServerConfig {
         NIO_ACCEPTOR_NUM_IOREACTOR = getIntProperty(props, "nio.acceptor.num.ioreactor", 1);
         NIO_ACCEPTOR_NUM_READER_THREADS = getIntProperty(props, "nio.acceptor.num.reader.threads", 2);
         NIO_ACCEPTOR_NUM_WRITER_THREADS = getIntProperty(props, "nio.acceptor.num.writer.threads", 2);
+        NIO_ACCEPTOR_NUM_HANDSHAKE_THREADS = getIntProperty(props, "nio.acceptor.num.handshake.threads", 2);
         NIO_ACCEPTOR_IS_BLOCKING = getBooleanProperty(props, "nio.acceptor.is.blocking", true);
         CLIENT_SOCKET_BLOCKING_MODE = getBooleanProperty(props, "client.socket.blocking.mode", false); // Default to non-blocking for client sockets
+        CLIENT_SOCKET_TCP_NODELAY = getBooleanProperty(props, "client.socket.tcp.nodelay", true);
+        NIO_ACCEPTOR_REACTOR_SELECTOR = props.getProperty("nio.acceptor.reactor.selector", "round-robin");
+        NIO_ACCEPTOR_MAX_CONNECTIONS = getIntProperty(props, "nio.acceptor.max.connections", 10000);
+        NIO_ACCEPTOR_MAX_CONNECTIONS_PER_ADDRESS = getIntProperty(props, "nio.acceptor.max.connections.per.address", 0);
+        NIO_ACCEPTOR_PAUSE_QUEUE_DEPTH = getIntProperty(props, "nio.acceptor.pause.queue.depth", 1024);
+        NIO_ACCEPTOR_PAUSE_BACKLOG_MS = getIntProperty(props, "nio.acceptor.pause.backlog.ms", 500);
+        NIO_ACCEPTOR_PAUSE_CHECK_MS = getIntProperty(props, "nio.acceptor.pause.check.ms", 10);
+        NIO_SOCKET_WRITE_HIGH_WATERMARK = getIntProperty(props, "nio.socket.write.high.watermark", 1024 * 1024);
+        NIO_SOCKET_WRITE_LOW_WATERMARK = getIntProperty(props, "nio.socket.write.low.watermark", 256 * 1024);
+        NIO_SOCKET_DIRECT_WRITE = getBooleanProperty(props, "nio.socket.direct.write", true);
+        NIO_READ_BUDGET_BYTES = getIntProperty(props, "nio.read.budget.bytes", 64 * 1024);
+        NIO_READ_BUDGET_READS = getIntProperty(props, "nio.read.budget.reads", 16);
+        NIO_READ_BACKLOG_MAX_BYTES = getIntProperty(props, "nio.read.backlog.max.bytes", 1024 * 1024);
+        NIO_READ_BACKLOG_MAX_REQUESTS = getIntProperty(props, "nio.read.backlog.max.requests", 64);
+        NIO_WRITE_BUDGET_BYTES = getIntProperty(props, "nio.write.budget.bytes", 256 * 1024);
+        NIO_WRITE_SPIN_COUNT = getIntProperty(props, "nio.write.spin.count", 16);
+        NIO_TIMER_TICK_MS = getIntProperty(props, "nio.timer.tick.ms", 100);
+        NIO_TIMER_WHEEL_SIZE = getIntProperty(props, "nio.timer.wheel.size", 512);
+        NIO_TIMEOUT_HANDSHAKE_MS = getIntProperty(props, "nio.timeout.handshake.ms", 10000);
+        NIO_TIMEOUT_HEADER_READ_MS = getIntProperty(props, "nio.timeout.header.read.ms", 20000);
+        NIO_TIMEOUT_BODY_READ_MS = getIntProperty(props, "nio.timeout.body.read.ms", 30000);
+        NIO_TIMEOUT_WRITE_STALL_MS = getIntProperty(props, "nio.timeout.write.stall.ms", 30000);
+        NIO_TIMEOUT_IDLE_MS = getIntProperty(props, "nio.timeout.idle.ms", 60000);
+        NIO_SHED_TARGET_MS = getIntProperty(props, "nio.shed.target.ms", 5);
+        NIO_SHED_INTERVAL_MS = getIntProperty(props, "nio.shed.interval.ms", 100);
+        NIO_SHED_RETRY_AFTER_SECONDS = getIntProperty(props, "nio.shed.retry.after.seconds", 1);
+        NIO_RATELIMIT_REQUESTS_PER_SECOND = getIntProperty(props, "nio.ratelimit.requests.per.second", 0);
+        NIO_RATELIMIT_BURST = getIntProperty(props, "nio.ratelimit.burst", 100);
+        NIO_RATELIMIT_TABLE_SIZE = getIntProperty(props, "nio.ratelimit.table.size", 65536);
+        NIO_RATELIMIT_BY_API_KEY = getBooleanProperty(props, "nio.ratelimit.by.api.key", false);
+        NIO_REQUEST_DEADLINE_MS = getIntProperty(props, "nio.request.deadline.ms", 0);
+        NIO_PRIORITY_HEALTH_PATHS = props.getProperty("nio.priority.health.paths", "/health");
+        NIO_PRIORITY_CONTROL_PATHS = props.getProperty("nio.priority.control.paths", "");
+        NIO_PRIORITY_CONTROL_WEIGHT = getIntProperty(props, "nio.priority.control.weight", 4);
+        NIO_PRIORITY_DEFAULT_WEIGHT = getIntProperty(props, "nio.priority.default.weight", 1);
+        NIO_DRAIN_TIMEOUT_MS = getIntProperty(props, "nio.drain.timeout.ms", 30000);
 
         SSL_KEYSTORE_PATH = props.getProperty("ssl.keystore.path", "./src/main/resources/server.jks");
         SSL_KEYSTORE_PASSWORD = props.getProperty("ssl.keystore.password", "storepass");
@@ -103,10 +239,21 @@ public class ServerConfig {
         SSL_TRUSTSTORE_PATH = props.getProperty("ssl.truststore.path", "./src/main/resources/trustedCerts.jks");
         SSL_TRUSTSTORE_PASSWORD = props.getProperty("ssl.truststore.password", "storepass");
 
-        NIO_MSG_HANDLER_STATIC_RESPONSE_PART1 = props.getProperty("nio.msg.handler.static.response.part1", "HTTP/1.1 200 OK\\r\\nContent-Type: text/html\\r\\nContent-Length: ");
-        NIO_MSG_HANDLER_STATIC_RESPONSE_PART2 = props.getProperty("nio.msg.handler.static.response.part2", "\\r\\n\\r\\n");
+        NIO_MSG_HANDLER_STATIC_RESPONSE_PART1 = props.getProperty("nio.msg.handler.static.response.part1", "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\nContent-Length: ");
+        NIO_MSG_HANDLER_STATIC_RESPONSE_PART2 = props.getProperty("nio.msg.handler.static.response.part2", "\r\n\r\n");
         NIO_MSG_HANDLER_RESPONSE_BODY_FORMAT = props.getProperty("nio.msg.handler.response.body.format", "<html><body>Hello World(%d-%d)</body></html>");
 
+        NIO_STATIC_ENABLED = getBooleanProperty(props, "nio.static.enabled", false);
+        NIO_STATIC_ROOT = props.getProperty("nio.static.root", "./static");
+        NIO_STATIC_CACHE_MAX_BYTES = getLongProperty(props, "nio.static.cache.max.bytes", 64L * 1024 * 1024);
+        NIO_STATIC_CACHE_MAX_FILE_BYTES = getLongProperty(props, "nio.static.cache.max.file.bytes", 1024 * 1024);
+        NIO_STATIC_CACHE_MAP_THRESHOLD = getLongProperty(props, "nio.static.cache.map.threshold", 64 * 1024);
+        NIO_STATIC_CACHE_CHECK_INTERVAL_MS = getLongProperty(props, "nio.static.cache.check.interval.ms", 1000);
+        NIO_STATIC_GZIP_ENABLED = getBooleanProperty(props, "nio.static.gzip.enabled", true);
+        NIO_STATIC_GZIP_MIN_BYTES = getIntProperty(props, "nio.static.gzip.min.bytes", 256);
+        NIO_STATIC_GZIP_LEVEL = getIntProperty(props, "nio.static.gzip.level", 6);
+        NIO_STATIC_GZIP_THREADS = getIntProperty(props, "nio.static.gzip.threads", 1);
+
         SERVER_TYPE_PROPERTY_KEY = props.getProperty("server.type.property.key", "server.type");
         SERVER_TYPE_NIO = props.getProperty("server.type.nio", "nio");
         SERVER_TYPE_THREADED = props.getProperty("server.type.threaded", "threaded");
@@ -126,8 +273,45 @@ public class ServerConfig {
         NIO_ACCEPTOR_NUM_IOREACTOR = 1;
         NIO_ACCEPTOR_NUM_READER_THREADS = 2;
         NIO_ACCEPTOR_NUM_WRITER_THREADS = 2;
+        NIO_ACCEPTOR_NUM_HANDSHAKE_THREADS = 2;
         NIO_ACCEPTOR_IS_BLOCKING = true;
         CLIENT_SOCKET_BLOCKING_MODE = false; // Default to non-blocking for client sockets
+        CLIENT_SOCKET_TCP_NODELAY = true;
+        NIO_ACCEPTOR_REACTOR_SELECTOR = "round-robin";
+        NIO_ACCEPTOR_MAX_CONNECTIONS = 10000;
+        NIO_ACCEPTOR_MAX_CONNECTIONS_PER_ADDRESS = 0;
+        NIO_ACCEPTOR_PAUSE_QUEUE_DEPTH = 1024;
+        NIO_ACCEPTOR_PAUSE_BACKLOG_MS = 500;
+        NIO_ACCEPTOR_PAUSE_CHECK_MS = 10;
+        NIO_SOCKET_WRITE_HIGH_WATERMARK = 1024 * 1024;
+        NIO_SOCKET_WRITE_LOW_WATERMARK = 256 * 1024;
+        NIO_SOCKET_DIRECT_WRITE = true;
+        NIO_READ_BUDGET_BYTES = 64 * 1024;
+        NIO_READ_BUDGET_READS = 16;
+        NIO_READ_BACKLOG_MAX_BYTES = 1024 * 1024;
+        NIO_READ_BACKLOG_MAX_REQUESTS = 64;
+        NIO_WRITE_BUDGET_BYTES = 256 * 1024;
+        NIO_WRITE_SPIN_COUNT = 16;
+        NIO_TIMER_TICK_MS = 100;
+        NIO_TIMER_WHEEL_SIZE = 512;
+        NIO_TIMEOUT_HANDSHAKE_MS = 10000;
+        NIO_TIMEOUT_HEADER_READ_MS = 20000;
+        NIO_TIMEOUT_BODY_READ_MS = 30000;
+        NIO_TIMEOUT_WRITE_STALL_MS = 30000;
+        NIO_TIMEOUT_IDLE_MS = 60000;
+        NIO_SHED_TARGET_MS = 5;
+        NIO_SHED_INTERVAL_MS = 100;
+        NIO_SHED_RETRY_AFTER_SECONDS = 1;
+        NIO_RATELIMIT_REQUESTS_PER_SECOND = 0;
+        NIO_RATELIMIT_BURST = 100;
+        NIO_RATELIMIT_TABLE_SIZE = 65536;
+        NIO_RATELIMIT_BY_API_KEY = false;
+        NIO_REQUEST_DEADLINE_MS = 0;
+        NIO_PRIORITY_HEALTH_PATHS = "/health";
+        NIO_PRIORITY_CONTROL_PATHS = "";
+        NIO_PRIORITY_CONTROL_WEIGHT = 4;
+        NIO_PRIORITY_DEFAULT_WEIGHT = 1;
+        NIO_DRAIN_TIMEOUT_MS = 30000;
 
         SSL_KEYSTORE_PATH = "./src/main/resources/server.jks";
         SSL_KEYSTORE_PASSWORD = "storepass";
@@ -135,10 +319,21 @@ public class ServerConfig {
         SSL_TRUSTSTORE_PATH = "./src/main/resources/trustedCerts.jks";
         SSL_TRUSTSTORE_PASSWORD = "storepass";
 
-        NIO_MSG_HANDLER_STATIC_RESPONSE_PART1 = "HTTP/1.1 200 OK\\r\\nContent-Type: text/html\\r\\nContent-Length: ";
-        NIO_MSG_HANDLER_STATIC_RESPONSE_PART2 = "\\r\\n\\r\\n";
+        NIO_MSG_HANDLER_STATIC_RESPONSE_PART1 = "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\nContent-Length: ";
+        NIO_MSG_HANDLER_STATIC_RESPONSE_PART2 = "\r\n\r\n";
         NIO_MSG_HANDLER_RESPONSE_BODY_FORMAT = "<html><body>Hello World(%d-%d)</body></html>";
 
+        NIO_STATIC_ENABLED = false;
+        NIO_STATIC_ROOT = "./static";
+        NIO_STATIC_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+        NIO_STATIC_CACHE_MAX_FILE_BYTES = 1024 * 1024;
+        NIO_STATIC_CACHE_MAP_THRESHOLD = 64 * 1024;
+        NIO_STATIC_CACHE_CHECK_INTERVAL_MS = 1000;
+        NIO_STATIC_GZIP_ENABLED = true;
+        NIO_STATIC_GZIP_MIN_BYTES = 256;
+        NIO_STATIC_GZIP_LEVEL = 6;
+        NIO_STATIC_GZIP_THREADS = 1;
+
         SERVER_TYPE_PROPERTY_KEY = "server.type";
         SERVER_TYPE_NIO = "nio";
         SERVER_TYPE_THREADED = "threaded";
@@ -157,6 +352,18 @@ public class ServerConfig {
         return defaultValue;
     }
 
+    private static long getLongProperty(Properties props, String key, long defaultValue) {
+        String value = props.getProperty(key);
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                log.warn("Invalid format for long property '" + key + "', using default value: " + defaultValue, e);
+            }
+        }
+        return defaultValue;
+    }
+
     private static boolean getBooleanProperty(Properties props, String key, boolean defaultValue) {
         String value = props.getProperty(key);
         if (value != null) {
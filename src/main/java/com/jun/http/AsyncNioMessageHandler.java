@@ -0,0 +1,27 @@
+package com.jun.http;
+
+import com.jun.nioServer.ConnectedSocket;
+import com.jun.nioServer.msg.Message;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A handler that answers a request with a future response, so that it can wait for other services
+ * without holding the message handler thread. It is run through
+ * {@link com.jun.nioServer.handler.AsyncNioMessageHandlerAdapter}.
+ *
+ * The future may be completed from any thread. Responses of one connection are written in the
+ * order of their requests, whatever order their futures complete in. A future completed with null
+ * sends nothing; one completed exceptionally is answered with a 500. When the connection closes,
+ * the futures of its unanswered requests are cancelled; a handler can stop its work for them by
+ * watching the future.
+ */
+public interface AsyncNioMessageHandler {
+    CompletableFuture<Message> processMessage(Message requestMessage, ConnectedSocket connectedSocket);
+
+    /**
+     * See {@link NioMessageHandler#onWritabilityChanged}.
+     */
+    default void onWritabilityChanged(ConnectedSocket connectedSocket, boolean writable) {
+    }
+}
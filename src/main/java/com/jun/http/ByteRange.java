@@ -0,0 +1,118 @@
+package com.jun.http;
+
+/**
+ * A single byte range of a representation, from {@code first} to {@code last} inclusive, as
+ * requested by a {@code Range: bytes=...} header (RFC 7233).
+ */
+public final class ByteRange {
+
+    /** The request named a range, but none of it lies within the representation. */
+    public static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    private static final byte[] BYTES_UNIT = "bytes=".getBytes();
+
+    private final long first;
+    private final long last;
+
+    private ByteRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    public long length() {
+        return last - first + 1;
+    }
+
+    /**
+     * The value of the Content-Range header of a 206 response.
+     */
+    public String contentRange(long size) {
+        return "bytes " + first + "-" + last + "/" + size;
+    }
+
+    /**
+     * Resolves the Range value in src[start, end) against a representation of {@code size} bytes.
+     * Returns null if the header is to be ignored and the whole representation sent: it is
+     * malformed, uses another unit, or asks for several ranges, which would need a multipart
+     * response. Returns {@link #UNSATISFIABLE} if the range starts beyond the end.
+     */
+    public static ByteRange parse(byte[] src, int start, int end, long size) {
+        if (end - start <= BYTES_UNIT.length || !startsWithIgnoreCase(src, start, BYTES_UNIT)) {
+            return null;
+        }
+        int i = start + BYTES_UNIT.length;
+        for (int j = i; j < end; j++) {
+            if (src[j] == ',') {
+                return null;
+            }
+        }
+        int dash = i;
+        while (dash < end && src[dash] != '-') {
+            dash++;
+        }
+        if (dash == end) {
+            return null;
+        }
+        long first = parseNumber(src, i, dash);
+        long last = parseNumber(src, dash + 1, end);
+        if (first == -1) {
+            // suffix range: the last n bytes
+            if (last <= 0) {
+                return last == 0 ? UNSATISFIABLE : null;
+            }
+            return size == 0 ? UNSATISFIABLE : new ByteRange(Math.max(0, size - last), size - 1);
+        }
+        if (first < 0 || last < -1 || (last != -1 && last < first)) {
+            return null;
+        }
+        if (first >= size) {
+            return UNSATISFIABLE;
+        }
+        return new ByteRange(first, last == -1 || last >= size ? size - 1 : last);
+    }
+
+    /**
+     * Parses the decimal digits in src[start, end), ignoring surrounding blanks. Returns -1 for an
+     * empty value, -2 if it is not a number; values too large for a long saturate.
+     */
+    private static long parseNumber(byte[] src, int start, int end) {
+        while (start < end && src[start] == ' ') {
+            start++;
+        }
+        while (end > start && src[end - 1] == ' ') {
+            end--;
+        }
+        if (start == end) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            if (src[i] < '0' || src[i] > '9') {
+                return -2;
+            }
+            value = value > (Long.MAX_VALUE - 9) / 10 ? Long.MAX_VALUE : value * 10 + (src[i] - '0');
+        }
+        return value;
+    }
+
+    private static boolean startsWithIgnoreCase(byte[] src, int offset, byte[] lowerCase) {
+        for (int i = 0; i < lowerCase.length; i++) {
+            byte b = src[offset + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowerCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,160 @@
+package com.jun.http;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * gzip (RFC 1952) encoding with pooled {@link Deflater}s. A Deflater holds a large native buffer
+ * that is only freed by {@link Deflater#end()}, so instances are reset and reused rather than
+ * created per response. At most {@code maxPooled} idle instances are kept.
+ */
+public final class GzipEncoder {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    // magic, CM=deflate, no flags, no mtime, no extra flags, OS unknown
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final byte[] GZIP = "gzip".getBytes();
+
+    private final int level;
+    private final int maxPooled;
+    private final Queue<Deflater> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public GzipEncoder(int level, int maxPooled) {
+        this.level = level;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Compresses the remaining bytes of src without moving its position.
+     */
+    public byte[] encode(ByteBuffer src) {
+        ByteBuffer view = src.duplicate();
+        int length = view.remaining();
+        Deflater deflater = acquire();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 3 + HEADER.length + 8);
+            out.write(HEADER, 0, HEADER.length);
+            CRC32 crc = new CRC32();
+            byte[] in = new byte[Math.min(CHUNK_SIZE, Math.max(length, 1))];
+            byte[] buf = new byte[CHUNK_SIZE];
+            while (view.hasRemaining()) {
+                int n = Math.min(in.length, view.remaining());
+                view.get(in, 0, n);
+                crc.update(in, 0, n);
+                deflater.setInput(in, 0, n);
+                while (!deflater.needsInput()) {
+                    out.write(buf, 0, deflater.deflate(buf));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+            writeIntLE(out, (int) crc.getValue());
+            writeIntLE(out, length);
+            return out.toByteArray();
+        } finally {
+            release(deflater);
+        }
+    }
+
+    private Deflater acquire() {
+        Deflater deflater = pool.poll();
+        if (deflater == null) {
+            return new Deflater(level, true);
+        }
+        pooled.decrementAndGet();
+        return deflater;
+    }
+
+    private void release(Deflater deflater) {
+        deflater.reset();
+        if (pooled.incrementAndGet() <= maxPooled) {
+            pool.offer(deflater);
+        } else {
+            pooled.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    int idleDeflaters() {
+        return pooled.get();
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    /**
+     * True if the Accept-Encoding value in src[start, end) accepts gzip: it lists gzip or *
+     * without {@code q=0}.
+     */
+    public static boolean acceptsGzip(byte[] src, int start, int end) {
+        int i = start;
+        while (i < end) {
+            int tokenEnd = i;
+            while (tokenEnd < end && src[tokenEnd] != ',') {
+                tokenEnd++;
+            }
+            int nameStart = skipBlanks(src, i, tokenEnd);
+            int nameEnd = nameStart;
+            while (nameEnd < tokenEnd && src[nameEnd] != ';' && src[nameEnd] != ' ' && src[nameEnd] != '\t') {
+                nameEnd++;
+            }
+            boolean gzip = nameEnd - nameStart == GZIP.length && equalsIgnoreCase(src, nameStart, GZIP);
+            boolean any = nameEnd - nameStart == 1 && src[nameStart] == '*';
+            if ((gzip || any) && !hasZeroQuality(src, nameEnd, tokenEnd)) {
+                return true;
+            }
+            i = tokenEnd + 1;
+        }
+        return false;
+    }
+
+    private static boolean hasZeroQuality(byte[] src, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (src[i] != 'q' && src[i] != 'Q') {
+                continue;
+            }
+            int eq = skipBlanks(src, i + 1, end);
+            if (eq >= end || src[eq] != '=') {
+                continue;
+            }
+            int v = skipBlanks(src, eq + 1, end);
+            while (v < end && (src[v] == '0' || src[v] == '.')) {
+                v++;
+            }
+            return v == end || src[v] < '1' || src[v] > '9';
+        }
+        return false;
+    }
+
+    private static int skipBlanks(byte[] src, int i, int end) {
+        while (i < end && (src[i] == ' ' || src[i] == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] src, int offset, byte[] lowerCase) {
+        for (int i = 0; i < lowerCase.length; i++) {
+            byte b = src[offset + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowerCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,87 @@
+package com.jun.http;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The current time as a pre-encoded {@code Date} header line, shared by all handlers.
+ *
+ * The line is re-formatted at most once a second, by the first caller that sees the second change;
+ * callers racing with it keep using the previous line. Reads are a single volatile read.
+ */
+public final class HttpDate {
+
+    // IMF-fixdate, RFC 7231 section 7.1.1.1
+    private static final DateTimeFormatter FORMAT =
+        DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private static volatile Entry current = new Entry(System.currentTimeMillis() / 1000);
+
+    private HttpDate() {
+    }
+
+    /**
+     * {@code Date: <IMF-fixdate>\r\n}. The array is shared and must not be modified.
+     */
+    public static byte[] header() {
+        return entry(System.currentTimeMillis()).header;
+    }
+
+    /**
+     * The header value, without the name and line terminator.
+     */
+    public static String value() {
+        return entry(System.currentTimeMillis()).value;
+    }
+
+    /**
+     * Formats the given time, truncated to seconds, as IMF-fixdate.
+     */
+    public static String format(long millis) {
+        return FORMAT.format(Instant.ofEpochSecond(Math.floorDiv(millis, 1000)));
+    }
+
+    /**
+     * Parses an IMF-fixdate from src[start, end). Returns the time in milliseconds, or -1 if the value
+     * is not a valid IMF-fixdate; the obsolete RFC 850 and asctime formats are not accepted.
+     */
+    public static long parse(byte[] src, int start, int end) {
+        try {
+            return Instant.from(FORMAT.parse(new String(src, start, end - start, StandardCharsets.US_ASCII))).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    static Entry entry(long nowMillis) {
+        Entry entry = current;
+        long second = nowMillis / 1000;
+        if (entry.second != second && refreshing.compareAndSet(false, true)) {
+            try {
+                entry = new Entry(second);
+                current = entry;
+            } finally {
+                refreshing.set(false);
+            }
+        }
+        return entry;
+    }
+
+    static final class Entry {
+        final long second;
+        final String value;
+        final byte[] header;
+
+        Entry(long second) {
+            this.second = second;
+            this.value = FORMAT.format(Instant.ofEpochSecond(second));
+            this.header = ("Date: " + value + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+}
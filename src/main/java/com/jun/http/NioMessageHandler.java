@@ -6,4 +6,13 @@ import java.io.IOException;
 
 public interface NioMessageHandler {
     void processMessage(Message requestMessage, ConnectedSocket connectedSocket) throws IOException;
+
+    /**
+     * Called when the connection passes its high write watermark (false) and when it has drained
+     * to its low watermark again (true). It runs on the thread that queued or wrote the bytes, so it
+     * must not block. Calls for one connection may race; {@link ConnectedSocket#isWritable()} has
+     * the current state.
+     */
+    default void onWritabilityChanged(ConnectedSocket connectedSocket, boolean writable) {
+    }
 }
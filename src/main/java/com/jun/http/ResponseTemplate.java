@@ -0,0 +1,178 @@
+package com.jun.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A response compiled once from a header prefix, a header suffix and a body format, so that
+ * rendering a response only writes the dynamic integer fields.
+ *
+ * The rendered response is {@code headerPrefix + Content-Length + headerSuffix + body}, with the
+ * {@link HttpDate} header line inserted after the status line. The body format may reference up
+ * to two integer fields with {@code %d}; {@code %%} and {@code %n} are supported as literals.
+ * The header lines after the Date line are encoded once per content length and cached for small lengths.
+ */
+public final class ResponseTemplate {
+
+    private static final int MAX_FIELDS = 2;
+    private static final int CACHED_LENGTHS = 1024;
+    private static final byte[] MIN_VALUE = String.valueOf(Integer.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] EMPTY = new byte[0];
+
+    // status line including its CRLF; empty if the prefix has no line terminator and gets no Date header
+    private final byte[] statusLine;
+    // the rest of the prefix, up to the Content-Length value
+    private final byte[] headerPrefix;
+    private final byte[] headerSuffix;
+    // literal body segments around the fields: segment[0] field[0] segment[1] field[1] segment[2]
+    private final byte[][] bodySegments;
+    private final int bodyLiteralLength;
+    private final int fieldCount;
+    // header lines after the Date line by content length, filled lazily. A template is shared by the
+    // message handler threads: the array's volatile reads and writes publish a filled entry with its
+    // contents, and a racing fill only encodes the same bytes twice
+    private final AtomicReferenceArray<byte[]> headerCache = new AtomicReferenceArray<>(CACHED_LENGTHS);
+
+    private ResponseTemplate(byte[] statusLine, byte[] headerPrefix, byte[] headerSuffix, byte[][] bodySegments, int fieldCount) {
+        this.statusLine = statusLine;
+        this.headerPrefix = headerPrefix;
+        this.headerSuffix = headerSuffix;
+        this.bodySegments = bodySegments;
+        this.fieldCount = fieldCount;
+        int literalLength = 0;
+        for (byte[] segment : bodySegments) {
+            literalLength += segment.length;
+        }
+        this.bodyLiteralLength = literalLength;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the body format uses anything but {@code %d}, {@code %%}
+     *         and {@code %n}, or more than two fields
+     */
+    public static ResponseTemplate compile(String headerPrefix, String headerSuffix, String bodyFormat) {
+        byte[][] segments = new byte[MAX_FIELDS + 1][];
+        int fields = 0;
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < bodyFormat.length(); i++) {
+            char c = bodyFormat.charAt(i);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            char conversion = i + 1 < bodyFormat.length() ? bodyFormat.charAt(++i) : 0;
+            if (conversion == '%') {
+                literal.append('%');
+            } else if (conversion == 'n') {
+                literal.append(System.lineSeparator());
+            } else if (conversion == 'd' && fields < MAX_FIELDS) {
+                segments[fields++] = literal.toString().getBytes(StandardCharsets.UTF_8);
+                literal.setLength(0);
+            } else {
+                throw new IllegalArgumentException("Unsupported body format: " + bodyFormat);
+            }
+        }
+        segments[fields] = literal.toString().getBytes(StandardCharsets.UTF_8);
+        for (int i = fields + 1; i <= MAX_FIELDS; i++) {
+            segments[i] = EMPTY;
+        }
+        int statusLineEnd = headerPrefix.indexOf("\r\n");
+        String statusLine = statusLineEnd < 0 ? "" : headerPrefix.substring(0, statusLineEnd + 2);
+        return new ResponseTemplate(statusLine.getBytes(StandardCharsets.UTF_8),
+            headerPrefix.substring(statusLine.length()).getBytes(StandardCharsets.UTF_8),
+            headerSuffix.getBytes(StandardCharsets.UTF_8), segments, fields);
+    }
+
+    /**
+     * Renders the whole response into a single array. Fields the body format does not reference are ignored.
+     */
+    public byte[] render(int first, int second) {
+        int bodyLength = bodyLiteralLength
+            + (fieldCount > 0 ? stringSize(first) : 0)
+            + (fieldCount > 1 ? stringSize(second) : 0);
+        byte[] date = statusLine.length > 0 ? HttpDate.header() : EMPTY;
+        byte[] header = headerLines(bodyLength);
+        byte[] out = new byte[statusLine.length + date.length + header.length + bodyLength];
+        int pos = copy(statusLine, out, 0);
+        pos = copy(date, out, pos);
+        pos = copy(header, out, pos);
+        writeBody(out, pos, first, second);
+        return out;
+    }
+
+    /**
+     * The encoded header lines that follow the Date line, for a body of the given length.
+     */
+    byte[] headerLines(int contentLength) {
+        if (contentLength < CACHED_LENGTHS) {
+            byte[] header = headerCache.get(contentLength);
+            if (header == null) {
+                header = encodeHeader(contentLength);
+                headerCache.set(contentLength, header);
+            }
+            return header;
+        }
+        return encodeHeader(contentLength);
+    }
+
+    private byte[] encodeHeader(int contentLength) {
+        byte[] header = new byte[headerPrefix.length + stringSize(contentLength) + headerSuffix.length];
+        int pos = copy(headerPrefix, header, 0);
+        pos = writeInt(header, pos, contentLength);
+        copy(headerSuffix, header, pos);
+        return header;
+    }
+
+    private void writeBody(byte[] out, int pos, int first, int second) {
+        pos = copy(bodySegments[0], out, pos);
+        if (fieldCount > 0) {
+            pos = writeInt(out, pos, first);
+        }
+        pos = copy(bodySegments[1], out, pos);
+        if (fieldCount > 1) {
+            pos = writeInt(out, pos, second);
+        }
+        copy(bodySegments[2], out, pos);
+    }
+
+    private static int copy(byte[] src, byte[] dst, int pos) {
+        System.arraycopy(src, 0, dst, pos, src.length);
+        return pos + src.length;
+    }
+
+    /**
+     * Number of ASCII characters needed to write the given value.
+     */
+    public static int stringSize(int value) {
+        if (value < 0) {
+            return value == Integer.MIN_VALUE ? 11 : 1 + stringSize(-value);
+        }
+        int size = 1;
+        while (value >= 10) {
+            value /= 10;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Writes the value as ASCII digits at pos and returns the position after the last digit.
+     */
+    public static int writeInt(byte[] dst, int pos, int value) {
+        if (value == Integer.MIN_VALUE) {
+            return copy(MIN_VALUE, dst, pos);
+        }
+        if (value < 0) {
+            dst[pos++] = '-';
+            value = -value;
+        }
+        int end = pos + stringSize(value);
+        int i = end;
+        do {
+            dst[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        return end;
+    }
+}
@@ -0,0 +1,122 @@
+package com.jun.http;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The validators of one representation of a resource: an entity tag made from the size and the
+ * modification time, so it costs no read of the content, and the Last-Modified time. The header
+ * lines announcing them are encoded once.
+ */
+public final class Validators {
+
+    private final String etag;
+    private final long lastModified;    // in seconds, the resolution of HTTP dates
+    private final byte[] headerLines;
+
+    private Validators(String etag, long lastModified) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.headerLines = ("ETag: " + etag + "\r\nLast-Modified: " + HttpDate.format(lastModified * 1000) + "\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @param variant distinguishes representations made from the same file, e.g. "gz"; may be empty
+     */
+    public static Validators of(long size, long lastModifiedMillis, String variant) {
+        String etag = "\"" + Long.toHexString(lastModifiedMillis) + "-" + Long.toHexString(size)
+            + (variant.isEmpty() ? "" : "-" + variant) + "\"";
+        return new Validators(etag, Math.floorDiv(lastModifiedMillis, 1000));
+    }
+
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * {@code ETag} and {@code Last-Modified} header lines, including their CRLFs. The array is
+     * shared and must not be modified.
+     */
+    public byte[] headerLines() {
+        return headerLines;
+    }
+
+    /**
+     * Evaluates If-None-Match and If-Modified-Since as in RFC 7232 section 6: If-Modified-Since is
+     * ignored when If-None-Match is present. An end index of 0 means the header is absent.
+     */
+    public boolean isNotModified(byte[] request, int ifNoneMatchStart, int ifNoneMatchEnd,
+                                 int ifModifiedSinceStart, int ifModifiedSinceEnd) {
+        if (ifNoneMatchEnd != 0) {
+            return matchesAny(request, ifNoneMatchStart, ifNoneMatchEnd);
+        }
+        if (ifModifiedSinceEnd != 0) {
+            long since = HttpDate.parse(request, ifModifiedSinceStart, ifModifiedSinceEnd);
+            return since >= 0 && lastModified <= since / 1000;
+        }
+        return false;
+    }
+
+    /**
+     * Evaluates the If-Range value in src[start, end): true if it is this entity tag, compared
+     * strongly, or exactly the Last-Modified date. When it is false the whole representation is sent
+     * instead of the requested range.
+     */
+    public boolean matchesIfRange(byte[] src, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+        if (src[start] == '"') {
+            return end - start == etag.length() && regionMatches(src, start);
+        }
+        if (src[start] == 'W' && end - start > 1 && src[start + 1] == '/') {
+            return false;
+        }
+        long date = HttpDate.parse(src, start, end);
+        return date >= 0 && date / 1000 == lastModified;
+    }
+
+    /**
+     * Weak comparison against a comma separated list of entity tags, or {@code *}.
+     */
+    private boolean matchesAny(byte[] src, int start, int end) {
+        int i = start;
+        while (i < end) {
+            while (i < end && (src[i] == ' ' || src[i] == '\t' || src[i] == ',')) {
+                i++;
+            }
+            if (i < end && src[i] == '*') {
+                return true;
+            }
+            if (i + 1 < end && src[i] == 'W' && src[i + 1] == '/') {
+                i += 2;
+            }
+            int tagEnd = i;
+            if (tagEnd < end && src[tagEnd] == '"') {
+                tagEnd++;
+                while (tagEnd < end && src[tagEnd] != '"') {
+                    tagEnd++;
+                }
+                tagEnd++;
+            } else {
+                while (tagEnd < end && src[tagEnd] != ',') {
+                    tagEnd++;
+                }
+            }
+            if (tagEnd - i == etag.length() && regionMatches(src, i)) {
+                return true;
+            }
+            i = tagEnd;
+        }
+        return false;
+    }
+
+    private boolean regionMatches(byte[] src, int offset) {
+        for (int i = 0; i < etag.length(); i++) {
+            if (src[offset + i] != etag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
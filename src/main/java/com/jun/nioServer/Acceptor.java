@@ -1,6 +1,8 @@
 package com.jun.nioServer;
 
 import com.jun.config.ServerConfig;
+import com.jun.nioServer.balance.IReactorSelector;
+import com.jun.nioServer.balance.RoundRobinReactorSelector;
 import org.apache.log4j.Logger;
 
 import javax.net.ssl.KeyManager;
@@ -11,62 +13,93 @@ import javax.net.ssl.TrustManagerFactory;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.security.KeyStore;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Acceptor extends Thread implements IAcceptor {
 
     private static final Logger log = Logger.getLogger(Acceptor.class);
 
     private final ServerSocketChannel serverSocketChannel; // Injected
-    private final ExecutorService conAcceptorExecutor;   // Injected
     private final IOReactor[] ioReactors;                // Injected
     private final SSLContext sslContext;                 // Injected (can be null)
+    private final IReactorSelector reactorSelector;      // Injected
+    private final ConnectionLimiter connectionLimiter;   // Injected
+    private final int pauseCheckMillis;
     private final boolean isNonBlocking;
     private final String localAddressString;
 
     private Selector selector; // Used only in non-blocking mode
+    private SelectionKey acceptKey; // Used only in non-blocking mode
     private volatile boolean running = true;
 
-    private int currentIOReactorIndex = 0;
     private final AtomicInteger socketIdCounter = new AtomicInteger(0);
+    private volatile boolean acceptPaused;
+    private long pausedAtNanos;
+    private final AtomicLong rejectedConnections = new AtomicLong(0);
 
     public Acceptor(ServerSocketChannel serverSocketChannel,
-                      ExecutorService conAcceptorExecutor,
                       IOReactor[] ioReactors,
                       SSLContext sslContext, // Can be null for non-SSL
                       boolean isNonBlocking) throws IOException {
+        this(serverSocketChannel, ioReactors, sslContext, isNonBlocking, new RoundRobinReactorSelector());
+    }
+
+    public Acceptor(ServerSocketChannel serverSocketChannel,
+                      IOReactor[] ioReactors,
+                      SSLContext sslContext, // Can be null for non-SSL
+                      boolean isNonBlocking,
+                      IReactorSelector reactorSelector) throws IOException {
+        this(serverSocketChannel, ioReactors, sslContext, isNonBlocking, reactorSelector,
+            ioReactors == null ? null : new ConnectionLimiter(ioReactors));
+    }
+
+    public Acceptor(ServerSocketChannel serverSocketChannel,
+                      IOReactor[] ioReactors,
+                      SSLContext sslContext, // Can be null for non-SSL
+                      boolean isNonBlocking,
+                      IReactorSelector reactorSelector,
+                      ConnectionLimiter connectionLimiter) throws IOException {
         this.serverSocketChannel = serverSocketChannel;
-        this.conAcceptorExecutor = conAcceptorExecutor;
         this.ioReactors = ioReactors;
         this.sslContext = sslContext; // May be null
         this.isNonBlocking = isNonBlocking;
+        this.reactorSelector = reactorSelector;
+        this.connectionLimiter = connectionLimiter;
+        this.pauseCheckMillis = Math.max(1, ServerConfig.NIO_ACCEPTOR_PAUSE_CHECK_MS);
 
         if (this.ioReactors == null || this.ioReactors.length == 0) {
             throw new IllegalArgumentException("IOReactors array cannot be null or empty.");
         }
-        if (this.conAcceptorExecutor == null) {
-            throw new IllegalArgumentException("ExecutorService for ConAcceptor cannot be null.");
-        }
         if (this.serverSocketChannel == null) {
             throw new IllegalArgumentException("ServerSocketChannel cannot be null.");
         }
+        if (this.reactorSelector == null) {
+            throw new IllegalArgumentException("IReactorSelector cannot be null.");
+        }
+        if (this.connectionLimiter == null) {
+            throw new IllegalArgumentException("ConnectionLimiter cannot be null.");
+        }
 
         if (isNonBlocking) {
             this.serverSocketChannel.configureBlocking(false);
             this.selector = Selector.open();
-            this.serverSocketChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+            this.acceptKey = this.serverSocketChannel.register(this.selector, SelectionKey.OP_ACCEPT);
         }
         this.localAddressString = serverSocketChannel.getLocalAddress().toString(); // Cache local address
 
         setName(getClass().getSimpleName() + "-" + this.localAddressString);
-        log.info(String.format("Acceptor initialized for %s. Non-blocking: %s", this.localAddressString, isNonBlocking));
+        log.info(String.format("Acceptor initialized for %s. Non-blocking: %s, reactor selector: %s",
+            this.localAddressString, isNonBlocking, reactorSelector.getClass().getSimpleName()));
     }
 
     @Override
@@ -95,6 +128,11 @@ public class Acceptor extends Thread implements IAcceptor {
         while (running && !Thread.currentThread().isInterrupted()) {
             SocketChannel clientSocket = null; // Moved out to be accessible for the common processing block
             try {
+                if (isOverloaded()) {
+                    // new connections wait in the kernel backlog until the load falls
+                    awaitPauseCheck();
+                    continue;
+                }
                 if (isNonBlocking) {
                     int selectedCount = selector.select(); // Blocking call
                     if (Thread.currentThread().isInterrupted()) { // Check interrupt status after select()
@@ -131,15 +169,7 @@ public class Acceptor extends Thread implements IAcceptor {
                 }
 
                 if (clientSocket != null) {
-                    clientSocket.configureBlocking(ServerConfig.CLIENT_SOCKET_BLOCKING_MODE);
-
-                    int nextSocketId = socketIdCounter.getAndIncrement();
-                    IOReactor targetIoReactor = ioReactors[currentIOReactorIndex];
-                    currentIOReactorIndex = (currentIOReactorIndex + 1) % ioReactors.length;
-
-                    log.debug("Accepted connection for socket ID " + nextSocketId + ", routing to IOReactor " + currentIOReactorIndex);
-                    // Assuming ConAcceptor constructor will be: ConAcceptor(SocketChannel, IOReactor, SSLContext, int)
-                    conAcceptorExecutor.submit(new ConAcceptor(clientSocket, targetIoReactor, sslContext, nextSocketId));
+                    assign(clientSocket);
                 }
 
             } catch (java.nio.channels.ClosedByInterruptException e) {
@@ -166,6 +196,113 @@ public class Acceptor extends Thread implements IAcceptor {
         log.info("Acceptor thread finished for " + this.localAddressString);
     }
 
+    /**
+     * Hands an accepted connection to a reactor, or closes it if its address has as many
+     * connections as it may have. If setting it up fails, the connection is closed and released
+     * from the limits it was counted in; it is the client's failure, so the Acceptor goes on.
+     */
+    private void assign(SocketChannel clientSocket) {
+        long addressKey = 0;
+        boolean acquired = false;
+        IOReactor targetIoReactor = null;
+        try {
+            if (connectionLimiter.hasAddressLimit()) {
+                addressKey = ConnectionLimiter.addressKey(
+                    ((InetSocketAddress) clientSocket.getRemoteAddress()).getAddress());
+                if (!connectionLimiter.tryAcquire(addressKey)) {
+                    rejectedConnections.incrementAndGet();
+                    log.debug("Closing connection from " + clientSocket.getRemoteAddress() + ": too many connections from the address");
+                    clientSocket.close();
+                    return;
+                }
+                acquired = true;
+            }
+            configure(clientSocket);
+
+            int nextSocketId = socketIdCounter.getAndIncrement();
+            targetIoReactor = reactorSelector.select(ioReactors);
+            targetIoReactor.onConnectionAssigned();
+
+            log.debug("Accepted connection for socket ID " + nextSocketId + ", routing to " + targetIoReactor.getName());
+            long key = addressKey;
+            Runnable onClose = acquired ? () -> connectionLimiter.release(key) : null;
+            // Registration (and the SSL handshake, if any) is done by the reactor itself
+            targetIoReactor.regNewSocket(clientSocket, nextSocketId, sslContext, onClose);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to set up accepted connection on " + localAddressString + ": " + e);
+            if (targetIoReactor != null) {
+                targetIoReactor.onConnectionClosed(0);
+            }
+            if (acquired) {
+                connectionLimiter.release(addressKey);
+            }
+            try {
+                clientSocket.close();
+            } catch (IOException closeError) {
+                log.debug("Error closing client socket after failed setup", closeError);
+            }
+        }
+    }
+
+    /**
+     * Sets up an accepted socket before it is handed to a reactor.
+     */
+    void configure(SocketChannel clientSocket) throws IOException {
+        clientSocket.configureBlocking(ServerConfig.CLIENT_SOCKET_BLOCKING_MODE);
+        clientSocket.setOption(StandardSocketOptions.TCP_NODELAY, ServerConfig.CLIENT_SOCKET_TCP_NODELAY);
+    }
+
+    /**
+     * Checks the load before each accept, and switches between accepting and pausing.
+     */
+    private boolean isOverloaded() {
+        String overload = connectionLimiter.overload();
+        if (overload != null && !acceptPaused) {
+            acceptPaused = true;
+            pausedAtNanos = System.nanoTime();
+            log.warn("Pausing accepts on " + localAddressString + ": " + overload);
+            if (acceptKey != null) {
+                acceptKey.interestOps(0);
+            }
+        } else if (overload == null && acceptPaused) {
+            acceptPaused = false;
+            log.info("Resuming accepts on " + localAddressString + " after "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pausedAtNanos) + " ms");
+            if (acceptKey != null) {
+                acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+            }
+        }
+        return acceptPaused;
+    }
+
+    private void awaitPauseCheck() throws IOException {
+        if (isNonBlocking) {
+            // still woken up by stopThread()
+            selector.select(pauseCheckMillis);
+            selector.selectedKeys().clear();
+        } else {
+            try {
+                Thread.sleep(pauseCheckMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Whether accepting is paused because the server is at its connection limit or overloaded.
+     */
+    public boolean isAcceptPaused() {
+        return acceptPaused;
+    }
+
+    /**
+     * Connections closed right after accept because their client address had too many.
+     */
+    public long getRejectedConnections() {
+        return rejectedConnections.get();
+    }
+
     public static KeyManager[] createKeyManagers(String filepath, String keystorePassword, String keyPassword) throws Exception {
         KeyStore keyStore = KeyStore.getInstance("JKS");
         try (InputStream keyStoreIS = new FileInputStream(filepath)) {
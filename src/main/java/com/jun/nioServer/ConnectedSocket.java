@@ -1,78 +1,168 @@
 package com.jun.nioServer;
 
+import com.jun.config.ServerConfig;
+import com.jun.nioServer.handler.SocketReadHandler;
+import com.jun.nioServer.handler.SocketWriteHandler;
+import com.jun.nioServer.msg.FileRegion;
 import com.jun.nioServer.msg.Message;
+import com.jun.nioServer.msg.http.HttpUtil;
 import com.jun.nioServer.ssl.SSLEngineBuffer;
+import com.jun.nioServer.utility.HashedWheelTimer;
 import org.apache.log4j.Logger;
 
 import javax.net.ssl.SSLContext;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ConnectedSocket {
     private static final Logger log = Logger.getLogger(ConnectedSocket.class);
 
     private final int socketId;
     private final SocketChannel socketChannel;
-    private SelectionKey key;
+    private final IOReactor reactor;   // can be null when the socket is not owned by a reactor
+    private volatile SelectionKey key;
 
     private SSLEngineBuffer sslEngineBuffer;
 
-    private final ReentrantLock readLock;
-    private final ReentrantLock writeLock;
-    private final AtomicBoolean closed;
+    // Connection state word, see the bit definitions below
+    private final AtomicInteger state;
 
     // for read
     private final ConcurrentLinkedDeque<ByteBuffer> readbuffers;
     private final ConcurrentLinkedDeque<Message> readMsgs;
-    // for write
-    private final ConcurrentLinkedDeque<ByteBuffer> writebuffers;
+    // bytes in readbuffers plus the unparsed remainder
+    private final AtomicLong readBacklogBytes;
+    private final int readBacklogLimit;
+    // the start of a request that has not been received completely; only used by the message handler thread
+    private ByteBuffer readRemainder;
+    // System.nanoTime() when the socket was queued for its message handler with data not handled yet, 0 if not queued
+    private volatile long queuedSince;
+    // requests parsed but not handed to the message handler yet
+    private final AtomicInteger unhandledRequests;
+    private final int unhandledRequestLimit;
+    // for write: plain ByteBuffers and FileRegions, in response order. TLS records are made by the writer
+    private final ConcurrentLinkedDeque<Object> writeQueue;
     private final ConcurrentLinkedDeque<Message> writeMsgs;
+    private final AtomicLong pendingWriteBytes;
+    // cleared when the queued bytes pass the high watermark, set again once they drop to the low one
+    private final AtomicBoolean writable;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final boolean directWrite;
+    // run once when the socket is writable again, or closed
+    private final ConcurrentLinkedQueue<Runnable> writableTasks;
+    // future responses of async handlers, written in request order
+    private final ResponseSequencer responseSequencer;
+
+    // Timeouts, see timeoutDeadline(); times are HashedWheelTimer.now() milliseconds
+    private final int headerReadTimeout;
+    private final int bodyReadTimeout;
+    private final int writeStallTimeout;
+    private final int idleTimeout;
+    private volatile long lastReadMillis;
+    private volatile long lastWriteMillis;
+    // when the incomplete request in readRemainder started, 0 if there is none
+    private volatile long partialSince;
+    private volatile boolean partialHeaderComplete;
+    // this connection's entry in its reactor's timer wheel
+    private final HashedWheelTimer.Timeout timeout;
+    // the timeout that applied at the last timeoutDeadline(), for the log; reactor thread only
+    private String timeoutPhase;
+
+    // run once when the socket closes, e.g. to release its place under the connection limits;
+    // set before the socket is registered
+    private Runnable closeListener;
+
+    // ConnectionLimiter.addressKey of the peer, computed on first use by the message handler thread
+    private long clientKey;
+    private boolean clientKeyKnown;
+
+    // Reused for every readiness event on this connection, created by the owning reactor
+    private SocketReadHandler readHandler;
+    private SocketWriteHandler writeHandler;
+
+    // A read (write) handler owns the channel for reading (writing)
+    private static final int READING = 1;
+    private static final int WRITING = 1 << 1;
+    // Another run was requested while the handler was running; it runs again instead of returning
+    private static final int READ_AGAIN = 1 << 2;
+    private static final int WRITE_AGAIN = 1 << 3;
+    // Queued on the reactor to have the desired interest ops applied to the key
+    private static final int SCHEDULED = 1 << 4;
+    private static final int CLOSED = 1 << 5;
+    // Desired interest ops
+    private static final int WANT_READ = 1 << 6;
+    private static final int WANT_WRITE = 1 << 7;
+    // Reading is suspended while the socket is not writable, whatever WANT_READ says
+    private static final int READ_PAUSED = 1 << 8;
+    // Reading is suspended while too much read data waits to be parsed, or too many requests to be handled
+    private static final int READ_THROTTLED = 1 << 9;
 
-    public boolean tryReadLock() {
-        return readLock.tryLock();
-    }
-
-    public void unLockRead() {
-        readLock.unlock();
-    }
-
-    public boolean tryWriteLock() {
-        return writeLock.tryLock();
-    }
-
-    public void unLockWrite() {
-        writeLock.unlock();
+    ConnectedSocket(int sockId, SocketChannel socket) throws IOException {
+        this(sockId, socket, (IOReactor) null);
     }
 
-    ConnectedSocket(int sockId, SocketChannel socket) throws IOException {
+    ConnectedSocket(int sockId, SocketChannel socket, IOReactor ownerReactor) throws IOException {
         socketId = sockId;
         socketChannel = socket;
+        reactor = ownerReactor;
         socketChannel.configureBlocking(false);
 
-        readLock = new ReentrantLock();
-        writeLock = new ReentrantLock();
-        closed = new AtomicBoolean(false);
+        state = new AtomicInteger(WANT_READ);
 
         readbuffers = new ConcurrentLinkedDeque<>();
         readMsgs = new ConcurrentLinkedDeque<>();
-        writebuffers = new ConcurrentLinkedDeque<>();
+        readBacklogBytes = new AtomicLong(0);
+        readBacklogLimit = ServerConfig.NIO_READ_BACKLOG_MAX_BYTES;
+        unhandledRequests = new AtomicInteger(0);
+        unhandledRequestLimit = ServerConfig.NIO_READ_BACKLOG_MAX_REQUESTS;
+        writeQueue = new ConcurrentLinkedDeque<>();
         writeMsgs = new ConcurrentLinkedDeque<>();
+        pendingWriteBytes = new AtomicLong(0);
+        writable = new AtomicBoolean(true);
+        highWatermark = ServerConfig.NIO_SOCKET_WRITE_HIGH_WATERMARK;
+        lowWatermark = ServerConfig.NIO_SOCKET_WRITE_LOW_WATERMARK;
+        directWrite = ServerConfig.NIO_SOCKET_DIRECT_WRITE;
+        writableTasks = new ConcurrentLinkedQueue<>();
+        responseSequencer = new ResponseSequencer(this);
+        headerReadTimeout = ServerConfig.NIO_TIMEOUT_HEADER_READ_MS;
+        bodyReadTimeout = ServerConfig.NIO_TIMEOUT_BODY_READ_MS;
+        writeStallTimeout = ServerConfig.NIO_TIMEOUT_WRITE_STALL_MS;
+        idleTimeout = ServerConfig.NIO_TIMEOUT_IDLE_MS;
+        lastReadMillis = lastWriteMillis = HashedWheelTimer.now();
+        timeout = new HashedWheelTimer.Timeout(() -> reactor.checkTimeout(this));
     }
 
     ConnectedSocket(int sockId, SocketChannel socket, SSLContext sslContext) throws IOException {
-        this(sockId, socket);
+        this(sockId, socket, sslContext, null);
+    }
+
+    ConnectedSocket(int sockId, SocketChannel socket, SSLContext sslContext, IOReactor ownerReactor) throws IOException {
+        this(sockId, socket, ownerReactor);
         if(sslContext!=null) {
             sslEngineBuffer = new SSLEngineBuffer(sslContext, this);
+            // Blocking reads wait for the client instead of spinning on empty reads; the handshake
+            // timeout closes the channel, which ends a blocked read
+            socketChannel.configureBlocking(true);
             if(!sslEngineBuffer.init()) {
                 throw new IOException("Failed to do SSL handshake");
             }
+            socketChannel.configureBlocking(false);
+            ByteBuffer remainder = sslEngineBuffer.takeHandshakeRemainder();
+            if(remainder!=null) {
+                readbuffers.offer(remainder);
+            }
         }
     }
 
@@ -88,61 +178,554 @@ public class ConnectedSocket {
         return key;
     }
 
-    public synchronized void configKey(SelectionKey k) {
-        if(closed.get()) {
+    /**
+     * The key the requests of this connection are counted under, see ConnectionLimiter.addressKey;
+     * 0 if the peer's address is unknown. Called from the message handler thread only.
+     */
+    public long getClientKey() {
+        if (!clientKeyKnown) {
+            try {
+                SocketAddress address = socketChannel.getRemoteAddress();
+                if (address instanceof InetSocketAddress) {
+                    clientKey = ConnectionLimiter.addressKey(((InetSocketAddress) address).getAddress());
+                }
+            } catch (IOException e) {
+                log.debug("No remote address for socket " + socketId, e);
+            }
+            clientKeyKnown = true;
+        }
+        return clientKey;
+    }
+
+    void setCloseListener(Runnable closeListener) {
+        this.closeListener = closeListener;
+    }
+
+    public void setHandlers(SocketReadHandler readHandler, SocketWriteHandler writeHandler) {
+        this.readHandler = readHandler;
+        this.writeHandler = writeHandler;
+    }
+
+    public ResponseSequencer getResponseSequencer() {
+        return responseSequencer;
+    }
+
+    public SocketReadHandler getReadHandler() {
+        return readHandler;
+    }
+
+    public SocketWriteHandler getWriteHandler() {
+        return writeHandler;
+    }
+
+    /**
+     * Called on the reactor thread once the channel has been registered.
+     */
+    public void configKey(SelectionKey k) {
+        if(isClosedState()) {
+            k.cancel();
             return;
         }
         key = k;
         key.attach(this);
-        key.interestOps(SelectionKey.OP_READ);
+        key.interestOps(interestOps(state.get()));
     }
 
-    public synchronized void addInterestedOps(int ops) {
-        if(closed.get()) {
-            return;
+    /**
+     * Takes ownership of the channel for reading. Returns false if another read handler owns it;
+     * that handler then runs once more before releasing it, so the event is not lost.
+     */
+    public boolean beginRead() {
+        return begin(READING, READ_AGAIN);
+    }
+
+    /**
+     * Releases the channel for reading and re-arms OP_READ. Returns true, keeping ownership, if
+     * another read was requested meanwhile; the caller has to read again.
+     */
+    public boolean endRead() {
+        return end(READING, READ_AGAIN, WANT_READ);
+    }
+
+    public boolean beginWrite() {
+        return begin(WRITING, WRITE_AGAIN);
+    }
+
+    /**
+     * Releases the channel for writing, arming OP_WRITE if data is still pending. Returns true,
+     * keeping ownership, if more data was queued meanwhile; the caller has to write again.
+     */
+    public boolean endWrite(boolean pending) {
+        return end(WRITING, WRITE_AGAIN, pending ? WANT_WRITE : 0);
+    }
+
+    /**
+     * Releases the channel for writing with data still pending, even if more was queued meanwhile:
+     * the writer used up its budget and the rest goes out on the next OP_WRITE, after the other
+     * connections that are ready.
+     */
+    public void yieldWrite() {
+        while(true) {
+            int s = state.get();
+            if(updateState(s, (s & ~(WRITING|WRITE_AGAIN)) | WANT_WRITE)) {
+                if((s & CLOSED)!=0) {
+                    releaseWriteHandler();
+                }
+                return;
+            }
+        }
+    }
+
+    private boolean begin(int owner, int again) {
+        while(true) {
+            int s = state.get();
+            if((s & CLOSED)!=0) {
+                return false;
+            }
+            if((s & owner)!=0) {
+                if((s & again)!=0 || state.compareAndSet(s, s | again)) {
+                    return false;
+                }
+            } else if(state.compareAndSet(s, s | owner)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean end(int owner, int again, int want) {
+        while(true) {
+            int s = state.get();
+            if((s & again)!=0 && (s & CLOSED)==0) {
+                if(state.compareAndSet(s, s & ~again)) {
+                    return true;
+                }
+            } else if(updateState(s, (s & ~(owner|again)) | want)) {
+                if(owner==WRITING && (s & CLOSED)!=0) {
+                    releaseWriteHandler();
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns what the write handler holds from the pools. Runs once the socket is closed and no
+     * writer owns the channel: in close(), or in the writer that still owned it then, as it ends.
+     */
+    private void releaseWriteHandler() {
+        if(writeHandler!=null) {
+            writeHandler.release();
+        }
+    }
+
+    /**
+     * Asks for the given interest ops. OP_WRITE requested while a write handler runs makes that
+     * handler write again instead, which avoids a round trip through the selector.
+     */
+    public void addInterestedOps(int ops) {
+        while(true) {
+            int s = state.get();
+            if((s & CLOSED)!=0) {
+                return;
+            }
+            int n = s;
+            if((ops & SelectionKey.OP_READ)!=0) {
+                n |= WANT_READ;
+            }
+            if((ops & SelectionKey.OP_WRITE)!=0) {
+                n |= (s & WRITING)!=0 ? WRITE_AGAIN : WANT_WRITE;
+            }
+            if(n==s || updateState(s, n)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the queued data written. When no writer owns the channel and OP_WRITE is not armed, i.e.
+     * nothing queued earlier is waiting for the socket, the calling thread writes it right away,
+     * which saves the round trip through the selector and the writer pool for a response that fits
+     * into the send buffer. Whatever the socket does not take is left to OP_WRITE. Otherwise this
+     * is the same as asking for OP_WRITE.
+     */
+    public void flushWrites() {
+        SocketWriteHandler handler = writeHandler;
+        int s = state.get();
+        if(directWrite && handler!=null && (s & (WRITING|WANT_WRITE|CLOSED))==0) {
+            // a writer that got the channel meanwhile is made to write again by the handler
+            handler.run();
+        } else {
+            addInterestedOps(SelectionKey.OP_WRITE);
+        }
+    }
+
+    public void clrInterestedOps(int ops) {
+        while(true) {
+            int s = state.get();
+            if((s & CLOSED)!=0) {
+                return;
+            }
+            int n = s;
+            if((ops & SelectionKey.OP_READ)!=0) {
+                n &= ~WANT_READ;
+            }
+            if((ops & SelectionKey.OP_WRITE)!=0) {
+                n &= ~WANT_WRITE;
+            }
+            if(n==s || updateState(s, n)) {
+                return;
+            }
         }
-        key.interestOps(key.interestOps()|(ops));
-        log.debug("(after adding) interest op is " + key.interestOps() + " socketid " + socketId);
     }
 
-    public synchronized void clrInterestedOps(int ops) {
-        if(closed.get()) {
+    /**
+     * CASes the state from s to n. When the desired interest ops change the socket is queued on
+     * its reactor, unless it already is, so that the reactor applies them before its next select.
+     */
+    private boolean updateState(int s, int n) {
+        boolean schedule = interestOps(s)!=interestOps(n)
+            && (n & (SCHEDULED|CLOSED))==0;
+        if(schedule) {
+            n |= SCHEDULED;
+        }
+        if(!state.compareAndSet(s, n)) {
+            return false;
+        }
+        if(schedule) {
+            if(reactor!=null) {
+                reactor.scheduleInterestUpdate(this);
+            } else {
+                applyInterestOps();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies the desired interest ops to the key. Called by the reactor thread, or directly when
+     * the socket has no reactor.
+     */
+    void applyInterestOps() {
+        int s;
+        do {
+            s = state.get();
+        } while(!state.compareAndSet(s, s & ~SCHEDULED));
+        SelectionKey k = key;
+        if((s & CLOSED)!=0 || k==null || !k.isValid()) {
             return;
         }
-        key.interestOps(key.interestOps()&(~(ops)));
-        log.debug("(after clearing) interest op is " + key.interestOps() + " socketid " + socketId);
+        int ops = interestOps(s);
+        try {
+            if(k.interestOps()!=ops) {
+                k.interestOps(ops);
+            }
+        } catch (CancelledKeyException e) {
+            return;
+        }
+        if(log.isDebugEnabled()) {
+            log.debug("interest op is " + ops + " socketid " + socketId);
+        }
+    }
+
+    private static int interestOps(int s) {
+        return ((s & (WANT_READ|READ_PAUSED|READ_THROTTLED))==WANT_READ ? SelectionKey.OP_READ : 0)
+            | ((s & WANT_WRITE)!=0 ? SelectionKey.OP_WRITE : 0);
+    }
+
+    /**
+     * True while reading is suspended because too much is queued for writing.
+     */
+    public boolean isReadPaused() {
+        return (state.get() & READ_PAUSED)!=0;
+    }
+
+    /**
+     * True while reading is suspended because the data read so far has not been parsed yet, or
+     * the requests parsed from it have not been handled.
+     */
+    public boolean isReadThrottled() {
+        return (state.get() & READ_THROTTLED)!=0;
+    }
+
+    private boolean isClosedState() {
+        return (state.get() & CLOSED)!=0;
     }
 
     public boolean isClosed() {
-        log.debug("isClosed? " + closed.get() +" "+ !socketChannel.isConnected() +" "+ !socketChannel.isOpen());
-        return closed.get() || !socketChannel.isConnected() || !socketChannel.isOpen();
+        if(log.isDebugEnabled()) {
+            log.debug("isClosed? " + isClosedState() + " " + !socketChannel.isConnected() + " " + !socketChannel.isOpen());
+        }
+        return isClosedState() || !socketChannel.isConnected() || !socketChannel.isOpen();
     }
 
     public void close() {
-        if(!closed.compareAndSet(false,true)) {
-            return;
-        }
+        int s;
+        do {
+            s = state.get();
+            if((s & CLOSED)!=0) {
+                return;
+            }
+        } while(!state.compareAndSet(s, s | CLOSED));
         log.info("socketid " + socketId + " was closed");
         try {
             if(sslEngineBuffer!=null) {
                 sslEngineBuffer.close();
             }
-            key.attach(null);
-            key.cancel();
+            if(key!=null) {
+                key.attach(null);
+                key.cancel();
+            }
             socketChannel.close();  //key.channel().close(); (same one)
         } catch (Exception e) {
             log.error("Error on closing socket " + socketId + " due to " + e);
         }
+        responseSequencer.cancel();
+        Object entry;
+        while((entry=writeQueue.poll())!=null) {
+            if(entry instanceof FileRegion) {
+                ((FileRegion) entry).release();
+            }
+        }
+        if((s & WRITING)==0) {
+            releaseWriteHandler();
+        }
+        if(reactor!=null) {
+            reactor.onConnectionClosed(pendingWriteBytes.getAndSet(0));
+            reactor.cancelTimeout(timeout);
+        }
+        if(closeListener!=null) {
+            closeListener.run();
+        }
+        // producers waiting for the socket learn that it is gone
+        runWritableTasks();
+    }
+
+    /**
+     * Bytes queued for writing on this socket that have not been written yet.
+     */
+    public long getPendingWriteBytes() {
+        return pendingWriteBytes.get();
+    }
+
+    /**
+     * Called by the write path after bytes were handed to the socket channel.
+     */
+    public void onBytesWritten(long len) {
+        if(len <= 0 || isClosedState()) {
+            return;
+        }
+        pendingWriteBytes.addAndGet(-len);
+        lastWriteMillis = HashedWheelTimer.now();
+        if(reactor!=null) {
+            reactor.addOutstandingBytes(-len);
+        }
+        if(!writable.get()) {
+            updateWritability();
+        }
+    }
+
+    private void onBytesQueued(long len) {
+        if(isClosedState()) {
+            return;
+        }
+        if(pendingWriteBytes.addAndGet(len)==len) {
+            // a write stall is measured from when there was something to write
+            lastWriteMillis = HashedWheelTimer.now();
+        }
+        if(reactor!=null) {
+            reactor.addOutstandingBytes(len);
+        }
+        if(isClosedState()) {
+            // close() may have taken the pending bytes before these were added; nothing writes
+            // them any more, so take back whatever it left
+            long left = pendingWriteBytes.getAndSet(0);
+            if(left!=0 && reactor!=null) {
+                reactor.addOutstandingBytes(-left);
+            }
+            return;
+        }
+        if(writable.get()) {
+            updateWritability();
+        }
+    }
+
+    /**
+     * False while more than the high watermark is queued for writing, until the queue drains to
+     * the low watermark. Producers of large responses should pause meanwhile, see {@link #runWhenWritable}.
+     * The socket is not read while it is not writable, so a client that sends requests faster than
+     * it reads the responses cannot make the server buffer more than about the high watermark.
+     */
+    public boolean isWritable() {
+        return writable.get();
+    }
+
+    /**
+     * Runs the task once the socket is writable, right away if it is; or once the socket is closed.
+     * The task may run on the thread that wrote the socket's queue down, so it must not block.
+     */
+    public void runWhenWritable(Runnable task) {
+        writableTasks.add(task);
+        if(writable.get() || isClosedState()) {
+            runWritableTasks();
+        }
+    }
+
+    private void updateWritability() {
+        if(writable.get()) {
+            if(pendingWriteBytes.get() > highWatermark && writable.compareAndSet(true, false)) {
+                onWritabilityChanged(false);
+                // the writer may have drained the queue before the flag was cleared and seen nothing to do
+                if(pendingWriteBytes.get() <= lowWatermark && writable.compareAndSet(false, true)) {
+                    onWritabilityChanged(true);
+                }
+            }
+        } else if(pendingWriteBytes.get() <= lowWatermark && writable.compareAndSet(false, true)) {
+            onWritabilityChanged(true);
+        }
+    }
+
+    private void onWritabilityChanged(boolean nowWritable) {
+        applyReadSuspension();
+        if(log.isDebugEnabled()) {
+            log.debug("socketid " + socketId + (nowWritable ? " is writable again" : " is not writable, reading paused"));
+        }
+        if(reactor!=null) {
+            reactor.onWritabilityChanged(this, nowWritable);
+        }
+        if(nowWritable) {
+            runWritableTasks();
+        }
+    }
+
+    /**
+     * Sets READ_PAUSED from the current writability and READ_THROTTLED from the current read
+     * backlog. Their changes end up here, possibly on different threads; the conditions are read
+     * again after each update so the last one wins.
+     */
+    private void applyReadSuspension() {
+        while(true) {
+            int s = state.get();
+            if((s & CLOSED)!=0) {
+                return;
+            }
+            int bits = readSuspension();
+            int n = (s & ~(READ_PAUSED|READ_THROTTLED)) | bits;
+            if(n!=s && !updateState(s, n)) {
+                continue;
+            }
+            if(readSuspension()==bits) {
+                return;
+            }
+        }
+    }
+
+    private int readSuspension() {
+        return (writable.get() ? 0 : READ_PAUSED) | (isReadBacklogged() ? READ_THROTTLED : 0);
+    }
+
+    /**
+     * Parsing takes the bytes off the read backlog, so the requests parsed from them count as well;
+     * otherwise a client pipelining small requests would fill the message handler's queues.
+     */
+    private boolean isReadBacklogged() {
+        return readBacklogBytes.get() > readBacklogLimit
+            || (unhandledRequestLimit > 0 && unhandledRequests.get() > unhandledRequestLimit);
+    }
+
+    private void addReadBacklog(long delta) {
+        readBacklogBytes.addAndGet(delta);
+        updateReadThrottle();
+    }
+
+    private void updateReadThrottle() {
+        boolean throttled = (state.get() & READ_THROTTLED)!=0;
+        if(throttled!=isReadBacklogged()) {
+            applyReadSuspension();
+        }
+    }
+
+    private void runWritableTasks() {
+        Runnable task;
+        while((task=writableTasks.poll())!=null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("Writability task failed on socket " + socketId, e);
+            }
+        }
+    }
+
+    /**
+     * Called when the socket is queued for its message handler. A socket queued again before the
+     * handler took it keeps the time of its oldest data.
+     */
+    public void markQueued(long nowNanos) {
+        if(queuedSince==0) {
+            queuedSince = nowNanos;
+        }
+    }
+
+    /**
+     * Called by the message handler before it takes the read data: when the oldest of it was
+     * queued, 0 if unknown. Data read from now on is queued anew.
+     */
+    public long takeQueuedSince() {
+        long since = queuedSince;
+        queuedSince = 0;
+        return since;
+    }
+
+    public boolean hasSocketReadData() {
+        return !readbuffers.isEmpty();
     }
 
     public void addSocketReadData(ByteBuffer buff) {
+        lastReadMillis = HashedWheelTimer.now();
         readbuffers.offer(buff);
+        addReadBacklog(buff.remaining());
+    }
+
+    /**
+     * Takes the start of an incomplete request kept by the last parse, or null.
+     */
+    public ByteBuffer takeReadRemainder() {
+        ByteBuffer remainder = readRemainder;
+        if(remainder!=null) {
+            readRemainder = null;
+            addReadBacklog(-remainder.remaining());
+        }
+        return remainder;
+    }
+
+    /**
+     * Keeps the start of an incomplete request until more data has been read. A request that does
+     * not fit into the read backlog limit can never be completed, so the connection is closed.
+     *
+     * @param headerComplete whether only the body is missing; the request is under the header read
+     *                       timeout until then, and under the body read timeout after
+     */
+    public void setReadRemainder(ByteBuffer remainder, boolean headerComplete) {
+        if(remainder.remaining() > readBacklogLimit) {
+            log.warn("Request on socketid " + socketId + " exceeds " + readBacklogLimit + " bytes. Closing.");
+            close();
+            return;
+        }
+        readRemainder = remainder;
+        addReadBacklog(remainder.remaining());
+        partialHeaderComplete = headerComplete;
+        if(partialSince==0) {
+            partialSince = HashedWheelTimer.now();
+        }
     }
 
-    public List<ByteBuffer> getSocketReadData() {
-        List<ByteBuffer> buffers = new LinkedList<>();
+    /**
+     * Moves the data read so far into the given batch, unwrapping it first on SSL connections.
+     * On an unwrap error the batch is left empty.
+     */
+    public void drainSocketReadData(List<ByteBuffer> dst) {
         ByteBuffer buff;
         while((buff=readbuffers.poll())!=null) {
+            addReadBacklog(-buff.remaining());
             if(sslEngineBuffer!=null) {
                 while(buff.hasRemaining()) {
                     ByteBuffer appBuffer;
@@ -150,29 +733,112 @@ public class ConnectedSocket {
                         appBuffer = sslEngineBuffer.unwrap(buff);
                     } catch (Exception e) {
                         log.error("error on unwrapping data " + e);
-                        return new LinkedList<>();
+                        dst.clear();
+                        return;
                     }
                     appBuffer.flip();
-                    buffers.add(appBuffer);
+                    dst.add(appBuffer);
                 }
             } else {
-                buffers.add(buff);
+                dst.add(buff);
             }
         }
-        return buffers;
     }
 
     public void addReadReadyMsg(Message msg) {
+        unhandledRequests.incrementAndGet();
+        updateReadThrottle();
         readMsgs.add(msg);
+        // the incomplete request, if there was one, is complete now
+        if(partialSince!=0) {
+            partialSince = 0;
+        }
+    }
+
+    HashedWheelTimer.Timeout getTimeout() {
+        return timeout;
     }
 
-    public List<Message> getReadReadyMessages() {
-        List<Message> msgs = new LinkedList<>();
-        Message buff;
-        while((buff=readMsgs.poll())!=null) {
-            msgs.add(buff);
+    /**
+     * The time at which the connection times out in its current state, which may have passed
+     * already; Long.MAX_VALUE if no timeout applies. A stalled write, an incomplete request, or no
+     * request and nothing to write at all each have their own timeout. Called by the reactor's
+     * timer, which checks again by the time the state may have changed.
+     */
+    long timeoutDeadline() {
+        long deadline = Long.MAX_VALUE;
+        String phase = null;
+        boolean writing = pendingWriteBytes.get() > 0;
+        if(writing && writeStallTimeout > 0) {
+            deadline = lastWriteMillis + writeStallTimeout;
+            phase = "write stall";
         }
-        return msgs;
+        long since = partialSince;
+        if(since!=0) {
+            if(partialHeaderComplete) {
+                if(bodyReadTimeout > 0 && lastReadMillis + bodyReadTimeout < deadline) {
+                    deadline = lastReadMillis + bodyReadTimeout;
+                    phase = "body read";
+                }
+            } else if(headerReadTimeout > 0 && since + headerReadTimeout < deadline) {
+                deadline = since + headerReadTimeout;
+                phase = "header read";
+            }
+        } else if(!writing && idleTimeout > 0 && readbuffers.isEmpty() && readMsgs.isEmpty()
+            && responseSequencer.size()==0) {
+            deadline = Math.max(lastReadMillis, lastWriteMillis) + idleTimeout;
+            phase = "idle";
+        }
+        timeoutPhase = phase;
+        return deadline;
+    }
+
+    String getTimeoutPhase() {
+        return timeoutPhase;
+    }
+
+    public void drainReadReadyMessages(List<Message> dst) {
+        Message msg;
+        while((msg=readMsgs.poll())!=null) {
+            dst.add(msg);
+        }
+    }
+
+    /**
+     * Called by the message handler once it handled a request taken with drainReadReadyMessages,
+     * i.e. its response is queued, or left to an async handler and the ResponseSequencer.
+     */
+    public void onRequestHandled() {
+        unhandledRequests.decrementAndGet();
+        updateReadThrottle();
+    }
+
+    /**
+     * Whether the server is draining and this connection should be closed once it has answered
+     * what it received.
+     */
+    public boolean isDraining() {
+        return reactor!=null && reactor.isDraining();
+    }
+
+    /**
+     * Whether nothing is in progress on the connection: no request being read, parsed or handled,
+     * no response pending or unwritten. Such a connection may be closed without losing a request,
+     * short of one still on its way from the client. Called on the reactor thread.
+     */
+    boolean isQuiescent() {
+        return (state.get() & (READING|WRITING))==0 && unhandledRequests.get()==0 && partialSince==0
+            && readbuffers.isEmpty() && writeMsgs.isEmpty() && writeQueue.isEmpty()
+            && responseSequencer.pendingResponses()==0;
+    }
+
+    /**
+     * Requests the connection received that are not answered: parsed and not handled yet, handled
+     * with the response pending, or still being received. Called on the reactor thread.
+     */
+    int unansweredRequests() {
+        return unhandledRequests.get() + responseSequencer.pendingResponses()
+            + (partialSince!=0 || !readbuffers.isEmpty() ? 1 : 0);
     }
 
     public void addWriteReadyMsg(Message msg) {
@@ -181,35 +847,72 @@ public class ConnectedSocket {
 
     public boolean prepareBuffersForWriting() {
         Message msg;
+        boolean draining = isDraining();
         while((msg=writeMsgs.poll())!=null) {
-            for(byte[] buff: msg.getDatas()) {
-                ByteBuffer byteBuffer = ByteBuffer.wrap(buff);
-                if(sslEngineBuffer!=null) {
-                    ByteBuffer netBuffer;
-                    try {
-                        netBuffer = sslEngineBuffer.wrap(byteBuffer);
-                    } catch (Exception e) {
-                        log.error("error on unwrapping data " + e);
-                        return false;
-                    }
-                    netBuffer.flip();
-                    writebuffers.add(netBuffer);
-                } else {
-                    writebuffers.add(byteBuffer);
+            List<byte[]> datas = msg.getDatas();
+            for(int i = 0; i < datas.size(); i++) {
+                byte[] buff = datas.get(i);
+                if(i==0 && draining) {
+                    // each message is one response; its first bytes start the header
+                    buff = HttpUtil.withConnectionClose(buff);
                 }
+                onBytesQueued(buff.length);
+                writeQueue.add(ByteBuffer.wrap(buff));
             }
         }
-        return !writebuffers.isEmpty();
+        return !writeQueue.isEmpty();
     }
 
-    public List<ByteBuffer> getWritebuffers() {
-        List<ByteBuffer> buffers = new LinkedList<>();
-        ByteBuffer buff;
-        while((buff=writebuffers.poll())!=null) {
-            buffers.add(buff);
+    /**
+     * Queues a buffer behind the buffers queued so far, without copying it. The buffer may be a
+     * read-only view that is shared with other connections.
+     */
+    public void addWriteBuffer(ByteBuffer buffer) {
+        onBytesQueued(buffer.remaining());
+        writeQueue.add(buffer);
+    }
+
+    /**
+     * Queues a file region behind the buffers queued so far. The socket owns the region from now on
+     * and releases it when it has been written or the socket is closed.
+     */
+    public void addWriteRegion(FileRegion region) {
+        onBytesQueued(region.remaining());
+        writeQueue.add(region);
+        if(isClosedState() && writeQueue.remove(region)) {
+            region.release();
         }
-        return buffers;
     }
 
-}
+    /**
+     * The entry at the head of the write queue, a ByteBuffer or a FileRegion. It stays queued until
+     * it has been written completely.
+     */
+    public Object peekWrite() {
+        return writeQueue.peek();
+    }
+
+    public Object pollWrite() {
+        return writeQueue.poll();
+    }
+
+    public boolean isSecure() {
+        return sslEngineBuffer!=null;
+    }
+
+    /**
+     * Wraps the next part of src into a TLS record, ready to be written. Only called by the write
+     * handler that owns the channel, so records leave in the order they were made.
+     */
+    public ByteBuffer wrap(ByteBuffer src) throws IOException {
+        ByteBuffer netBuffer;
+        try {
+            netBuffer = sslEngineBuffer.wrap(src);
+        } catch (IllegalStateException e) {
+            throw new IOException("error on wrapping data", e);
+        }
+        netBuffer.flip();
+        return netBuffer;
+    }
 
+}
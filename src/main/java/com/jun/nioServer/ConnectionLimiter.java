@@ -0,0 +1,123 @@
+package com.jun.nioServer;
+
+import com.jun.config.ServerConfig;
+import com.jun.nioServer.utility.StripedCounter;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether the Acceptor takes new connections. It pauses while the server has as many
+ * connections as it may have, or while a reactor's message handler is falling behind; accepting
+ * more would only add latency for everyone, and the kernel backlog holds the new connections
+ * meanwhile. Connections from one client address beyond its limit are closed once accepted.
+ *
+ * The load checks are made by the Acceptor thread only; connections are released by the threads
+ * that close them.
+ */
+public class ConnectionLimiter {
+
+    private final IOReactor[] reactors;
+    private final int maxConnections;
+    private final int maxPerAddress;
+    private final int pauseQueueDepth;
+    private final long pauseBacklogNanos;
+    private final StripedCounter perAddress = new StripedCounter(16);
+    // connections to resume at once paused at maxConnections
+    private final int resumeConnections;
+    // Acceptor thread only: once paused, the load must fall well below the limits to resume
+    private boolean paused;
+
+    public ConnectionLimiter(IOReactor[] reactors) {
+        this(reactors, ServerConfig.NIO_ACCEPTOR_MAX_CONNECTIONS, ServerConfig.NIO_ACCEPTOR_MAX_CONNECTIONS_PER_ADDRESS,
+            ServerConfig.NIO_ACCEPTOR_PAUSE_QUEUE_DEPTH, ServerConfig.NIO_ACCEPTOR_PAUSE_BACKLOG_MS);
+    }
+
+    /**
+     * Limits of 0 do not apply.
+     */
+    public ConnectionLimiter(IOReactor[] reactors, int maxConnections, int maxPerAddress,
+                             int pauseQueueDepth, int pauseBacklogMillis) {
+        this.reactors = reactors;
+        this.maxConnections = maxConnections;
+        this.resumeConnections = maxConnections - Math.max(1, maxConnections / 10);
+        this.maxPerAddress = maxPerAddress;
+        this.pauseQueueDepth = pauseQueueDepth;
+        this.pauseBacklogNanos = TimeUnit.MILLISECONDS.toNanos(pauseBacklogMillis);
+    }
+
+    /**
+     * Why accepting should pause now, or null if it may go on.
+     */
+    public String overload() {
+        String reason = findOverload();
+        paused = reason != null;
+        return reason;
+    }
+
+    private String findOverload() {
+        int connections = 0;
+        for (IOReactor reactor : reactors) {
+            connections += reactor.getActiveConnections();
+        }
+        // while paused, the limits are lower, so that accepting does not flap around them: a tenth
+        // below the connection limit, and half of the queue limits
+        if (maxConnections > 0 && connections >= (paused ? resumeConnections + 1 : maxConnections)) {
+            return connections + " open connections";
+        }
+        int shift = paused ? 1 : 0;
+        for (IOReactor reactor : reactors) {
+            int queued = reactor.getQueuedConnections();
+            if (pauseQueueDepth > 0 && queued >= pauseQueueDepth >> shift) {
+                return queued + " connections queued on " + reactor.getName();
+            }
+            long backlog = reactor.getBacklogNanos();
+            if (pauseBacklogNanos > 0 && backlog >= pauseBacklogNanos >> shift) {
+                return reactor.getName() + " behind for " + TimeUnit.NANOSECONDS.toMillis(backlog) + " ms";
+            }
+        }
+        return null;
+    }
+
+    public boolean hasAddressLimit() {
+        return maxPerAddress > 0;
+    }
+
+    /**
+     * Counts a connection from the address unless the address has as many as it may have.
+     *
+     * @return whether the connection may stay; if so, it must be released when it closes
+     */
+    public boolean tryAcquire(long addressKey) {
+        return maxPerAddress <= 0 || perAddress.incrementIfBelow(addressKey, maxPerAddress);
+    }
+
+    public void release(long addressKey) {
+        if (maxPerAddress > 0) {
+            perAddress.decrement(addressKey);
+        }
+    }
+
+    int connectionsFrom(long addressKey) {
+        return perAddress.get(addressKey);
+    }
+
+    /**
+     * The key an address is counted under: an IPv4 address, or the /64 prefix of an IPv6 address,
+     * since a single IPv6 client usually has a whole /64 to pick addresses from. IPv4 keys take
+     * the ffff:ffff::/32 range, which holds no unicast IPv6 addresses.
+     */
+    public static long addressKey(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet4Address) {
+            return 0xFFFFFFFF00000000L | ((bytes[0] & 0xFFL) << 24) | ((bytes[1] & 0xFFL) << 16)
+                | ((bytes[2] & 0xFFL) << 8) | (bytes[3] & 0xFFL);
+        }
+        long prefix = 0;
+        for (int i = 0; i < 8; i++) {
+            prefix = (prefix << 8) | (bytes[i] & 0xFFL);
+        }
+        return prefix;
+    }
+}
@@ -0,0 +1,72 @@
+package com.jun.nioServer;
+
+/**
+ * What a drain of the server achieved, see {@link NioServerService#drain(long)}: the requests
+ * answered while it drained, those rejected or dropped, and those left unanswered on the
+ * connections closed at its deadline.
+ */
+public class DrainReport {
+
+    private long completedRequests;
+    private long droppedRequests;
+    private long abortedRequests;
+    private int abortedConnections;
+    private long durationMillis;
+    // handled, but their responses were still pending when the connection was closed
+    private long abortedResponses;
+
+    /**
+     * Called on a reactor thread for each connection closed at the deadline.
+     */
+    synchronized void onAborted(int unansweredRequests, int pendingResponses) {
+        abortedRequests += unansweredRequests;
+        abortedResponses += pendingResponses;
+        abortedConnections++;
+    }
+
+    synchronized void finish(long handledRequests, long droppedRequests, long durationMillis) {
+        this.completedRequests = Math.max(0, handledRequests - abortedResponses);
+        this.droppedRequests = droppedRequests;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Requests answered while the server drained, including those in progress when it started.
+     */
+    public synchronized long getCompletedRequests() {
+        return completedRequests;
+    }
+
+    /**
+     * Requests not handled while the server drained: answered with 503, 429 or 504, or dropped
+     * because their connection had closed. They are not counted as completed.
+     */
+    public synchronized long getDroppedRequests() {
+        return droppedRequests;
+    }
+
+    /**
+     * Requests received but not answered when the deadline closed their connections; a request
+     * still being received counts as one.
+     */
+    public synchronized long getAbortedRequests() {
+        return abortedRequests;
+    }
+
+    /**
+     * Connections still busy at the deadline.
+     */
+    public synchronized int getAbortedConnections() {
+        return abortedConnections;
+    }
+
+    public synchronized long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return completedRequests + " requests completed, " + droppedRequests + " dropped, " + abortedRequests + " aborted on "
+            + abortedConnections + " connections, in " + durationMillis + " ms";
+    }
+}
@@ -1,13 +1,18 @@
 package com.jun.nioServer;
 
+import com.jun.config.ServerConfig;
 import com.jun.http.NioMessageHandler;
 import com.jun.nioServer.handler.MsgHandler;
 import com.jun.nioServer.handler.OnCompleteListener;
+import com.jun.nioServer.handler.RateLimiter;
 import com.jun.nioServer.handler.SimpleNioMessageHandler;
 import com.jun.nioServer.handler.SocketReadHandler;
 import com.jun.nioServer.handler.SocketWriteHandler;
+import com.jun.nioServer.handler.StaticFileNioMessageHandler;
 import com.jun.nioServer.msg.IMessageReaderFactory;
 import com.jun.nioServer.msg.http.HttpMessageReaderFactory;
+import com.jun.nioServer.utility.HashedWheelTimer;
+import com.jun.nioServer.utility.NamedThreadFactory;
 import org.apache.log4j.Logger;
 
 import javax.net.ssl.SSLContext;
@@ -17,34 +22,268 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class IOReactor implements Runnable {
 
     private static final Logger log = Logger.getLogger(IOReactor.class);
+    private static final AtomicInteger reactorIdCounter = new AtomicInteger(0);
 
     private final Selector selector;
-    private final Object selectorLock = new Object();
+    // Work posted by other threads (registrations, interest-op changes), run on the reactor thread
+    private final Queue<Runnable> taskQueue = new ConcurrentLinkedQueue<>();
+    // Set while the reactor is awake or a wakeup is already on its way, so that producers
+    // call selector.wakeup() at most once per select()
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+    // Sockets whose desired interest ops changed, applied on the reactor thread before select
+    private final Queue<ConnectedSocket> interestUpdates = new ConcurrentLinkedQueue<>();
+    // Channels handed over by the Acceptor, registered on the reactor thread
+    private final Queue<PendingSocket> pendingSockets = new ConcurrentLinkedQueue<>();
+    // Timeouts of this reactor's connections and handshakes; only touched on the reactor thread
+    private final HashedWheelTimer timer;
+    // Timeouts of closed connections, taken out of the wheel on the reactor thread
+    private final Queue<HashedWheelTimer.Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final int handshakeTimeout;
+    // A connection is checked at least this often, so that no state it enters times out unnoticed;
+    // 0 if connections have no timeouts
+    private final long recheckMillis;
+    // Set when the server drains: each connection is closed once it has answered what it received
+    private volatile boolean draining;
+    // Looks for connections done while draining; fired by the timer
+    private final HashedWheelTimer.Timeout drainCheck = new HashedWheelTimer.Timeout(this::closeQuiescentConnections);
     private final MsgHandler msgHandler;
+    private final NioMessageHandler nioMessageHandler;
     private final ExecutorService readerPool;
     private final ExecutorService writerPool;
+    // TLS handshakes block until the client answers, so they never run on the reader threads
+    private final ExecutorService handshakePool;
     private final Thread thread;
+    private final String name;
+
+    // Load counters, read by the Acceptor's reactor selection strategy
+    private final AtomicInteger activeConnections = new AtomicInteger(0);
+    private final AtomicLong outstandingBytes = new AtomicLong(0);
+    private volatile long busyNanos;
+    private volatile long handledEvents;
 
     public IOReactor(Selector givenSelector,
                      ExecutorService readerPool, ExecutorService writerPool) throws IOException {
+        this(IOReactor.class.getSimpleName() + "-" + reactorIdCounter.getAndIncrement(),
+            givenSelector, readerPool, writerPool);
+    }
+
+    public IOReactor(String name, Selector givenSelector,
+                     ExecutorService readerPool, ExecutorService writerPool) throws IOException {
+        this(name, givenSelector, readerPool, writerPool, newMessageHandler());
+    }
+
+    /**
+     * @param nioMessageHandler handles the requests of this reactor's connections; it may be shared
+     *                          with other reactors and must then be thread-safe
+     */
+    public IOReactor(String name, Selector givenSelector,
+                     ExecutorService readerPool, ExecutorService writerPool,
+                     NioMessageHandler nioMessageHandler) throws IOException {
+        this(name, givenSelector, readerPool, writerPool, nioMessageHandler, RateLimiter.fromConfig());
+    }
+
+    /**
+     * @param rateLimiter limits the requests of each client, or null; shared by the reactors of a
+     *                    server, so that a client's requests are counted together
+     */
+    public IOReactor(String name, Selector givenSelector,
+                     ExecutorService readerPool, ExecutorService writerPool,
+                     NioMessageHandler nioMessageHandler, RateLimiter rateLimiter) throws IOException {
         if(givenSelector==null) {
             selector = Selector.open();
         } else {
             selector = givenSelector;
         }
         IMessageReaderFactory readerFactory = new HttpMessageReaderFactory();
-        NioMessageHandler nioMessageHandler = new SimpleNioMessageHandler();
-        this.msgHandler = new MsgHandler(readerFactory, nioMessageHandler);
+        this.msgHandler = new MsgHandler(name + "-msg", readerFactory, nioMessageHandler, rateLimiter);
+        this.nioMessageHandler = nioMessageHandler;
         this.readerPool = readerPool;
         this.writerPool = writerPool;
-        this.thread = new Thread(this, this.getClass().getSimpleName());
+        this.handshakePool = Executors.newFixedThreadPool(Math.max(1, ServerConfig.NIO_ACCEPTOR_NUM_HANDSHAKE_THREADS),
+            new NamedThreadFactory(name + "-handshake"));
+        this.name = name;
+        this.thread = new Thread(this, this.name);
+        this.timer = new HashedWheelTimer(ServerConfig.NIO_TIMER_TICK_MS, ServerConfig.NIO_TIMER_WHEEL_SIZE);
+        this.handshakeTimeout = ServerConfig.NIO_TIMEOUT_HANDSHAKE_MS;
+        this.recheckMillis = minPositive(ServerConfig.NIO_TIMEOUT_HEADER_READ_MS, ServerConfig.NIO_TIMEOUT_BODY_READ_MS,
+            ServerConfig.NIO_TIMEOUT_WRITE_STALL_MS, ServerConfig.NIO_TIMEOUT_IDLE_MS);
+    }
+
+    private static long minPositive(int... values) {
+        long min = 0;
+        for (int value : values) {
+            if (value > 0 && (min == 0 || value < min)) {
+                min = value;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * The message handler selected by the configuration.
+     */
+    public static NioMessageHandler newMessageHandler() {
+        return ServerConfig.NIO_STATIC_ENABLED ? new StaticFileNioMessageHandler() : new SimpleNioMessageHandler();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    /**
+     * Bytes queued for writing on this reactor's connections that have not been written to the socket yet.
+     */
+    public long getOutstandingBytes() {
+        return outstandingBytes.get();
+    }
+
+    /**
+     * Time the reactor thread spent dispatching ready keys, excluding time blocked in select.
+     */
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    public long getHandledEvents() {
+        return handledEvents;
+    }
+
+    /**
+     * Connections and parsed requests waiting for this reactor's message handler.
+     */
+    public int getQueuedConnections() {
+        return msgHandler.queueSize();
+    }
+
+    /**
+     * How long the message handler's queue has not run empty, see {@link MsgHandler#getBacklogNanos()}.
+     */
+    public long getBacklogNanos() {
+        return msgHandler.getBacklogNanos();
+    }
+
+    /**
+     * Requests answered with 503 because the message handler's queue was overloaded.
+     */
+    public long getShedRequests() {
+        return msgHandler.getShedRequests();
+    }
+
+    /**
+     * Requests answered with 429 because their client exceeded its rate.
+     */
+    public long getRateLimitedRequests() {
+        return msgHandler.getRateLimitedRequests();
+    }
+
+    /**
+     * Requests answered with 504 because their deadline passed while they were queued.
+     */
+    public long getExpiredRequests() {
+        return msgHandler.getExpiredRequests();
+    }
+
+    /**
+     * Requests dropped because their connection closed while they were queued.
+     */
+    public long getOrphanedRequests() {
+        return msgHandler.getOrphanedRequests();
+    }
+
+    /**
+     * Requests the message handler rejected or dropped, see {@link MsgHandler#getDroppedRequests()}.
+     */
+    public long getDroppedRequests() {
+        return msgHandler.getDroppedRequests();
+    }
+
+    /**
+     * Requests handled by the message handler so far, not counting those it rejected or dropped.
+     */
+    public long getHandledRequests() {
+        return msgHandler.getHandledRequests();
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Has the connections closed as soon as they are done: no request on them in progress, and
+     * their responses written. Responses queued from now on carry Connection: close, so that
+     * clients send no more requests; requests that arrive meanwhile are still handled.
+     */
+    public void drain() {
+        draining = true;
+        execute(this::closeQuiescentConnections);
+    }
+
+    private void closeQuiescentConnections() {
+        for (SelectionKey key : selector.keys()) {
+            ConnectedSocket socket = (ConnectedSocket) key.attachment();
+            if (socket != null && socket.isQuiescent()) {
+                log.debug("Closing drained socket id " + socket.getSocketId());
+                socket.close();
+            }
+        }
+        // connections finish on other threads without telling the reactor, so look again next tick
+        timer.schedule(drainCheck, HashedWheelTimer.now() + 1);
+    }
+
+    /**
+     * Closes all connections on the reactor thread, whether they are done or not, and adds the
+     * requests they leave unanswered to the report.
+     */
+    CompletableFuture<DrainReport> abortConnections(DrainReport report) {
+        CompletableFuture<DrainReport> done = new CompletableFuture<>();
+        execute(() -> {
+            for (SelectionKey key : selector.keys()) {
+                ConnectedSocket socket = (ConnectedSocket) key.attachment();
+                if (socket != null) {
+                    report.onAborted(socket.unansweredRequests(), socket.getResponseSequencer().pendingResponses());
+                    socket.close();
+                }
+            }
+            done.complete(report);
+        });
+        return done;
+    }
+
+    void onConnectionClosed(long unwrittenBytes) {
+        activeConnections.decrementAndGet();
+        if (unwrittenBytes != 0) {
+            outstandingBytes.addAndGet(-unwrittenBytes);
+        }
+    }
+
+    void addOutstandingBytes(long delta) {
+        outstandingBytes.addAndGet(delta);
+    }
+
+    void onWritabilityChanged(ConnectedSocket socket, boolean writable) {
+        try {
+            nioMessageHandler.onWritabilityChanged(socket, writable);
+        } catch (RuntimeException e) {
+            log.error("Writability listener failed for socket " + socket.getSocketId(), e);
+        }
     }
 
     public void startThread() {
@@ -55,6 +294,8 @@ public class IOReactor implements Runnable {
     public void stopThread() {
         log.info("Stopping Request MsgProcessor");
         readerPool.shutdown();
+        // a handshake may be blocked on a silent client
+        handshakePool.shutdownNow();
         msgHandler.stop();
         writerPool.shutdown();
         if(thread !=null) {
@@ -73,26 +314,45 @@ public class IOReactor implements Runnable {
         log.info("IOReactor started");
         while(!Thread.currentThread().isInterrupted()){
             try {
-                synchronized (selectorLock) {
-                    // Do nothing. This ensures a registration of socket
-                }
+                wakeupPending.set(false);
                 log.trace("wait-on");
-                selector.select(1);
+                if (taskQueue.isEmpty() && pendingSockets.isEmpty() && interestUpdates.isEmpty()) {
+                    // 0, i.e. no timeout, while the timer is empty
+                    selector.select(timer.millisToNextTick(HashedWheelTimer.now()));
+                } else {
+                    selector.selectNow();
+                }
+                wakeupPending.set(true);
                 log.trace("wait-off");
+                long busyStart = System.nanoTime();
                 Set<SelectionKey> selected = selector.selectedKeys();
                 for (SelectionKey key : selected) {
                     ConnectedSocket socket = (ConnectedSocket) (key.attachment());
-                    log.debug("ready key " + key.readyOps() + " on sock " + socket.getSocketId());
-                    if (key.isReadable()) {
+                    if (socket == null) {
+                        continue;
+                    }
+                    if (log.isDebugEnabled()) {
+                        log.debug("ready key " + key.readyOps() + " on sock " + socket.getSocketId());
+                    }
+                    int readyOps = key.readyOps();
+                    if ((readyOps & SelectionKey.OP_READ) != 0) {
                         onRead(socket);
-                    } else if (key.isWritable()) {
+                    }
+                    if ((readyOps & SelectionKey.OP_WRITE) != 0) {
                         onWrite(socket);
-                    } else {
+                    }
+                    if ((readyOps & ~(SelectionKey.OP_READ|SelectionKey.OP_WRITE)) != 0) {
                         log.error("Unknown key " +
-                            (key.readyOps() & ~(SelectionKey.OP_READ|SelectionKey.OP_WRITE)));
+                            (readyOps & ~(SelectionKey.OP_READ|SelectionKey.OP_WRITE)));
                     }
                 }
+                handledEvents += selected.size();
                 selected.clear();
+                registerPendingSockets();
+                runTasks();
+                expireTimeouts();
+                applyInterestUpdates();
+                busyNanos += System.nanoTime() - busyStart;
             } catch(IOException e) {
                 log.error("IoException " + e, e);
             } catch (Exception e) {
@@ -102,59 +362,272 @@ public class IOReactor implements Runnable {
         log.info("IOReactor stopped");
     }
 
-    public void regNewSocket(SocketChannel newSocketChannel, int socketId, SSLContext sslContext) throws IOException {
-        log.debug("Registering socket #" + newSocketChannel.hashCode() + " as id " + socketId);
-        ConnectedSocket connectedSocket = new ConnectedSocket(socketId, newSocketChannel, sslContext);
-        SelectionKey key;
-        // so wakeup is required. However, this can solve 100% when selector loop runs faster than this
-        // execution. In that case, blocking(in selector) -> wakeup -> blocking(in selector) -> register
-        // therefore, another lock is added.
-        synchronized (selectorLock) {
-            log.trace("wakeup selector for " + socketId);
+    /**
+     * Runs the given task on the reactor thread. Tasks run in submission order after the
+     * current batch of ready keys has been dispatched.
+     */
+    public void execute(Runnable task) {
+        taskQueue.offer(task);
+        wakeup();
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    private void wakeup() {
+        if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) {
             selector.wakeup();
-            key = newSocketChannel.register(selector, 0);
         }
-        connectedSocket.configKey(key);
-        log.debug("Registered socket #" + newSocketChannel.hashCode() + " as id " + socketId);
     }
 
-    private void onRead(ConnectedSocket socket) {
-        socket.clrInterestedOps(SelectionKey.OP_READ);
-        OnCompleteListener listener = new OnCompleteListener() {
-            @Override
-            public void onComplete(int len, List<ByteBuffer> datas) {
-                log.debug("read complete on socketid " + socket.getSocketId() + " len " + len);
-                if (len > 0) {
-                    for(ByteBuffer data: datas) {
-                        socket.addSocketReadData(data);
+    /**
+     * Queues a socket whose desired interest ops changed. They are applied to its key on the
+     * reactor thread right before the next select.
+     */
+    void scheduleInterestUpdate(ConnectedSocket socket) {
+        interestUpdates.offer(socket);
+        wakeup();
+    }
+
+    private void applyInterestUpdates() {
+        ConnectedSocket socket;
+        while ((socket = interestUpdates.poll()) != null) {
+            socket.applyInterestOps();
+        }
+    }
+
+    private void expireTimeouts() {
+        HashedWheelTimer.Timeout cancelled;
+        while ((cancelled = cancelledTimeouts.poll()) != null) {
+            timer.cancel(cancelled);
+        }
+        timer.expire(HashedWheelTimer.now());
+    }
+
+    /**
+     * Takes the timeout out of the wheel. It is done on the reactor thread, before the wheel
+     * advances, so a connection that closes costs no wakeup.
+     */
+    void cancelTimeout(HashedWheelTimer.Timeout timeout) {
+        if (inEventLoop()) {
+            timer.cancel(timeout);
+        } else {
+            cancelledTimeouts.offer(timeout);
+        }
+    }
+
+    /**
+     * Fired by the timer for a connection: closes it if it timed out, and otherwise checks it
+     * again at its deadline, or earlier when it could enter a state with a shorter timeout.
+     */
+    void checkTimeout(ConnectedSocket socket) {
+        if (socket.isClosed()) {
+            return;
+        }
+        long now = HashedWheelTimer.now();
+        long deadline = socket.timeoutDeadline();
+        if (deadline <= now) {
+            log.info("Closing socket id " + socket.getSocketId() + " on " + socket.getTimeoutPhase() + " timeout");
+            socket.close();
+            return;
+        }
+        timer.schedule(socket.getTimeout(), Math.min(deadline, now + recheckMillis));
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = taskQueue.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("Reactor task failed " + e, e);
+            }
+        }
+    }
+
+    /**
+     * Hands an accepted channel over to this reactor. The channel is registered on the reactor
+     * thread in its next loop iteration; the caller never blocks.
+     */
+    public void regNewSocket(SocketChannel newSocketChannel, int socketId, SSLContext sslContext) {
+        regNewSocket(newSocketChannel, socketId, sslContext, null);
+    }
+
+    /**
+     * @param onClose run once when the connection closes, also if it fails to be set up; may be null
+     */
+    public void regNewSocket(SocketChannel newSocketChannel, int socketId, SSLContext sslContext, Runnable onClose) {
+        log.debug("Queueing socket #" + newSocketChannel.hashCode() + " as id " + socketId);
+        pendingSockets.offer(new PendingSocket(newSocketChannel, socketId, sslContext, onClose));
+        wakeup();
+    }
+
+    private void registerPendingSockets() {
+        PendingSocket pending;
+        while ((pending = pendingSockets.poll()) != null) {
+            if (pending.sslContext == null) {
+                ConnectedSocket connectedSocket = newConnectedSocket(pending);
+                if (connectedSocket != null) {
+                    register(connectedSocket);
+                }
+            } else {
+                // The SSL handshake blocks until it completes, so it runs on a handshake thread
+                PendingSocket handshake = pending;
+                // whichever comes first, the end of the handshake or its timeout, settles it
+                AtomicBoolean settled = new AtomicBoolean();
+                HashedWheelTimer.Timeout timeout = new HashedWheelTimer.Timeout(() -> {
+                    if (settled.compareAndSet(false, true)) {
+                        log.warn("SSL handshake of socket id " + handshake.socketId + " timed out");
+                        // fails the handshake, which gives up the handshake thread
+                        try {
+                            handshake.channel.close();
+                        } catch (IOException ignore) {
+                        }
                     }
-                    msgHandler.enqueue(socket);
+                });
+                if (handshakeTimeout > 0) {
+                    timer.schedule(timeout, HashedWheelTimer.now() + handshakeTimeout);
                 }
+                handshakePool.execute(() -> {
+                    ConnectedSocket connectedSocket = newConnectedSocket(handshake);
+                    boolean inTime = settled.compareAndSet(false, true);
+                    execute(() -> {
+                        timer.cancel(timeout);
+                        if (connectedSocket != null) {
+                            if (inTime) {
+                                register(connectedSocket);
+                            } else {
+                                connectedSocket.close();
+                            }
+                        }
+                    });
+                });
             }
-            @Override
-            public void onException(Exception e) {
-                log.warn("Error on reading " + e +
-                    " on socketid " + socket.getSocketId() + ". Socket has been closing.");
-                socket.close();
+        }
+    }
+
+    private ConnectedSocket newConnectedSocket(PendingSocket pending) {
+        try {
+            ConnectedSocket connectedSocket = new ConnectedSocket(pending.socketId, pending.channel, pending.sslContext, this);
+            connectedSocket.setCloseListener(pending.onClose);
+            return connectedSocket;
+        } catch (IOException e) {
+            log.error("Failed to set up socket id " + pending.socketId + ". Connection will be dropped.", e);
+            // the connection was counted when it was assigned to this reactor
+            onConnectionClosed(0);
+            try {
+                pending.channel.close();
+            } catch (IOException ignore) {
+            }
+            if (pending.onClose != null) {
+                pending.onClose.run();
+            }
+            return null;
+        }
+    }
+
+    private void register(ConnectedSocket connectedSocket) {
+        SocketChannel channel = connectedSocket.getSocketChannel();
+        connectedSocket.setHandlers(
+            new SocketReadHandler(connectedSocket, new ReadCompleteListener(connectedSocket)),
+            new SocketWriteHandler(connectedSocket, new WriteCompleteListener(connectedSocket)));
+        try {
+            SelectionKey key = channel.register(selector, 0);
+            connectedSocket.configKey(key);
+            log.debug("Registered socket #" + channel.hashCode() + " as id " + connectedSocket.getSocketId());
+            if (recheckMillis > 0) {
+                checkTimeout(connectedSocket);
+            }
+            if (connectedSocket.hasSocketReadData()) {
+                // data that arrived with the end of the SSL handshake
+                msgHandler.enqueue(connectedSocket);
             }
-        };
-        readerPool.submit(new SocketReadHandler(socket, listener));
+        } catch (IOException e) {
+            log.error("Failed to register socket id " + connectedSocket.getSocketId() + ". Connection will be dropped.", e);
+            connectedSocket.close();
+        }
+    }
+
+    /**
+     * Called by the Acceptor when it routes a new connection to this reactor, so that the
+     * connection is visible to the selection strategy before its registration completes.
+     */
+    void onConnectionAssigned() {
+        activeConnections.incrementAndGet();
+    }
+
+    private void onRead(ConnectedSocket socket) {
+        socket.clrInterestedOps(SelectionKey.OP_READ);
+        readerPool.execute(socket.getReadHandler());
     }
 
     private void onWrite(ConnectedSocket socket) {
         socket.clrInterestedOps(SelectionKey.OP_WRITE);
-        OnCompleteListener listener = new OnCompleteListener() {
-            @Override
-            public void onComplete(int len, List<ByteBuffer> datas) {
-                log.debug("write complete on socketid " + socket.getSocketId() + " len " + len);
+        writerPool.execute(socket.getWriteHandler());
+    }
+
+    private final class ReadCompleteListener implements OnCompleteListener {
+        private final ConnectedSocket socket;
+
+        ReadCompleteListener(ConnectedSocket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void onComplete(int len, List<ByteBuffer> datas) {
+            if (log.isDebugEnabled()) {
+                log.debug("read complete on socketid " + socket.getSocketId() + " len " + len);
             }
-            @Override
-            public void onException(Exception e) {
-                log.warn("Error on writing " + e +
-                    " on socketid " + socket.getSocketId() + ". Socket has been closing.");
-                socket.close();
+            if (len > 0) {
+                for (int i = 0; i < datas.size(); i++) {
+                    socket.addSocketReadData(datas.get(i));
+                }
+                msgHandler.enqueue(socket);
+            }
+        }
+
+        @Override
+        public void onException(Exception e) {
+            log.warn("Error on reading " + e +
+                " on socketid " + socket.getSocketId() + ". Socket has been closing.");
+            socket.close();
+        }
+    }
+
+    private static final class WriteCompleteListener implements OnCompleteListener {
+        private final ConnectedSocket socket;
+
+        WriteCompleteListener(ConnectedSocket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void onComplete(int len, List<ByteBuffer> datas) {
+            if (log.isDebugEnabled()) {
+                log.debug("write complete on socketid " + socket.getSocketId() + " len " + len);
             }
-        };
-        writerPool.submit(new SocketWriteHandler(socket, listener));
+        }
+
+        @Override
+        public void onException(Exception e) {
+            log.warn("Error on writing " + e +
+                " on socketid " + socket.getSocketId() + ". Socket has been closing.");
+            socket.close();
+        }
+    }
+
+    private static final class PendingSocket {
+        final SocketChannel channel;
+        final int socketId;
+        final SSLContext sslContext;
+        final Runnable onClose;
+
+        PendingSocket(SocketChannel channel, int socketId, SSLContext sslContext, Runnable onClose) {
+            this.channel = channel;
+            this.socketId = socketId;
+            this.sslContext = sslContext;
+            this.onClose = onClose;
+        }
     }
 }
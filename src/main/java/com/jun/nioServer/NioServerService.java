@@ -1,6 +1,10 @@
 package com.jun.nioServer;
 
 import com.jun.config.ServerConfig;
+import com.jun.http.NioMessageHandler;
+import com.jun.nioServer.balance.ReactorSelectors;
+import com.jun.nioServer.handler.RateLimiter;
+import com.jun.nioServer.utility.NamedThreadFactory;
 import org.apache.log4j.Logger;
 
 import javax.net.ssl.KeyManager;
@@ -17,6 +21,7 @@ import java.util.concurrent.TimeUnit;
 public class NioServerService {
 
     protected static final Logger log = Logger.getLogger(NioServerService.class);
+    private static final long DRAIN_POLL_MILLIS = 10;
 
     // Configuration fields
     private final int port;
@@ -32,17 +37,29 @@ public class NioServerService {
     private final int numWriterThreads;
     private final int acceptorBacklog;
     private final boolean isAcceptorNonBlocking; // True if Acceptor should use non-blocking ServerSocketChannel for accept()
+    private final String reactorSelectorName;
+    private final NioMessageHandler messageHandler;   // null: the handler chosen by the configuration
 
     // Managed resources
     private SSLContext sslContext;
     private IOReactor[] ioReactors;
     private Selector[] ioReactorSelectors;
-    private ExecutorService conAcceptorExecutorService;
     private ServerSocketChannel serverSocketChannel;
     private IAcceptor acceptorInstance;
     private Thread acceptorThread; // Existing field
+    private volatile boolean stopped;
 
     public NioServerService(ServerConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * @param messageHandler handles the requests of all reactors, e.g. an
+     *                       {@link com.jun.nioServer.handler.AsyncNioMessageHandlerAdapter}; null
+     *                       for the handler chosen by the configuration
+     */
+    public NioServerService(ServerConfig config, NioMessageHandler messageHandler) {
+        this.messageHandler = messageHandler;
         this.port = ServerConfig.NIO_SERVER_PORT;
         this.hostAddress = ServerConfig.NIO_ACCEPTOR_ADDRESS;
         this.isSslEnabled = ServerConfig.NIO_SERVER_SSL_ENABLED;
@@ -60,6 +77,7 @@ public class NioServerService {
         // If NIO_ACCEPTOR_IS_BLOCKING is true, Acceptor's isNonBlocking should be false (traditional blocking accept)
         // If NIO_ACCEPTOR_IS_BLOCKING is false, Acceptor's isNonBlocking should be true (selector-based accept)
         this.isAcceptorNonBlocking = !ServerConfig.NIO_ACCEPTOR_IS_BLOCKING;
+        this.reactorSelectorName = ServerConfig.NIO_ACCEPTOR_REACTOR_SELECTOR;
     }
 
     private boolean internalCreateSslContext() throws Exception {
@@ -86,12 +104,18 @@ public class NioServerService {
         log.info("Initializing IOReactors: " + this.numIoReactors + " instance(s).");
         this.ioReactors = new IOReactor[this.numIoReactors];
         this.ioReactorSelectors = new Selector[this.numIoReactors];
+        // one handler for all reactors, so that they share its caches
+        NioMessageHandler messageHandler = this.messageHandler != null ? this.messageHandler : IOReactor.newMessageHandler();
+        // and one rate limiter, so that a client's requests count the same on any reactor
+        RateLimiter rateLimiter = RateLimiter.fromConfig();
         for (int i = 0; i < this.numIoReactors; i++) {
             try {
                 this.ioReactorSelectors[i] = Selector.open();
-                ExecutorService readerPool = Executors.newFixedThreadPool(this.numReaderThreads);
-                ExecutorService writerPool = Executors.newFixedThreadPool(this.numWriterThreads);
-                this.ioReactors[i] = new IOReactor(this.ioReactorSelectors[i], readerPool, writerPool);
+                ExecutorService readerPool = Executors.newFixedThreadPool(this.numReaderThreads,
+                        new NamedThreadFactory("IOReactor-" + i + "-reader"));
+                ExecutorService writerPool = Executors.newFixedThreadPool(this.numWriterThreads,
+                        new NamedThreadFactory("IOReactor-" + i + "-writer"));
+                this.ioReactors[i] = new IOReactor("IOReactor-" + i, this.ioReactorSelectors[i], readerPool, writerPool, messageHandler, rateLimiter);
                 this.ioReactors[i].startThread();
                 log.info("IOReactor " + i + " initialized and started.");
             } catch (IOException e) {
@@ -109,11 +133,6 @@ public class NioServerService {
         return true; // Indicate success
     }
 
-    private void internalCreateConAcceptorExecutorService() {
-        log.info("Creating ExecutorService for ConAcceptors...");
-        this.conAcceptorExecutorService = Executors.newCachedThreadPool();
-    }
-
     private boolean internalCreateServerSocketChannel() {
         log.info("Setting up ServerSocketChannel for Acceptor...");
         try {
@@ -132,10 +151,10 @@ public class NioServerService {
         log.info("Initializing Acceptor. Acceptor non-blocking mode: " + this.isAcceptorNonBlocking);
         this.acceptorInstance = new Acceptor(
                 this.serverSocketChannel,
-                this.conAcceptorExecutorService,
                 this.ioReactors,
                 this.sslContext,
-                this.isAcceptorNonBlocking
+                this.isAcceptorNonBlocking,
+                ReactorSelectors.create(this.reactorSelectorName)
         );
         log.info("Acceptor initialized: " + this.acceptorInstance.getClass().getName());
     }
@@ -158,7 +177,6 @@ public class NioServerService {
             // internalCreateAndStartIoReactors handles its own partial cleanup.
             throw new RuntimeException("IOReactor creation failed.");
         }
-        internalCreateConAcceptorExecutorService();
         if (!internalCreateServerSocketChannel()) {
              log.fatal("NIO server startup failed during ServerSocketChannel creation.");
              shutdownNioResources(); // Clean up what was created
@@ -182,6 +200,10 @@ public class NioServerService {
         this.acceptorThread.start();
     }
 
+    IOReactor[] getIoReactors() {
+        return ioReactors;
+    }
+
     public void waitStop() throws InterruptedException {
         if (this.acceptorThread != null) {
             log.info("Waiting for service acceptor thread (" + this.acceptorThread.getName() + ") to stop...");
@@ -192,12 +214,104 @@ public class NioServerService {
         }
     }
 
+    /**
+     * Stops the server without losing requests, e.g. for a rolling restart: stops accepting, lets
+     * every connection answer the requests it received and closes it once it has, then stops as
+     * {@link #stop()} does. Responses queued meanwhile carry Connection: close, so that clients
+     * take their next requests elsewhere. Connections still busy at the deadline are closed
+     * regardless.
+     */
+    public DrainReport drain(long timeoutMillis) {
+        DrainReport report = new DrainReport();
+        if (this.stopped || this.ioReactors == null) {
+            stop();
+            return report;
+        }
+        log.info("Draining NioServerService, for at most " + timeoutMillis + " ms.");
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        // the closed channel unblocks a blocking accept, and has new connections refused
+        stopAcceptor(true);
+
+        long handledBefore = handledRequests();
+        long droppedBefore = droppedRequests();
+        for (IOReactor reactor : this.ioReactors) {
+            reactor.drain();
+        }
+        try {
+            while (activeConnections() > 0 && System.nanoTime() - deadline < 0) {
+                Thread.sleep(DRAIN_POLL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while draining; closing the remaining connections.");
+            Thread.currentThread().interrupt();
+        }
+        long handled = handledRequests() - handledBefore;
+        long dropped = droppedRequests() - droppedBefore;
+        if (activeConnections() > 0) {
+            for (IOReactor reactor : this.ioReactors) {
+                try {
+                    reactor.abortConnections(report).get(1, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    log.error("Failed to close the connections of " + reactor.getName(), e);
+                }
+            }
+        }
+        report.finish(handled, dropped, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        log.info("Drained: " + report);
+        stop();
+        return report;
+    }
+
+    /**
+     * Drains with the configured timeout, see {@link #drain(long)}.
+     */
+    public DrainReport drain() {
+        return drain(ServerConfig.NIO_DRAIN_TIMEOUT_MS);
+    }
+
+    private int activeConnections() {
+        int connections = 0;
+        for (IOReactor reactor : this.ioReactors) {
+            connections += reactor.getActiveConnections();
+        }
+        return connections;
+    }
+
+    private long handledRequests() {
+        long handled = 0;
+        for (IOReactor reactor : this.ioReactors) {
+            handled += reactor.getHandledRequests();
+        }
+        return handled;
+    }
+
+    private long droppedRequests() {
+        long dropped = 0;
+        for (IOReactor reactor : this.ioReactors) {
+            dropped += reactor.getDroppedRequests();
+        }
+        return dropped;
+    }
+
     public void stop() {
         log.info("NioServerService.stop() called.");
+        this.stopped = true;
+        stopAcceptor(false);
+
+        // After acceptor stops, shutdown other resources
+        shutdownNioResources();
+        log.info("NioServerService stop sequence complete.");
+    }
+
+    private void stopAcceptor(boolean closeChannel) {
         if (this.acceptorInstance != null) {
             log.info("Calling stopThread() on internal acceptor instance...");
             this.acceptorInstance.stopThread();
         }
+        if (closeChannel) {
+            closeServerSocketChannel();
+        }
 
         if (this.acceptorThread != null && this.acceptorThread.isAlive()) {
             log.info("Waiting for service acceptor thread (" + this.acceptorThread.getName() + ") to terminate...");
@@ -216,27 +330,9 @@ public class NioServerService {
                 Thread.currentThread().interrupt();
             }
         }
-
-        // After acceptor stops, shutdown other resources
-        shutdownNioResources();
-        log.info("NioServerService stop sequence complete.");
     }
 
     private void shutdownNioResources() {
-        log.info("Shutting down ConAcceptor ExecutorService...");
-        if (this.conAcceptorExecutorService != null) {
-            this.conAcceptorExecutorService.shutdown();
-            try {
-                if (!this.conAcceptorExecutorService.awaitTermination(5, TimeUnit.SECONDS)) {
-                    this.conAcceptorExecutorService.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                this.conAcceptorExecutorService.shutdownNow();
-                Thread.currentThread().interrupt();
-            }
-            log.info("ConAcceptor ExecutorService shut down.");
-        }
-
         log.info("Shutting down IOReactors...");
         if (this.ioReactors != null) {
             for (int i = 0; i < this.ioReactors.length; i++) {
@@ -260,6 +356,11 @@ public class NioServerService {
         }
         log.info("IOReactors and their selectors shut down.");
 
+        closeServerSocketChannel();
+        // sslContext does not need explicit closing
+    }
+
+    private void closeServerSocketChannel() {
         if (this.serverSocketChannel != null && this.serverSocketChannel.isOpen()) {
             log.info("Closing ServerSocketChannel...");
             try {
@@ -269,6 +370,5 @@ public class NioServerService {
                 log.error("Error closing ServerSocketChannel.", e);
             }
         }
-        // sslContext does not need explicit closing
     }
 }
@@ -0,0 +1,145 @@
+package com.jun.nioServer;
+
+import com.jun.nioServer.msg.Message;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Writes the future responses of one connection in request order. A completed response waits
+ * for the responses ahead of it; the thread that completes the head of the line queues it together
+ * with all completed responses behind it, and gets them written.
+ *
+ * A streamed response is started when it reaches the head of the line, and holds the responses
+ * behind it back until its stream ends.
+ */
+public class ResponseSequencer {
+    private static final Logger log = Logger.getLogger(ResponseSequencer.class);
+
+    private final ConnectedSocket socket;
+    // guarded by this
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private boolean closed;
+
+    public ResponseSequencer(ConnectedSocket socket) {
+        this.socket = socket;
+    }
+
+    /**
+     * Adds the response of the next request.
+     *
+     * @param onFailure makes the response sent when the future completes exceptionally
+     */
+    public void add(CompletableFuture<Message> response, Function<Throwable, Message> onFailure) {
+        add(new Pending(response, onFailure, null));
+    }
+
+    /**
+     * Adds a streamed response of the next request.
+     *
+     * @param end   completes when the stream has been queued completely; its value is not sent
+     * @param start run, under this sequencer's lock, when the responses ahead have been queued and
+     *              the stream may write to the socket
+     */
+    public void addStream(CompletableFuture<Message> end, Runnable start) {
+        add(new Pending(end, e -> null, start));
+    }
+
+    private void add(Pending entry) {
+        synchronized (this) {
+            if (!closed) {
+                pending.add(entry);
+                flush();
+                entry.response.whenComplete((msg, e) -> flush());
+                return;
+            }
+        }
+        entry.response.cancel(false);
+    }
+
+    /**
+     * Queues the completed responses at the head of the line. The lock keeps concurrent completions
+     * from reordering them on their way into the socket's write queue.
+     */
+    void flush() {
+        boolean queued = false;
+        synchronized (this) {
+            Pending head;
+            while ((head = pending.peek()) != null) {
+                if (head.start != null && !head.started) {
+                    head.started = true;
+                    head.start.run();
+                }
+                if (!head.response.isDone()) {
+                    break;
+                }
+                pending.poll();
+                Message msg = head.result();
+                if (msg != null) {
+                    socket.addWriteReadyMsg(msg);
+                    // moved to the write queue right away, ahead of a stream that starts next
+                    queued |= socket.prepareBuffersForWriting();
+                }
+            }
+        }
+        if (queued) {
+            socket.flushWrites();
+        }
+    }
+
+    /**
+     * Responses added that have not been queued for writing yet; a stream counts until it ended.
+     */
+    synchronized int pendingResponses() {
+        return pending.size();
+    }
+
+    /**
+     * Cancels the responses not written yet. Called when the connection closes.
+     */
+    void cancel() {
+        List<Pending> cancelled;
+        synchronized (this) {
+            closed = true;
+            cancelled = new ArrayList<>(pending);
+            pending.clear();
+        }
+        for (Pending p : cancelled) {
+            p.response.cancel(false);
+        }
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    private static final class Pending {
+        final CompletableFuture<Message> response;
+        final Function<Throwable, Message> onFailure;
+        final Runnable start;
+        boolean started;
+
+        Pending(CompletableFuture<Message> response, Function<Throwable, Message> onFailure, Runnable start) {
+            this.response = response;
+            this.onFailure = onFailure;
+            this.start = start;
+        }
+
+        Message result() {
+            try {
+                return response.join();
+            } catch (CancellationException e) {
+                return null;
+            } catch (CompletionException e) {
+                log.error("Request failed", e.getCause());
+                return onFailure.apply(e.getCause());
+            }
+        }
+    }
+}
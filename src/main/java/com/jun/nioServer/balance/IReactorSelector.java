@@ -0,0 +1,11 @@
+package com.jun.nioServer.balance;
+
+import com.jun.nioServer.IOReactor;
+
+/**
+ * Chooses the IOReactor that a newly accepted connection is assigned to.
+ * Implementations are called from the Acceptor thread only.
+ */
+public interface IReactorSelector {
+    IOReactor select(IOReactor[] reactors);
+}
@@ -0,0 +1,20 @@
+package com.jun.nioServer.balance;
+
+import com.jun.nioServer.IOReactor;
+
+public class LeastConnectionsReactorSelector implements IReactorSelector {
+
+    @Override
+    public IOReactor select(IOReactor[] reactors) {
+        IOReactor best = reactors[0];
+        int bestConnections = best.getActiveConnections();
+        for (int i = 1; i < reactors.length; i++) {
+            int connections = reactors[i].getActiveConnections();
+            if (connections < bestConnections) {
+                best = reactors[i];
+                bestConnections = connections;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,25 @@
+package com.jun.nioServer.balance;
+
+import com.jun.nioServer.IOReactor;
+
+/**
+ * Prefers the reactor with the fewest bytes waiting to be written, so that heavy streaming
+ * connections push new connections to other reactors. Ties are broken by connection count.
+ */
+public class LeastOutstandingBytesReactorSelector implements IReactorSelector {
+
+    @Override
+    public IOReactor select(IOReactor[] reactors) {
+        IOReactor best = reactors[0];
+        long bestBytes = best.getOutstandingBytes();
+        for (int i = 1; i < reactors.length; i++) {
+            long bytes = reactors[i].getOutstandingBytes();
+            if (bytes < bestBytes
+                || (bytes == bestBytes && reactors[i].getActiveConnections() < best.getActiveConnections())) {
+                best = reactors[i];
+                bestBytes = bytes;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,35 @@
+package com.jun.nioServer.balance;
+
+import com.jun.nioServer.IOReactor;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples two distinct reactors at random and picks the less loaded one. This avoids scanning
+ * every reactor and avoids herding onto a single reactor when the counters are slightly stale.
+ */
+public class PowerOfTwoChoicesReactorSelector implements IReactorSelector {
+
+    @Override
+    public IOReactor select(IOReactor[] reactors) {
+        if (reactors.length == 1) {
+            return reactors[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(reactors.length);
+        int second = random.nextInt(reactors.length - 1);
+        if (second >= first) {
+            second++;
+        }
+        return lessLoaded(reactors[first], reactors[second]);
+    }
+
+    private static IOReactor lessLoaded(IOReactor a, IOReactor b) {
+        int connA = a.getActiveConnections();
+        int connB = b.getActiveConnections();
+        if (connA != connB) {
+            return connA < connB ? a : b;
+        }
+        return a.getOutstandingBytes() <= b.getOutstandingBytes() ? a : b;
+    }
+}
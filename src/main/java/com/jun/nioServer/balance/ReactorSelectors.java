@@ -0,0 +1,35 @@
+package com.jun.nioServer.balance;
+
+import org.apache.log4j.Logger;
+
+public class ReactorSelectors {
+    private static final Logger log = Logger.getLogger(ReactorSelectors.class);
+
+    public static final String ROUND_ROBIN = "round-robin";
+    public static final String LEAST_CONNECTIONS = "least-connections";
+    public static final String LEAST_BYTES = "least-bytes";
+    public static final String POWER_OF_TWO = "power-of-two";
+
+    private ReactorSelectors() {
+    }
+
+    /**
+     * Creates the selection strategy configured by name, falling back to round-robin for unknown names.
+     */
+    public static IReactorSelector create(String name) {
+        if (name == null || ROUND_ROBIN.equalsIgnoreCase(name)) {
+            return new RoundRobinReactorSelector();
+        }
+        if (LEAST_CONNECTIONS.equalsIgnoreCase(name)) {
+            return new LeastConnectionsReactorSelector();
+        }
+        if (LEAST_BYTES.equalsIgnoreCase(name)) {
+            return new LeastOutstandingBytesReactorSelector();
+        }
+        if (POWER_OF_TWO.equalsIgnoreCase(name)) {
+            return new PowerOfTwoChoicesReactorSelector();
+        }
+        log.warn("Unknown reactor selector '" + name + "', using " + ROUND_ROBIN);
+        return new RoundRobinReactorSelector();
+    }
+}
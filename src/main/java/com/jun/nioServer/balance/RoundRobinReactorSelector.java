@@ -0,0 +1,16 @@
+package com.jun.nioServer.balance;
+
+import com.jun.nioServer.IOReactor;
+
+public class RoundRobinReactorSelector implements IReactorSelector {
+
+    private int nextIndex = 0;
+
+    @Override
+    public IOReactor select(IOReactor[] reactors) {
+        if (nextIndex >= reactors.length) {
+            nextIndex = 0;
+        }
+        return reactors[nextIndex++];
+    }
+}
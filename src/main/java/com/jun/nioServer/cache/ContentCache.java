@@ -0,0 +1,295 @@
+package com.jun.nioServer.cache;
+
+import com.jun.http.Validators;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory copies of static files keyed by their normalized path, shared by all reactors.
+ *
+ * Files up to {@code mapThreshold} bytes are copied into direct buffers; larger ones are memory-mapped.
+ * The cache holds at most {@code maxBytes} of content and evicts the least recently used entries
+ * to make room. An entry is checked against the file's size and modification time at most once
+ * per {@code checkIntervalMillis}, and dropped when the file changed.
+ *
+ * The content of an entry never changes; {@link CachedContent#content()} hands out read-only duplicates, so the same
+ * memory can sit in the write queues of many connections at once. An entry may carry a gzip variant
+ * of its content, which counts against the same byte budget.
+ */
+public class ContentCache {
+
+    private static final Logger log = Logger.getLogger(ContentCache.class);
+
+    private final long maxBytes;
+    private final long maxFileBytes;
+    private final long mapThreshold;
+    private final long checkIntervalMillis;
+
+    // access-ordered, so iteration starts at the least recently used entry; guarded by this
+    private final LinkedHashMap<Path, CachedContent> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedBytes;
+
+    private long hits;
+    private long misses;
+
+    public ContentCache(long maxBytes, long maxFileBytes, long mapThreshold, long checkIntervalMillis) {
+        this.maxBytes = maxBytes;
+        this.maxFileBytes = Math.min(maxFileBytes, maxBytes);
+        this.mapThreshold = mapThreshold;
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    /**
+     * Returns the cached content of the file, loading it on a miss. Returns null if the file is
+     * too large to be cached or cannot be read; the caller then serves it from disk.
+     */
+    public CachedContent get(Path file) {
+        long now = System.currentTimeMillis();
+        CachedContent entry = lookup(file, now);
+        if (entry != null) {
+            return entry;
+        }
+        synchronized (this) {
+            misses++;
+        }
+        return load(file, now);
+    }
+
+    /**
+     * Returns the cached content of the file if it is cached and current, without loading it on a
+     * miss. For requests that only need a part of the file.
+     */
+    public CachedContent getIfCached(Path file) {
+        return lookup(file, System.currentTimeMillis());
+    }
+
+    private CachedContent lookup(Path file, long now) {
+        CachedContent entry;
+        synchronized (this) {
+            entry = entries.get(file);
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (now - entry.checkedAt < checkIntervalMillis) {
+            hit();
+            return entry;
+        }
+        BasicFileAttributes attrs = attributes(file);
+        if (attrs != null && entry.matches(attrs)) {
+            entry.checkedAt = now;
+            hit();
+            return entry;
+        }
+        remove(file, entry);
+        return null;
+    }
+
+    private CachedContent load(Path file, long now) {
+        BasicFileAttributes attrs = attributes(file);
+        if (attrs == null || !attrs.isRegularFile() || attrs.size() > maxFileBytes) {
+            return null;
+        }
+        CachedContent entry;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size != attrs.size()) {
+                // changed while we were looking at it; serve it from disk this time
+                return null;
+            }
+            ByteBuffer content;
+            if (size >= mapThreshold) {
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                content = ByteBuffer.allocateDirect((int) size);
+                while (content.hasRemaining()) {
+                    if (channel.read(content, content.position()) < 0) {
+                        return null;
+                    }
+                }
+                content.flip();
+            }
+            entry = new CachedContent(file, content.asReadOnlyBuffer(), attrs, now);
+        } catch (IOException e) {
+            log.debug("Cannot cache " + file + ": " + e);
+            return null;
+        }
+        put(entry);
+        return entry;
+    }
+
+    private synchronized void put(CachedContent entry) {
+        CachedContent previous = entries.put(entry.path, entry);
+        if (previous != null) {
+            cachedBytes -= previous.weight();
+        }
+        cachedBytes += entry.weight();
+        evict();
+    }
+
+    private void evict() {
+        Iterator<CachedContent> lru = entries.values().iterator();
+        while (cachedBytes > maxBytes && lru.hasNext()) {
+            CachedContent eldest = lru.next();
+            lru.remove();
+            cachedBytes -= eldest.weight();
+            if (log.isDebugEnabled()) {
+                log.debug("Evicted " + eldest.path + " (" + eldest.weight() + " bytes)");
+            }
+        }
+    }
+
+    private synchronized void remove(Path file, CachedContent entry) {
+        if (entries.remove(file, entry)) {
+            cachedBytes -= entry.weight();
+        }
+    }
+
+    /**
+     * Attaches the gzip variant of an entry's content. It is dropped if the entry has been replaced
+     * or evicted meanwhile, or if it is not smaller than the content.
+     */
+    public synchronized void addGzipVariant(CachedContent entry, byte[] gzipped) {
+        entry.compressState.set(CachedContent.COMPRESSED);
+        if (gzipped.length >= entry.size || entries.get(entry.path) != entry) {
+            return;
+        }
+        entry.gzipValidators = Validators.of(entry.size, entry.lastModified, "gz");
+        entry.gzip = ByteBuffer.wrap(gzipped).asReadOnlyBuffer();
+        entry.gzipBytes = gzipped.length;
+        cachedBytes += gzipped.length;
+        evict();
+    }
+
+    private synchronized void hit() {
+        hits++;
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static BasicFileAttributes attributes(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.debug("Cannot stat " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * The content of one file as it was when it was loaded.
+     */
+    public static final class CachedContent {
+        private final Path path;
+        private final ByteBuffer content;
+        private final long size;
+        private final long lastModified;
+        private final Validators validators;
+        // written without a lock: a stale read only causes an extra stat
+        private volatile long checkedAt;
+
+        static final int UNCOMPRESSED = 0;
+        static final int COMPRESSING = 1;
+        static final int COMPRESSED = 2;
+        private final AtomicInteger compressState = new AtomicInteger(UNCOMPRESSED);
+        private volatile ByteBuffer gzip;
+        private volatile Validators gzipValidators;
+        private long gzipBytes;  // guarded by the cache
+
+        CachedContent(Path path, ByteBuffer content, BasicFileAttributes attrs, long checkedAt) {
+            this.path = path;
+            this.content = content;
+            this.size = attrs.size();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+            this.validators = Validators.of(size, lastModified, "");
+            this.checkedAt = checkedAt;
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return attrs.size() == size && attrs.lastModifiedTime().toMillis() == lastModified;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public Validators getValidators() {
+            return validators;
+        }
+
+        /**
+         * Validators of the gzip variant; set before the variant itself is published.
+         */
+        public Validators getGzipValidators() {
+            return gzipValidators;
+        }
+
+        /**
+         * A read-only view of the content with its own position, for one response.
+         */
+        public ByteBuffer content() {
+            return content.duplicate();
+        }
+
+        /**
+         * A read-only view of the gzip variant, or null if there is none (yet).
+         */
+        public ByteBuffer gzipContent() {
+            ByteBuffer variant = gzip;
+            return variant != null ? variant.duplicate() : null;
+        }
+
+        /**
+         * Claims the compression of this entry. Returns false if it is compressed or being compressed.
+         */
+        public boolean startCompression() {
+            return compressState.compareAndSet(UNCOMPRESSED, COMPRESSING);
+        }
+
+        /**
+         * Gives the compression back, e.g. when it could not be scheduled, so that a later request retries.
+         */
+        public void abortCompression() {
+            compressState.compareAndSet(COMPRESSING, UNCOMPRESSED);
+        }
+
+        long weight() {
+            return size + gzipBytes;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.jun.nioServer.handler;
+
+import com.jun.http.AsyncNioMessageHandler;
+import com.jun.http.HttpDate;
+import com.jun.http.NioMessageHandler;
+import com.jun.nioServer.ConnectedSocket;
+import com.jun.nioServer.msg.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs an {@link AsyncNioMessageHandler} on the message handler thread. The handler only starts
+ * the work; its future response is handed to the connection's
+ * {@link com.jun.nioServer.ResponseSequencer}, which writes it in order once it completes.
+ */
+public class AsyncNioMessageHandlerAdapter implements NioMessageHandler {
+
+    private static final byte[] INTERNAL_ERROR_STATUS_LINE = "HTTP/1.1 500 Internal Server Error\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INTERNAL_ERROR_BODY = "500 Internal Server Error".getBytes(StandardCharsets.US_ASCII);
+
+    private final AsyncNioMessageHandler handler;
+
+    public AsyncNioMessageHandlerAdapter(AsyncNioMessageHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void processMessage(Message requestMessage, ConnectedSocket connectedSocket) {
+        CompletableFuture<Message> response;
+        try {
+            response = handler.processMessage(requestMessage, connectedSocket);
+        } catch (RuntimeException e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        if (response == null) {
+            response = CompletableFuture.completedFuture(null);
+        }
+        connectedSocket.getResponseSequencer().add(response, e -> internalError(requestMessage, connectedSocket));
+    }
+
+    @Override
+    public void onWritabilityChanged(ConnectedSocket connectedSocket, boolean writable) {
+        handler.onWritabilityChanged(connectedSocket, writable);
+    }
+
+    private static Message internalError(Message requestMessage, ConnectedSocket connectedSocket) {
+        byte[] date = HttpDate.header();
+        byte[] fields = ("Content-Type: text/plain\r\nContent-Length: " + INTERNAL_ERROR_BODY.length + "\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+        byte[] response = new byte[INTERNAL_ERROR_STATUS_LINE.length + date.length + fields.length + INTERNAL_ERROR_BODY.length];
+        System.arraycopy(INTERNAL_ERROR_STATUS_LINE, 0, response, 0, INTERNAL_ERROR_STATUS_LINE.length);
+        System.arraycopy(date, 0, response, INTERNAL_ERROR_STATUS_LINE.length, date.length);
+        System.arraycopy(fields, 0, response, INTERNAL_ERROR_STATUS_LINE.length + date.length, fields.length);
+        System.arraycopy(INTERNAL_ERROR_BODY, 0, response, response.length - INTERNAL_ERROR_BODY.length, INTERNAL_ERROR_BODY.length);
+        // one buffer, so the response goes out in a single segment
+        Message msg = new Message(connectedSocket, requestMessage.getId());
+        msg.addData(response);
+        return msg;
+    }
+}
@@ -0,0 +1,201 @@
+package com.jun.nioServer.handler;
+
+import com.jun.http.HttpDate;
+import com.jun.nioServer.ConnectedSocket;
+import com.jun.nioServer.msg.Message;
+import com.jun.nioServer.msg.http.HttpUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Streams a response body with {@code Transfer-Encoding: chunked} while it is being produced, so
+ * that a response of any size needs no more memory than the connection's write queue holds.
+ *
+ * The producer writes from any thread and checks the result: when {@link #write} returns false the
+ * connection has passed its high watermark, and the producer should wait for {@link #whenWritable()}
+ * before writing more. The stream takes its place in the connection's response order: it is written
+ * once the responses of earlier requests have been queued, and later responses wait for
+ * {@link #finish()}. Until then the writer is not writable and keeps what it is given.
+ *
+ * The responses of other requests on the connection must go through the
+ * {@link com.jun.nioServer.ResponseSequencer} too, i.e. come from an
+ * {@link com.jun.http.AsyncNioMessageHandler}. HTTP/1.0 clients cannot receive chunked responses.
+ */
+public class ChunkedResponseWriter {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final ConnectedSocket socket;
+    // completes once the last chunk is queued, which releases the responses behind this one
+    private final CompletableFuture<Message> end = new CompletableFuture<>();
+
+    // guarded by this
+    private boolean started;
+    private boolean finished;
+    private List<ByteBuffer> unstarted = new ArrayList<>();
+    private List<CompletableFuture<Void>> startWaiters = new ArrayList<>();
+
+    private ChunkedResponseWriter(ConnectedSocket socket, byte[] header) {
+        this.socket = socket;
+        unstarted.add(ByteBuffer.wrap(header));
+        // cancelled when the connection closes before the stream started
+        end.whenComplete((msg, e) -> {
+            if (e != null) {
+                wakeStartWaiters();
+            }
+        });
+    }
+
+    /**
+     * Opens the stream of the response to the request.
+     *
+     * @param status  e.g. "200 OK"
+     * @param headers header lines, each ending with CRLF; Transfer-Encoding is added
+     */
+    public static ChunkedResponseWriter open(Message requestMessage, ConnectedSocket connectedSocket,
+                                             String status, String headers) {
+        byte[] statusLine = ("HTTP/1.1 " + status + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] date = HttpDate.header();
+        byte[] fields = (headers + "Transfer-Encoding: chunked\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] header = new byte[statusLine.length + date.length + fields.length];
+        System.arraycopy(statusLine, 0, header, 0, statusLine.length);
+        System.arraycopy(date, 0, header, statusLine.length, date.length);
+        System.arraycopy(fields, 0, header, statusLine.length + date.length, fields.length);
+
+        ChunkedResponseWriter writer = new ChunkedResponseWriter(connectedSocket, header);
+        connectedSocket.getResponseSequencer().addStream(writer.end, writer::start);
+        return writer;
+    }
+
+    /**
+     * Called by the sequencer when the responses ahead have been queued.
+     */
+    private void start() {
+        List<CompletableFuture<Void>> waiters;
+        synchronized (this) {
+            started = true;
+            if (socket.isDraining()) {
+                // the header comes first
+                unstarted.set(0, ByteBuffer.wrap(HttpUtil.withConnectionClose(unstarted.get(0).array())));
+            }
+            for (ByteBuffer buffer : unstarted) {
+                socket.addWriteBuffer(buffer);
+            }
+            unstarted = null;
+            waiters = startWaiters;
+            startWaiters = null;
+        }
+        socket.addInterestedOps(SelectionKey.OP_WRITE);
+        for (CompletableFuture<Void> waiter : waiters) {
+            socket.runWhenWritable(() -> waiter.complete(null));
+        }
+    }
+
+    private void wakeStartWaiters() {
+        List<CompletableFuture<Void>> waiters;
+        synchronized (this) {
+            if (startWaiters == null) {
+                return;
+            }
+            waiters = startWaiters;
+            startWaiters = new ArrayList<>();
+        }
+        for (CompletableFuture<Void> waiter : waiters) {
+            waiter.complete(null);
+        }
+    }
+
+    /**
+     * Queues the remaining bytes of data as one chunk. The bytes are copied together with the chunk
+     * framing, so the caller may reuse the buffer. Returns whether more may be written right away.
+     *
+     * @throws IOException if the connection was closed or the stream finished
+     */
+    public boolean write(ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        if (length == 0) {
+            // an empty chunk would end the body
+            return isWritable();
+        }
+        byte[] size = (Integer.toHexString(length) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer chunk = ByteBuffer.allocate(size.length + length + CRLF.length);
+        chunk.put(size).put(data).put(CRLF);
+        chunk.flip();
+        synchronized (this) {
+            if (finished || end.isCancelled() || socket.isClosed()) {
+                throw new IOException("Stream on socket " + socket.getSocketId() + " is closed");
+            }
+            queue(chunk);
+        }
+        return isWritable();
+    }
+
+    public boolean write(byte[] data) throws IOException {
+        return write(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Queues the last chunk. Later responses on the connection are written after it.
+     */
+    public void finish() {
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (!end.isCancelled()) {
+                queue(ByteBuffer.wrap(LAST_CHUNK));
+            }
+        }
+        // outside the lock: completing makes the sequencer take its own lock and start the next stream
+        end.complete(null);
+    }
+
+    /**
+     * Gives up on the response. The connection is closed, since a client cannot tell a truncated
+     * chunked body from a complete one otherwise.
+     */
+    public void abort() {
+        synchronized (this) {
+            finished = true;
+        }
+        socket.close();
+    }
+
+    private void queue(ByteBuffer buffer) {
+        if (started) {
+            socket.addWriteBuffer(buffer);
+            socket.addInterestedOps(SelectionKey.OP_WRITE);
+        } else {
+            unstarted.add(buffer);
+        }
+    }
+
+    public synchronized boolean isWritable() {
+        return started && socket.isWritable();
+    }
+
+    /**
+     * Completes when the producer may write again: the stream has started and the connection has
+     * drained below its low watermark, or the connection was closed. It may complete on the thread
+     * that writes the connection, so dependent actions must not block.
+     */
+    public CompletableFuture<Void> whenWritable() {
+        CompletableFuture<Void> writable = new CompletableFuture<>();
+        synchronized (this) {
+            if (!started && !end.isDone()) {
+                startWaiters.add(writable);
+                return writable;
+            }
+        }
+        socket.runWhenWritable(() -> writable.complete(null));
+        return writable;
+    }
+}
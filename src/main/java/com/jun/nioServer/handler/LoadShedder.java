@@ -0,0 +1,74 @@
+package com.jun.nioServer.handler;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control on the queueing delay of requests, after CoDel: a queue is overloaded when even
+ * its shortest delay over an interval stayed above the target, i.e. it never drained in that time.
+ * A burst passes, since the queue runs empty between bursts; a standing queue does not. While the
+ * queue is overloaded, requests that waited longer than twice the target are rejected instead of
+ * handled, which is cheap and keeps the delay of the admitted requests between once and twice the
+ * target. Above the target, the queue stays overloaded for as long as more requests arrive than
+ * are handled, rather than flapping between shedding nothing and shedding too much. The clients
+ * of a rejected request learn it right away instead of timing out.
+ *
+ * Not thread-safe: it belongs to the thread that takes the requests off the queue.
+ */
+public class LoadShedder {
+
+    private static final Logger log = Logger.getLogger(LoadShedder.class);
+
+    private final long targetNanos;
+    private final long intervalNanos;
+    private long intervalEnd;
+    private long minDelay = Long.MAX_VALUE;
+    private boolean overloaded;
+    private volatile long shed;
+
+    public LoadShedder(long targetMillis, long intervalMillis) {
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.intervalEnd = System.nanoTime() + intervalNanos;
+    }
+
+    /**
+     * Whether a request that waited the given time in the queue should be handled.
+     */
+    public boolean admit(long delayNanos, long nowNanos) {
+        if (delayNanos < minDelay) {
+            minDelay = delayNanos;
+        }
+        if (nowNanos - intervalEnd >= 0) {
+            boolean wasOverloaded = overloaded;
+            overloaded = minDelay > targetNanos;
+            if (overloaded != wasOverloaded) {
+                if (overloaded) {
+                    log.warn("Queue delay above " + TimeUnit.NANOSECONDS.toMillis(targetNanos)
+                        + " ms for the whole interval, shedding requests");
+                } else {
+                    log.info("Queue drained, stopped shedding after " + shed + " shed requests in total");
+                }
+            }
+            minDelay = Long.MAX_VALUE;
+            intervalEnd = nowNanos + intervalNanos;
+        }
+        if (overloaded && delayNanos > 2 * targetNanos) {
+            shed++;
+            return false;
+        }
+        return true;
+    }
+
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    /**
+     * Requests rejected so far.
+     */
+    public long getShed() {
+        return shed;
+    }
+}
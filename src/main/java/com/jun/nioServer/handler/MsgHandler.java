@@ -1,37 +1,112 @@
 package com.jun.nioServer.handler;
 
+import com.jun.config.ServerConfig;
+import com.jun.http.HttpDate;
 import com.jun.http.NioMessageHandler;
 import com.jun.nioServer.ConnectedSocket;
 import com.jun.nioServer.msg.IMessageReader;
 import com.jun.nioServer.msg.Message;
 import com.jun.nioServer.msg.IMessageReaderFactory;
+import com.jun.nioServer.msg.http.HttpHeaders;
 import com.jun.nioServer.msg.http.HttpMessageReaderFactory;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public class MsgHandler implements Runnable {
 
     private static final Logger log = Logger.getLogger(MsgHandler.class);
-    private static final BlockingQueue<ConnectedSocket> readyToMsgQ = new LinkedBlockingQueue<>();
+    private static final byte[] SERVICE_UNAVAILABLE_STATUS_LINE = "HTTP/1.1 503 Service Unavailable\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SERVICE_UNAVAILABLE_BODY = "503 Service Unavailable".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TOO_MANY_REQUESTS_STATUS_LINE = "HTTP/1.1 429 Too Many Requests\r\n".getBytes(StandardCharsets.US_ASCII);
+    // any configured rate gives a client a token back within a second
+    private static final byte[] TOO_MANY_REQUESTS_TAIL = ("Retry-After: 1\r\nContent-Type: text/plain\r\n"
+        + "Content-Length: 21\r\n\r\n429 Too Many Requests").getBytes(StandardCharsets.US_ASCII);
+    // the client or a proxy in front has given up; the request was never handled
+    private static final byte[] GATEWAY_TIMEOUT_STATUS_LINE = "HTTP/1.1 504 Gateway Timeout\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GATEWAY_TIMEOUT_TAIL = ("Content-Type: text/plain\r\n"
+        + "Content-Length: 19\r\n\r\n504 Gateway Timeout").getBytes(StandardCharsets.US_ASCII);
+    // sockets parsed in a row before the next request is handled
+    private static final int MAX_PARSE_BATCH = 64;
+    private final BlockingQueue<ConnectedSocket> readyToMsgQ = new LinkedBlockingQueue<>();
+    // Batches reused across sockets; only touched by this handler's thread
+    private final List<ByteBuffer> readBatch = new ArrayList<>();
+    private final List<Message> messageBatch = new ArrayList<>();
     private IMessageReader msgParser;
     private final Thread thread;
     private final IMessageReaderFactory messageReaderFactory;
     private final NioMessageHandler messageProcessor;
+    // System.nanoTime() since which the queue has not been empty, 0 while the handler keeps up
+    private volatile long backlogSince;
+    // the parsed requests, by class; they are handled one by one in its order
+    private final RequestScheduler scheduler;
+    // of a request without an X-Request-Timeout-Ms header, 0 for none
+    private final long deadlineNanos;
+    // the header fields and body of a shed request's response, after its Date line
+    private final byte[] serviceUnavailableTail;
+    // null if requests are not rate limited; may be shared with other handlers
+    private final RateLimiter rateLimiter;
+    private volatile long rateLimited;
+    private volatile long expired;
+    private volatile long orphaned;
+    private volatile long handledRequests;
 
     public boolean enqueue(ConnectedSocket socket) {
+        // when the data arrived, for shedding and deadlines
+        socket.markQueued(System.nanoTime());
         return readyToMsgQ.offer(socket);
     }
 
+    /**
+     * Sockets waiting for this handler to parse their data, and requests waiting to be handled.
+     */
+    public int queueSize() {
+        return readyToMsgQ.size() + scheduler.size();
+    }
+
+    /**
+     * Nanoseconds for which work has been waiting for this handler without its queues running
+     * empty; 0 while it keeps up. A short burst drains quickly, while a handler that falls behind
+     * has a backlog growing older.
+     */
+    public long getBacklogNanos() {
+        long since = backlogSince;
+        return since == 0 ? 0 : System.nanoTime() - since;
+    }
+
     public MsgHandler(IMessageReaderFactory readerFactory, NioMessageHandler messageProcessor) {
+        this(MsgHandler.class.getSimpleName(), readerFactory, messageProcessor);
+    }
+
+    public MsgHandler(String name, IMessageReaderFactory readerFactory, NioMessageHandler messageProcessor) {
+        this(name, readerFactory, messageProcessor, RateLimiter.fromConfig());
+    }
+
+    /**
+     * @param rateLimiter limits the requests of each client, or null
+     */
+    public MsgHandler(String name, IMessageReaderFactory readerFactory, NioMessageHandler messageProcessor,
+                      RateLimiter rateLimiter) {
         this.messageReaderFactory = readerFactory;
         this.msgParser = this.messageReaderFactory.createMessageReader();
         this.messageProcessor = messageProcessor;
-        this.thread = new Thread(this, MsgHandler.class.getSimpleName());
+        this.thread = new Thread(this, name);
+        this.rateLimiter = rateLimiter;
+        this.scheduler = new RequestScheduler();
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ServerConfig.NIO_REQUEST_DEADLINE_MS));
+        byte[] fields = ("Retry-After: " + ServerConfig.NIO_SHED_RETRY_AFTER_SECONDS + "\r\nContent-Type: text/plain\r\n"
+            + "Content-Length: " + SERVICE_UNAVAILABLE_BODY.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        this.serviceUnavailableTail = new byte[fields.length + SERVICE_UNAVAILABLE_BODY.length];
+        System.arraycopy(fields, 0, serviceUnavailableTail, 0, fields.length);
+        System.arraycopy(SERVICE_UNAVAILABLE_BODY, 0, serviceUnavailableTail, fields.length, SERVICE_UNAVAILABLE_BODY.length);
     }
 
     public synchronized void start() {
@@ -51,76 +126,190 @@ public class MsgHandler implements Runnable {
     public void run() {
         log.info("Message handler started");
         while(!Thread.currentThread().isInterrupted()) {
-            ConnectedSocket socket = null;
             try {
-                socket = readyToMsgQ.take();
-                if (socket != null) {
-                    processSocketInternal(socket);
+                // block only while no request waits to be handled
+                ConnectedSocket socket = scheduler.isEmpty() ? readyToMsgQ.take() : readyToMsgQ.poll();
+                // parse what has arrived before picking the next request, so that a health check
+                // that just came in is in its class already
+                int parsed = 0;
+                while (socket != null) {
+                    parseSocket(socket);
+                    socket = ++parsed < MAX_PARSE_BATCH ? readyToMsgQ.poll() : null;
                 }
+                if (readyToMsgQ.isEmpty() && scheduler.size() <= 1) {
+                    backlogSince = 0;
+                } else if (backlogSince == 0) {
+                    backlogSince = System.nanoTime();
+                }
+                handleNext();
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 log.info("MsgHandler interrupted, stopping.");
             } catch (Exception e) {
                 log.error("Exception in MsgHandler run loop", e);
-                if (socket != null) {
-                    log.error("Exception occurred while processing socket: " + socket.getSocketId() + ". Closing socket.", e);
-                    socket.close();
-                }
             }
         }
         log.info("Message handler stopped");
     }
 
-    void processSocketInternal(ConnectedSocket socket) { // Removed throws IOException as internal methods handle them
+    /**
+     * Parses the socket's data and handles all requests queued, whatever their class.
+     */
+    void processSocketInternal(ConnectedSocket socket) {
+        parseSocket(socket);
+        while (handleNext()) {
+            // until the queues are empty
+        }
+    }
+
+    /**
+     * Parses the data read from the socket and queues the complete requests by class.
+     */
+    private void parseSocket(ConnectedSocket socket) {
         try {
-            List<ByteBuffer> socketReadData = socket.getSocketReadData();
-            if (socketReadData == null) {
-                 log.warn("socketReadData is null for socket: " + socket.getSocketId());
-                 return;
+            long queuedSince = socket.takeQueuedSince();
+            socket.drainSocketReadData(readBatch);
+            if (!readBatch.isEmpty()) {
+                msgParser.parse(socket, readBatch);
             }
-
-            if (!socketReadData.isEmpty()) {
-                int lastCompIdx = msgParser.parse(socket, socketReadData);
-                if (lastCompIdx >= 0) {
-                    // Ensure subList parameters are valid
-                    if (lastCompIdx < socketReadData.size()) {
-                        socketReadData.subList(0, lastCompIdx + 1).clear();
-                    } else {
-                        log.warn("lastCompIdx is out of bounds for socketReadData for socket: " + socket.getSocketId());
-                        socketReadData.clear(); // Clear all if index is wrong
-                    }
+            socket.drainReadReadyMessages(messageBatch);
+            if (log.isDebugEnabled() && !messageBatch.isEmpty()) {
+                log.debug("Ready message num is " + messageBatch.size());
+            }
+            if (queuedSince == 0) {
+                queuedSince = System.nanoTime();
+            }
+            for (int i = 0; i < messageBatch.size(); i++) {
+                Message message = messageBatch.get(i);
+                message.setQueuedNanos(queuedSince);
+                long timeout = timeoutNanos(message);
+                if (timeout > 0) {
+                    message.setDeadlineNanos(queuedSince + timeout);
                 }
+                scheduler.add(message);
             }
-            processCompleteMsg(socket); // processCompleteMsg itself has a try-catch
         } catch (Exception e) {
-            // This catch block is for exceptions specifically from processing this socket internally
             log.error("Error during internal processing of socket: " + socket.getSocketId(), e);
-            // The run() method's main catch will also log and then close this socket.
-            // Re-throw if we want the main run() method's catch to handle socket closure.
-            // For now, just log here. The main loop's catch will handle closure.
-            // Or, more directly, if this method is expected to fully handle its errors including socket closure:
-            // socket.close(); // but this might be redundant if run() also does it.
-            // Let's rely on the run() method's catch block for socket closure.
+        } finally {
+            readBatch.clear();
+            messageBatch.clear();
         }
     }
 
-    private void processCompleteMsg(ConnectedSocket socket) {
-        List<Message> fullMessages = socket.getReadReadyMessages();
-        if (fullMessages != null && !fullMessages.isEmpty()) {
-            log.debug("Ready message num is " + fullMessages.size());
-            for (Message message : fullMessages) {
-                try {
-                    process(message);
-                } catch (IOException e) {
-                    log.error("Failed to add proc Q for socket " + socket.getSocketId(), e);
-                }
+    /**
+     * The shorter of the configured deadline and the request's own, 0 if it has neither.
+     */
+    private long timeoutNanos(Message message) {
+        long timeout = deadlineNanos;
+        if (message.getHeader() instanceof HttpHeaders) {
+            int millis = ((HttpHeaders) message.getHeader()).requestTimeoutMillis;
+            if (millis > 0 && (timeout == 0 || TimeUnit.MILLISECONDS.toNanos(millis) < timeout)) {
+                timeout = TimeUnit.MILLISECONDS.toNanos(millis);
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * Handles the request that is next by class, if there is one. Requests nobody waits for any
+     * more are not handled: those of closed connections are dropped, and those past their deadline
+     * answered with 504.
+     *
+     * @return whether there was one
+     */
+    private boolean handleNext() {
+        Message message = scheduler.poll();
+        if (message == null) {
+            return false;
+        }
+        ConnectedSocket socket = message.getSocketChannel();
+        try {
+            long now = System.nanoTime();
+            if (socket.isClosed()) {
+                orphaned++;
+            } else if (message.isExpired(now)) {
+                expired++;
+                reject(message, socket, GATEWAY_TIMEOUT_STATUS_LINE, GATEWAY_TIMEOUT_TAIL);
+            } else if (!scheduler.admit(message, now)) {
+                reject(message, socket, SERVICE_UNAVAILABLE_STATUS_LINE, serviceUnavailableTail);
+            } else if (rateLimiter != null && !rateLimiter.tryAcquire(message, socket, System.nanoTime())) {
+                rateLimited++;
+                reject(message, socket, TOO_MANY_REQUESTS_STATUS_LINE, TOO_MANY_REQUESTS_TAIL);
+            } else {
+                process(message);
+                handledRequests++;
             }
-            fullMessages.clear();
+        } catch (IOException e) {
+            log.error("Failed to add proc Q for socket " + socket.getSocketId(), e);
+        } catch (RuntimeException e) {
+            log.error("Error during internal processing of socket: " + socket.getSocketId(), e);
+        } finally {
+            socket.onRequestHandled();
         }
+        return true;
+    }
+
+    /**
+     * Answers the request without handling it, with a pre-encoded response that only needs its Date
+     * line. The response takes its place in the connection's response order.
+     */
+    private void reject(Message message, ConnectedSocket socket, byte[] statusLine, byte[] tail) {
+        byte[] date = HttpDate.header();
+        byte[] response = new byte[statusLine.length + date.length + tail.length];
+        System.arraycopy(statusLine, 0, response, 0, statusLine.length);
+        System.arraycopy(date, 0, response, statusLine.length, date.length);
+        System.arraycopy(tail, 0, response, response.length - tail.length, tail.length);
+        Message msg = new Message(socket, message.getId());
+        msg.addData(response);
+        socket.getResponseSequencer().add(CompletableFuture.completedFuture(msg), e -> null);
+    }
+
+    /**
+     * Requests answered with 503 because their class's queue was overloaded.
+     */
+    public long getShedRequests() {
+        return scheduler.getShed();
+    }
+
+    /**
+     * Requests answered with 429 because their client exceeded its rate.
+     */
+    public long getRateLimitedRequests() {
+        return rateLimited;
+    }
+
+    /**
+     * Requests answered with 504 because their deadline passed while they were queued.
+     */
+    public long getExpiredRequests() {
+        return expired;
+    }
+
+    /**
+     * Requests dropped because their connection closed while they were queued.
+     */
+    public long getOrphanedRequests() {
+        return orphaned;
+    }
+
+    /**
+     * Requests answered with a rejection or dropped rather than handed to the message processor:
+     * the shed, rate limited, expired and orphaned ones.
+     */
+    public long getDroppedRequests() {
+        return getShedRequests() + rateLimited + expired + orphaned;
+    }
+
+    /**
+     * Requests handed to the message processor so far; see {@link #getDroppedRequests()} for the
+     * others.
+     */
+    public long getHandledRequests() {
+        return handledRequests;
     }
 
     private void process(Message message) throws IOException {
-        // The ConnectedSocket is available via message.socketChannel
-        this.messageProcessor.processMessage(message, message.socketChannel);
+        // The ConnectedSocket is available via message.getSocketChannel()
+        this.messageProcessor.processMessage(message, message.getSocketChannel());
     }
 }
@@ -0,0 +1,75 @@
+package com.jun.nioServer.handler;
+
+import com.jun.config.ServerConfig;
+import com.jun.nioServer.ConnectedSocket;
+import com.jun.nioServer.msg.Message;
+import com.jun.nioServer.msg.http.HttpHeaders;
+import com.jun.nioServer.utility.TokenBucketTable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the request rate of each client to a token bucket, so that one client sending too many
+ * requests is answered with 429 rather than slowing down everyone else. A client is its address,
+ * counted like the connection limits count it, or the value of its X-Api-Key header where that is
+ * configured; the key is trusted, so only configure it behind something that authenticates keys.
+ *
+ * Thread-safe: the reactors share one limiter, so that a client gets no more by spreading its
+ * connections over them.
+ */
+public class RateLimiter {
+
+    private static final int STRIPES = 16;
+
+    private final TokenBucketTable buckets;
+    private final boolean byApiKey;
+
+    /**
+     * A limiter as configured, or null if requests are not limited.
+     */
+    public static RateLimiter fromConfig() {
+        if (ServerConfig.NIO_RATELIMIT_REQUESTS_PER_SECOND <= 0) {
+            return null;
+        }
+        return new RateLimiter(ServerConfig.NIO_RATELIMIT_REQUESTS_PER_SECOND, ServerConfig.NIO_RATELIMIT_BURST,
+            ServerConfig.NIO_RATELIMIT_TABLE_SIZE, ServerConfig.NIO_RATELIMIT_BY_API_KEY);
+    }
+
+    /**
+     * @param burst requests a client may send at once after being idle; at least 1
+     */
+    public RateLimiter(int requestsPerSecond, int burst, int tableSize, boolean byApiKey) {
+        this.buckets = new TokenBucketTable(tableSize, STRIPES,
+            TimeUnit.SECONDS.toNanos(1) / requestsPerSecond, Math.max(1, burst));
+        this.byApiKey = byApiKey;
+    }
+
+    /**
+     * Whether the client that sent the request may have it handled now.
+     */
+    public boolean tryAcquire(Message request, ConnectedSocket socket, long nowNanos) {
+        return buckets.tryAcquire(clientKey(request, socket), nowNanos);
+    }
+
+    private long clientKey(Message request, ConnectedSocket socket) {
+        if (byApiKey && request.getHeader() instanceof HttpHeaders) {
+            HttpHeaders headers = (HttpHeaders) request.getHeader();
+            if (headers.apiKeyEndIndex > headers.apiKeyStartIndex) {
+                return apiKey(request.getData(), headers.apiKeyStartIndex, headers.apiKeyEndIndex);
+            }
+        }
+        return socket.getClientKey();
+    }
+
+    /**
+     * FNV-1a of the key's bytes; collisions with address keys are as unlikely as between two keys.
+     */
+    static long apiKey(byte[] src, int from, int to) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = from; i < to; i++) {
+            h ^= src[i] & 0xFF;
+            h *= 0x100000001B3L;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,244 @@
+package com.jun.nioServer.handler;
+
+import com.jun.config.ServerConfig;
+import com.jun.nioServer.ConnectedSocket;
+import com.jun.nioServer.msg.Message;
+import com.jun.nioServer.msg.http.HttpHeaders;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Orders the parsed requests of a message handler by class, so that health checks and control
+ * requests do not wait behind bulk traffic. A request is a health check or a control request by
+ * its path prefix; an X-Request-Class header can put a request into the control or default class,
+ * but not make it a health check. Health checks are taken strictly first, the other classes in
+ * turn by their weights.
+ *
+ * Each class has its own queue and, if shedding is enabled, its own LoadShedder, so a saturated
+ * class sheds its own requests. The requests of one connection stay in order, since their
+ * responses must: while a connection has requests queued, its next ones join the same class.
+ *
+ * Not thread-safe: it belongs to the message handler thread.
+ */
+public class RequestScheduler {
+
+    public static final int HEALTH = 0;
+    public static final int CONTROL = 1;
+    public static final int DEFAULT = 2;
+    private static final String[] NAMES = {"health", "control", "default"};
+    private static final byte[][] NAME_BYTES = {
+        NAMES[0].getBytes(StandardCharsets.US_ASCII),
+        NAMES[1].getBytes(StandardCharsets.US_ASCII),
+        NAMES[2].getBytes(StandardCharsets.US_ASCII)};
+
+    private final byte[][] healthPaths;
+    private final byte[][] controlPaths;
+    // of the weighted classes; the health class is strict
+    private final int[] weights;
+    // smooth weighted round robin: the class with the highest credit goes next
+    private final int[] credits = new int[NAMES.length];
+    private final List<ArrayDeque<Message>> queues = new ArrayList<>(NAMES.length);
+    // the connections with requests queued: the class they are queued in and how many there are
+    private final Map<ConnectedSocket, Queued> queued = new IdentityHashMap<>();
+    // null if requests are never shed
+    private final LoadShedder[] shedders;
+    // read by other threads to see how far behind the handler is
+    private volatile int size;
+    private int polledClass;
+
+    public RequestScheduler() {
+        this(ServerConfig.NIO_PRIORITY_HEALTH_PATHS, ServerConfig.NIO_PRIORITY_CONTROL_PATHS,
+            ServerConfig.NIO_PRIORITY_CONTROL_WEIGHT, ServerConfig.NIO_PRIORITY_DEFAULT_WEIGHT,
+            ServerConfig.NIO_SHED_TARGET_MS, ServerConfig.NIO_SHED_INTERVAL_MS);
+    }
+
+    /**
+     * @param healthPaths  comma-separated path prefixes of health checks
+     * @param controlPaths comma-separated path prefixes of control requests
+     * @param shedTargetMillis queueing delay target of each class, 0 to never shed
+     */
+    public RequestScheduler(String healthPaths, String controlPaths, int controlWeight, int defaultWeight,
+                            int shedTargetMillis, int shedIntervalMillis) {
+        this.healthPaths = prefixes(healthPaths);
+        this.controlPaths = prefixes(controlPaths);
+        this.weights = new int[]{0, Math.max(1, controlWeight), Math.max(1, defaultWeight)};
+        for (int i = 0; i < NAMES.length; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+        if (shedTargetMillis > 0) {
+            shedders = new LoadShedder[NAMES.length];
+            for (int i = 0; i < NAMES.length; i++) {
+                shedders[i] = new LoadShedder(shedTargetMillis, shedIntervalMillis);
+            }
+        } else {
+            shedders = null;
+        }
+    }
+
+    private static byte[][] prefixes(String paths) {
+        List<byte[]> prefixes = new ArrayList<>();
+        if (paths != null) {
+            for (String path : paths.split(",")) {
+                // an empty prefix would take every request
+                if (!path.trim().isEmpty()) {
+                    prefixes.add(path.trim().getBytes(StandardCharsets.US_ASCII));
+                }
+            }
+        }
+        return prefixes.toArray(new byte[0][]);
+    }
+
+    /**
+     * Queues the request in its class, or in the class of its connection's queued requests.
+     */
+    public void add(Message request) {
+        int requestClass = classify(request);
+        ConnectedSocket socket = request.getSocketChannel();
+        if (socket != null) {
+            Queued connection = queued.get(socket);
+            if (connection == null) {
+                connection = new Queued(requestClass);
+                queued.put(socket, connection);
+            }
+            connection.requests++;
+            requestClass = connection.requestClass;
+        }
+        queues.get(requestClass).add(request);
+        size++;
+    }
+
+    /**
+     * The request to handle next, or null if none is queued.
+     */
+    public Message poll() {
+        if (size == 0) {
+            return null;
+        }
+        int next = HEALTH;
+        if (queues.get(HEALTH).isEmpty()) {
+            int total = 0;
+            next = -1;
+            for (int i = CONTROL; i < NAMES.length; i++) {
+                if (queues.get(i).isEmpty()) {
+                    credits[i] = 0;
+                    continue;
+                }
+                credits[i] += weights[i];
+                total += weights[i];
+                if (next < 0 || credits[i] > credits[next]) {
+                    next = i;
+                }
+            }
+            credits[next] -= total;
+        }
+        Message request = queues.get(next).poll();
+        size--;
+        polledClass = next;
+        ConnectedSocket socket = request.getSocketChannel();
+        if (socket != null && --queued.get(socket).requests == 0) {
+            queued.remove(socket);
+        }
+        return request;
+    }
+
+    /**
+     * Whether the request taken last with poll should be handled, see {@link LoadShedder#admit}.
+     */
+    public boolean admit(Message request, long nowNanos) {
+        if (shedders == null) {
+            return true;
+        }
+        long queued = request.getQueuedNanos();
+        return shedders[polledClass].admit(queued == 0 ? 0 : nowNanos - queued, nowNanos);
+    }
+
+    int classify(Message request) {
+        if (!(request.getHeader() instanceof HttpHeaders)) {
+            return DEFAULT;
+        }
+        HttpHeaders headers = (HttpHeaders) request.getHeader();
+        byte[] data = request.getData();
+        if (startsWithAny(data, headers.uriStartIndex, headers.uriEndIndex, healthPaths)) {
+            return HEALTH;
+        }
+        for (int i = CONTROL; i < NAMES.length; i++) {
+            if (equalsIgnoreCase(data, headers.requestClassStartIndex, headers.requestClassEndIndex, NAME_BYTES[i])) {
+                return i;
+            }
+        }
+        return startsWithAny(data, headers.uriStartIndex, headers.uriEndIndex, controlPaths) ? CONTROL : DEFAULT;
+    }
+
+    private static boolean startsWithAny(byte[] src, int from, int to, byte[][] prefixes) {
+        for (byte[] prefix : prefixes) {
+            if (to - from >= prefix.length && regionEquals(src, from, prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean regionEquals(byte[] src, int from, byte[] value) {
+        for (int i = 0; i < value.length; i++) {
+            if (src[from + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // value is lower case
+    private static boolean equalsIgnoreCase(byte[] src, int from, int to, byte[] value) {
+        if (to - from != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            byte b = src[from + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Requests queued in all classes.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Requests shed in all classes.
+     */
+    public long getShed() {
+        long shed = 0;
+        if (shedders != null) {
+            for (LoadShedder shedder : shedders) {
+                shed += shedder.getShed();
+            }
+        }
+        return shed;
+    }
+
+    private static final class Queued {
+        final int requestClass;
+        int requests;
+
+        Queued(int requestClass) {
+            this.requestClass = requestClass;
+        }
+    }
+}
@@ -2,69 +2,65 @@ package com.jun.nioServer.handler;
 
 import com.jun.config.ServerConfig;
 import com.jun.http.NioMessageHandler;
+import com.jun.http.ResponseTemplate;
 import com.jun.nioServer.ConnectedSocket;
 import com.jun.nioServer.msg.Message;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.nio.channels.SelectionKey;
+import java.nio.charset.StandardCharsets;
 
 public class SimpleNioMessageHandler implements NioMessageHandler {
     private static final Logger log = Logger.getLogger(SimpleNioMessageHandler.class);
 
-    @Override
-    public void processMessage(Message requestMessage, ConnectedSocket connectedSocket) throws IOException {
-        String responseBody = String.format(
-            ServerConfig.NIO_MSG_HANDLER_RESPONSE_BODY_FORMAT,
-            connectedSocket.getSocketId(),
-            requestMessage.getId()
-        );
+    // Compiled from the configured response parts; null if the body format needs String.format
+    private final ResponseTemplate template;
 
-        byte[] responseBodyBytes;
+    public SimpleNioMessageHandler() {
+        ResponseTemplate compiled = null;
         try {
-            responseBodyBytes = responseBody.getBytes("UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            // Should not happen with UTF-8
-            log.error("UTF-8 not supported, falling back to default charset for response body", e);
-            responseBodyBytes = responseBody.getBytes();
+            compiled = ResponseTemplate.compile(
+                ServerConfig.NIO_MSG_HANDLER_STATIC_RESPONSE_PART1,
+                ServerConfig.NIO_MSG_HANDLER_STATIC_RESPONSE_PART2,
+                ServerConfig.NIO_MSG_HANDLER_RESPONSE_BODY_FORMAT);
+        } catch (IllegalArgumentException e) {
+            log.warn(e.getMessage() + ". Responses will be formatted per request.");
         }
-        int contentLength = responseBodyBytes.length;
+        this.template = compiled;
+    }
 
-        String httpResponseHeader = ServerConfig.NIO_MSG_HANDLER_STATIC_RESPONSE_PART1 +
-                                   contentLength +
-                                   ServerConfig.NIO_MSG_HANDLER_STATIC_RESPONSE_PART2;
+    @Override
+    public void processMessage(Message requestMessage, ConnectedSocket connectedSocket) throws IOException {
+        byte[] responseBytes = template != null
+            ? template.render(connectedSocket.getSocketId(), requestMessage.getId())
+            : formatResponse(connectedSocket.getSocketId(), requestMessage.getId());
 
-        byte[] httpResponseHeaderBytes;
-        try {
-            httpResponseHeaderBytes = httpResponseHeader.getBytes("UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            log.error("UTF-8 not supported, falling back to default charset for response header", e);
-            httpResponseHeaderBytes = httpResponseHeader.getBytes();
+        if (log.isDebugEnabled()) {
+            log.debug("Processing socket: " + connectedSocket.getSocketId() + " - " + requestMessage.getId());
         }
-
-        log.debug("Processing socket: " + connectedSocket.getSocketId() + " - " + requestMessage.getId());
         Message response = new Message(connectedSocket, requestMessage.getId());
-
-        response.writeToMessage(httpResponseHeaderBytes);
-        response.writeToMessage(responseBodyBytes);
+        // header and body go out in a single buffer, so they are sent in one segment
+        response.addData(responseBytes);
 
         connectedSocket.addWriteReadyMsg(response);
 
         if(connectedSocket.prepareBuffersForWriting()) {
             log.debug("Response message is ready on socket " + connectedSocket.getSocketId());
-            if (connectedSocket.getKey() != null && connectedSocket.getKey().isValid()) {
-                connectedSocket.addInterestedOps(SelectionKey.OP_WRITE);
-                if (connectedSocket.getKey().selector() != null && connectedSocket.getKey().selector().isOpen()) {
-                    connectedSocket.getKey().selector().wakeup();
-                } else {
-                    log.warn("Selector is not open for socket: " + connectedSocket.getSocketId() + ", cannot wakeup.");
-                }
-            } else {
-                log.warn("SelectionKey is invalid or null for socket: " + connectedSocket.getSocketId() + ", cannot set OP_WRITE or wakeup selector.");
-            }
+            // written right here if the connection is idle, otherwise left to OP_WRITE
+            connectedSocket.flushWrites();
         } else {
             log.debug("Response message buffer could not be made ready for socket: " + connectedSocket.getSocketId());
         }
     }
+
+    private static byte[] formatResponse(int socketId, int messageId) {
+        byte[] body = String.format(ServerConfig.NIO_MSG_HANDLER_RESPONSE_BODY_FORMAT, socketId, messageId)
+            .getBytes(StandardCharsets.UTF_8);
+        byte[] header = (ServerConfig.NIO_MSG_HANDLER_STATIC_RESPONSE_PART1 + body.length +
+            ServerConfig.NIO_MSG_HANDLER_STATIC_RESPONSE_PART2).getBytes(StandardCharsets.UTF_8);
+        byte[] response = new byte[header.length + body.length];
+        System.arraycopy(header, 0, response, 0, header.length);
+        System.arraycopy(body, 0, response, header.length, body.length);
+        return response;
+    }
 }
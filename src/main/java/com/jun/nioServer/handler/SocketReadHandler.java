@@ -1,13 +1,13 @@
 package com.jun.nioServer.handler;
 
+import com.jun.config.ServerConfig;
 import com.jun.nioServer.ConnectedSocket;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 public class SocketReadHandler implements Runnable {
@@ -16,39 +16,61 @@ public class SocketReadHandler implements Runnable {
 
     private final ConnectedSocket socket;
     private final OnCompleteListener listener;
+    // Per read event, so that a connection streaming a large body cannot hold a reader thread
+    // while the other connections of the reactor wait; the rest is read on the next event
+    private final int budgetBytes;
+    private final int budgetReads;
+    // Reused across runs; only touched by the handler that owns the socket's read side, between
+    // beginRead and endRead
+    private final List<ByteBuffer> socketDatas = new ArrayList<>();
+    private ByteBuffer spareBuffer;
 
     public SocketReadHandler(ConnectedSocket socket, OnCompleteListener listener) {
         this.socket = socket;
         this.listener = listener;
+        this.budgetBytes = ServerConfig.NIO_READ_BUDGET_BYTES;
+        this.budgetReads = ServerConfig.NIO_READ_BUDGET_READS;
     }
 
     @Override
     public void run() {
-        // If multiple threads are reading data from particular socket, only one thread wins
-        if(!socket.tryReadLock()) {
+        // Only one handler reads from a socket at a time; a handler that loses the race makes
+        // the owner read once more before it releases the socket
+        if(!socket.beginRead()) {
             return;
         }
+        do {
+            read();
+        } while(socket.endRead());
+    }
+
+    private void read() {
         try {
             int totBytes = 0;
             int readbytes;
-            List<ByteBuffer> socketDatas = new LinkedList<>();
+            boolean drained;
+            socketDatas.clear();
             do {
-                ByteBuffer readByteBuffer = ByteBuffer.allocate(4 * 1024);    // 4K
+                ByteBuffer readByteBuffer = spareBuffer != null ? spareBuffer : ByteBuffer.allocate(4 * 1024);    // 4K
+                spareBuffer = null;
                 readbytes = readSocket(socket, readByteBuffer);
+                // a buffer that was not filled means the channel has nothing more for now
+                drained = readByteBuffer.hasRemaining();
                 if (readbytes > 0) {
                     readByteBuffer.flip();
                     socketDatas.add(readByteBuffer);
+                } else {
+                    // nothing was read into it, so keep it for the next event
+                    spareBuffer = readByteBuffer;
                 }
                 totBytes += readbytes;
-            } while (readbytes > 0);
+            } while (readbytes > 0 && !drained
+                && totBytes < budgetBytes && socketDatas.size() < budgetReads);
             if (!socket.isClosed()) {
                 listener.onComplete(totBytes, socketDatas);
-                socket.addInterestedOps(SelectionKey.OP_READ);
             }
         } catch (IOException e) {
             listener.onException(e);
-        } finally {
-            socket.unLockRead();
         }
     }
 
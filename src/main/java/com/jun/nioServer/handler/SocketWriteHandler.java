@@ -1,68 +1,224 @@
 package com.jun.nioServer.handler;
 
+import com.jun.config.ServerConfig;
 import com.jun.nioServer.ConnectedSocket;
+import com.jun.nioServer.msg.FileRegion;
+import com.jun.nioServer.utility.DirectBufferPool;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.Iterator;
-import java.util.List;
 
 public class SocketWriteHandler implements Runnable {
 
     private static final Logger log = Logger.getLogger(SocketWriteHandler.class);
+    // plaintext read from a file region per TLS record
+    private static final int TLS_CHUNK_SIZE = 16 * 1024;
+    // direct, so the positional file read needs no temporary copy; a connection holds one only while
+    // a file region is at the head of its queue
+    private static final DirectBufferPool TLS_CHUNKS = new DirectBufferPool(TLS_CHUNK_SIZE, 64);
+
     private final ConnectedSocket socket;
     private final OnCompleteListener listener;
+    // Per write event, so that a connection with a large response cannot hold a writer thread while
+    // the small responses of other connections wait; the rest is written on the next OP_WRITE
+    private final int budgetBytes;
+    private final int spinCount;
+    private long bytesLeft;
+    private int spinsLeft;
+
+    // TLS only: a record that did not fit into the socket buffer, written before anything else
+    private ByteBuffer pendingRecord;
+    // TLS only: plaintext of the file region at the head of the queue that is not wrapped yet
+    private ByteBuffer regionChunk;
 
     public SocketWriteHandler(ConnectedSocket socket, OnCompleteListener listener) {
         this.socket = socket;
         this.listener = listener;
+        this.budgetBytes = ServerConfig.NIO_WRITE_BUDGET_BYTES;
+        this.spinCount = ServerConfig.NIO_WRITE_SPIN_COUNT;
     }
 
     @Override
     public void run() {
-        // If multiple threads are writing data from particular socket, only one thread wins
-        if(!socket.tryWriteLock()) {
+        // Only one handler writes to a socket at a time; data queued while it runs makes it write again
+        if(!socket.beginWrite()) {
             return;
         }
-        try {
-            List<ByteBuffer> readyBuffers = socket.getWritebuffers();
-            Iterator<ByteBuffer> itr = readyBuffers.iterator();
-            int totWrite = 0;
-            while (itr.hasNext()) {
-                ByteBuffer writebuffer = itr.next();
-                int bytewrite = write(socket.getSocketChannel(), writebuffer);
-                totWrite += bytewrite;
-                log.debug("write to socketid " + socket.getSocketId() +" len " + bytewrite );
-                if(!writebuffer.hasRemaining()) {
-                    itr.remove();
-                } else {
-                    log.debug("data is not written yet");
-                    break;
+        bytesLeft = budgetBytes;
+        spinsLeft = spinCount;
+        boolean pending;
+        do {
+            pending = false;
+            try {
+                SocketChannel channel = socket.getSocketChannel();
+                long totWrite = 0;
+                Object entry;
+                // Entries are written straight from the socket's queue and only removed once fully written,
+                // so a partial write leaves the rest queued for the next OP_WRITE
+                while ((entry = socket.peekWrite()) != null || pendingRecord != null) {
+                    if (isBudgetSpent()) {
+                        pending = true;
+                        break;
+                    }
+                    long bytewrite;
+                    boolean done;
+                    if (socket.isSecure()) {
+                        bytewrite = writeSecure(channel, entry);
+                        done = pendingRecord == null && isConsumed(entry);
+                    } else if (entry instanceof FileRegion) {
+                        bytewrite = transfer(channel, (FileRegion) entry);
+                        done = ((FileRegion) entry).isDone();
+                    } else {
+                        bytewrite = write(channel, (ByteBuffer) entry);
+                        done = !((ByteBuffer) entry).hasRemaining();
+                    }
+                    totWrite += bytewrite;
+                    socket.onBytesWritten(bytewrite);
+                    if (log.isDebugEnabled()) {
+                        log.debug("write to socketid " + socket.getSocketId() + " len " + bytewrite);
+                    }
+                    if (!done) {
+                        log.debug("data is not written yet");
+                        pending = true;
+                        break;
+                    }
+                    if (entry != null) {
+                        socket.pollWrite();
+                        if (entry instanceof FileRegion) {
+                            ((FileRegion) entry).release();
+                            releaseRegionChunk();
+                        }
+                    }
                 }
+                listener.onComplete((int) totWrite, null);
+            } catch (IOException e) {
+                listener.onException(e);
             }
-            if(!readyBuffers.isEmpty()) {
-                socket.addInterestedOps(SelectionKey.OP_WRITE);
-                socket.getKey().selector().wakeup();
+            if (pending && isBudgetSpent()) {
+                // back of the line: the connections that became ready meanwhile are written first
+                socket.yieldWrite();
+                return;
             }
-            listener.onComplete(totWrite, null);
-        } catch (IOException e) {
-            listener.onException(e);
-        } finally {
-            socket.unLockWrite();
-        }
+        } while(socket.endWrite(pending));
+    }
+
+    private boolean isBudgetSpent() {
+        return bytesLeft <= 0 || spinsLeft <= 0;
+    }
+
+    private void spend(long written) {
+        bytesLeft -= written;
+        spinsLeft--;
     }
 
     public int write(SocketChannel socketChannel, ByteBuffer byteBuffer) throws IOException{
-        int bytesWritten = socketChannel.write(byteBuffer);
-        int totalBytesWritten = bytesWritten;
-        while(bytesWritten > 0 && byteBuffer.hasRemaining()) {
-            bytesWritten = socketChannel.write(byteBuffer);
+        int totalBytesWritten = 0;
+        int bytesWritten;
+        do {
+            // no more than the budget is handed to the channel, which also bounds the copy of a heap buffer
+            int limit = byteBuffer.limit();
+            if (byteBuffer.remaining() > bytesLeft) {
+                byteBuffer.limit(byteBuffer.position() + (int) Math.max(bytesLeft, 1));
+            }
+            try {
+                bytesWritten = socketChannel.write(byteBuffer);
+            } finally {
+                byteBuffer.limit(limit);
+            }
+            spend(bytesWritten);
             totalBytesWritten += bytesWritten;
-        }
+        } while(bytesWritten > 0 && byteBuffer.hasRemaining() && !isBudgetSpent());
         return totalBytesWritten;
     }
 
+    /**
+     * Sends a file region with sendfile, without copying it through the JVM heap. Like a buffer, no
+     * more than the budget is handed to the channel.
+     */
+    private long transfer(SocketChannel socketChannel, FileRegion region) throws IOException {
+        long total = 0;
+        while (!region.isDone() && !isBudgetSpent()) {
+            long written = region.transferTo(socketChannel, Math.max(bytesLeft, 1));
+            spend(written);
+            if (written == 0) {
+                break;
+            }
+            total += written;
+        }
+        return total;
+    }
+
+    /**
+     * Wraps the entry into TLS records and writes them until the entry is consumed or the socket
+     * is full. Returns the plaintext bytes that went into records written completely or in part.
+     */
+    private long writeSecure(SocketChannel socketChannel, Object entry) throws IOException {
+        long consumed = 0;
+        while (true) {
+            if (pendingRecord != null) {
+                write(socketChannel, pendingRecord);
+                if (pendingRecord.hasRemaining()) {
+                    return consumed;
+                }
+                pendingRecord = null;
+                if (isBudgetSpent()) {
+                    return consumed;
+                }
+            }
+            ByteBuffer plain;
+            if (entry instanceof FileRegion) {
+                plain = nextRegionChunk((FileRegion) entry);
+            } else {
+                plain = (ByteBuffer) entry;
+            }
+            if (plain == null || !plain.hasRemaining()) {
+                return consumed;
+            }
+            int before = plain.remaining();
+            pendingRecord = socket.wrap(plain);
+            consumed += before - plain.remaining();
+        }
+    }
+
+    private ByteBuffer nextRegionChunk(FileRegion region) throws IOException {
+        if (regionChunk == null) {
+            regionChunk = TLS_CHUNKS.acquire();
+            regionChunk.flip();
+        }
+        if (!regionChunk.hasRemaining() && !region.isDone()) {
+            regionChunk.clear();
+            region.read(regionChunk);
+            regionChunk.flip();
+        }
+        return regionChunk;
+    }
+
+    private void releaseRegionChunk() {
+        if (regionChunk != null) {
+            TLS_CHUNKS.release(regionChunk);
+            regionChunk = null;
+        }
+    }
+
+    /**
+     * Returns the pooled buffer of a file region that was being sent over TLS. Called by the socket
+     * once it is closed and no write handler runs on it any more.
+     */
+    public void release() {
+        releaseRegionChunk();
+    }
+
+    static int idleTlsChunks() {
+        return TLS_CHUNKS.idleBuffers();
+    }
+
+    private boolean isConsumed(Object entry) {
+        if (entry instanceof FileRegion) {
+            return ((FileRegion) entry).isDone() && (regionChunk == null || !regionChunk.hasRemaining());
+        }
+        return entry == null || !((ByteBuffer) entry).hasRemaining();
+    }
+
 }
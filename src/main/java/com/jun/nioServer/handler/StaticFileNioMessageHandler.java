@@ -0,0 +1,482 @@
+package com.jun.nioServer.handler;
+
+import com.jun.config.ServerConfig;
+import com.jun.http.ByteRange;
+import com.jun.http.GzipEncoder;
+import com.jun.http.HttpDate;
+import com.jun.http.NioMessageHandler;
+import com.jun.http.Validators;
+import com.jun.nioServer.ConnectedSocket;
+import com.jun.nioServer.cache.ContentCache;
+import com.jun.nioServer.cache.ContentCache.CachedContent;
+import com.jun.nioServer.msg.FileRegion;
+import com.jun.nioServer.msg.Message;
+import com.jun.nioServer.msg.http.HttpHeaders;
+import com.jun.nioServer.utility.NamedThreadFactory;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves files below a root directory. Only the response header is built in memory; the file
+ * content is queued on the socket as a {@link FileRegion}, which the write handler sends with
+ * {@code FileChannel.transferTo} on plain connections.
+ *
+ * Small files are served from a {@link ContentCache} instead: their content is queued as a shared
+ * read-only buffer, which also spares TLS connections the file read per response.
+ *
+ * Text responses are sent gzip-encoded to clients that accept it: from a pre-built {@code .gz}
+ * sibling when there is one, otherwise from a gzip variant kept with the cached content. A missing
+ * variant is made on a separate pool, once per entry.
+ *
+ * Every representation carries an ETag made from its size and modification time, and a
+ * Last-Modified header. A request whose If-None-Match or If-Modified-Since still holds gets a 304
+ * without a body, and an uncached file is then not even opened.
+ *
+ * A single byte range is answered with a 206 of the identity representation: a slice of the cached
+ * content, or a region at the range's position in the file. A range request does not load the file
+ * into the cache, so only the requested bytes are read. Several ranges are not supported; the
+ * whole file is sent instead, which RFC 7233 allows.
+ */
+public class StaticFileNioMessageHandler implements NioMessageHandler {
+    private static final Logger log = Logger.getLogger(StaticFileNioMessageHandler.class);
+
+    private static final String INDEX_FILE = "index.html";
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("html", "text/html; charset=utf-8");
+        CONTENT_TYPES.put("htm", "text/html; charset=utf-8");
+        CONTENT_TYPES.put("txt", "text/plain; charset=utf-8");
+        CONTENT_TYPES.put("css", "text/css; charset=utf-8");
+        CONTENT_TYPES.put("js", "application/javascript; charset=utf-8");
+        CONTENT_TYPES.put("json", "application/json");
+        CONTENT_TYPES.put("xml", "application/xml");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+        CONTENT_TYPES.put("webp", "image/webp");
+        CONTENT_TYPES.put("woff", "font/woff");
+        CONTENT_TYPES.put("woff2", "font/woff2");
+        CONTENT_TYPES.put("pdf", "application/pdf");
+        CONTENT_TYPES.put("mp4", "video/mp4");
+    }
+
+    private static final String VARY_HEADER = "Vary: Accept-Encoding\r\n";
+    private static final String GZIP_HEADERS = "Content-Encoding: gzip\r\n" + VARY_HEADER;
+    private static final String ACCEPT_RANGES_HEADER = "Accept-Ranges: bytes\r\n";
+    private static final byte[] NOT_MODIFIED_STATUS_LINE = "HTTP/1.1 304 Not Modified\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VARY_HEADER_BYTES = VARY_HEADER.getBytes(StandardCharsets.US_ASCII);
+
+    private final Path root;
+    private final ContentCache cache;   // null if caching is disabled
+    private final GzipEncoder gzipEncoder;  // null if compression is disabled
+    private final Executor compressor;
+    private final int gzipMinBytes;
+
+    public StaticFileNioMessageHandler() {
+        this(Paths.get(ServerConfig.NIO_STATIC_ROOT), ServerConfig.NIO_STATIC_CACHE_MAX_BYTES > 0
+            ? new ContentCache(ServerConfig.NIO_STATIC_CACHE_MAX_BYTES, ServerConfig.NIO_STATIC_CACHE_MAX_FILE_BYTES,
+                ServerConfig.NIO_STATIC_CACHE_MAP_THRESHOLD, ServerConfig.NIO_STATIC_CACHE_CHECK_INTERVAL_MS)
+            : null,
+            ServerConfig.NIO_STATIC_GZIP_ENABLED
+                ? new GzipEncoder(ServerConfig.NIO_STATIC_GZIP_LEVEL, ServerConfig.NIO_STATIC_GZIP_THREADS)
+                : null,
+            newCompressor(ServerConfig.NIO_STATIC_GZIP_THREADS),
+            ServerConfig.NIO_STATIC_GZIP_MIN_BYTES);
+    }
+
+    public StaticFileNioMessageHandler(Path root) {
+        this(root, null, null, null, 0);
+    }
+
+    /**
+     * @param gzipEncoder compresses cached content for clients that accept gzip; null disables gzip
+     *                    responses altogether, including pre-built .gz files
+     * @param compressor  runs the compression of cached content
+     */
+    public StaticFileNioMessageHandler(Path root, ContentCache cache, GzipEncoder gzipEncoder,
+                                       Executor compressor, int gzipMinBytes) {
+        this.root = root.toAbsolutePath().normalize();
+        this.cache = cache;
+        this.gzipEncoder = gzipEncoder;
+        this.compressor = compressor;
+        this.gzipMinBytes = gzipMinBytes;
+    }
+
+    // idle threads exit, so the pool needs no shutdown; when it is saturated the response stays uncompressed
+    private static Executor newCompressor(int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(256), new NamedThreadFactory("static-gzip"));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    public ContentCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public void processMessage(Message requestMessage, ConnectedSocket connectedSocket) throws IOException {
+        HttpHeaders headers = (HttpHeaders) requestMessage.getHeader();
+        if (headers.httpMethod != HttpHeaders.HTTP_METHOD_GET && headers.httpMethod != HttpHeaders.HTTP_METHOD_HEAD) {
+            sendError(requestMessage, connectedSocket, "405 Method Not Allowed");
+            return;
+        }
+        Path file = resolve(requestMessage.getData(), headers.uriStartIndex, headers.uriEndIndex);
+        if (file == null) {
+            sendError(requestMessage, connectedSocket, "404 Not Found");
+            return;
+        }
+        boolean sendBody = headers.httpMethod == HttpHeaders.HTTP_METHOD_GET;
+        String contentType = contentType(file);
+        boolean negotiable = gzipEncoder != null && isCompressible(contentType);
+        // ranges refer to the identity representation, so they are never served from a gzip variant
+        boolean ranged = sendBody && headers.rangeEndIndex != 0;
+        if (negotiable && !ranged && acceptsGzip(requestMessage.getData(), headers)) {
+            Path precompressed = precompressed(file);
+            if (precompressed != null
+                && serveFile(requestMessage, connectedSocket, precompressed, contentType, GZIP_HEADERS, sendBody, false)) {
+                return;
+            }
+            if (serveFile(requestMessage, connectedSocket, file, contentType, VARY_HEADER, sendBody, true)) {
+                return;
+            }
+        } else if (serveFile(requestMessage, connectedSocket, file, contentType, negotiable ? VARY_HEADER : "", sendBody, false)) {
+            return;
+        }
+        sendError(requestMessage, connectedSocket, "404 Not Found");
+    }
+
+    /**
+     * Queues the response for the file. With compress set, a cached gzip variant is sent instead of
+     * the content, or one is made in the background for the next request. A 304 is queued instead
+     * when the request's conditions match the validators of the chosen representation, and a 206
+     * when it asks for a range. Returns false if the file cannot be read.
+     */
+    private boolean serveFile(Message requestMessage, ConnectedSocket connectedSocket, Path file,
+                              String contentType, String extraHeaders, boolean sendBody, boolean compress) throws IOException {
+        HttpHeaders headers = (HttpHeaders) requestMessage.getHeader();
+        CachedContent cached = null;
+        if (cache != null) {
+            cached = headers.rangeEndIndex != 0 ? cache.getIfCached(file) : cache.get(file);
+        }
+        if (cached != null) {
+            ByteBuffer body = cached.content();
+            Validators validators = cached.getValidators();
+            if (compress && cached.getSize() >= gzipMinBytes) {
+                ByteBuffer variant = cached.gzipContent();
+                if (variant != null) {
+                    body = variant;
+                    validators = cached.getGzipValidators();
+                    extraHeaders = GZIP_HEADERS;
+                } else {
+                    compressLater(cached);
+                }
+            }
+            if (isNotModified(requestMessage, validators)) {
+                queueNotModified(requestMessage, connectedSocket, validators, !extraHeaders.isEmpty());
+                return true;
+            }
+            long size = body.remaining();
+            ByteRange range = requestedRange(requestMessage, validators, size);
+            if (range == ByteRange.UNSATISFIABLE) {
+                sendRangeNotSatisfiable(requestMessage, connectedSocket, size);
+                return true;
+            }
+            String status = "200 OK";
+            if (range != null) {
+                body.limit((int) range.getLast() + 1);
+                body.position((int) range.getFirst());
+                status = "206 Partial Content";
+                extraHeaders += "Content-Range: " + range.contentRange(size) + "\r\n";
+            }
+            queueHeader(requestMessage, connectedSocket, status, contentType, body.remaining(), validators,
+                extraHeaders + ACCEPT_RANGES_HEADER);
+            if (sendBody && body.hasRemaining()) {
+                connectedSocket.addWriteBuffer(body);
+            }
+            connectedSocket.flushWrites();
+            return true;
+        }
+        Validators validators;
+        FileChannel channel;
+        long size;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            validators = Validators.of(attrs.size(), attrs.lastModifiedTime().toMillis(), "");
+            if (isNotModified(requestMessage, validators)) {
+                queueNotModified(requestMessage, connectedSocket, validators, !extraHeaders.isEmpty());
+                return true;
+            }
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            size = channel.size();
+        } catch (IOException e) {
+            log.debug("Cannot open " + file + ": " + e);
+            return false;
+        }
+        ByteRange range = requestedRange(requestMessage, validators, size);
+        if (range == ByteRange.UNSATISFIABLE) {
+            channel.close();
+            sendRangeNotSatisfiable(requestMessage, connectedSocket, size);
+            return true;
+        }
+        String status = "200 OK";
+        long position = 0;
+        long length = size;
+        if (range != null) {
+            status = "206 Partial Content";
+            extraHeaders += "Content-Range: " + range.contentRange(size) + "\r\n";
+            position = range.getFirst();
+            length = range.length();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Serving " + file + " (" + length + " of " + size + " bytes) on socket " + connectedSocket.getSocketId());
+        }
+        queueHeader(requestMessage, connectedSocket, status, contentType, length, validators,
+            extraHeaders + ACCEPT_RANGES_HEADER);
+        if (sendBody && length > 0) {
+            // queued behind the header; the socket closes the file once it has been sent
+            connectedSocket.addWriteRegion(new FileRegion(channel, position, length));
+        } else {
+            channel.close();
+        }
+        connectedSocket.flushWrites();
+        return true;
+    }
+
+    /**
+     * Compresses the entry on the compression pool, so the message handler thread never waits for
+     * it. The current response goes out uncompressed.
+     */
+    private void compressLater(CachedContent cached) {
+        if (!cached.startCompression()) {
+            return;
+        }
+        try {
+            compressor.execute(() -> {
+                try {
+                    cache.addGzipVariant(cached, gzipEncoder.encode(cached.content()));
+                } catch (RuntimeException e) {
+                    log.warn("Failed to compress " + cached.getPath() + ": " + e);
+                    cached.abortCompression();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            cached.abortCompression();
+        }
+    }
+
+    /**
+     * The pre-built {@code .gz} sibling of the file, if there is one that is not older than the file.
+     */
+    private static Path precompressed(Path file) {
+        Path sibling = file.resolveSibling(file.getFileName() + ".gz");
+        try {
+            if (Files.isRegularFile(sibling)
+                && Files.getLastModifiedTime(sibling).compareTo(Files.getLastModifiedTime(file)) >= 0) {
+                return sibling;
+            }
+        } catch (IOException ignore) {
+        }
+        return null;
+    }
+
+    private static boolean acceptsGzip(byte[] request, HttpHeaders headers) {
+        return headers.acceptEncodingEndIndex != 0
+            && GzipEncoder.acceptsGzip(request, headers.acceptEncodingStartIndex, headers.acceptEncodingEndIndex);
+    }
+
+    static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/") || contentType.startsWith("application/javascript")
+            || contentType.startsWith("application/json") || contentType.startsWith("application/xml")
+            || contentType.startsWith("image/svg+xml");
+    }
+
+    private static boolean isNotModified(Message requestMessage, Validators validators) {
+        HttpHeaders headers = (HttpHeaders) requestMessage.getHeader();
+        return validators.isNotModified(requestMessage.getData(),
+            headers.ifNoneMatchStartIndex, headers.ifNoneMatchEndIndex,
+            headers.ifModifiedSinceStartIndex, headers.ifModifiedSinceEndIndex);
+    }
+
+    /**
+     * The single range a GET asks for, or null if the whole representation is to be sent: there is
+     * no usable Range header, or If-Range names another version of the file.
+     */
+    private static ByteRange requestedRange(Message requestMessage, Validators validators, long size) {
+        HttpHeaders headers = (HttpHeaders) requestMessage.getHeader();
+        if (headers.httpMethod != HttpHeaders.HTTP_METHOD_GET || headers.rangeEndIndex == 0) {
+            return null;
+        }
+        byte[] request = requestMessage.getData();
+        if (headers.ifRangeEndIndex != 0
+            && !validators.matchesIfRange(request, headers.ifRangeStartIndex, headers.ifRangeEndIndex)) {
+            return null;
+        }
+        return ByteRange.parse(request, headers.rangeStartIndex, headers.rangeEndIndex, size);
+    }
+
+    private void sendRangeNotSatisfiable(Message requestMessage, ConnectedSocket connectedSocket, long size) {
+        sendError(requestMessage, connectedSocket, "416 Range Not Satisfiable", "Content-Range: bytes */" + size + "\r\n");
+    }
+
+    private static void queueHeader(Message requestMessage, ConnectedSocket connectedSocket, String status,
+                                    String contentType, long size, Validators validators, String extraHeaders) {
+        Message response = new Message(connectedSocket, requestMessage.getId());
+        response.addData(responseHeader(status, contentType, size, validators.headerLines(), extraHeaders));
+        connectedSocket.addWriteReadyMsg(response);
+        connectedSocket.prepareBuffersForWriting();
+    }
+
+    /**
+     * Queues a 304 from pre-encoded parts: the status line, the cached Date header and the
+     * validator lines. It has no body and therefore no Content-Length or Content-Type.
+     */
+    private static void queueNotModified(Message requestMessage, ConnectedSocket connectedSocket,
+                                         Validators validators, boolean vary) {
+        byte[] date = HttpDate.header();
+        byte[] lines = validators.headerLines();
+        int length = NOT_MODIFIED_STATUS_LINE.length + date.length + lines.length
+            + (vary ? VARY_HEADER_BYTES.length : 0) + 2;
+        byte[] response = new byte[length];
+        int at = copy(NOT_MODIFIED_STATUS_LINE, response, 0);
+        at = copy(date, response, at);
+        at = copy(lines, response, at);
+        if (vary) {
+            at = copy(VARY_HEADER_BYTES, response, at);
+        }
+        response[at] = '\r';
+        response[at + 1] = '\n';
+        Message msg = new Message(connectedSocket, requestMessage.getId());
+        msg.addData(response);
+        connectedSocket.addWriteReadyMsg(msg);
+        connectedSocket.prepareBuffersForWriting();
+        connectedSocket.flushWrites();
+    }
+
+    private static int copy(byte[] src, byte[] dest, int at) {
+        System.arraycopy(src, 0, dest, at, src.length);
+        return at + src.length;
+    }
+
+    private void sendError(Message requestMessage, ConnectedSocket connectedSocket, String status) {
+        sendError(requestMessage, connectedSocket, status, "");
+    }
+
+    private void sendError(Message requestMessage, ConnectedSocket connectedSocket, String status, String extraHeaders) {
+        byte[] body = status.getBytes(StandardCharsets.US_ASCII);
+        byte[] header = responseHeader(status, "text/plain", body.length, new byte[0], extraHeaders);
+        byte[] response = new byte[header.length + body.length];
+        System.arraycopy(header, 0, response, 0, header.length);
+        System.arraycopy(body, 0, response, header.length, body.length);
+        Message msg = new Message(connectedSocket, requestMessage.getId());
+        msg.addData(response);
+        connectedSocket.addWriteReadyMsg(msg);
+        if (connectedSocket.prepareBuffersForWriting()) {
+            connectedSocket.flushWrites();
+        }
+    }
+
+    private static byte[] responseHeader(String status, String contentType, long contentLength,
+                                         byte[] validatorLines, String extraHeaders) {
+        byte[] statusLine = ("HTTP/1.1 " + status + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] date = HttpDate.header();
+        byte[] fields = ("Content-Type: " + contentType + "\r\nContent-Length: " + contentLength + "\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+        byte[] trailing = (extraHeaders + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] header = new byte[statusLine.length + date.length + fields.length + validatorLines.length + trailing.length];
+        int at = copy(statusLine, header, 0);
+        at = copy(date, header, at);
+        at = copy(fields, header, at);
+        at = copy(validatorLines, header, at);
+        copy(trailing, header, at);
+        return header;
+    }
+
+    /**
+     * Maps the request target to a readable regular file below the root, or null. Paths that
+     * escape the root after normalization are rejected; a directory maps to its index file.
+     */
+    Path resolve(byte[] src, int uriStart, int uriEnd) {
+        int end = uriStart;
+        while (end < uriEnd && src[end] != '?' && src[end] != '#') {
+            end++;
+        }
+        String path = decode(src, uriStart, end);
+        if (path == null || !path.startsWith("/") || path.indexOf('\0') >= 0) {
+            return null;
+        }
+        Path file;
+        try {
+            file = root.resolve(path.substring(1)).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (!file.startsWith(root)) {
+            log.warn("Rejected request outside of the static root: " + path);
+            return null;
+        }
+        if (Files.isDirectory(file)) {
+            file = file.resolve(INDEX_FILE);
+        }
+        return Files.isRegularFile(file) && Files.isReadable(file) ? file : null;
+    }
+
+    /**
+     * Percent-decodes the path as UTF-8. Returns null on a malformed escape.
+     */
+    private static String decode(byte[] src, int start, int end) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(end - start);
+        for (int i = start; i < end; i++) {
+            byte b = src[i];
+            if (b == '%') {
+                if (i + 2 >= end) {
+                    return null;
+                }
+                int hi = Character.digit(src[i + 1], 16);
+                int lo = Character.digit(src[i + 2], 16);
+                if (hi < 0 || lo < 0) {
+                    return null;
+                }
+                out.write((hi << 4) | lo);
+                i += 2;
+            } else {
+                out.write(b);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    static String contentType(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            return DEFAULT_CONTENT_TYPE;
+        }
+        String type = CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return type != null ? type : DEFAULT_CONTENT_TYPE;
+    }
+}
@@ -0,0 +1,92 @@
+package com.jun.nioServer.msg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A range of a file queued for writing next to the byte buffers of a connection. The region keeps
+ * track of how much of it has been written, so a partial transfer resumes on the next OP_WRITE.
+ *
+ * Transfers use positional reads and never move the channel's position.
+ */
+public class FileRegion {
+
+    private final FileChannel channel;
+    private final long position;
+    private final long count;
+    private long transferred;
+
+    public FileRegion(FileChannel channel, long position, long count) {
+        this.channel = channel;
+        this.position = position;
+        this.count = count;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long remaining() {
+        return count - transferred;
+    }
+
+    public boolean isDone() {
+        return transferred >= count;
+    }
+
+    /**
+     * Sends the rest of the region with {@link FileChannel#transferTo}, which the OS may do without
+     * copying the data to user space. Returns the number of bytes written, 0 if the target is full.
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        return transferTo(target, remaining());
+    }
+
+    /**
+     * Sends at most maxBytes of the rest of the region, see {@link #transferTo(WritableByteChannel)}.
+     *
+     * @throws IOException also if the file was truncated, since the rest of the region can never be sent
+     */
+    public long transferTo(WritableByteChannel target, long maxBytes) throws IOException {
+        long written = channel.transferTo(position + transferred, Math.min(maxBytes, remaining()), target);
+        // transferTo does not tell the end of the file from a full target
+        if (written == 0 && !isDone() && position + transferred >= channel.size()) {
+            throw new IOException("File was truncated while it was being sent");
+        }
+        transferred += written;
+        return written;
+    }
+
+    /**
+     * Copies the next part of the region into dst, for targets that cannot take the file directly
+     * such as TLS connections. Returns the number of bytes copied.
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        int limit = dst.limit();
+        if (dst.remaining() > remaining()) {
+            dst.limit(dst.position() + (int) remaining());
+        }
+        try {
+            int read = channel.read(dst, position + transferred);
+            if (read < 0) {
+                throw new IOException("File was truncated while it was being sent");
+            }
+            transferred += read;
+            return read;
+        } finally {
+            dst.limit(limit);
+        }
+    }
+
+    /**
+     * Closes the file. Called once the region has been written or its connection was closed.
+     */
+    public void release() {
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+        }
+    }
+}
@@ -6,5 +6,11 @@ import java.nio.ByteBuffer;
 import java.util.List;
 
 public interface IMessageReader {
+    /**
+     * Parses the data read from the socket, in order, and adds the complete messages to it. An
+     * incomplete message at the end is kept on the socket and completed by a later call.
+     *
+     * @return the number of complete messages
+     */
     int parse(ConnectedSocket socket, List<ByteBuffer> buffers);
 }
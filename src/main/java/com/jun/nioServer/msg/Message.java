@@ -21,6 +21,10 @@ public class Message {
     private int lastidx;
     private int lastofst;
     private final int id;
+    // System.nanoTime() when the request's data was queued for the message handler, 0 if unknown
+    private long queuedNanos;
+    // System.nanoTime() after which nobody waits for the response any more, 0 if none
+    private long deadlineNanos;
 
     public Message(ConnectedSocket socketChannel) {
         this.socketChannel = socketChannel;
@@ -55,11 +59,40 @@ public class Message {
     public void writeToMessage(byte[] src, int offset, int length) {
         byte[] dst = new byte[length];
         System.arraycopy(src, offset, dst, 0, length);
-        log.debug(String.format("write msg %d-len:%d on socketid %d(%d)%n[Contents]%n%s",
-            datas.size(), length, socketChannel.getSocketId(), id, new String(dst)));
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("write msg %d-len:%d on socketid %d(%d)%n[Contents]%n%s",
+                datas.size(), length, socketChannel.getSocketId(), id, new String(dst)));
+        }
         datas.add(dst);
     }
 
+    /**
+     * Appends src without copying it; the caller must not modify it afterwards.
+     */
+    public void addData(byte[] src) {
+        datas.add(src);
+    }
+
+    /**
+     * The whole content as one array. A single-part message returns its part without copying.
+     */
+    public byte[] getData() {
+        if (datas.size() == 1) {
+            return datas.get(0);
+        }
+        int length = 0;
+        for (byte[] data : datas) {
+            length += data.length;
+        }
+        byte[] dst = new byte[length];
+        int pos = 0;
+        for (byte[] data : datas) {
+            System.arraycopy(data, 0, dst, pos, data.length);
+            pos += data.length;
+        }
+        return dst;
+    }
+
     public List<byte[]> getDatas() {
         return getDatas(lastidx);
     }
@@ -77,6 +110,29 @@ public class Message {
         return lastofst;
     }
 
+    public void setQueuedNanos(long queuedNanos) {
+        this.queuedNanos = queuedNanos;
+    }
+
+    public long getQueuedNanos() {
+        return queuedNanos;
+    }
+
+    public void setDeadlineNanos(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    /**
+     * Whether the request has a deadline and it has passed.
+     */
+    public boolean isExpired(long nowNanos) {
+        return deadlineNanos != 0 && nowNanos - deadlineNanos > 0;
+    }
+
     public void setHeader(Object header) {
         this.header = header;
     }
@@ -13,11 +13,70 @@ public class HttpHeaders {
 
     public int httpMethod    = 0;
 
+    public int uriStartIndex = 0;
+    public int uriEndIndex   = 0;
+
     public int hostStartIndex = 0;
     public int hostEndIndex   = 0;
 
     public int contentLength = 0;
+    // X-Request-Timeout-Ms, 0 if absent or not a number
+    public int requestTimeoutMillis = 0;
+
+    // values of optional headers, both indices 0 if absent
+    public int acceptEncodingStartIndex = 0;
+    public int acceptEncodingEndIndex   = 0;
+    public int ifNoneMatchStartIndex = 0;
+    public int ifNoneMatchEndIndex   = 0;
+    public int ifModifiedSinceStartIndex = 0;
+    public int ifModifiedSinceEndIndex   = 0;
+    public int rangeStartIndex = 0;
+    public int rangeEndIndex   = 0;
+    public int ifRangeStartIndex = 0;
+    public int ifRangeEndIndex   = 0;
+    public int apiKeyStartIndex = 0;
+    public int apiKeyEndIndex   = 0;
+    public int requestClassStartIndex = 0;
+    public int requestClassEndIndex   = 0;
 
     public int bodyStartIndex = 0;
     public int bodyEndIndex   = 0;
-}
\ No newline at end of file
+
+    /**
+     * Moves the parsed indices by the given offset, e.g. when the parsed bytes are copied to a message.
+     */
+    void shift(int offset) {
+        uriStartIndex  += offset;
+        uriEndIndex    += offset;
+        if (acceptEncodingEndIndex != 0) {
+            acceptEncodingStartIndex += offset;
+            acceptEncodingEndIndex   += offset;
+        }
+        if (ifNoneMatchEndIndex != 0) {
+            ifNoneMatchStartIndex += offset;
+            ifNoneMatchEndIndex   += offset;
+        }
+        if (ifModifiedSinceEndIndex != 0) {
+            ifModifiedSinceStartIndex += offset;
+            ifModifiedSinceEndIndex   += offset;
+        }
+        if (rangeEndIndex != 0) {
+            rangeStartIndex += offset;
+            rangeEndIndex   += offset;
+        }
+        if (ifRangeEndIndex != 0) {
+            ifRangeStartIndex += offset;
+            ifRangeEndIndex   += offset;
+        }
+        if (apiKeyEndIndex != 0) {
+            apiKeyStartIndex += offset;
+            apiKeyEndIndex   += offset;
+        }
+        if (requestClassEndIndex != 0) {
+            requestClassStartIndex += offset;
+            requestClassEndIndex   += offset;
+        }
+        bodyStartIndex += offset;
+        bodyEndIndex   += offset;
+    }
+}
@@ -11,49 +11,60 @@ import java.util.List;
 public class HttpMessageReader implements IMessageReader {
 
     private static final Logger log = Logger.getLogger(HttpMessageReader.class);
-    // TODO: This reader processes buffers available in a single `parse` call.
-    // It does not maintain state for incomplete headers across multiple `parse` invocations.
-    // For truly robust handling of headers split across network packets arriving in
-    // different selector cycles, a more stateful parsing mechanism (e.g., storing
-    // partial Message state in ConnectedSocket or a dedicated buffer map) would be needed.
-    // The current `// todo: how to handle remaining message (partial msg)` in MsgHandler
-    // is related to this. For now, this handles cases where headers are split within
-    // the current batch of buffers.
 
+    /**
+     * Requests may span read buffers and read events: the buffers are parsed as one contiguous
+     * range, prefixed with the incomplete request left over by the previous call, and the
+     * incomplete request at the end is left on the socket for the next one, together with whether
+     * its header is complete, which decides the timeout it is under. A single buffer with
+     * nothing left over, the common case, is parsed in place.
+     */
     @Override
     public int parse(ConnectedSocket socket, List<ByteBuffer> buffers) {
-        Message msg = new Message(socket);
-        msg.setHeader(new HttpHeaders());
-        int idx = 0;
-        int lastCompleteBufferIndex = -1;
-        for(ByteBuffer buffer: buffers) {
-            int startIdx = 0;
-            int remaining = buffer.limit();
-            do {
-                HttpHeaders headers = (HttpHeaders) msg.getHeader();
-                boolean isCompletedMsg = false;
-                int endIdx = HttpUtil.parseHttpRequest(buffer.array(), startIdx, remaining, headers);
-                if (endIdx != -1) {
-                    isCompletedMsg = true;
-                } else {
-                    log.debug("data is not completed yet");
-                    endIdx = remaining;
-                }
-                msg.writeToMessage(buffer.array(), startIdx, endIdx);
-                remaining -= (endIdx - startIdx);
-                if (isCompletedMsg) {
-                    lastCompleteBufferIndex = idx;
-                    socket.addReadReadyMsg(msg);
-                    if (remaining != 0) {
-                        log.debug("There is a remaining data");
-                        msg = new Message(socket);
-                        msg.setHeader(new HttpHeaders());
-                    }
-                }
-                startIdx = endIdx;
-            } while (remaining != 0);
-            idx++;
+        ByteBuffer data = join(socket.takeReadRemainder(), buffers);
+        byte[] src = data.array();
+        int start = data.arrayOffset() + data.position();
+        int end = data.arrayOffset() + data.limit();
+        int complete = 0;
+        while (start < end) {
+            HttpHeaders headers = new HttpHeaders();
+            int endIdx = HttpUtil.parseHttpRequest(src, start, end, headers);
+            if (endIdx == -1) {
+                log.debug("data is not completed yet");
+                // copied, so the read buffers are not held on to
+                byte[] remainder = new byte[end - start];
+                System.arraycopy(src, start, remainder, 0, remainder.length);
+                socket.setReadRemainder(ByteBuffer.wrap(remainder), headers.bodyStartIndex != 0);
+                break;
+            }
+            // the indices are relative to the buffer; make them relative to the message data
+            headers.shift(-start);
+            Message msg = new Message(socket);
+            msg.setHeader(headers);
+            msg.writeToMessage(src, start, endIdx - start);
+            socket.addReadReadyMsg(msg);
+            complete++;
+            start = endIdx;
         }
-        return lastCompleteBufferIndex;
+        return complete;
+    }
+
+    private static ByteBuffer join(ByteBuffer remainder, List<ByteBuffer> buffers) {
+        if (remainder == null && buffers.size() == 1 && buffers.get(0).hasArray()) {
+            return buffers.get(0);
+        }
+        int length = remainder != null ? remainder.remaining() : 0;
+        for (int i = 0; i < buffers.size(); i++) {
+            length += buffers.get(i).remaining();
+        }
+        ByteBuffer joined = ByteBuffer.allocate(length);
+        if (remainder != null) {
+            joined.put(remainder);
+        }
+        for (int i = 0; i < buffers.size(); i++) {
+            joined.put(buffers.get(i).duplicate());
+        }
+        joined.flip();
+        return joined;
     }
 }
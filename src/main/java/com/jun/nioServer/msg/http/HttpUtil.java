@@ -2,6 +2,7 @@ package com.jun.nioServer.msg.http;
 
 import org.apache.log4j.Logger;
 
+import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
 
 /**
@@ -17,6 +18,20 @@ public class HttpUtil {
     private static final byte[] DELETE = new byte[]{'D','E','L','E','T','E'};
 
     private static final byte[] CONTENT_LENGTH = new byte[]{'C','o','n','t','e','n','t','-','L','e','n','g','t','h'};
+    // matched case-insensitively, see matchesHeaderName
+    private static final byte[] ACCEPT_ENCODING = "accept-encoding".getBytes();
+    private static final byte[] IF_NONE_MATCH = "if-none-match".getBytes();
+    private static final byte[] IF_MODIFIED_SINCE = "if-modified-since".getBytes();
+    private static final byte[] RANGE = "range".getBytes();
+    private static final byte[] IF_RANGE = "if-range".getBytes();
+    private static final byte[] X_API_KEY = "x-api-key".getBytes();
+    private static final byte[] X_REQUEST_CLASS = "x-request-class".getBytes();
+    private static final byte[] X_REQUEST_TIMEOUT_MS = "x-request-timeout-ms".getBytes();
+    private static final byte[] CONNECTION = "connection".getBytes();
+
+    private static final byte[] HTTP_VERSION_PREFIX = "HTTP/1.".getBytes();
+    private static final byte[] CONNECTION_CLOSE = "Connection: close\r\n".getBytes();
+    private static final byte[] CLOSE = "close".getBytes();
 
     public static int parseHttpRequest(byte[] src, int startIndex, int endIndex, HttpHeaders httpHeaders){
 
@@ -90,6 +105,8 @@ public class HttpUtil {
             return -1;
         }
         // TODO: Further validation for HTTP/X.Y can be added here if needed.
+        httpHeaders.uriStartIndex = uriStartIndex;
+        httpHeaders.uriEndIndex   = versionStartIndex - 1;
 
         //parse HTTP headers
         int prevEndOfHeader = endOfFirstLine + 1;
@@ -103,6 +120,37 @@ public class HttpUtil {
                 } catch (UnsupportedEncodingException e) {
                     log.error("Error parsing content length", e);
                 }
+            } else if(matchesHeaderName(src, prevEndOfHeader, endOfHeader, ACCEPT_ENCODING)){
+                int valueStart = headerValueStart(src, prevEndOfHeader + ACCEPT_ENCODING.length + 1, endOfHeader);
+                httpHeaders.acceptEncodingStartIndex = valueStart;
+                httpHeaders.acceptEncodingEndIndex   = headerValueEnd(src, valueStart, endOfHeader);
+            } else if(matchesHeaderName(src, prevEndOfHeader, endOfHeader, IF_NONE_MATCH)){
+                int valueStart = headerValueStart(src, prevEndOfHeader + IF_NONE_MATCH.length + 1, endOfHeader);
+                httpHeaders.ifNoneMatchStartIndex = valueStart;
+                httpHeaders.ifNoneMatchEndIndex   = headerValueEnd(src, valueStart, endOfHeader);
+            } else if(matchesHeaderName(src, prevEndOfHeader, endOfHeader, IF_MODIFIED_SINCE)){
+                int valueStart = headerValueStart(src, prevEndOfHeader + IF_MODIFIED_SINCE.length + 1, endOfHeader);
+                httpHeaders.ifModifiedSinceStartIndex = valueStart;
+                httpHeaders.ifModifiedSinceEndIndex   = headerValueEnd(src, valueStart, endOfHeader);
+            } else if(matchesHeaderName(src, prevEndOfHeader, endOfHeader, RANGE)){
+                int valueStart = headerValueStart(src, prevEndOfHeader + RANGE.length + 1, endOfHeader);
+                httpHeaders.rangeStartIndex = valueStart;
+                httpHeaders.rangeEndIndex   = headerValueEnd(src, valueStart, endOfHeader);
+            } else if(matchesHeaderName(src, prevEndOfHeader, endOfHeader, IF_RANGE)){
+                int valueStart = headerValueStart(src, prevEndOfHeader + IF_RANGE.length + 1, endOfHeader);
+                httpHeaders.ifRangeStartIndex = valueStart;
+                httpHeaders.ifRangeEndIndex   = headerValueEnd(src, valueStart, endOfHeader);
+            } else if(matchesHeaderName(src, prevEndOfHeader, endOfHeader, X_API_KEY)){
+                int valueStart = headerValueStart(src, prevEndOfHeader + X_API_KEY.length + 1, endOfHeader);
+                httpHeaders.apiKeyStartIndex = valueStart;
+                httpHeaders.apiKeyEndIndex   = headerValueEnd(src, valueStart, endOfHeader);
+            } else if(matchesHeaderName(src, prevEndOfHeader, endOfHeader, X_REQUEST_CLASS)){
+                int valueStart = headerValueStart(src, prevEndOfHeader + X_REQUEST_CLASS.length + 1, endOfHeader);
+                httpHeaders.requestClassStartIndex = valueStart;
+                httpHeaders.requestClassEndIndex   = headerValueEnd(src, valueStart, endOfHeader);
+            } else if(matchesHeaderName(src, prevEndOfHeader, endOfHeader, X_REQUEST_TIMEOUT_MS)){
+                int valueStart = headerValueStart(src, prevEndOfHeader + X_REQUEST_TIMEOUT_MS.length + 1, endOfHeader);
+                httpHeaders.requestTimeoutMillis = parseMillis(src, valueStart, headerValueEnd(src, valueStart, endOfHeader));
             }
 
             prevEndOfHeader = endOfHeader + 1;
@@ -116,9 +164,10 @@ public class HttpUtil {
         //check that byte array contains full HTTP message.
         int bodyStartIndex = endOfHeader + 1;
         int bodyEndIndex  = bodyStartIndex + httpHeaders.contentLength;
+        // set even if the body is incomplete: the header is, which the reader's timeouts tell apart
+        httpHeaders.bodyStartIndex = bodyStartIndex;
 
         if(bodyEndIndex <= endIndex){
-            httpHeaders.bodyStartIndex = bodyStartIndex;
             httpHeaders.bodyEndIndex   = bodyEndIndex;
             return bodyEndIndex;
         }
@@ -127,6 +176,24 @@ public class HttpUtil {
         return -1;
     }
 
+    /**
+     * The decimal value in src[from, to), or 0 if it is empty or not a number. Values beyond
+     * Integer.MAX_VALUE are capped, as no deadline is that far away.
+     */
+    private static int parseMillis(byte[] src, int from, int to) {
+        if (from >= to) {
+            return 0;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            if (src[i] < '0' || src[i] > '9') {
+                return 0;
+            }
+            value = Math.min(Integer.MAX_VALUE, value * 10 + (src[i] - '0'));
+        }
+        return (int) value;
+    }
+
     private static void findContentLength(byte[] src, int startIndex, int endIndex, HttpHeaders httpHeaders) throws UnsupportedEncodingException {
         int indexOfColon = findNext(src, startIndex, endIndex, (byte) ':');
 
@@ -164,6 +231,33 @@ public class HttpUtil {
     }
 
 
+    /**
+     * True if the header line at offset has the given name, compared ignoring case. The name must be
+     * given in lower case.
+     */
+    public static boolean matchesHeaderName(byte[] src, int offset, int lineEnd, byte[] lowerCaseName){
+        if(offset + lowerCaseName.length >= lineEnd || src[offset + lowerCaseName.length] != ':') return false;
+        for(int i=0; i < lowerCaseName.length; i++){
+            byte b = src[offset + i];
+            if(b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            if(b != lowerCaseName[i]) return false;
+        }
+        return true;
+    }
+
+    // first non-blank index after the colon
+    private static int headerValueStart(byte[] src, int index, int lineEnd){
+        while(index < lineEnd && (src[index] == ' ' || src[index] == '\t')) index++;
+        return index;
+    }
+
+    // index after the last non-blank character before the CRLF at lineEnd
+    private static int headerValueEnd(byte[] src, int valueStart, int lineEnd){
+        int end = lineEnd - 1;
+        while(end > valueStart && (src[end - 1] == ' ' || src[end - 1] == '\t')) end--;
+        return end;
+    }
+
     public static int findNext(byte[] src, int startIndex, int endIndex, byte value){
         for(int index = startIndex; index < endIndex; index++){
             if(src[index] == value) return index;
@@ -211,4 +305,50 @@ public class HttpUtil {
         }
         return true;
     }
-}
\ No newline at end of file
+
+    /**
+     * The response with a Connection: close field after its status line, which tells the client to
+     * send no more requests on the connection. Any other Connection field, such as keep-alive, is
+     * taken out. Returned as it is if it does not start with a status line, or says close already.
+     */
+    public static byte[] withConnectionClose(byte[] response){
+        if(response.length < HTTP_VERSION_PREFIX.length || !matches(response, 0, HTTP_VERSION_PREFIX)) return response;
+        int endOfStatusLine = findNextLineBreak(response, 0, response.length);
+        if(endOfStatusLine == -1) return response;
+
+        ByteArrayOutputStream closing = new ByteArrayOutputStream(response.length + CONNECTION_CLOSE.length);
+        closing.write(response, 0, endOfStatusLine + 1);
+        closing.write(CONNECTION_CLOSE, 0, CONNECTION_CLOSE.length);
+        boolean closes = false;
+        boolean other = false;
+        int lineStart = endOfStatusLine + 1;
+        int lineEnd = findNextLineBreak(response, lineStart, response.length);
+        while(lineEnd != -1 && lineEnd != lineStart + 1){
+            if(matchesHeaderName(response, lineStart, lineEnd, CONNECTION)){
+                int valueStart = headerValueStart(response, lineStart + CONNECTION.length + 1, lineEnd);
+                if(equalsLowerCase(response, valueStart, headerValueEnd(response, valueStart, lineEnd), CLOSE)){
+                    closes = true;
+                } else {
+                    other = true;
+                }
+            } else {
+                closing.write(response, lineStart, lineEnd + 1 - lineStart);
+            }
+            lineStart = lineEnd + 1;
+            lineEnd = findNextLineBreak(response, lineStart, response.length);
+        }
+        if(closes && !other) return response;
+        closing.write(response, lineStart, response.length - lineStart);
+        return closing.toByteArray();
+    }
+
+    private static boolean equalsLowerCase(byte[] src, int start, int end, byte[] lowerCaseValue){
+        if(end - start != lowerCaseValue.length) return false;
+        for(int i=0; i < lowerCaseValue.length; i++){
+            byte b = src[start + i];
+            if(b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            if(b != lowerCaseValue[i]) return false;
+        }
+        return true;
+    }
+}
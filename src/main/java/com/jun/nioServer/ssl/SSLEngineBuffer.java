@@ -52,8 +52,9 @@ public class SSLEngineBuffer {
     private SSLEngineResult.HandshakeStatus doTasks () {
         Runnable runnable;
         while ((runnable = sslEngine.getDelegatedTask())!=null) {
-            // TODO: Consider using a cached thread pool for delegated tasks instead of creating a new thread each time.
-            new Thread(runnable).start();
+            // the handshake has a thread of its own, and waiting for the task here is what it
+            // does anyway; handing it off would only spin on NEED_TASK until it ends
+            runnable.run();
         }
         return sslEngine.getHandshakeStatus();
     }
@@ -88,10 +89,13 @@ public class SSLEngineBuffer {
             case BUFFER_UNDERFLOW:
                 // Will occur either when no data was read from the peer or
                 // when the peerNetData buffer was too small to hold all peer's data.
-                ByteBuffer replaceBuffer = enlargeBuffer(netInBuffer, minNetBufferSize);
-                netInBuffer.flip();
-                replaceBuffer.put(netInBuffer);
-                netInBuffer = replaceBuffer;
+                // Only the latter needs a larger buffer; for the former, read on.
+                if (!netInBuffer.hasRemaining()) {
+                    ByteBuffer replaceBuffer = enlargeBuffer(netInBuffer, minNetBufferSize);
+                    netInBuffer.flip();
+                    replaceBuffer.put(netInBuffer);
+                    netInBuffer = replaceBuffer;
+                }
                 break;
             case CLOSED:
                 if (sslEngine.isOutboundDone()) {
@@ -191,7 +195,8 @@ public class SSLEngineBuffer {
         sslEngine.beginHandshake();
         try {
             doHandshake();
-        } catch (IOException e) {
+        } catch (IOException | RuntimeException e) {
+            // an IllegalStateException is how doUnWrap reports a client that hung up
             log.error("failed to handshake due to " + e.getLocalizedMessage() + " "
                     + wrappedSocketChannel.getSocketId());
             close();
@@ -201,6 +206,23 @@ public class SSLEngineBuffer {
         return true;
     }
 
+    /**
+     * Network bytes the peer sent right behind its last handshake message, typically the first
+     * request. They were read during the handshake and have to be unwrapped like any later read.
+     */
+    public ByteBuffer takeHandshakeRemainder() {
+        netInBuffer.flip();
+        if (!netInBuffer.hasRemaining()) {
+            netInBuffer.clear();
+            return null;
+        }
+        ByteBuffer remainder = ByteBuffer.allocate(netInBuffer.remaining());
+        remainder.put(netInBuffer);
+        remainder.flip();
+        netInBuffer.clear();
+        return remainder;
+    }
+
     public void close() {
         sslEngine.closeOutbound();
         try {
@@ -214,7 +236,6 @@ public class SSLEngineBuffer {
 
     public ByteBuffer unwrap(ByteBuffer netBuffer) throws SSLException {
         ByteBuffer appBuffer = ByteBuffer.allocate(minAppBufferSize);
-        netBuffer.rewind();
         SSLEngineResult result = sslEngine.unwrap(netBuffer, appBuffer);
         switch (result.getStatus()) {
             case OK:
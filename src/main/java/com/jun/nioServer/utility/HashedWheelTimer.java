@@ -0,0 +1,152 @@
+package com.jun.nioServer.utility;
+
+/**
+ * A hashed timing wheel: timeouts hash into one of {@code wheelSize} buckets by the tick they are
+ * due at, so scheduling and cancelling are O(1) and advancing the clock only visits the buckets of
+ * the ticks that passed. A timeout fires at most one tick late. Each timeout is its own list node,
+ * so the wheel allocates nothing per schedule.
+ *
+ * Not thread-safe: the wheel belongs to one thread, usually a reactor, which schedules, cancels and
+ * advances it. Times are milliseconds on the clock of {@link #now()}.
+ */
+public class HashedWheelTimer {
+
+    private final long tickMillis;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final long startMillis;
+    // the next tick to expire
+    private long tick;
+    private int size;
+
+    public HashedWheelTimer(long tickMillis, int wheelSize) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive: " + tickMillis);
+        }
+        // a power of two, so that the bucket of a tick is a mask away
+        int n = 1;
+        while (n < wheelSize) {
+            n <<= 1;
+        }
+        this.tickMillis = tickMillis;
+        this.buckets = new Timeout[n];
+        this.mask = buckets.length - 1;
+        this.startMillis = now();
+    }
+
+    /**
+     * A monotonic clock in milliseconds.
+     */
+    public static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    /**
+     * Schedules the timeout to fire at the given time, moving it if it is scheduled already.
+     */
+    public void schedule(Timeout timeout, long deadlineMillis) {
+        if (timeout.scheduled) {
+            unlink(timeout);
+        }
+        long due = deadlineMillis - startMillis;
+        // rounded up, so that it never fires early
+        timeout.dueTick = Math.max(tick, due <= 0 ? 0 : (due + tickMillis - 1) / tickMillis);
+        int index = (int) (timeout.dueTick & mask);
+        timeout.next = buckets[index];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        timeout.prev = null;
+        buckets[index] = timeout;
+        timeout.scheduled = true;
+        size++;
+    }
+
+    public void cancel(Timeout timeout) {
+        if (timeout.scheduled) {
+            unlink(timeout);
+        }
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[(int) (timeout.dueTick & mask)] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.scheduled = false;
+        size--;
+    }
+
+    /**
+     * Fires the timeouts due by now. A task may schedule its timeout again; it fires no earlier
+     * than the next tick.
+     */
+    public void expire(long nowMillis) {
+        if (size == 0) {
+            // nothing to visit in the ticks that passed
+            tick = Math.max(tick, Math.floorDiv(nowMillis - startMillis, tickMillis) + 1);
+            return;
+        }
+        while (startMillis + tick * tickMillis <= nowMillis) {
+            Timeout expired = null;
+            Timeout t = buckets[(int) (tick & mask)];
+            while (t != null) {
+                Timeout next = t.next;
+                // the bucket also holds timeouts due in a later round of the wheel
+                if (t.dueTick <= tick) {
+                    unlink(t);
+                    t.next = expired;
+                    expired = t;
+                }
+                t = next;
+            }
+            tick++;
+            while (expired != null) {
+                Timeout next = expired.next;
+                expired.next = null;
+                expired.task.run();
+                expired = next;
+            }
+        }
+    }
+
+    /**
+     * Milliseconds until the next tick, for a select timeout; 0 if the wheel is empty, i.e. no
+     * need to wake up for it.
+     */
+    public long millisToNextTick(long nowMillis) {
+        if (size == 0) {
+            return 0;
+        }
+        return Math.max(1, startMillis + tick * tickMillis - nowMillis);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * A task and its place in the wheel. It can be scheduled again after it fired or was cancelled.
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private Timeout prev;
+        private Timeout next;
+        private long dueTick;
+        private boolean scheduled;
+
+        public Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        public boolean isScheduled() {
+            return scheduled;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.jun.nioServer.utility;
+
+/**
+ * Counts per long key, e.g. open connections per client address. Keys hash into stripes, each an
+ * open-addressing table of primitive keys and counts behind its own lock, so counting boxes nothing
+ * and threads counting different keys rarely contend. A key whose count drops to zero is removed.
+ */
+public class StripedCounter {
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    public StripedCounter(int concurrency) {
+        int n = 1;
+        while (n < concurrency) {
+            n <<= 1;
+        }
+        stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new Stripe();
+        }
+        mask = n - 1;
+    }
+
+    /**
+     * Increments the count of the key unless it is at max already.
+     *
+     * @return whether the count was incremented
+     */
+    public boolean incrementIfBelow(long key, int max) {
+        long h = hash(key);
+        Stripe stripe = stripes[(int) (h >>> 32) & mask];
+        synchronized (stripe) {
+            return stripe.incrementIfBelow(key, (int) h, max);
+        }
+    }
+
+    public void decrement(long key) {
+        long h = hash(key);
+        Stripe stripe = stripes[(int) (h >>> 32) & mask];
+        synchronized (stripe) {
+            stripe.decrement(key, (int) h);
+        }
+    }
+
+    public int get(long key) {
+        long h = hash(key);
+        Stripe stripe = stripes[(int) (h >>> 32) & mask];
+        synchronized (stripe) {
+            int slot = stripe.find(key, (int) h);
+            return slot < 0 ? 0 : stripe.counts[slot];
+        }
+    }
+
+    /**
+     * Keys with a count above zero.
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    // the upper half picks the stripe, the lower half the slot in it
+    private static long hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private static final class Stripe {
+        // a count of 0 marks a free slot
+        private long[] keys = new long[16];
+        private int[] counts = new int[16];
+        private int size;
+
+        boolean incrementIfBelow(long key, int h, int max) {
+            int slot = find(key, h);
+            if (slot >= 0) {
+                if (counts[slot] >= max) {
+                    return false;
+                }
+                counts[slot]++;
+                return true;
+            }
+            if (max <= 0) {
+                return false;
+            }
+            if ((size + 1) * 2 > keys.length) {
+                resize();
+            }
+            int m = keys.length - 1;
+            int i = h & m;
+            while (counts[i] != 0) {
+                i = (i + 1) & m;
+            }
+            keys[i] = key;
+            counts[i] = 1;
+            size++;
+            return true;
+        }
+
+        void decrement(long key, int h) {
+            int slot = find(key, h);
+            if (slot < 0) {
+                return;
+            }
+            if (--counts[slot] == 0) {
+                size--;
+                shiftBack(slot);
+            }
+        }
+
+        int find(long key, int h) {
+            int m = keys.length - 1;
+            int i = h & m;
+            while (counts[i] != 0) {
+                if (keys[i] == key) {
+                    return i;
+                }
+                i = (i + 1) & m;
+            }
+            return -1;
+        }
+
+        /**
+         * Closes the gap a removed key leaves in its probe sequence, so that lookups need no
+         * tombstones.
+         */
+        private void shiftBack(int gap) {
+            int m = keys.length - 1;
+            int i = gap;
+            while (true) {
+                i = (i + 1) & m;
+                if (counts[i] == 0) {
+                    return;
+                }
+                int home = (int) hash(keys[i]) & m;
+                // the key at i may move into the gap if the gap lies between its home slot and i
+                if (((i - home) & m) >= ((i - gap) & m)) {
+                    keys[gap] = keys[i];
+                    counts[gap] = counts[i];
+                    counts[i] = 0;
+                    gap = i;
+                }
+            }
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            counts = new int[oldKeys.length * 2];
+            int m = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldCounts[j] != 0) {
+                    int i = (int) hash(oldKeys[j]) & m;
+                    while (counts[i] != 0) {
+                        i = (i + 1) & m;
+                    }
+                    keys[i] = oldKeys[j];
+                    counts[i] = oldCounts[j];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.jun.nioServer.utility;
+
+/**
+ * Token buckets per long key, e.g. requests per client address, in a table of fixed size. Keys hash
+ * into stripes, each an open-addressing table of primitive keys and bucket states behind its own
+ * lock, so taking a token allocates nothing and threads taking tokens of different keys rarely
+ * contend.
+ *
+ * A bucket is kept as the time at which it will be full again: taking a token moves that time one
+ * token's refill time ahead, and a token may be taken as long as the time stays within the burst
+ * ahead of now. Refilling is thereby implicit in the passing of time, with no timer and no update
+ * of idle buckets. A full bucket is no different from a missing one, so its slot is free for
+ * another key; a key only looks for its bucket in a few slots from its home slot, and if all of them
+ * hold buckets that are not full, the one closest to full is given up. Its client then starts over
+ * with a full bucket, which takes far more keys than the table has slots at the same time.
+ */
+public class TokenBucketTable {
+
+    // slots looked at from a key's home slot
+    private static final int PROBES = 8;
+
+    private final Stripe[] stripes;
+    private final int mask;
+    private final long refillNanos;
+    private final long burstNanos;
+
+    /**
+     * @param size        slots in all stripes together, rounded up to a power of two per stripe
+     * @param concurrency stripes, rounded up to a power of two
+     * @param refillNanos time in which one token is added to a bucket
+     * @param burst       tokens a full bucket holds
+     */
+    public TokenBucketTable(int size, int concurrency, long refillNanos, int burst) {
+        if (refillNanos <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("refillNanos and burst must be positive");
+        }
+        int n = 1;
+        while (n < concurrency) {
+            n <<= 1;
+        }
+        int slots = PROBES;
+        while (slots * n < size) {
+            slots <<= 1;
+        }
+        stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new Stripe(slots);
+        }
+        mask = n - 1;
+        this.refillNanos = refillNanos;
+        this.burstNanos = refillNanos * burst;
+    }
+
+    /**
+     * Takes a token from the bucket of the key, if it has one.
+     *
+     * @param nowNanos System.nanoTime()
+     * @return whether a token was taken
+     */
+    public boolean tryAcquire(long key, long nowNanos) {
+        long h = hash(key);
+        Stripe stripe = stripes[(int) (h >>> 32) & mask];
+        synchronized (stripe) {
+            return stripe.tryAcquire(key, (int) h, nowNanos, refillNanos, burstNanos);
+        }
+    }
+
+    /**
+     * Tokens in the bucket of the key at the given time.
+     */
+    public int available(long key, long nowNanos) {
+        long h = hash(key);
+        Stripe stripe = stripes[(int) (h >>> 32) & mask];
+        synchronized (stripe) {
+            int slot = stripe.find(key, (int) h);
+            long ahead = slot < 0 ? 0 : stripe.fullAt[slot] - nowNanos;
+            return ahead <= 0 ? (int) (burstNanos / refillNanos) : (int) ((burstNanos - ahead) / refillNanos);
+        }
+    }
+
+    // the upper half picks the stripe, the lower half the slot in it
+    private static long hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private static final class Stripe {
+        private final long[] keys;
+        // System.nanoTime() at which the bucket of the key will be full again
+        private final long[] fullAt;
+        private final boolean[] used;
+
+        Stripe(int slots) {
+            keys = new long[slots];
+            fullAt = new long[slots];
+            used = new boolean[slots];
+        }
+
+        boolean tryAcquire(long key, int h, long now, long refillNanos, long burstNanos) {
+            int m = keys.length - 1;
+            int i = h & m;
+            int free = -1;
+            int closestToFull = i;
+            for (int p = 0; p < PROBES; p++, i = (i + 1) & m) {
+                if (!used[i]) {
+                    // slots are never emptied, so the key is not further on
+                    if (free < 0) {
+                        free = i;
+                    }
+                    break;
+                }
+                if (keys[i] == key) {
+                    long start = fullAt[i] - now < 0 ? now : fullAt[i];
+                    if (start + refillNanos - now > burstNanos) {
+                        return false;
+                    }
+                    fullAt[i] = start + refillNanos;
+                    return true;
+                }
+                if (free < 0 && fullAt[i] - now <= 0) {
+                    free = i;
+                }
+                if (fullAt[i] - fullAt[closestToFull] < 0) {
+                    closestToFull = i;
+                }
+            }
+            int slot = free >= 0 ? free : closestToFull;
+            keys[slot] = key;
+            fullAt[slot] = now + refillNanos;
+            used[slot] = true;
+            return true;
+        }
+
+        int find(long key, int h) {
+            int m = keys.length - 1;
+            int i = h & m;
+            for (int p = 0; p < PROBES && used[i]; p++, i = (i + 1) & m) {
+                if (keys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
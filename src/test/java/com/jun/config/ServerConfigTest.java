@@ -29,6 +29,8 @@ public class ServerConfigTest {
                 field.setAccessible(true);
                 if (field.getType().equals(int.class)) {
                     field.setInt(null, 0); // Default for int
+                } else if (field.getType().equals(long.class)) {
+                    field.setLong(null, 0L); // Default for long
                 } else if (field.getType().equals(boolean.class)) {
                     field.setBoolean(null, false); // Default for boolean
                 } else {
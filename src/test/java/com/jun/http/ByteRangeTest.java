@@ -0,0 +1,46 @@
+package com.jun.http;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ByteRangeTest {
+
+    private static ByteRange parse(String value, long size) {
+        byte[] src = value.getBytes(StandardCharsets.US_ASCII);
+        return ByteRange.parse(src, 0, src.length, size);
+    }
+
+    @Test
+    public void testSingleRanges() {
+        ByteRange range = parse("bytes=0-99", 1000);
+        assertEquals(0, range.getFirst());
+        assertEquals(99, range.getLast());
+        assertEquals(100, range.length());
+        assertEquals("bytes 0-99/1000", range.contentRange(1000));
+
+        assertEquals(999, parse("bytes=500-5000", 1000).getLast());
+        assertEquals(500, parse("Bytes=500-", 1000).length());
+        assertEquals(900, parse("bytes=-100", 1000).getFirst());
+        assertEquals(0, parse("bytes=-5000", 1000).getFirst());
+    }
+
+    @Test
+    public void testUnsatisfiable() {
+        assertSame(ByteRange.UNSATISFIABLE, parse("bytes=1000-", 1000));
+        assertSame(ByteRange.UNSATISFIABLE, parse("bytes=-0", 1000));
+        assertSame(ByteRange.UNSATISFIABLE, parse("bytes=-10", 0));
+    }
+
+    @Test
+    public void testIgnored() {
+        assertNull(parse("bytes=0-1,5-6", 1000));
+        assertNull(parse("items=0-1", 1000));
+        assertNull(parse("bytes=5-1", 1000));
+        assertNull(parse("bytes=a-1", 1000));
+        assertNull(parse("bytes=-", 1000));
+        assertNull(parse("bytes=", 1000));
+    }
+}
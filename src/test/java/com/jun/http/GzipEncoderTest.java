@@ -0,0 +1,66 @@
+package com.jun.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class GzipEncoderTest {
+
+    private static boolean accepts(String value) {
+        byte[] src = value.getBytes(StandardCharsets.US_ASCII);
+        return GzipEncoder.acceptsGzip(src, 0, src.length);
+    }
+
+    private static byte[] gunzip(byte[] gzipped) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    @Test
+    public void testEncodeRoundTripsAndReusesDeflater() throws IOException {
+        GzipEncoder encoder = new GzipEncoder(6, 1);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        byte[] content = text.toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer src = ByteBuffer.allocateDirect(content.length);
+        src.put(content).flip();
+
+        byte[] first = encoder.encode(src);
+        assertEquals(0, src.position());
+        assertArrayEquals(content, gunzip(first));
+        assertTrue(first.length < content.length / 2);
+        assertEquals(1, encoder.idleDeflaters());
+
+        assertArrayEquals(first, encoder.encode(src));   // a reset deflater gives the same output
+        assertEquals(1, encoder.idleDeflaters());
+        assertArrayEquals(new byte[0], gunzip(encoder.encode(ByteBuffer.allocate(0))));
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(accepts("gzip"));
+        assertTrue(accepts("deflate, GZIP;q=0.5"));
+        assertTrue(accepts("br;q=1.0, *"));
+        assertFalse(accepts(""));
+        assertFalse(accepts("identity, br"));
+        assertFalse(accepts("gzip;q=0"));
+        assertFalse(accepts("gzip; q=0.000, br"));
+        assertFalse(accepts("x-gzip2"));
+    }
+}
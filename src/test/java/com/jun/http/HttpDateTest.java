@@ -0,0 +1,39 @@
+package com.jun.http;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class HttpDateTest {
+
+    @Test
+    public void testImfFixdateFormat() {
+        // example from RFC 7231 section 7.1.1.1
+        HttpDate.Entry entry = new HttpDate.Entry(784111777L);
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", entry.value);
+        assertEquals("Date: Sun, 06 Nov 1994 08:49:37 GMT\r\n", new String(entry.header, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testParseRoundTripsFormat() {
+        byte[] value = "Sun, 06 Nov 1994 08:49:37 GMT".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(784111777000L, HttpDate.parse(value, 0, value.length));
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDate.format(784111777999L));
+
+        byte[] invalid = "Sunday, 06-Nov-94 08:49:37 GMT".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(-1, HttpDate.parse(invalid, 0, invalid.length));
+    }
+
+    @Test
+    public void testRefreshedOncePerSecond() {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        HttpDate.Entry entry = HttpDate.entry(now);
+        assertSame(entry, HttpDate.entry(now + 999));
+
+        HttpDate.Entry next = HttpDate.entry(now + 1000);
+        assertNotSame(entry, next);
+        assertEquals(now / 1000 + 1, next.second);
+    }
+}
@@ -0,0 +1,68 @@
+package com.jun.http;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ResponseTemplateTest {
+
+    private static final String PART1 = "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\nContent-Length: ";
+    private static final String PART2 = "\r\n\r\n";
+    private static final String FORMAT = "<html><body>Hello World(%d-%d)</body></html>";
+
+    // The Date line follows the status line; strip it so responses can be compared
+    private static String withoutDate(byte[] response) {
+        String text = new String(response, StandardCharsets.UTF_8);
+        assertTrue(text.startsWith("HTTP/1.1 200 OK\r\nDate: "));
+        return text.replaceFirst("Date: [^\r]*\r\n", "");
+    }
+
+    private static String expected(String format, int first, int second) {
+        String body = String.format(format, first, second);
+        return PART1 + body.getBytes(StandardCharsets.UTF_8).length + PART2 + body;
+    }
+
+    @Test
+    public void testRenderMatchesStringFormat() {
+        ResponseTemplate template = ResponseTemplate.compile(PART1, PART2, FORMAT);
+        int[] values = {0, 7, 10, 99, 12345, Integer.MAX_VALUE, -1, -420, Integer.MIN_VALUE};
+        for (int first : values) {
+            for (int second : values) {
+                assertEquals(expected(FORMAT, first, second), withoutDate(template.render(first, second)));
+            }
+        }
+    }
+
+    @Test
+    public void testRenderLiteralsAndLongBodies() {
+        StringBuilder longBody = new StringBuilder("caf\u00e9 100%% ");
+        for (int i = 0; i < 300; i++) {
+            longBody.append("long body ");
+        }
+        String format = longBody.append("%d").toString();
+        ResponseTemplate template = ResponseTemplate.compile(PART1, PART2, format);
+
+        assertEquals(expected(format, 42, 0), withoutDate(template.render(42, 0)));
+    }
+
+    @Test
+    public void testHeaderIsCachedForSmallLengths() {
+        ResponseTemplate template = ResponseTemplate.compile(PART1, PART2, FORMAT);
+        assertSame(template.headerLines(43), template.headerLines(43));
+        assertEquals("Content-Type: text/html\r\nContent-Length: 100000" + PART2,
+            new String(template.headerLines(100000), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testPrefixWithoutStatusLineGetsNoDate() {
+        ResponseTemplate template = ResponseTemplate.compile("Content-Length: ", PART2, "%d");
+        assertEquals("Content-Length: 1" + PART2 + "5", new String(template.render(5, 0), StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedConversionIsRejected() {
+        ResponseTemplate.compile(PART1, PART2, "<html>%s</html>");
+    }
+}
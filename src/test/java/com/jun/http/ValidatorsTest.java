@@ -0,0 +1,62 @@
+package com.jun.http;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ValidatorsTest {
+
+    private static final long MODIFIED = 784111777123L;
+
+    private static boolean notModified(Validators validators, String ifNoneMatch, String ifModifiedSince) {
+        byte[] src = (ifNoneMatch + "|" + ifModifiedSince).getBytes(StandardCharsets.US_ASCII);
+        int inmEnd = ifNoneMatch.isEmpty() ? 0 : ifNoneMatch.length();
+        int imsStart = ifNoneMatch.length() + 1;
+        int imsEnd = ifModifiedSince.isEmpty() ? 0 : src.length;
+        return validators.isNotModified(src, 0, inmEnd, imsStart, imsEnd);
+    }
+
+    @Test
+    public void testHeaderLines() {
+        Validators validators = Validators.of(11, MODIFIED, "");
+        assertEquals("ETag: \"" + Long.toHexString(MODIFIED) + "-b\"\r\nLast-Modified: Sun, 06 Nov 1994 08:49:37 GMT\r\n",
+            new String(validators.headerLines(), StandardCharsets.US_ASCII));
+        assertNotEquals(validators.getETag(), Validators.of(11, MODIFIED, "gz").getETag());
+    }
+
+    @Test
+    public void testIfNoneMatch() {
+        Validators validators = Validators.of(11, MODIFIED, "");
+        String etag = validators.getETag();
+        assertTrue(notModified(validators, etag, ""));
+        assertTrue(notModified(validators, "\"a\", W/" + etag, ""));
+        assertTrue(notModified(validators, "*", ""));
+        assertFalse(notModified(validators, "\"a\", \"b\"", ""));
+        // If-Modified-Since is ignored when If-None-Match is present
+        assertFalse(notModified(validators, "\"a\"", "Sun, 06 Nov 1994 08:49:37 GMT"));
+    }
+
+    @Test
+    public void testIfRange() {
+        Validators validators = Validators.of(11, MODIFIED, "");
+        byte[] etag = validators.getETag().getBytes(StandardCharsets.US_ASCII);
+        assertTrue(validators.matchesIfRange(etag, 0, etag.length));
+        byte[] weak = ("W/" + validators.getETag()).getBytes(StandardCharsets.US_ASCII);
+        assertFalse(validators.matchesIfRange(weak, 0, weak.length));
+        byte[] date = "Sun, 06 Nov 1994 08:49:37 GMT".getBytes(StandardCharsets.US_ASCII);
+        assertTrue(validators.matchesIfRange(date, 0, date.length));
+        byte[] later = "Sun, 06 Nov 1994 08:49:38 GMT".getBytes(StandardCharsets.US_ASCII);
+        assertFalse(validators.matchesIfRange(later, 0, later.length));
+    }
+
+    @Test
+    public void testIfModifiedSince() {
+        Validators validators = Validators.of(11, MODIFIED, "");
+        assertTrue(notModified(validators, "", "Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertFalse(notModified(validators, "", "Sun, 06 Nov 1994 08:49:36 GMT"));
+        assertFalse(notModified(validators, "", "yesterday"));
+        assertFalse(notModified(validators, "", ""));
+    }
+}
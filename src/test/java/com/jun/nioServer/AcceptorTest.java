@@ -1,18 +1,182 @@
 package com.jun.nioServer;
 
+import com.jun.nioServer.balance.RoundRobinReactorSelector;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
 import static org.junit.Assert.*;
 
 public class AcceptorTest {
+
+    private static final byte[] REQUEST = "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private ServerSocketChannel serverChannel;
+    private IOReactor reactor;
+    private Acceptor acceptor;
+
+    @Before
+    public void setUp() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("localhost", 0));
+        ExecutorService readers = Executors.newFixedThreadPool(1);
+        ExecutorService writers = Executors.newFixedThreadPool(1);
+        reactor = new IOReactor("AcceptorTest-reactor", null, readers, writers);
+        reactor.startThread();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (acceptor != null) {
+            acceptor.stopThread();
+        }
+        serverChannel.close();
+        reactor.stopThread();
+    }
+
     // Original tests for this class have been temporarily commented out/dummied
     // due to intractable issues with Mockito 1.10.19 and Java 21, specifically when
     // mocking certain NIO classes (e.g., SocketChannel) or encountering complex Mockito state interactions.
     // These tests would require library upgrades (e.g., Mockito 5.x) or significant
     // refactoring of either the tests or the SUT for full restoration.
     // Additionally, Acceptor's internal logic for IOReactor selection, socket ID generation,
-    // and ConAcceptor instantiation has been refactored for clarity and improved responsibility separation.
+    // and the hand-off of accepted channels to IOReactor have been refactored for clarity and improved responsibility separation.
     @Test
     public void dummyTestToEnsureBuildPasses() {
         assertTrue("This is a placeholder test. See comments in file for Acceptor.java testing status.", true);
     }
+
+    @Test(timeout = 10000)
+    public void testConnectionsBeyondAddressLimitAreClosed() throws Exception {
+        ConnectionLimiter limiter = new ConnectionLimiter(new IOReactor[]{reactor}, 0, 2, 0, 0);
+        startAcceptor(limiter);
+        long key = ConnectionLimiter.addressKey(InetAddress.getLoopbackAddress());
+
+        // closed halfway through, so it is not a resource of a try
+        Socket first = connect();
+        try (Socket second = connect(); Socket third = connect()) {
+            assertEquals(-1, third.getInputStream().read());
+            assertEquals(1, acceptor.getRejectedConnections());
+            assertTrue(respondsTo(second));
+
+            first.close();
+            waitFor(() -> limiter.connectionsFrom(key) == 1);
+            try (Socket fourth = connect()) {
+                assertTrue(respondsTo(fourth));
+            }
+        } finally {
+            first.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testAcceptingPausesAtConnectionLimit() throws Exception {
+        startAcceptor(new ConnectionLimiter(new IOReactor[]{reactor}, 1, 0, 0, 0));
+
+        // closed halfway through, so it is not a resource of a try
+        Socket first = connect();
+        try {
+            assertTrue(respondsTo(first));
+            try (Socket second = connect()) {
+                // connected by the kernel, but not accepted
+                waitFor(acceptor::isAcceptPaused);
+                second.setSoTimeout(300);
+                second.getOutputStream().write(REQUEST);
+                try {
+                    second.getInputStream().read();
+                    fail("served while accepting was paused");
+                } catch (SocketTimeoutException expected) {
+                }
+
+                first.close();
+                second.setSoTimeout(5000);
+                assertTrue(readsResponse(second));
+            }
+        } finally {
+            first.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testFailedSetupReleasesTheAddressSlot() throws Exception {
+        ConnectionLimiter limiter = new ConnectionLimiter(new IOReactor[]{reactor}, 0, 1, 0, 0);
+        AtomicBoolean failNext = new AtomicBoolean(true);
+        acceptor = new Acceptor(serverChannel, new IOReactor[]{reactor}, null, false,
+            new RoundRobinReactorSelector(), limiter) {
+            @Override
+            void configure(SocketChannel clientSocket) throws IOException {
+                if (failNext.getAndSet(false)) {
+                    // as setOption fails on a connection reset right after accept
+                    throw new SocketException("Connection reset");
+                }
+                super.configure(clientSocket);
+            }
+        };
+        acceptor.start();
+        long key = ConnectionLimiter.addressKey(InetAddress.getLoopbackAddress());
+
+        try (Socket failed = connect()) {
+            assertEquals(-1, failed.getInputStream().read());
+            assertEquals(0, limiter.connectionsFrom(key));
+            assertEquals(0, reactor.getActiveConnections());
+            // the address may connect again, and the Acceptor still runs
+            try (Socket next = connect()) {
+                assertTrue(respondsTo(next));
+                assertEquals(1, limiter.connectionsFrom(key));
+            }
+        }
+    }
+
+    private void startAcceptor(ConnectionLimiter limiter) throws IOException {
+        acceptor = new Acceptor(serverChannel, new IOReactor[]{reactor}, null, false,
+            new RoundRobinReactorSelector(), limiter);
+        acceptor.start();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        socket.connect(serverChannel.getLocalAddress());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static boolean respondsTo(Socket socket) throws IOException {
+        socket.getOutputStream().write(REQUEST);
+        return readsResponse(socket);
+    }
+
+    private static boolean readsResponse(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        byte[] status = new byte[12];
+        int n = 0;
+        while (n < status.length) {
+            int r = in.read(status, n, status.length - n);
+            if (r < 0) {
+                return false;
+            }
+            n += r;
+        }
+        return new String(status, StandardCharsets.US_ASCII).equals("HTTP/1.1 200");
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        while (!condition.getAsBoolean()) {
+            Thread.sleep(10);
+        }
+    }
 }
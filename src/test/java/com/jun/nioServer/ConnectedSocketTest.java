@@ -0,0 +1,297 @@
+package com.jun.nioServer;
+
+import com.jun.config.ServerConfig;
+import com.jun.nioServer.handler.OnCompleteListener;
+import com.jun.nioServer.handler.SocketWriteHandler;
+import com.jun.nioServer.msg.FileRegion;
+import com.jun.nioServer.msg.Message;
+import com.jun.nioServer.msg.http.HttpMessageReader;
+import com.jun.nioServer.utility.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class ConnectedSocketTest {
+
+    private SocketChannel channel;
+    private ConnectedSocket socket;
+
+    @Before
+    public void setUp() throws IOException {
+        channel = SocketChannel.open();
+        socket = new ConnectedSocket(1, channel);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        channel.close();
+    }
+
+    @Test
+    public void testSecondReaderMakesOwnerReadAgain() {
+        assertTrue(socket.beginRead());
+        assertFalse(socket.beginRead());
+
+        assertTrue(socket.endRead());   // the contended event is not lost
+        assertFalse(socket.endRead());
+        assertTrue(socket.beginRead());
+    }
+
+    @Test
+    public void testWriteRequestedWhileWritingMakesWriterWriteAgain() {
+        assertTrue(socket.beginWrite());
+        socket.addInterestedOps(SelectionKey.OP_WRITE);
+
+        assertTrue(socket.endWrite(false));
+        assertFalse(socket.endWrite(false));
+        assertTrue(socket.beginWrite());
+    }
+
+    @Test
+    public void testYieldedWriterReleasesSocketDespiteQueuedData() {
+        assertTrue(socket.beginWrite());
+        socket.addInterestedOps(SelectionKey.OP_WRITE);
+
+        socket.yieldWrite();
+        // the queued data waits for the next OP_WRITE, which any writer can take
+        assertTrue(socket.beginWrite());
+        assertFalse(socket.endWrite(true));
+    }
+
+    @Test
+    public void testFlushWritesOnCallingThreadWhenIdle() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                 SocketChannel peer = server.accept()) {
+                ConnectedSocket connected = new ConnectedSocket(2, client);
+                connected.setHandlers(null, new SocketWriteHandler(connected, mock(OnCompleteListener.class)));
+
+                connected.addWriteBuffer(ByteBuffer.wrap("hello".getBytes(StandardCharsets.US_ASCII)));
+                connected.flushWrites();
+                assertNull(connected.peekWrite());
+                ByteBuffer received = ByteBuffer.allocate(5);
+                while (received.hasRemaining()) {
+                    peer.read(received);
+                }
+
+                // a writer owns the channel: the data is left to it
+                assertTrue(connected.beginWrite());
+                connected.addWriteBuffer(ByteBuffer.wrap("again".getBytes(StandardCharsets.US_ASCII)));
+                connected.flushWrites();
+                assertNotNull(connected.peekWrite());
+                assertTrue(connected.endWrite(false));
+            }
+        }
+    }
+
+    @Test
+    public void testClosedSocketCannotBeAcquired() {
+        assertTrue(socket.beginRead());
+        assertFalse(socket.beginRead());
+        socket.close();
+
+        assertFalse(socket.endRead());
+        assertFalse(socket.beginRead());
+        assertFalse(socket.beginWrite());
+    }
+
+    @Test
+    public void testWritabilityFollowsWatermarks() throws IOException {
+        int high = ServerConfig.NIO_SOCKET_WRITE_HIGH_WATERMARK;
+        int low = ServerConfig.NIO_SOCKET_WRITE_LOW_WATERMARK;
+        ServerConfig.NIO_SOCKET_WRITE_HIGH_WATERMARK = 100;
+        ServerConfig.NIO_SOCKET_WRITE_LOW_WATERMARK = 40;
+        try (SocketChannel other = SocketChannel.open()) {
+            ConnectedSocket bounded = new ConnectedSocket(2, other);
+            AtomicInteger runs = new AtomicInteger();
+
+            bounded.addWriteBuffer(ByteBuffer.allocate(100));
+            assertTrue(bounded.isWritable());
+            bounded.addWriteBuffer(ByteBuffer.allocate(1));
+            assertFalse(bounded.isWritable());
+            assertTrue(bounded.isReadPaused());
+
+            bounded.runWhenWritable(runs::incrementAndGet);
+            bounded.onBytesWritten(50);
+            assertFalse(bounded.isWritable());
+            assertEquals(0, runs.get());
+
+            bounded.onBytesWritten(11);
+            assertTrue(bounded.isWritable());
+            assertFalse(bounded.isReadPaused());
+            assertEquals(1, runs.get());
+
+            bounded.runWhenWritable(runs::incrementAndGet);
+            assertEquals(2, runs.get());
+        } finally {
+            ServerConfig.NIO_SOCKET_WRITE_HIGH_WATERMARK = high;
+            ServerConfig.NIO_SOCKET_WRITE_LOW_WATERMARK = low;
+        }
+    }
+
+    @Test
+    public void testBytesQueuedAfterCloseAreNotOutstanding() throws IOException {
+        IOReactor reactor = new IOReactor("ConnectedSocketTest-reactor", null, null, null);
+        Path file = Files.createTempFile("region", ".bin");
+        try (SocketChannel other = SocketChannel.open()) {
+            ConnectedSocket owned = new ConnectedSocket(2, other, reactor);
+            owned.addWriteBuffer(ByteBuffer.allocate(10));
+            assertEquals(10, reactor.getOutstandingBytes());
+            owned.close();
+            assertEquals(0, reactor.getOutstandingBytes());
+
+            // a late response, a cached body and a file region
+            Message late = new Message(owned);
+            late.addData(new byte[20]);
+            owned.addWriteReadyMsg(late);
+            owned.prepareBuffersForWriting();
+            owned.addWriteBuffer(ByteBuffer.allocate(30));
+            owned.addWriteRegion(new FileRegion(FileChannel.open(file), 0, 40));
+            assertEquals(0, reactor.getOutstandingBytes());
+            assertEquals(0, owned.getPendingWriteBytes());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testReadingStopsWhileUnparsedDataIsOverLimit() throws IOException {
+        int max = ServerConfig.NIO_READ_BACKLOG_MAX_BYTES;
+        ServerConfig.NIO_READ_BACKLOG_MAX_BYTES = 100;
+        try (SocketChannel other = SocketChannel.open()) {
+            ConnectedSocket bounded = new ConnectedSocket(2, other);
+            List<ByteBuffer> batch = new ArrayList<>();
+
+            bounded.addSocketReadData(ByteBuffer.allocate(60));
+            assertFalse(bounded.isReadThrottled());
+            bounded.addSocketReadData(ByteBuffer.allocate(41));
+            assertTrue(bounded.isReadThrottled());
+
+            bounded.drainSocketReadData(batch);
+            assertFalse(bounded.isReadThrottled());
+
+            // an incomplete request counts until it is taken for the next parse
+            bounded.setReadRemainder(ByteBuffer.allocate(90), false);
+            bounded.addSocketReadData(ByteBuffer.allocate(20));
+            assertTrue(bounded.isReadThrottled());
+            assertEquals(90, bounded.takeReadRemainder().remaining());
+            assertFalse(bounded.isReadThrottled());
+
+            bounded.setReadRemainder(ByteBuffer.allocate(101), false);
+            assertTrue(bounded.isClosed());
+        } finally {
+            ServerConfig.NIO_READ_BACKLOG_MAX_BYTES = max;
+        }
+    }
+
+    @Test
+    public void testReadingStopsWhileParsedRequestsAreOverLimit() throws IOException {
+        int max = ServerConfig.NIO_READ_BACKLOG_MAX_REQUESTS;
+        ServerConfig.NIO_READ_BACKLOG_MAX_REQUESTS = 3;
+        try (SocketChannel other = SocketChannel.open()) {
+            ConnectedSocket bounded = new ConnectedSocket(2, other);
+            StringBuilder pipelined = new StringBuilder();
+            for (int i = 0; i < 5; i++) {
+                pipelined.append("GET /").append(i).append(" HTTP/1.1\r\nHost: test\r\n\r\n");
+            }
+            bounded.addSocketReadData(ByteBuffer.wrap(pipelined.toString().getBytes(StandardCharsets.US_ASCII)));
+            List<ByteBuffer> batch = new ArrayList<>();
+            bounded.drainSocketReadData(batch);
+
+            // the bytes are parsed, but the requests they held are not handled yet
+            assertEquals(5, new HttpMessageReader().parse(bounded, batch));
+            assertTrue(bounded.isReadThrottled());
+            List<Message> requests = new ArrayList<>();
+            bounded.drainReadReadyMessages(requests);
+            bounded.onRequestHandled();
+            assertTrue(bounded.isReadThrottled());
+            bounded.onRequestHandled();
+            assertFalse(bounded.isReadThrottled());
+        } finally {
+            ServerConfig.NIO_READ_BACKLOG_MAX_REQUESTS = max;
+        }
+    }
+
+    @Test
+    public void testCloseReleasesTheWriteHandlerOnceNoWriterRuns() throws IOException {
+        SocketWriteHandler idleWriter = mock(SocketWriteHandler.class);
+        socket.setHandlers(null, idleWriter);
+        socket.close();
+        verify(idleWriter).release();
+
+        try (SocketChannel other = SocketChannel.open()) {
+            ConnectedSocket writing = new ConnectedSocket(2, other);
+            SocketWriteHandler writer = mock(SocketWriteHandler.class);
+            writing.setHandlers(null, writer);
+            assertTrue(writing.beginWrite());
+            writing.close();
+            // the writer still uses what it holds
+            verify(writer, never()).release();
+            assertFalse(writing.endWrite(true));
+            verify(writer).release();
+        }
+    }
+
+    @Test
+    public void testTimeoutFollowsConnectionState() throws IOException {
+        int[] saved = {ServerConfig.NIO_TIMEOUT_HEADER_READ_MS, ServerConfig.NIO_TIMEOUT_BODY_READ_MS,
+            ServerConfig.NIO_TIMEOUT_WRITE_STALL_MS, ServerConfig.NIO_TIMEOUT_IDLE_MS};
+        ServerConfig.NIO_TIMEOUT_HEADER_READ_MS = 1000;
+        ServerConfig.NIO_TIMEOUT_BODY_READ_MS = 2000;
+        ServerConfig.NIO_TIMEOUT_WRITE_STALL_MS = 3000;
+        ServerConfig.NIO_TIMEOUT_IDLE_MS = 4000;
+        try (SocketChannel other = SocketChannel.open()) {
+            long start = HashedWheelTimer.now();
+            ConnectedSocket timed = new ConnectedSocket(2, other);
+            assertDeadline(timed, "idle", start + 4000);
+
+            // a request header that stops halfway
+            timed.setReadRemainder(ByteBuffer.allocate(10), false);
+            assertDeadline(timed, "header read", start + 1000);
+            // a complete header with the body still coming in
+            timed.setReadRemainder(ByteBuffer.allocate(10), true);
+            assertDeadline(timed, "body read", start + 2000);
+
+            timed.takeReadRemainder();
+            timed.addReadReadyMsg(new Message(timed));
+            timed.drainReadReadyMessages(new ArrayList<>());
+            assertDeadline(timed, "idle", start + 4000);
+
+            timed.addWriteBuffer(ByteBuffer.allocate(10));
+            assertDeadline(timed, "write stall", start + 3000);
+        } finally {
+            ServerConfig.NIO_TIMEOUT_HEADER_READ_MS = saved[0];
+            ServerConfig.NIO_TIMEOUT_BODY_READ_MS = saved[1];
+            ServerConfig.NIO_TIMEOUT_WRITE_STALL_MS = saved[2];
+            ServerConfig.NIO_TIMEOUT_IDLE_MS = saved[3];
+        }
+    }
+
+    private static void assertDeadline(ConnectedSocket socket, String phase, long expected) {
+        long deadline = socket.timeoutDeadline();
+        assertEquals(phase, socket.getTimeoutPhase());
+        // the clock may have moved on while the test ran
+        assertTrue("deadline " + deadline + " expected " + expected,
+            deadline >= expected && deadline < expected + 500);
+    }
+}
@@ -0,0 +1,91 @@
+package com.jun.nioServer;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ConnectionLimiterTest {
+
+    @Test
+    public void testAddressKeys() throws Exception {
+        long v4 = ConnectionLimiter.addressKey(InetAddress.getByName("192.0.2.1"));
+        assertNotEquals(v4, ConnectionLimiter.addressKey(InetAddress.getByName("192.0.2.2")));
+        // one IPv6 client picks its addresses from a /64
+        assertEquals(ConnectionLimiter.addressKey(InetAddress.getByName("2001:db8:1:2::1")),
+            ConnectionLimiter.addressKey(InetAddress.getByName("2001:db8:1:2:ffff::9")));
+        assertNotEquals(ConnectionLimiter.addressKey(InetAddress.getByName("2001:db8:1:2::1")),
+            ConnectionLimiter.addressKey(InetAddress.getByName("2001:db8:1:3::1")));
+        assertNotEquals(v4, ConnectionLimiter.addressKey(InetAddress.getByName("::c000:201")));
+    }
+
+    @Test
+    public void testAddressLimit() {
+        ConnectionLimiter limiter = new ConnectionLimiter(new IOReactor[0], 0, 2, 0, 0);
+        assertTrue(limiter.tryAcquire(1));
+        assertTrue(limiter.tryAcquire(1));
+        assertFalse(limiter.tryAcquire(1));
+        assertTrue(limiter.tryAcquire(2));
+
+        limiter.release(1);
+        assertEquals(1, limiter.connectionsFrom(1));
+        assertTrue(limiter.tryAcquire(1));
+    }
+
+    @Test
+    public void testPausesAtConnectionLimit() {
+        IOReactor reactor = reactor(0, 0);
+        ConnectionLimiter limiter = new ConnectionLimiter(new IOReactor[]{reactor, reactor(2, 0)}, 5, 0, 0, 0);
+        when(reactor.getActiveConnections()).thenReturn(2);
+        assertNull(limiter.overload());
+        when(reactor.getActiveConnections()).thenReturn(3);
+        assertNotNull(limiter.overload());
+        when(reactor.getActiveConnections()).thenReturn(2);
+        assertNull(limiter.overload());
+    }
+
+    @Test
+    public void testOneCloseAtConnectionLimitDoesNotResume() {
+        IOReactor reactor = reactor(20, 0);
+        ConnectionLimiter limiter = new ConnectionLimiter(new IOReactor[]{reactor}, 20, 0, 0, 0);
+        assertNotNull(limiter.overload());
+        when(reactor.getActiveConnections()).thenReturn(19);
+        assertNotNull(limiter.overload());
+        when(reactor.getActiveConnections()).thenReturn(18);
+        assertNull(limiter.overload());
+        // accepting again up to the limit itself
+        when(reactor.getActiveConnections()).thenReturn(19);
+        assertNull(limiter.overload());
+    }
+
+    @Test
+    public void testPauseOnReactorLoadResumesBelowHalf() {
+        IOReactor reactor = reactor(0, 0);
+        ConnectionLimiter limiter = new ConnectionLimiter(new IOReactor[]{reactor}, 0, 0, 100, 400);
+        when(reactor.getQueuedConnections()).thenReturn(100);
+        assertNotNull(limiter.overload());
+        when(reactor.getQueuedConnections()).thenReturn(60);
+        assertNotNull(limiter.overload());
+        when(reactor.getQueuedConnections()).thenReturn(40);
+        assertNull(limiter.overload());
+
+        when(reactor.getBacklogNanos()).thenReturn(TimeUnit.MILLISECONDS.toNanos(400));
+        assertNotNull(limiter.overload());
+        when(reactor.getBacklogNanos()).thenReturn(TimeUnit.MILLISECONDS.toNanos(250));
+        assertNotNull(limiter.overload());
+        when(reactor.getBacklogNanos()).thenReturn(TimeUnit.MILLISECONDS.toNanos(150));
+        assertNull(limiter.overload());
+    }
+
+    private static IOReactor reactor(int connections, int queued) {
+        IOReactor reactor = mock(IOReactor.class);
+        when(reactor.getName()).thenReturn("reactor");
+        when(reactor.getActiveConnections()).thenReturn(connections);
+        when(reactor.getQueuedConnections()).thenReturn(queued);
+        return reactor;
+    }
+}
@@ -0,0 +1,115 @@
+package com.jun.nioServer;
+
+import com.jun.config.ServerConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.Socket;
+
+/**
+ * Measures the heap allocated by the server threads per keep-alive request. It is not a unit test and
+ * is not run by surefire; run it from the IDE or with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.jun.nioServer.DispatchAllocationBenchmark}.
+ *
+ * Allocation is read from the per-thread counters of {@link com.sun.management.ThreadMXBean}, summed over
+ * the reactor thread and its reader, writer and message handler threads. The benchmark exits with status 1
+ * when the steady-state cost exceeds the budget given as the first argument (bytes per request), so it can
+ * guard the dispatch path against regressions. The optional second argument is the number of measured requests.
+ */
+public class DispatchAllocationBenchmark {
+
+    private static final String REACTOR = "IOReactor-0";
+    private static final byte[] REQUEST = "GET / HTTP/1.1\r\nHost: bench\r\n\r\n".getBytes();
+
+    public static void main(String[] args) throws Exception {
+        long budget = args.length > 0 ? Long.parseLong(args[0]) : Long.MAX_VALUE;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int port = 18600;
+        ServerConfig.NIO_SERVER_PORT = port;
+        ServerConfig.NIO_SERVER_SSL_ENABLED = false;
+        ServerConfig.NIO_ACCEPTOR_NUM_IOREACTOR = 1;
+        ServerConfig.NIO_ACCEPTOR_NUM_READER_THREADS = 1;
+        ServerConfig.NIO_ACCEPTOR_NUM_WRITER_THREADS = 1;
+
+        NioServerService service = new NioServerService(new ServerConfig());
+        service.start();
+        Thread.sleep(200);
+
+        long perRequest;
+        try (Socket socket = new Socket(ServerConfig.NIO_ACCEPTOR_ADDRESS, port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[4096];
+
+            run(out, in, buffer, requests / 2); // warm-up
+            long before = serverAllocatedBytes();
+            run(out, in, buffer, requests);
+            long after = serverAllocatedBytes();
+            perRequest = (after - before) / requests;
+        } finally {
+            service.stop();
+        }
+
+        System.out.printf("server threads allocated %d bytes/request over %d requests%n", perRequest, requests);
+        if (perRequest > budget) {
+            System.out.printf("over budget of %d bytes/request%n", budget);
+            System.exit(1);
+        }
+    }
+
+    private static void run(OutputStream out, InputStream in, byte[] buffer, int requests) throws IOException {
+        for (int i = 0; i < requests; i++) {
+            out.write(REQUEST);
+            out.flush();
+            readResponse(in, buffer);
+        }
+    }
+
+    private static void readResponse(InputStream in, byte[] buffer) throws IOException {
+        int len = 0;
+        while (len < buffer.length) {
+            int n = in.read(buffer, len, buffer.length - len);
+            if (n < 0) {
+                throw new IOException("closed");
+            }
+            len += n;
+            if (endsWith(buffer, len, "</html>")) {
+                return;
+            }
+        }
+    }
+
+    private static boolean endsWith(byte[] buffer, int len, String suffix) {
+        if (len < suffix.length()) {
+            return false;
+        }
+        for (int i = 0; i < suffix.length(); i++) {
+            if (buffer[len - suffix.length() + i] != suffix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long serverAllocatedBytes() {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (ThreadInfo info : mx.getThreadInfo(mx.getAllThreadIds())) {
+            if (info == null) {
+                continue;
+            }
+            String name = info.getThreadName();
+            if (name.equals(REACTOR) || name.startsWith(REACTOR + "-")) {
+                long bytes = mx.getThreadAllocatedBytes(info.getThreadId());
+                if (bytes > 0) {
+                    total += bytes;
+                }
+            }
+        }
+        return total;
+    }
+}
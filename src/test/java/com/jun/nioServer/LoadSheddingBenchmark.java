@@ -0,0 +1,234 @@
+package com.jun.nioServer;
+
+import com.jun.config.ServerConfig;
+import com.jun.http.NioMessageHandler;
+import com.jun.nioServer.handler.SimpleNioMessageHandler;
+import com.jun.nioServer.msg.Message;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark for load shedding on the queueing delay. It is not a unit test and is not run by
+ * surefire; run it with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.jun.nioServer.LoadSheddingBenchmark}.
+ *
+ * The handler spends a fixed time per request, so one reactor serves about a thousand requests a
+ * second. Clients send pipelined requests at a fixed rate well above that, whatever the responses,
+ * and give up on a response that takes longer than their deadline. Goodput counts the successful
+ * responses that arrived in time. The benchmark runs with the configured shedding target, with
+ * shedding disabled, and with only the server dropping requests past the clients' deadline.
+ */
+public class LoadSheddingBenchmark {
+
+    private static final int NUM_CLIENTS = 32;
+    private static final int REQUESTS_PER_SECOND = 50;  // per client, 1600 in total
+    private static final long SERVICE_NANOS = TimeUnit.MICROSECONDS.toNanos(1000);
+    private static final long DEADLINE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long RUN_MILLIS = 5000;
+    private static final byte[] REQUEST = "GET / HTTP/1.1\r\nHost: bench\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        int target = ServerConfig.NIO_SHED_TARGET_MS > 0 ? ServerConfig.NIO_SHED_TARGET_MS : 5;
+        int port = 18737;
+        run("shedding, target " + target + " ms", target, 0, port++);
+        run("no shedding", 0, 0, port++);
+        run("no shedding, deadline " + TimeUnit.NANOSECONDS.toMillis(DEADLINE_NANOS) + " ms", 0,
+            (int) TimeUnit.NANOSECONDS.toMillis(DEADLINE_NANOS), 18746);
+    }
+
+    private static void run(String name, int targetMillis, int deadlineMillis, int port) throws Exception {
+        ServerConfig.NIO_SERVER_PORT = port;
+        ServerConfig.NIO_SERVER_SSL_ENABLED = false;
+        ServerConfig.NIO_ACCEPTOR_NUM_IOREACTOR = 1;
+        ServerConfig.NIO_SHED_TARGET_MS = targetMillis;
+        ServerConfig.NIO_REQUEST_DEADLINE_MS = deadlineMillis;
+        // the queue is what is measured here, not the accept throttling in front of it
+        ServerConfig.NIO_ACCEPTOR_PAUSE_QUEUE_DEPTH = 0;
+        ServerConfig.NIO_ACCEPTOR_PAUSE_BACKLOG_MS = 0;
+
+        NioServerService service = new NioServerService(new ServerConfig(), new SlowHandler());
+        service.start();
+        Thread.sleep(200);
+
+        AtomicBoolean sending = new AtomicBoolean(true);
+        Stats stats = new Stats();
+        List<Socket> sockets = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < NUM_CLIENTS; i++) {
+            Socket socket = new Socket(ServerConfig.NIO_ACCEPTOR_ADDRESS, port);
+            socket.setTcpNoDelay(true);
+            sockets.add(socket);
+            Queue<Long> sent = new ConcurrentLinkedQueue<>();
+            threads.add(start(() -> send(socket, sent, sending), "sender-" + i));
+            threads.add(start(() -> receive(socket, sent, stats), "receiver-" + i));
+        }
+
+        Thread.sleep(RUN_MILLIS);
+        sending.set(false);
+        // the responses to the last requests may take up to the deadline
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(DEADLINE_NANOS) + 200);
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        for (Thread thread : threads) {
+            thread.join(1000);
+        }
+        long shed = 0;
+        long expired = 0;
+        for (IOReactor reactor : service.getIoReactors()) {
+            shed += reactor.getShedRequests();
+            expired += reactor.getExpiredRequests();
+        }
+        service.stop();
+
+        System.out.println("== " + name);
+        System.out.printf("  offered %d req/s, goodput %d req/s, late %d, 503/504 %d (shed %d, expired %d)%n",
+            NUM_CLIENTS * REQUESTS_PER_SECOND, stats.inTime.get() * 1000 / RUN_MILLIS, stats.late.get(),
+            stats.unavailable.get(), shed, expired);
+        stats.printLatency();
+    }
+
+    private static Thread start(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void send(Socket socket, Queue<Long> sent, AtomicBoolean sending) {
+        long period = TimeUnit.SECONDS.toNanos(1) / REQUESTS_PER_SECOND;
+        long next = System.nanoTime();
+        try {
+            OutputStream out = socket.getOutputStream();
+            // open loop: the rate does not depend on how fast responses come back
+            while (sending.get()) {
+                sent.add(System.nanoTime());
+                out.write(REQUEST);
+                next += period;
+                long sleep = next - System.nanoTime();
+                if (sleep > 0) {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                }
+            }
+        } catch (IOException | InterruptedException ignore) {
+        }
+    }
+
+    private static void receive(Socket socket, Queue<Long> sent, Stats stats) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            while (true) {
+                int status = readResponse(in);
+                if (status < 0) {
+                    return;
+                }
+                // responses come back in request order
+                long latency = System.nanoTime() - sent.remove();
+                if (status == 503 || status == 504) {
+                    stats.unavailable.incrementAndGet();
+                } else if (latency > DEADLINE_NANOS) {
+                    stats.late.incrementAndGet();
+                } else {
+                    stats.record(latency);
+                }
+            }
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * Reads one response; returns its status code, or -1 at the end of the stream.
+     */
+    private static int readResponse(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        if (statusLine == null) {
+            return -1;
+        }
+        int contentLength = 0;
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        for (int i = 0; i < contentLength; i++) {
+            if (in.read() < 0) {
+                return -1;
+            }
+        }
+        return Integer.parseInt(statusLine.substring(9, 12));
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                return line.toString();
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Spends a fixed time on every request before answering it like the default handler.
+     */
+    private static final class SlowHandler implements NioMessageHandler {
+        private final SimpleNioMessageHandler delegate = new SimpleNioMessageHandler();
+
+        @Override
+        public void processMessage(Message requestMessage, ConnectedSocket connectedSocket)
+            throws IOException {
+            long end = System.nanoTime() + SERVICE_NANOS;
+            while (System.nanoTime() < end) {
+                // busy, like a handler doing real work
+            }
+            delegate.processMessage(requestMessage, connectedSocket);
+        }
+    }
+
+    private static final class Stats {
+        final AtomicLong inTime = new AtomicLong();
+        final AtomicLong late = new AtomicLong();
+        final AtomicLong unavailable = new AtomicLong();
+        private long[] latencies = new long[1 << 16];
+
+        synchronized void record(long latency) {
+            int n = (int) inTime.get();
+            if (n == latencies.length) {
+                latencies = Arrays.copyOf(latencies, n * 2);
+            }
+            latencies[n] = latency;
+            inTime.incrementAndGet();
+        }
+
+        synchronized void printLatency() {
+            int n = (int) inTime.get();
+            if (n == 0) {
+                System.out.println("  no responses in time");
+                return;
+            }
+            long[] sorted = Arrays.copyOf(latencies, n);
+            Arrays.sort(sorted);
+            System.out.printf("  latency of the responses in time: p50=%d ms, p99=%d ms%n",
+                TimeUnit.NANOSECONDS.toMillis(sorted[n / 2]),
+                TimeUnit.NANOSECONDS.toMillis(sorted[Math.min(n - 1, (int) (n * 0.99))]));
+        }
+    }
+}
@@ -1,15 +1,27 @@
 package com.jun.nioServer;
 
 import com.jun.config.ServerConfig;
+import com.jun.http.NioMessageHandler;
+import com.jun.nioServer.handler.SimpleNioMessageHandler;
+import com.jun.nioServer.msg.Message;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
 import java.util.concurrent.TimeUnit;
 
 public class NioServerServiceTest {
@@ -115,6 +127,189 @@ public class NioServerServiceTest {
         System.out.println("NioServerServiceTest: testServiceStartsRunsAndStopsCleanly completed successfully.");
     }
 
+    @Test(timeout = 20000)
+    public void testDrainAnswersReceivedRequestsThenCloses() throws Exception {
+        ServerConfig.NIO_SERVER_PORT = testPort + 1;
+        NioServerService service = new NioServerService(new ServerConfig(), new SlowHandler(200));
+        service.start();
+        try (Socket client = connect()) {
+            OutputStream out = client.getOutputStream();
+            out.write(PIPELINED_REQUESTS);
+            out.flush();
+            // the first request is being handled, the second is waiting
+            Thread.sleep(100);
+
+            DrainReport report = service.drain(5000);
+
+            assertEquals(2, report.getCompletedRequests());
+            assertEquals(0, report.getAbortedRequests());
+            assertEquals(0, report.getAbortedConnections());
+            String responses = readToEnd(client);
+            assertEquals(responses, 2, count(responses, "HTTP/1.1 200 OK\r\n"));
+            assertEquals(responses, 2, count(responses, "HTTP/1.1 200 OK\r\nConnection: close\r\n"));
+        }
+        try (Socket late = new Socket()) {
+            late.connect(new InetSocketAddress(ServerConfig.NIO_ACCEPTOR_ADDRESS, ServerConfig.NIO_SERVER_PORT), 1000);
+            fail("Connection accepted after draining");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testDrainClosesBusyConnectionsAtDeadline() throws Exception {
+        ServerConfig.NIO_SERVER_PORT = testPort + 2;
+        NioServerService service = new NioServerService(new ServerConfig(), new SlowHandler(5000));
+        service.start();
+        try (Socket client = connect()) {
+            OutputStream out = client.getOutputStream();
+            out.write(PIPELINED_REQUESTS);
+            out.flush();
+            Thread.sleep(100);
+
+            long start = System.nanoTime();
+            DrainReport report = service.drain(300);
+
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3));
+            assertEquals(0, report.getCompletedRequests());
+            assertEquals(2, report.getAbortedRequests());
+            assertEquals(1, report.getAbortedConnections());
+            assertEquals("", readToEnd(client));
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testDrainCountsRequestsOfClosedConnectionsAsDropped() throws Exception {
+        ServerConfig.NIO_SERVER_PORT = testPort + 3;
+        NioServerService service = new NioServerService(new ServerConfig(), new SlowHandler(300));
+        service.start();
+        try (Socket client = connect()) {
+            client.getOutputStream().write("GET /a HTTP/1.1\r\nHost: test\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            Thread.sleep(50);
+            // queued behind the first request, then given up on
+            try (Socket gone = connect()) {
+                gone.getOutputStream().write("GET /b HTTP/1.1\r\nHost: test\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                Thread.sleep(50);
+            }
+            Thread.sleep(50);
+
+            DrainReport report = service.drain(5000);
+
+            assertEquals(1, report.getCompletedRequests());
+            assertEquals(1, report.getDroppedRequests());
+            assertEquals(0, report.getAbortedRequests());
+            String responses = readToEnd(client);
+            assertEquals(responses, 1, count(responses, "HTTP/1.1 200 OK\r\n"));
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testSilentTlsClientsDoNotHoldUpReads() throws Exception {
+        ServerConfig.NIO_SERVER_PORT = testPort + 4;
+        ServerConfig.NIO_SERVER_SSL_ENABLED = true;
+        int readers = ServerConfig.NIO_ACCEPTOR_NUM_READER_THREADS;
+        int handshakers = ServerConfig.NIO_ACCEPTOR_NUM_HANDSHAKE_THREADS;
+        int shedTarget = ServerConfig.NIO_SHED_TARGET_MS;
+        ServerConfig.NIO_ACCEPTOR_NUM_READER_THREADS = 1;
+        ServerConfig.NIO_ACCEPTOR_NUM_HANDSHAKE_THREADS = 3;
+        // the first request of a cold server may wait long enough to be shed
+        ServerConfig.NIO_SHED_TARGET_MS = 0;
+        NioServerService service = new NioServerService(new ServerConfig());
+        try {
+            service.start();
+            // connected, but their handshakes start only after the other client was served
+            try (Socket silent = connectTls(); Socket silentToo = connectTls(); Socket client = connectTls()) {
+                assertServed(client);
+                assertServed(silent);
+                assertServed(silentToo);
+            }
+        } finally {
+            service.stop();
+            ServerConfig.NIO_ACCEPTOR_NUM_READER_THREADS = readers;
+            ServerConfig.NIO_ACCEPTOR_NUM_HANDSHAKE_THREADS = handshakers;
+            ServerConfig.NIO_SHED_TARGET_MS = shedTarget;
+        }
+    }
+
+    private static final byte[] PIPELINED_REQUESTS = ("GET /a HTTP/1.1\r\nHost: test\r\n\r\n"
+        + "GET /b HTTP/1.1\r\nHost: test\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private static Socket connect() throws IOException {
+        Socket client = new Socket();
+        client.connect(new InetSocketAddress(ServerConfig.NIO_ACCEPTOR_ADDRESS, ServerConfig.NIO_SERVER_PORT), 1000);
+        client.setSoTimeout(10000);
+        return client;
+    }
+
+    private static Socket connectTls() throws Exception {
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, new TrustManager[]{new X509TrustManager() {
+            public void checkClientTrusted(X509Certificate[] chain, String authType) { }
+            public void checkServerTrusted(X509Certificate[] chain, String authType) { }
+            public X509Certificate[] getAcceptedIssuers() { return new X509Certificate[0]; }
+        }}, null);
+        Socket client = context.getSocketFactory().createSocket(ServerConfig.NIO_ACCEPTOR_ADDRESS, ServerConfig.NIO_SERVER_PORT);
+        client.setSoTimeout(5000);
+        return client;
+    }
+
+    private static void assertServed(Socket client) throws IOException {
+        client.getOutputStream().write("GET / HTTP/1.1\r\nHost: test\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        byte[] status = new byte[15];
+        int n = 0;
+        while (n < status.length) {
+            int read = client.getInputStream().read(status, n, status.length - n);
+            assertTrue("closed before the response", read >= 0);
+            n += read;
+        }
+        assertEquals("HTTP/1.1 200 OK", new String(status, StandardCharsets.US_ASCII));
+    }
+
+    private static String readToEnd(Socket client) throws IOException {
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        InputStream in = client.getInputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        try {
+            while ((n = in.read(buffer)) >= 0) {
+                received.write(buffer, 0, n);
+            }
+        } catch (SocketException reset) {
+            // an aborted connection may be reset rather than closed
+        }
+        return new String(received.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Takes its time over each request before answering it like the default handler.
+     */
+    private static final class SlowHandler implements NioMessageHandler {
+        private final SimpleNioMessageHandler delegate = new SimpleNioMessageHandler();
+        private final long millis;
+
+        SlowHandler(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public void processMessage(Message requestMessage, ConnectedSocket connectedSocket) throws IOException {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            delegate.processMessage(requestMessage, connectedSocket);
+        }
+    }
+
     // Helper to capture exceptions from the service thread
     private static java.util.concurrent.atomic.AtomicReference<Throwable> threadException = new java.util.concurrent.atomic.AtomicReference<>(null);
     private static void logThreadException(Throwable e) {
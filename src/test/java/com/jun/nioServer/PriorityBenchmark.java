@@ -0,0 +1,200 @@
+package com.jun.nioServer;
+
+import com.jun.config.ServerConfig;
+import com.jun.http.NioMessageHandler;
+import com.jun.nioServer.handler.SimpleNioMessageHandler;
+import com.jun.nioServer.msg.Message;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark for health check latency while bulk requests saturate the message handler. It is not a
+ * unit test and is not run by surefire; run it with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.jun.nioServer.PriorityBenchmark}.
+ *
+ * The handler spends a fixed time per request. Bulk clients keep several requests in flight each,
+ * so the handler's queue never runs empty, while a prober sends one health check at a time, like a
+ * load balancer does. The benchmark runs with health checks in their own class and with every
+ * request in the default class.
+ */
+public class PriorityBenchmark {
+
+    private static final int NUM_CLIENTS = 16;
+    private static final int IN_FLIGHT = 8;
+    private static final long SERVICE_NANOS = TimeUnit.MICROSECONDS.toNanos(1000);
+    private static final long PROBE_MILLIS = 20;
+    private static final long RUN_MILLIS = 5000;
+    private static final byte[] REQUEST = "GET / HTTP/1.1\r\nHost: bench\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEALTH_CHECK = "GET /health HTTP/1.1\r\nHost: bench\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        int port = 18744;
+        run("health checks first", "/health", port++);
+        run("one class", "", port);
+    }
+
+    private static void run(String name, String healthPaths, int port) throws Exception {
+        ServerConfig.NIO_SERVER_PORT = port;
+        ServerConfig.NIO_SERVER_SSL_ENABLED = false;
+        ServerConfig.NIO_ACCEPTOR_NUM_IOREACTOR = 1;
+        ServerConfig.NIO_PRIORITY_HEALTH_PATHS = healthPaths;
+        // only the order of the requests is measured here
+        ServerConfig.NIO_SHED_TARGET_MS = 0;
+        ServerConfig.NIO_ACCEPTOR_PAUSE_QUEUE_DEPTH = 0;
+        ServerConfig.NIO_ACCEPTOR_PAUSE_BACKLOG_MS = 0;
+
+        NioServerService service = new NioServerService(new ServerConfig(), new SlowHandler());
+        service.start();
+        Thread.sleep(200);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong bulk = new AtomicLong();
+        List<Socket> sockets = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < NUM_CLIENTS; i++) {
+            Socket socket = new Socket(ServerConfig.NIO_ACCEPTOR_ADDRESS, port);
+            socket.setTcpNoDelay(true);
+            sockets.add(socket);
+            threads.add(start(() -> client(socket, running, bulk), "client-" + i));
+        }
+        Socket probe = new Socket(ServerConfig.NIO_ACCEPTOR_ADDRESS, port);
+        probe.setTcpNoDelay(true);
+        sockets.add(probe);
+        long[] latencies = probe(probe, running);
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        for (Thread thread : threads) {
+            thread.join(1000);
+        }
+        service.stop();
+
+        System.out.println("== " + name);
+        System.out.printf("  bulk %d req/s, %d health checks%n", bulk.get() * 1000 / RUN_MILLIS, latencies.length);
+        if (latencies.length > 0) {
+            Arrays.sort(latencies);
+            System.out.printf("  health check latency: p50=%.1f ms, p99=%.1f ms, max=%.1f ms%n",
+                latencies[latencies.length / 2] / 1e6,
+                latencies[Math.min(latencies.length - 1, (int) (latencies.length * 0.99))] / 1e6,
+                latencies[latencies.length - 1] / 1e6);
+        }
+    }
+
+    private static Thread start(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void client(Socket socket, AtomicBoolean running, AtomicLong responses) {
+        try {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            for (int i = 0; i < IN_FLIGHT; i++) {
+                out.write(REQUEST);
+            }
+            while (running.get()) {
+                if (readResponse(in) < 0) {
+                    return;
+                }
+                responses.incrementAndGet();
+                out.write(REQUEST);
+            }
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * Sends health checks one at a time until the run ends; returns their latencies.
+     */
+    private static long[] probe(Socket socket, AtomicBoolean running) throws Exception {
+        OutputStream out = socket.getOutputStream();
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        long[] latencies = new long[1024];
+        int n = 0;
+        // let the bulk clients fill the queue first
+        Thread.sleep(500);
+        long end = System.currentTimeMillis() + RUN_MILLIS - 500;
+        while (System.currentTimeMillis() < end) {
+            long start = System.nanoTime();
+            out.write(HEALTH_CHECK);
+            if (readResponse(in) < 0) {
+                break;
+            }
+            if (n == latencies.length) {
+                latencies = Arrays.copyOf(latencies, n * 2);
+            }
+            latencies[n++] = System.nanoTime() - start;
+            Thread.sleep(PROBE_MILLIS);
+        }
+        running.set(false);
+        return Arrays.copyOf(latencies, n);
+    }
+
+    /**
+     * Reads one response; returns its status code, or -1 at the end of the stream.
+     */
+    private static int readResponse(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        if (statusLine == null) {
+            return -1;
+        }
+        int contentLength = 0;
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        for (int i = 0; i < contentLength; i++) {
+            if (in.read() < 0) {
+                return -1;
+            }
+        }
+        return Integer.parseInt(statusLine.substring(9, 12));
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                return line.toString();
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Spends a fixed time on every request before answering it like the default handler.
+     */
+    private static final class SlowHandler implements NioMessageHandler {
+        private final SimpleNioMessageHandler delegate = new SimpleNioMessageHandler();
+
+        @Override
+        public void processMessage(Message requestMessage, ConnectedSocket connectedSocket)
+            throws IOException {
+            long end = System.nanoTime() + SERVICE_NANOS;
+            while (System.nanoTime() < end) {
+                // busy, like a handler doing real work
+            }
+            delegate.processMessage(requestMessage, connectedSocket);
+        }
+    }
+}
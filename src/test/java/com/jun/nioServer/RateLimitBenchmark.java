@@ -0,0 +1,165 @@
+package com.jun.nioServer;
+
+import com.jun.config.ServerConfig;
+import com.jun.nioServer.utility.TokenBucketTable;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark for the cost of rate limiting while no client exceeds its rate. It is not a unit test
+ * and is not run by surefire; run it with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.jun.nioServer.RateLimitBenchmark}.
+ *
+ * It first times taking tokens from a table with many clients in it, then compares the throughput
+ * of a server with a limit no client reaches against one without limits. Clients keep a few
+ * requests in flight on one connection each; the runs alternate, as they vary from run to run.
+ */
+public class RateLimitBenchmark {
+
+    private static final int NUM_CLIENTS = 16;
+    private static final int IN_FLIGHT = 4;
+    private static final long RUN_MILLIS = 3000;
+    private static final byte[] REQUEST = "GET / HTTP/1.1\r\nHost: bench\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        timeTable();
+        int port = 18739;
+        // the first run warms up the JIT for the others
+        run("warm-up", 0, port++);
+        for (int round = 0; round < 2; round++) {
+            run("no rate limit", 0, port++);
+            run("rate limit not reached", 1_000_000, port++);
+        }
+    }
+
+    private static void timeTable() {
+        int clients = 10_000;
+        TokenBucketTable buckets = new TokenBucketTable(65536, 16, TimeUnit.SECONDS.toNanos(1) / 1_000_000, 1000);
+        long sink = 0;
+        for (int round = 0; round < 5; round++) {
+            int ops = 10_000_000;
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                // IPv4 keys, as the limiter makes them
+                if (buckets.tryAcquire(0xFFFFFFFF0A000000L | (i % clients), start + i)) {
+                    sink++;
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("tryAcquire over %d clients: %.1f ns/op%n", clients, (double) nanos / ops);
+        }
+        if (sink == 0) {
+            System.out.println("every request limited");
+        }
+    }
+
+    private static void run(String name, int requestsPerSecond, int port) throws Exception {
+        ServerConfig.NIO_SERVER_PORT = port;
+        ServerConfig.NIO_SERVER_SSL_ENABLED = false;
+        ServerConfig.NIO_ACCEPTOR_NUM_IOREACTOR = 1;
+        ServerConfig.NIO_RATELIMIT_REQUESTS_PER_SECOND = requestsPerSecond;
+        ServerConfig.NIO_RATELIMIT_BURST = 1000;
+
+        NioServerService service = new NioServerService(new ServerConfig());
+        service.start();
+        Thread.sleep(200);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong ok = new AtomicLong();
+        AtomicLong limited = new AtomicLong();
+        List<Socket> sockets = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < NUM_CLIENTS; i++) {
+            Socket socket = new Socket(ServerConfig.NIO_ACCEPTOR_ADDRESS, port);
+            socket.setTcpNoDelay(true);
+            sockets.add(socket);
+            Thread thread = new Thread(() -> client(socket, running, ok, limited), "client-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        Thread.sleep(RUN_MILLIS);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join(1000);
+        }
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        long rejected = 0;
+        for (IOReactor reactor : service.getIoReactors()) {
+            rejected += reactor.getRateLimitedRequests();
+        }
+        service.stop();
+
+        System.out.println("== " + name);
+        System.out.printf("  %d req/s, 429 %d (limited %d)%n", ok.get() * 1000 / RUN_MILLIS, limited.get(), rejected);
+    }
+
+    private static void client(Socket socket, AtomicBoolean running, AtomicLong ok, AtomicLong limited) {
+        try {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            for (int i = 0; i < IN_FLIGHT; i++) {
+                out.write(REQUEST);
+            }
+            while (running.get()) {
+                int status = readResponse(in);
+                if (status < 0) {
+                    return;
+                }
+                (status == 429 ? limited : ok).incrementAndGet();
+                out.write(REQUEST);
+            }
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * Reads one response; returns its status code, or -1 at the end of the stream.
+     */
+    private static int readResponse(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        if (statusLine == null) {
+            return -1;
+        }
+        int contentLength = 0;
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        for (int i = 0; i < contentLength; i++) {
+            if (in.read() < 0) {
+                return -1;
+            }
+        }
+        return Integer.parseInt(statusLine.substring(9, 12));
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                return line.toString();
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return null;
+    }
+}
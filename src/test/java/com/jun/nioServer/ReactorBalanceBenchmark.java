@@ -0,0 +1,188 @@
+package com.jun.nioServer;
+
+import com.jun.config.ServerConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Skewed-workload benchmark for the reactor selection strategies. It is not a unit test and is not
+ * run by surefire; run it from the IDE or with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.jun.nioServer.ReactorBalanceBenchmark}.
+ *
+ * Every fourth connection is a heavy client that sends requests back to back with no think time,
+ * which is the worst case for round-robin. The remaining connections are light clients that measure
+ * request latency. For each strategy the benchmark prints per-reactor connections and CPU time, and
+ * the spread of light-client latency.
+ */
+public class ReactorBalanceBenchmark {
+
+    private static final int NUM_REACTORS = 4;
+    private static final int NUM_CONNECTIONS = 32;
+    private static final int HEAVY_EVERY = 4;
+    private static final long RUN_MILLIS = 5000;
+    private static final byte[] REQUEST = "GET / HTTP/1.1\r\nHost: bench\r\n\r\n".getBytes();
+
+    public static void main(String[] args) throws Exception {
+        String[] strategies = args.length > 0 ? args
+            : new String[]{"round-robin", "least-connections", "least-bytes", "power-of-two"};
+        int port = 18500;
+        for (String strategy : strategies) {
+            run(strategy, port++);
+        }
+    }
+
+    private static void run(String strategy, int port) throws Exception {
+        ServerConfig.NIO_SERVER_PORT = port;
+        ServerConfig.NIO_SERVER_SSL_ENABLED = false;
+        ServerConfig.NIO_ACCEPTOR_NUM_IOREACTOR = NUM_REACTORS;
+        ServerConfig.NIO_ACCEPTOR_NUM_READER_THREADS = 1;
+        ServerConfig.NIO_ACCEPTOR_NUM_WRITER_THREADS = 1;
+        ServerConfig.NIO_ACCEPTOR_REACTOR_SELECTOR = strategy;
+
+        NioServerService service = new NioServerService(new ServerConfig());
+        service.start();
+        Thread.sleep(200);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> clients = new ArrayList<>();
+        List<long[]> latencies = new ArrayList<>();
+        for (int i = 0; i < NUM_CONNECTIONS; i++) {
+            Socket socket = new Socket(ServerConfig.NIO_ACCEPTOR_ADDRESS, port);
+            socket.setTcpNoDelay(true);
+            Thread client;
+            if (i % HEAVY_EVERY == 0) {
+                client = new Thread(() -> heavyClient(socket, running), "heavy-" + i);
+            } else {
+                long[] samples = new long[4096];
+                latencies.add(samples);
+                client = new Thread(() -> lightClient(socket, running, samples), "light-" + i);
+            }
+            client.setDaemon(true);
+            client.start();
+            clients.add(client);
+            Thread.sleep(20); // let the load counters reflect the previous connection
+        }
+
+        long[] cpuBefore = reactorCpuNanos();
+        Thread.sleep(RUN_MILLIS);
+        long[] cpuAfter = reactorCpuNanos();
+        running.set(false);
+
+        IOReactor[] reactors = service.getIoReactors();
+        System.out.println("== " + strategy);
+        long minCpu = Long.MAX_VALUE;
+        long maxCpu = 0;
+        for (int r = 0; r < reactors.length; r++) {
+            long cpu = cpuAfter[r] - cpuBefore[r];
+            minCpu = Math.min(minCpu, cpu);
+            maxCpu = Math.max(maxCpu, cpu);
+            System.out.printf("  %-12s connections=%3d outstandingBytes=%10d cpu=%6d ms%n",
+                reactors[r].getName(), reactors[r].getActiveConnections(),
+                reactors[r].getOutstandingBytes(), cpu / 1_000_000);
+        }
+        System.out.printf("  cpu spread (max/min): %.2f%n", maxCpu / (double) Math.max(1, minCpu));
+        printLatencySpread(latencies);
+
+        for (Thread client : clients) {
+            client.join(1000);
+        }
+        service.stop();
+    }
+
+    private static void heavyClient(Socket socket, AtomicBoolean running) {
+        try (Socket s = socket) {
+            OutputStream out = s.getOutputStream();
+            InputStream in = s.getInputStream();
+            byte[] buffer = new byte[4096];
+            // closed loop with no think time: keeps its reactor's reader and writer threads busy
+            while (running.get()) {
+                out.write(REQUEST);
+                out.flush();
+                readResponse(in, buffer);
+            }
+        } catch (IOException ignore) {
+        }
+    }
+
+    private static void lightClient(Socket socket, AtomicBoolean running, long[] samples) {
+        int count = 0;
+        try (Socket s = socket) {
+            OutputStream out = s.getOutputStream();
+            InputStream in = s.getInputStream();
+            byte[] buffer = new byte[4096];
+            while (running.get() && count < samples.length - 1) {
+                long start = System.nanoTime();
+                out.write(REQUEST);
+                out.flush();
+                readResponse(in, buffer);
+                samples[++count] = System.nanoTime() - start;
+                samples[0] = count;
+                Thread.sleep(10);
+            }
+        } catch (IOException | InterruptedException ignore) {
+        }
+    }
+
+    private static void readResponse(InputStream in, byte[] buffer) throws IOException {
+        int len = 0;
+        while (len < buffer.length) {
+            int n = in.read(buffer, len, buffer.length - len);
+            if (n < 0) {
+                throw new IOException("closed");
+            }
+            len += n;
+            if (new String(buffer, 0, len).contains("</html>")) {
+                return;
+            }
+        }
+    }
+
+    private static long[] reactorCpuNanos() {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        long[] cpu = new long[NUM_REACTORS];
+        for (ThreadInfo info : mx.getThreadInfo(mx.getAllThreadIds())) {
+            if (info == null) {
+                continue;
+            }
+            for (int r = 0; r < NUM_REACTORS; r++) {
+                String prefix = "IOReactor-" + r;
+                if (info.getThreadName().equals(prefix) || info.getThreadName().startsWith(prefix + "-")) {
+                    long t = mx.getThreadCpuTime(info.getThreadId());
+                    if (t > 0) {
+                        cpu[r] += t;
+                    }
+                }
+            }
+        }
+        return cpu;
+    }
+
+    private static void printLatencySpread(List<long[]> latencies) {
+        long[] medians = new long[latencies.size()];
+        long worstP99 = 0;
+        for (int i = 0; i < latencies.size(); i++) {
+            long[] samples = latencies.get(i);
+            int count = (int) samples[0];
+            if (count == 0) {
+                continue;
+            }
+            long[] sorted = Arrays.copyOfRange(samples, 1, count + 1);
+            Arrays.sort(sorted);
+            medians[i] = sorted[count / 2];
+            worstP99 = Math.max(worstP99, sorted[Math.min(count - 1, (int) (count * 0.99))]);
+        }
+        Arrays.sort(medians);
+        System.out.printf("  light-client median latency: best=%d us, median=%d us, worst=%d us; worst p99=%d us%n",
+            medians[0] / 1000, medians[medians.length / 2] / 1000, medians[medians.length - 1] / 1000, worstP99 / 1000);
+    }
+}
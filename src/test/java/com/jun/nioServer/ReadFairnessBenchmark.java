@@ -0,0 +1,177 @@
+package com.jun.nioServer;
+
+import com.jun.config.ServerConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark for the per-event read budget. It is not a unit test and is not run by surefire; run it
+ * with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.jun.nioServer.ReadFairnessBenchmark}.
+ *
+ * A few uploaders stream large POST requests back to back on their connections while light clients
+ * send small GETs and measure their latency. All connections share one reactor with one reader
+ * thread, so a reader that stays on an uploader's connection for as long as it has data delays
+ * every other connection. The benchmark runs with the configured budget and without one.
+ */
+public class ReadFairnessBenchmark {
+
+    private static final int NUM_UPLOADERS = 4;
+    private static final int NUM_LIGHT = 8;
+    private static final int BODY_BYTES = 256 * 1024;
+    private static final long RUN_MILLIS = 5000;
+    private static final byte[] REQUEST = "GET / HTTP/1.1\r\nHost: bench\r\n\r\n".getBytes();
+
+    public static void main(String[] args) throws Exception {
+        int budgetBytes = ServerConfig.NIO_READ_BUDGET_BYTES;
+        int budgetReads = ServerConfig.NIO_READ_BUDGET_READS;
+        int port = 18731;
+        run("budget " + budgetBytes + " bytes/" + budgetReads + " reads", budgetBytes, budgetReads, port++);
+        run("unbounded", Integer.MAX_VALUE, Integer.MAX_VALUE, port);
+    }
+
+    private static void run(String name, int budgetBytes, int budgetReads, int port) throws Exception {
+        ServerConfig.NIO_SERVER_PORT = port;
+        ServerConfig.NIO_SERVER_SSL_ENABLED = false;
+        ServerConfig.NIO_ACCEPTOR_NUM_IOREACTOR = 1;
+        ServerConfig.NIO_ACCEPTOR_NUM_READER_THREADS = 1;
+        ServerConfig.NIO_ACCEPTOR_NUM_WRITER_THREADS = 1;
+        ServerConfig.NIO_READ_BUDGET_BYTES = budgetBytes;
+        ServerConfig.NIO_READ_BUDGET_READS = budgetReads;
+
+        NioServerService service = new NioServerService(new ServerConfig());
+        service.start();
+        Thread.sleep(200);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong uploaded = new AtomicLong();
+        List<Socket> sockets = new ArrayList<>();
+        List<Thread> clients = new ArrayList<>();
+        for (int i = 0; i < NUM_UPLOADERS; i++) {
+            Socket socket = new Socket(ServerConfig.NIO_ACCEPTOR_ADDRESS, port);
+            sockets.add(socket);
+            clients.add(start(() -> uploader(socket, running, uploaded), "uploader-" + i));
+            clients.add(start(() -> discard(socket), "uploader-drain-" + i));
+        }
+        List<long[]> latencies = new ArrayList<>();
+        for (int i = 0; i < NUM_LIGHT; i++) {
+            Socket socket = new Socket(ServerConfig.NIO_ACCEPTOR_ADDRESS, port);
+            socket.setTcpNoDelay(true);
+            sockets.add(socket);
+            long[] samples = new long[4096];
+            latencies.add(samples);
+            clients.add(start(() -> lightClient(socket, running, samples), "light-" + i));
+        }
+
+        Thread.sleep(RUN_MILLIS);
+        running.set(false);
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        for (Thread client : clients) {
+            client.join(1000);
+        }
+        service.stop();
+
+        System.out.println("== " + name);
+        System.out.printf("  uploaded: %d MB/s%n", uploaded.get() * 1000 / RUN_MILLIS / (1024 * 1024));
+        printLatency(latencies);
+    }
+
+    private static Thread start(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void uploader(Socket socket, AtomicBoolean running, AtomicLong uploaded) {
+        byte[] head = ("POST /upload HTTP/1.1\r\nHost: bench\r\nContent-Length: " + BODY_BYTES + "\r\n\r\n").getBytes();
+        byte[] body = new byte[BODY_BYTES];
+        Arrays.fill(body, (byte) 'x');
+        try {
+            OutputStream out = socket.getOutputStream();
+            // pipelined with no think time: there is always more to read on this connection
+            while (running.get()) {
+                out.write(head);
+                out.write(body);
+                uploaded.addAndGet(head.length + body.length);
+            }
+        } catch (IOException ignore) {
+        }
+    }
+
+    private static void discard(Socket socket) {
+        byte[] buffer = new byte[16 * 1024];
+        try {
+            InputStream in = socket.getInputStream();
+            while (in.read(buffer) >= 0) {
+                // responses to the uploads are not looked at
+            }
+        } catch (IOException ignore) {
+        }
+    }
+
+    private static void lightClient(Socket socket, AtomicBoolean running, long[] samples) {
+        int count = 0;
+        try {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[4096];
+            while (running.get() && count < samples.length - 1) {
+                long start = System.nanoTime();
+                out.write(REQUEST);
+                out.flush();
+                readResponse(in, buffer);
+                samples[++count] = System.nanoTime() - start;
+                samples[0] = count;
+                Thread.sleep(5);
+            }
+        } catch (IOException | InterruptedException ignore) {
+        }
+    }
+
+    private static void readResponse(InputStream in, byte[] buffer) throws IOException {
+        int len = 0;
+        while (len < buffer.length) {
+            int n = in.read(buffer, len, buffer.length - len);
+            if (n < 0) {
+                throw new IOException("closed");
+            }
+            len += n;
+            if (new String(buffer, 0, len).contains("</html>")) {
+                return;
+            }
+        }
+    }
+
+    private static void printLatency(List<long[]> latencies) {
+        int total = 0;
+        for (long[] samples : latencies) {
+            total += (int) samples[0];
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (long[] samples : latencies) {
+            int count = (int) samples[0];
+            System.arraycopy(samples, 1, all, pos, count);
+            pos += count;
+        }
+        if (total == 0) {
+            System.out.println("  no light-client requests completed");
+            return;
+        }
+        Arrays.sort(all);
+        System.out.printf("  light-client latency over %d requests: p50=%d us, p99=%d us, max=%d us%n",
+            total, all[total / 2] / 1000, all[Math.min(total - 1, (int) (total * 0.99))] / 1000,
+            all[total - 1] / 1000);
+    }
+}
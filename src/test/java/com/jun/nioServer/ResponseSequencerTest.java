@@ -0,0 +1,79 @@
+package com.jun.nioServer;
+
+import com.jun.nioServer.msg.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class ResponseSequencerTest {
+
+    private SocketChannel channel;
+    private ConnectedSocket socket;
+    private ResponseSequencer sequencer;
+
+    @Before
+    public void setUp() throws IOException {
+        channel = SocketChannel.open();
+        socket = new ConnectedSocket(1, channel);
+        sequencer = socket.getResponseSequencer();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        channel.close();
+    }
+
+    private Message response(String text) {
+        Message msg = new Message(socket);
+        msg.addData(text.getBytes(StandardCharsets.US_ASCII));
+        return msg;
+    }
+
+    private String nextWrite() {
+        ByteBuffer buffer = (ByteBuffer) socket.pollWrite();
+        return buffer == null ? null : StandardCharsets.US_ASCII.decode(buffer).toString();
+    }
+
+    @Test
+    public void testResponsesAreWrittenInRequestOrder() {
+        CompletableFuture<Message> first = new CompletableFuture<>();
+        CompletableFuture<Message> second = new CompletableFuture<>();
+        CompletableFuture<Message> third = new CompletableFuture<>();
+        sequencer.add(first, e -> null);
+        sequencer.add(second, e -> null);
+        sequencer.add(third, e -> response("error"));
+
+        second.complete(response("2"));
+        third.completeExceptionally(new IllegalStateException("test"));
+        assertNull(socket.peekWrite());
+
+        first.complete(response("1"));
+        assertEquals("1", nextWrite());
+        assertEquals("2", nextWrite());
+        assertEquals("error", nextWrite());
+        assertNull(nextWrite());
+        assertEquals(0, sequencer.size());
+    }
+
+    @Test
+    public void testCloseCancelsPendingResponses() {
+        CompletableFuture<Message> pending = new CompletableFuture<>();
+        sequencer.add(pending, e -> null);
+
+        socket.close();
+        assertTrue(pending.isCancelled());
+
+        CompletableFuture<Message> late = new CompletableFuture<>();
+        sequencer.add(late, e -> null);
+        assertTrue(late.isCancelled());
+        assertNull(socket.peekWrite());
+    }
+}
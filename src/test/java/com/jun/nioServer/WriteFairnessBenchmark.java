@@ -0,0 +1,202 @@
+package com.jun.nioServer;
+
+import com.jun.config.ServerConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark for the per-event write budget with a mix of small and large responses. It is not a
+ * unit test and is not run by surefire; run it with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.jun.nioServer.WriteFairnessBenchmark}.
+ *
+ * A few clients download a large static file over and over while light clients fetch a small one
+ * and measure the latency. All connections share one reactor with one writer thread, so a writer
+ * that stays on a large response for as long as the socket takes it delays every small response
+ * queued behind it. The benchmark runs with the configured budget and without one.
+ */
+public class WriteFairnessBenchmark {
+
+    private static final int NUM_LARGE = 4;
+    private static final int NUM_SMALL = 8;
+    private static final int LARGE_BYTES = 8 * 1024 * 1024;
+    private static final int SMALL_BYTES = 512;
+    private static final long RUN_MILLIS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("write-fairness");
+        Path large = Files.write(root.resolve("large.bin"), new byte[LARGE_BYTES]);
+        Path small = Files.write(root.resolve("small.txt"), new byte[SMALL_BYTES]);
+        int budgetBytes = ServerConfig.NIO_WRITE_BUDGET_BYTES;
+        int spinCount = ServerConfig.NIO_WRITE_SPIN_COUNT;
+        try {
+            run(root, "budget " + budgetBytes + " bytes/" + spinCount + " writes", budgetBytes, spinCount, 18733);
+            run(root, "unbounded", Integer.MAX_VALUE, Integer.MAX_VALUE, 18734);
+        } finally {
+            Files.delete(large);
+            Files.delete(small);
+            Files.delete(root);
+        }
+    }
+
+    private static void run(Path root, String name, int budgetBytes, int spinCount, int port) throws Exception {
+        ServerConfig.NIO_SERVER_PORT = port;
+        ServerConfig.NIO_SERVER_SSL_ENABLED = false;
+        ServerConfig.NIO_ACCEPTOR_NUM_IOREACTOR = 1;
+        ServerConfig.NIO_ACCEPTOR_NUM_READER_THREADS = 1;
+        ServerConfig.NIO_ACCEPTOR_NUM_WRITER_THREADS = 1;
+        ServerConfig.NIO_STATIC_ENABLED = true;
+        ServerConfig.NIO_STATIC_ROOT = root.toString();
+        ServerConfig.NIO_STATIC_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+        ServerConfig.NIO_STATIC_CACHE_MAX_FILE_BYTES = 64L * 1024 * 1024;
+        ServerConfig.NIO_WRITE_BUDGET_BYTES = budgetBytes;
+        ServerConfig.NIO_WRITE_SPIN_COUNT = spinCount;
+
+        NioServerService service = new NioServerService(new ServerConfig());
+        service.start();
+        Thread.sleep(200);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong downloaded = new AtomicLong();
+        List<Socket> sockets = new ArrayList<>();
+        List<Thread> clients = new ArrayList<>();
+        for (int i = 0; i < NUM_LARGE; i++) {
+            Socket socket = new Socket(ServerConfig.NIO_ACCEPTOR_ADDRESS, port);
+            sockets.add(socket);
+            clients.add(start(() -> largeClient(socket, running, downloaded), "large-" + i));
+        }
+        List<long[]> latencies = new ArrayList<>();
+        for (int i = 0; i < NUM_SMALL; i++) {
+            Socket socket = new Socket(ServerConfig.NIO_ACCEPTOR_ADDRESS, port);
+            socket.setTcpNoDelay(true);
+            sockets.add(socket);
+            long[] samples = new long[4096];
+            latencies.add(samples);
+            clients.add(start(() -> smallClient(socket, running, samples), "small-" + i));
+        }
+
+        Thread.sleep(RUN_MILLIS);
+        running.set(false);
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        for (Thread client : clients) {
+            client.join(1000);
+        }
+        service.stop();
+
+        System.out.println("== " + name);
+        System.out.printf("  large downloads: %d MB/s%n", downloaded.get() * 1000 / RUN_MILLIS / (1024 * 1024));
+        printLatency(latencies);
+    }
+
+    private static Thread start(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void largeClient(Socket socket, AtomicBoolean running, AtomicLong downloaded) {
+        byte[] request = "GET /large.bin HTTP/1.1\r\nHost: bench\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            while (running.get()) {
+                out.write(request);
+                out.flush();
+                downloaded.addAndGet(readResponse(in, buffer));
+            }
+        } catch (IOException ignore) {
+        }
+    }
+
+    private static void smallClient(Socket socket, AtomicBoolean running, long[] samples) {
+        byte[] request = "GET /small.txt HTTP/1.1\r\nHost: bench\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] buffer = new byte[4096];
+        int count = 0;
+        try {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            while (running.get() && count < samples.length - 1) {
+                long start = System.nanoTime();
+                out.write(request);
+                out.flush();
+                readResponse(in, buffer);
+                samples[++count] = System.nanoTime() - start;
+                samples[0] = count;
+                Thread.sleep(5);
+            }
+        } catch (IOException | InterruptedException ignore) {
+        }
+    }
+
+    /**
+     * Reads one response with a Content-Length body and returns the body length.
+     */
+    private static long readResponse(InputStream in, byte[] buffer) throws IOException {
+        int len = 0;
+        int headerEnd;
+        while ((headerEnd = indexOfHeaderEnd(buffer, len)) < 0) {
+            int n = in.read(buffer, len, buffer.length - len);
+            if (n < 0) {
+                throw new IOException("closed");
+            }
+            len += n;
+        }
+        String head = new String(buffer, 0, headerEnd, StandardCharsets.US_ASCII);
+        int at = head.indexOf("Content-Length: ") + "Content-Length: ".length();
+        long bodyLength = Long.parseLong(head.substring(at, head.indexOf('\r', at)).trim());
+        long left = bodyLength - (len - headerEnd);
+        while (left > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+            if (n < 0) {
+                throw new IOException("closed");
+            }
+            left -= n;
+        }
+        return bodyLength;
+    }
+
+    private static int indexOfHeaderEnd(byte[] buffer, int len) {
+        for (int i = 3; i < len; i++) {
+            if (buffer[i] == '\n' && buffer[i - 1] == '\r' && buffer[i - 2] == '\n' && buffer[i - 3] == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static void printLatency(List<long[]> latencies) {
+        int total = 0;
+        for (long[] samples : latencies) {
+            total += (int) samples[0];
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (long[] samples : latencies) {
+            int count = (int) samples[0];
+            System.arraycopy(samples, 1, all, pos, count);
+            pos += count;
+        }
+        if (total == 0) {
+            System.out.println("  no small requests completed");
+            return;
+        }
+        Arrays.sort(all);
+        System.out.printf("  small-response latency over %d requests: p50=%d us, p99=%d us, max=%d us%n",
+            total, all[total / 2] / 1000, all[Math.min(total - 1, (int) (total * 0.99))] / 1000,
+            all[total - 1] / 1000);
+    }
+}
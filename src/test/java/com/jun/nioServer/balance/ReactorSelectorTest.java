@@ -0,0 +1,83 @@
+package com.jun.nioServer.balance;
+
+import com.jun.nioServer.IOReactor;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ReactorSelectorTest {
+
+    private IOReactor[] reactors;
+
+    @Before
+    public void setUp() {
+        reactors = new IOReactor[3];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = mock(IOReactor.class);
+        }
+    }
+
+    private void setLoad(int idx, int connections, long outstandingBytes) {
+        when(reactors[idx].getActiveConnections()).thenReturn(connections);
+        when(reactors[idx].getOutstandingBytes()).thenReturn(outstandingBytes);
+    }
+
+    @Test
+    public void testRoundRobin_CyclesThroughReactors() {
+        IReactorSelector selector = new RoundRobinReactorSelector();
+        assertSame(reactors[0], selector.select(reactors));
+        assertSame(reactors[1], selector.select(reactors));
+        assertSame(reactors[2], selector.select(reactors));
+        assertSame(reactors[0], selector.select(reactors));
+    }
+
+    @Test
+    public void testLeastConnections_PicksFewestConnections() {
+        setLoad(0, 5, 0);
+        setLoad(1, 2, 1000);
+        setLoad(2, 3, 0);
+        assertSame(reactors[1], new LeastConnectionsReactorSelector().select(reactors));
+    }
+
+    @Test
+    public void testLeastBytes_PicksFewestOutstandingBytes() {
+        setLoad(0, 1, 50000);
+        setLoad(1, 9, 10);
+        setLoad(2, 1, 20);
+        assertSame(reactors[1], new LeastOutstandingBytesReactorSelector().select(reactors));
+    }
+
+    @Test
+    public void testLeastBytes_TieBrokenByConnections() {
+        setLoad(0, 4, 0);
+        setLoad(1, 1, 0);
+        setLoad(2, 2, 0);
+        assertSame(reactors[1], new LeastOutstandingBytesReactorSelector().select(reactors));
+    }
+
+    @Test
+    public void testPowerOfTwo_NeverPicksTheMostLoadedReactor() {
+        setLoad(0, 100, 0);
+        setLoad(1, 1, 0);
+        setLoad(2, 2, 0);
+        IReactorSelector selector = new PowerOfTwoChoicesReactorSelector();
+        for (int i = 0; i < 200; i++) {
+            assertNotSame(reactors[0], selector.select(reactors));
+        }
+    }
+
+    @Test
+    public void testPowerOfTwo_SingleReactor() {
+        IOReactor[] single = new IOReactor[]{reactors[0]};
+        assertSame(reactors[0], new PowerOfTwoChoicesReactorSelector().select(single));
+    }
+
+    @Test
+    public void testFactory_UnknownNameFallsBackToRoundRobin() {
+        assertTrue(ReactorSelectors.create("least-connections") instanceof LeastConnectionsReactorSelector);
+        assertTrue(ReactorSelectors.create("power-of-two") instanceof PowerOfTwoChoicesReactorSelector);
+        assertTrue(ReactorSelectors.create("bogus") instanceof RoundRobinReactorSelector);
+    }
+}
@@ -0,0 +1,122 @@
+package com.jun.nioServer.cache;
+
+import com.jun.config.ServerConfig;
+import com.jun.nioServer.NioServerService;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.util.Random;
+
+/**
+ * Compares static file responses served from the {@link ContentCache} with responses read from disk
+ * per request. It is not a unit test and is not run by surefire; run it from the IDE or with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.jun.nioServer.cache.ContentCacheBenchmark}.
+ *
+ * A single keep-alive client fetches the same file over and over. Arguments: file size in bytes
+ * (default 16384), number of measured requests (default 20000), and {@code ssl} to run over TLS,
+ * where uncached files are read and wrapped in chunks because sendfile cannot be used.
+ */
+public class ContentCacheBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int fileSize = args.length > 0 ? Integer.parseInt(args[0]) : 16 * 1024;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        boolean ssl = args.length > 2 && args[2].equals("ssl");
+
+        Path root = Files.createTempDirectory("cache-bench");
+        Path file = root.resolve("asset.bin");
+        byte[] content = new byte[fileSize];
+        new Random(1).nextBytes(content);
+        Files.write(file, content);
+        try {
+            double uncached = run(root, false, ssl, requests, 18610);
+            double cached = run(root, true, ssl, requests, 18611);
+            System.out.printf("%d byte file over %s: uncached %.0f req/s, cached %.0f req/s (%.2fx)%n",
+                fileSize, ssl ? "TLS" : "plain TCP", uncached, cached, cached / uncached);
+        } finally {
+            Files.delete(file);
+            Files.delete(root);
+        }
+    }
+
+    private static double run(Path root, boolean cache, boolean ssl, int requests, int port) throws Exception {
+        ServerConfig.NIO_SERVER_PORT = port;
+        ServerConfig.NIO_SERVER_SSL_ENABLED = ssl;
+        ServerConfig.NIO_ACCEPTOR_NUM_IOREACTOR = 1;
+        ServerConfig.NIO_STATIC_ENABLED = true;
+        ServerConfig.NIO_STATIC_ROOT = root.toString();
+        ServerConfig.NIO_STATIC_CACHE_MAX_BYTES = cache ? 64L * 1024 * 1024 : 0;
+        ServerConfig.NIO_STATIC_CACHE_MAX_FILE_BYTES = 64L * 1024 * 1024;
+
+        NioServerService service = new NioServerService(new ServerConfig());
+        service.start();
+        Thread.sleep(200);
+        try (Socket socket = connect(ssl, port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] request = "GET /asset.bin HTTP/1.1\r\nHost: bench\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+            byte[] buffer = new byte[64 * 1024];
+
+            fetch(out, in, request, buffer, requests / 4);   // warm-up
+            long start = System.nanoTime();
+            fetch(out, in, request, buffer, requests);
+            return requests / ((System.nanoTime() - start) / 1e9);
+        } finally {
+            service.stop();
+        }
+    }
+
+    private static Socket connect(boolean ssl, int port) throws Exception {
+        if (!ssl) {
+            return new Socket(ServerConfig.NIO_ACCEPTOR_ADDRESS, port);
+        }
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, new TrustManager[]{new X509TrustManager() {
+            public void checkClientTrusted(X509Certificate[] chain, String authType) { }
+            public void checkServerTrusted(X509Certificate[] chain, String authType) { }
+            public X509Certificate[] getAcceptedIssuers() { return new X509Certificate[0]; }
+        }}, null);
+        return context.getSocketFactory().createSocket(ServerConfig.NIO_ACCEPTOR_ADDRESS, port);
+    }
+
+    private static void fetch(OutputStream out, InputStream in, byte[] request, byte[] buffer, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.write(request);
+            out.flush();
+            long body = readHeader(in);
+            while (body > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, body));
+                if (n < 0) {
+                    throw new IOException("closed");
+                }
+                body -= n;
+            }
+        }
+    }
+
+    /**
+     * Reads up to the end of the response header and returns the Content-Length.
+     */
+    private static long readHeader(InputStream in) throws IOException {
+        StringBuilder header = new StringBuilder();
+        while (header.length() < 4 || header.lastIndexOf("\r\n\r\n") != header.length() - 4) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("closed");
+            }
+            header.append((char) b);
+        }
+        int at = header.indexOf("Content-Length: ") + "Content-Length: ".length();
+        return Long.parseLong(header.substring(at, header.indexOf("\r\n", at)));
+    }
+}
@@ -0,0 +1,88 @@
+package com.jun.nioServer.cache;
+
+import com.jun.nioServer.cache.ContentCache.CachedContent;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class ContentCacheTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file(String name, int size) throws IOException {
+        Path path = folder.newFile(name).toPath();
+        Files.write(path, new byte[size]);
+        return path;
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedWhenOverBudget() throws IOException {
+        ContentCache cache = new ContentCache(300, 300, 1024, 60_000);
+        Path a = file("a", 100);
+        Path b = file("b", 100);
+        Path c = file("c", 100);
+        Path d = file("d", 100);
+        cache.get(a);
+        cache.get(b);
+        cache.get(c);
+        cache.get(a);   // b is now the least recently used
+        cache.get(d);
+
+        assertEquals(3, cache.size());
+        assertEquals(300, cache.getCachedBytes());
+        long misses = cache.getMisses();
+        cache.get(a);
+        cache.get(c);
+        cache.get(d);
+        assertEquals(misses, cache.getMisses());
+        cache.get(b);
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    @Test
+    public void testReloadsChangedFile() throws IOException {
+        ContentCache cache = new ContentCache(1024, 1024, 1024, 0);
+        Path path = file("f", 10);
+        CachedContent first = cache.get(path);
+        assertSame(first, cache.get(path));
+
+        Files.write(path, new byte[20]);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(first.getLastModified() + 5000));
+        CachedContent second = cache.get(path);
+        assertNotSame(first, second);
+        assertEquals(20, second.getSize());
+        assertEquals(20, cache.getCachedBytes());
+    }
+
+    @Test
+    public void testDoesNotCacheLargeFiles() throws IOException {
+        ContentCache cache = new ContentCache(1024, 100, 1024, 60_000);
+        assertNull(cache.get(file("big", 101)));
+        assertEquals(0, cache.getCachedBytes());
+    }
+
+    @Test
+    public void testContentViewsAreIndependentAndReadOnly() throws IOException {
+        ContentCache cache = new ContentCache(1024, 1024, 8, 60_000);   // mapped
+        Path path = folder.newFile("text").toPath();
+        Files.write(path, "shared content".getBytes("UTF-8"));
+        CachedContent entry = cache.get(path);
+
+        ByteBuffer one = entry.content();
+        ByteBuffer two = entry.content();
+        one.get(new byte[6]);
+        assertEquals(14, two.remaining());
+        assertTrue(two.isReadOnly());
+        byte[] copy = new byte[two.remaining()];
+        two.get(copy);
+        assertEquals("shared content", new String(copy, "UTF-8"));
+    }
+}
@@ -0,0 +1,54 @@
+package com.jun.nioServer.handler;
+
+import com.jun.nioServer.ConnectedSocket;
+import com.jun.nioServer.ResponseSequencer;
+import com.jun.nioServer.msg.Message;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class AsyncNioMessageHandlerAdapterTest {
+
+    private ConnectedSocket mockConnectedSocket;
+    private Message request;
+
+    @Before
+    public void setUp() {
+        mockConnectedSocket = mock(ConnectedSocket.class);
+        when(mockConnectedSocket.getResponseSequencer()).thenReturn(new ResponseSequencer(mockConnectedSocket));
+        when(mockConnectedSocket.prepareBuffersForWriting()).thenReturn(true);
+        request = new Message(mockConnectedSocket);
+    }
+
+    @Test
+    public void testResponseIsQueuedWhenTheFutureCompletes() {
+        CompletableFuture<Message> future = new CompletableFuture<>();
+        new AsyncNioMessageHandlerAdapter((req, socket) -> future).processMessage(request, mockConnectedSocket);
+        verify(mockConnectedSocket, never()).addWriteReadyMsg(any(Message.class));
+
+        Message response = new Message(mockConnectedSocket, request.getId());
+        // completed by another thread, as a handler waiting on a backend would
+        Thread completer = new Thread(() -> future.complete(response));
+        completer.start();
+        verify(mockConnectedSocket, timeout(1000)).addWriteReadyMsg(response);
+        verify(mockConnectedSocket, timeout(1000)).flushWrites();
+    }
+
+    @Test
+    public void testFailureIsAnsweredWithInternalError() {
+        new AsyncNioMessageHandlerAdapter((req, socket) -> {
+            throw new IllegalStateException("test");
+        }).processMessage(request, mockConnectedSocket);
+
+        ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+        verify(mockConnectedSocket).addWriteReadyMsg(captor.capture());
+        assertTrue(new String(captor.getValue().getData(), StandardCharsets.US_ASCII)
+            .startsWith("HTTP/1.1 500 Internal Server Error\r\n"));
+    }
+}
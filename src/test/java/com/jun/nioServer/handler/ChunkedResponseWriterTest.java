@@ -0,0 +1,92 @@
+package com.jun.nioServer.handler;
+
+import com.jun.nioServer.ConnectedSocket;
+import com.jun.nioServer.ResponseSequencer;
+import com.jun.nioServer.msg.Message;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ChunkedResponseWriterTest {
+
+    private ConnectedSocket mockConnectedSocket;
+    private Message request;
+
+    @Before
+    public void setUp() {
+        mockConnectedSocket = mock(ConnectedSocket.class);
+        when(mockConnectedSocket.getResponseSequencer()).thenReturn(new ResponseSequencer(mockConnectedSocket));
+        when(mockConnectedSocket.prepareBuffersForWriting()).thenReturn(true);
+        when(mockConnectedSocket.isWritable()).thenReturn(true);
+        request = new Message(mockConnectedSocket);
+    }
+
+    private List<String> writtenBuffers() {
+        ArgumentCaptor<ByteBuffer> captor = ArgumentCaptor.forClass(ByteBuffer.class);
+        verify(mockConnectedSocket, atLeastOnce()).addWriteBuffer(captor.capture());
+        return captor.getAllValues().stream()
+            .map(b -> StandardCharsets.US_ASCII.decode(b.duplicate()).toString())
+            .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testStreamWaitsForEarlierResponseAndFramesChunks() throws IOException {
+        CompletableFuture<Message> earlier = new CompletableFuture<>();
+        mockConnectedSocket.getResponseSequencer().add(earlier, e -> null);
+
+        ChunkedResponseWriter writer = ChunkedResponseWriter.open(request, mockConnectedSocket, "200 OK",
+            "Content-Type: text/csv\r\n");
+        assertFalse(writer.write("hello".getBytes(StandardCharsets.US_ASCII)));
+        verify(mockConnectedSocket, never()).addWriteBuffer(any(ByteBuffer.class));
+
+        Message response = new Message(mockConnectedSocket);
+        earlier.complete(response);
+        InOrder inOrder = inOrder(mockConnectedSocket);
+        inOrder.verify(mockConnectedSocket).addWriteReadyMsg(response);
+        inOrder.verify(mockConnectedSocket, times(2)).addWriteBuffer(any(ByteBuffer.class));
+
+        assertTrue(writer.write(ByteBuffer.wrap(new byte[26])));
+        writer.finish();
+
+        List<String> written = writtenBuffers();
+        assertEquals(4, written.size());
+        assertTrue(written.get(0).startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(written.get(0).endsWith("Content-Type: text/csv\r\nTransfer-Encoding: chunked\r\n\r\n"));
+        assertEquals("5\r\nhello\r\n", written.get(1));
+        assertTrue(written.get(2).startsWith("1a\r\n"));
+        assertEquals("0\r\n\r\n", written.get(3));
+    }
+
+    @Test
+    public void testProducerResumesWhenSocketDrains() throws IOException {
+        ChunkedResponseWriter writer = ChunkedResponseWriter.open(request, mockConnectedSocket, "200 OK", "");
+        when(mockConnectedSocket.isWritable()).thenReturn(false);
+        assertFalse(writer.write("data".getBytes(StandardCharsets.US_ASCII)));
+
+        CompletableFuture<Void> writable = writer.whenWritable();
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(mockConnectedSocket).runWhenWritable(task.capture());
+        assertFalse(writable.isDone());
+
+        task.getValue().run();
+        assertTrue(writable.isDone());
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteAfterCloseFails() throws IOException {
+        ChunkedResponseWriter writer = ChunkedResponseWriter.open(request, mockConnectedSocket, "200 OK", "");
+        when(mockConnectedSocket.isClosed()).thenReturn(true);
+        writer.write("late".getBytes(StandardCharsets.US_ASCII));
+    }
+}
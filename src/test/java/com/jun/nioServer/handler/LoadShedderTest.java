@@ -0,0 +1,46 @@
+package com.jun.nioServer.handler;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LoadShedderTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testBurstThatDrainsIsNotShed() {
+        long start = System.nanoTime();
+        LoadShedder shedder = new LoadShedder(5, 100);
+        // long delays, but the queue ran empty once in every interval
+        for (int i = 0; i < 10; i++) {
+            long now = start + i * 100 * MS;
+            assertTrue(shedder.admit(50 * MS, now));
+            assertTrue(shedder.admit(0, now + MS));
+        }
+        assertFalse(shedder.isOverloaded());
+        assertEquals(0, shedder.getShed());
+    }
+
+    @Test
+    public void testStandingQueueIsShedUntilItDrains() {
+        long start = System.nanoTime();
+        LoadShedder shedder = new LoadShedder(5, 100);
+        assertTrue(shedder.admit(20 * MS, start));
+        assertTrue(shedder.admit(30 * MS, start + 50 * MS));
+        // the delay stayed above the target for the whole interval
+        assertFalse(shedder.admit(40 * MS, start + 101 * MS));
+        assertTrue(shedder.isOverloaded());
+        // requests that did not wait long are still handled
+        assertTrue(shedder.admit(8 * MS, start + 120 * MS));
+        assertFalse(shedder.admit(11 * MS, start + 150 * MS));
+        assertEquals(2, shedder.getShed());
+
+        // the queue ran empty in the last interval
+        assertTrue(shedder.admit(2 * MS, start + 180 * MS));
+        assertTrue(shedder.admit(20 * MS, start + 202 * MS));
+        assertFalse(shedder.isOverloaded());
+    }
+}
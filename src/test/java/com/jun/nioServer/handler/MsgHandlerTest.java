@@ -1,21 +1,31 @@
 package com.jun.nioServer.handler;
 
+import com.jun.config.ServerConfig;
 import com.jun.http.NioMessageHandler;
 import com.jun.nioServer.ConnectedSocket;
+import com.jun.nioServer.ResponseSequencer;
 import com.jun.nioServer.msg.IMessageReader;
 import com.jun.nioServer.msg.IMessageReaderFactory;
 import com.jun.nioServer.msg.Message;
+import com.jun.nioServer.msg.http.HttpHeaders;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 public class MsgHandlerTest {
@@ -27,6 +37,7 @@ public class MsgHandlerTest {
     @Mock private Message mockRequestMessage;
 
     private MsgHandler msgHandler;
+    private List<ByteBuffer> parsedData;
 
     @Before
     public void setUp() {
@@ -34,39 +45,58 @@ public class MsgHandlerTest {
         when(mockReaderFactory.createMessageReader()).thenReturn(mockMessageReader);
         msgHandler = new MsgHandler(mockReaderFactory, mockNioMessageHandler);
 
-        // Basic setup for mockRequestMessage, assuming it might be used
-        // If mockRequestMessage.socketChannel is accessed, it needs to be mocked.
-        // For processMessage(mockRequestMessage, mockRequestMessage.socketChannel),
-        // we would need: when(mockRequestMessage.socketChannel).thenReturn(mockConnectedSocket);
-        // However, the test passes mockConnectedSocket directly or via the message object.
-        // Let's ensure mockRequestMessage.socketChannel returns the main mockConnectedSocket
-        // if that's the intended interaction pattern from the refactored MsgHandler.process().
-        // From `this.messageProcessor.processMessage(message, message.socketChannel);`
-        // it implies `message.socketChannel` is used.
-        // when(mockRequestMessage.socketChannel).thenReturn(mockConnectedSocket); // Cannot stub fields with when()
-        mockRequestMessage.socketChannel = mockConnectedSocket; // Set the public field directly
+        // MsgHandler passes processMessage the socket the message was read from
+        when(mockRequestMessage.getSocketChannel()).thenReturn(mockConnectedSocket);
 
     }
 
+    // The handler reuses its batch, so keep a copy of what the parser was given
+    @SuppressWarnings("unchecked")
+    private void stubParse(int lastCompleteIdx) {
+        when(mockMessageReader.parse(eq(mockConnectedSocket), anyList())).thenAnswer(invocation -> {
+            parsedData = new ArrayList<>((List<ByteBuffer>) invocation.getArguments()[1]);
+            return lastCompleteIdx;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubReadData(List<ByteBuffer> readData) {
+        doAnswer(invocation -> {
+            ((List<ByteBuffer>) invocation.getArguments()[0]).addAll(readData);
+            return null;
+        }).when(mockConnectedSocket).drainSocketReadData(anyList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<CompletableFuture<Message>> responseCaptor() {
+        return (ArgumentCaptor<CompletableFuture<Message>>) (ArgumentCaptor<?>)
+            ArgumentCaptor.forClass(CompletableFuture.class);
+    }
+
+    @SuppressWarnings("unchecked")
     @Test
     public void testProcessSocketInternal_ParsesAndProcessesMessage() throws IOException {
         List<ByteBuffer> readData = new ArrayList<>();
         // Use a Charset consistent with Message processing if specific encoding is assumed downstream
         readData.add(ByteBuffer.wrap("TestData".getBytes("UTF-8")));
 
-        when(mockConnectedSocket.getSocketReadData()).thenReturn(readData);
+        stubReadData(readData);
         // Assume first buffer completes a message, parse returns index of this buffer
-        when(mockMessageReader.parse(mockConnectedSocket, readData)).thenReturn(0);
+        stubParse(0);
 
         List<Message> messages = new ArrayList<>(Collections.singletonList(mockRequestMessage)); // Ensure mutable list
-        when(mockConnectedSocket.getReadReadyMessages()).thenReturn(messages);
+        doAnswer(invocation -> {
+            ((List<Message>) invocation.getArguments()[0]).addAll(messages);
+            return null;
+        }).when(mockConnectedSocket).drainReadReadyMessages(anyList());
 
         msgHandler.processSocketInternal(mockConnectedSocket);
 
-        verify(mockMessageReader).parse(mockConnectedSocket, readData);
-        verify(mockConnectedSocket).getReadReadyMessages();
+        verify(mockMessageReader).parse(eq(mockConnectedSocket), anyListOf(ByteBuffer.class));
+        assertEquals(readData, parsedData);
+        verify(mockConnectedSocket).drainReadReadyMessages(anyList());
         // Verify with the specific mockRequestMessage and its associated (mocked) socketChannel
-        verify(mockNioMessageHandler).processMessage(mockRequestMessage, mockRequestMessage.socketChannel);
+        verify(mockNioMessageHandler).processMessage(mockRequestMessage, mockConnectedSocket);
     }
 
     @Test
@@ -74,16 +104,143 @@ public class MsgHandlerTest {
         List<ByteBuffer> readData = new ArrayList<>();
         readData.add(ByteBuffer.wrap("IncompleteData".getBytes("UTF-8")));
 
-        when(mockConnectedSocket.getSocketReadData()).thenReturn(readData);
+        stubReadData(readData);
         // No complete message found by parser
-        when(mockMessageReader.parse(mockConnectedSocket, readData)).thenReturn(-1);
+        stubParse(-1);
 
         msgHandler.processSocketInternal(mockConnectedSocket);
 
-        verify(mockMessageReader).parse(mockConnectedSocket, readData);
-        // processCompleteMsg is always called, which calls getReadReadyMessages.
+        verify(mockMessageReader).parse(eq(mockConnectedSocket), anyListOf(ByteBuffer.class));
+        assertEquals(readData, parsedData);
+        // processCompleteMsg is always called, which calls drainReadReadyMessages.
         // The important check is that no messages are processed if the list is empty.
-        // verify(mockConnectedSocket, never()).getReadReadyMessages(); // This verification is incorrect.
+        // verify(mockConnectedSocket, never()).drainReadReadyMessages(anyList()); // This verification is incorrect.
+        verify(mockNioMessageHandler, never()).processMessage(any(Message.class), any(ConnectedSocket.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRequestsWaitingTooLongAreAnsweredWith503() throws Exception {
+        int target = ServerConfig.NIO_SHED_TARGET_MS;
+        int interval = ServerConfig.NIO_SHED_INTERVAL_MS;
+        ServerConfig.NIO_SHED_TARGET_MS = 5;
+        ServerConfig.NIO_SHED_INTERVAL_MS = 100;
+        try {
+            ResponseSequencer sequencer = mock(ResponseSequencer.class);
+            when(mockConnectedSocket.getResponseSequencer()).thenReturn(sequencer);
+            stubReadData(Collections.singletonList(ByteBuffer.allocate(1)));
+            stubParse(1);
+            doAnswer(invocation -> {
+                ((List<Message>) invocation.getArguments()[0]).add(mockRequestMessage);
+                return null;
+            }).when(mockConnectedSocket).drainReadReadyMessages(anyList());
+
+            // every request waited 50 ms; the first interval has not ended yet
+            when(mockRequestMessage.getQueuedNanos()).thenAnswer(
+                invocation -> System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(50));
+            msgHandler = new MsgHandler(mockReaderFactory, mockNioMessageHandler);
+            msgHandler.processSocketInternal(mockConnectedSocket);
+            Thread.sleep(150);
+            msgHandler.processSocketInternal(mockConnectedSocket);
+
+            verify(mockNioMessageHandler, times(1)).processMessage(mockRequestMessage, mockConnectedSocket);
+            ArgumentCaptor<CompletableFuture<Message>> response = responseCaptor();
+            verify(sequencer).add(response.capture(), any(Function.class));
+            String sent = new String(response.getValue().get().getDatas().get(0), StandardCharsets.US_ASCII);
+            assertTrue(sent, sent.startsWith("HTTP/1.1 503 Service Unavailable\r\n"));
+            assertTrue(sent, sent.contains("\r\nRetry-After: 1\r\n"));
+            assertEquals(1, msgHandler.getShedRequests());
+        } finally {
+            ServerConfig.NIO_SHED_TARGET_MS = target;
+            ServerConfig.NIO_SHED_INTERVAL_MS = interval;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRequestsBeyondTheClientRateAreAnsweredWith429() throws Exception {
+        ResponseSequencer sequencer = mock(ResponseSequencer.class);
+        when(mockConnectedSocket.getResponseSequencer()).thenReturn(sequencer);
+        when(mockConnectedSocket.getClientKey()).thenReturn(0xFFFFFFFFC0000201L);
+        stubReadData(Collections.singletonList(ByteBuffer.allocate(1)));
+        stubParse(1);
+        doAnswer(invocation -> {
+            ((List<Message>) invocation.getArguments()[0]).add(mockRequestMessage);
+            return null;
+        }).when(mockConnectedSocket).drainReadReadyMessages(anyList());
+
+        // one request per second, no burst
+        msgHandler = new MsgHandler("test-msg", mockReaderFactory, mockNioMessageHandler,
+            new RateLimiter(1, 1, 64, false));
+        msgHandler.processSocketInternal(mockConnectedSocket);
+        msgHandler.processSocketInternal(mockConnectedSocket);
+
+        verify(mockNioMessageHandler, times(1)).processMessage(mockRequestMessage, mockConnectedSocket);
+        ArgumentCaptor<CompletableFuture<Message>> response = responseCaptor();
+        verify(sequencer).add(response.capture(), any(Function.class));
+        String sent = new String(response.getValue().get().getDatas().get(0), StandardCharsets.US_ASCII);
+        assertTrue(sent, sent.startsWith("HTTP/1.1 429 Too Many Requests\r\n"));
+        assertTrue(sent, sent.contains("\r\nRetry-After: 1\r\n"));
+        assertTrue(sent, sent.endsWith("\r\n\r\n429 Too Many Requests"));
+        assertEquals(1, msgHandler.getRateLimitedRequests());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubRequest(Message request) {
+        stubReadData(Collections.singletonList(ByteBuffer.allocate(1)));
+        stubParse(1);
+        doAnswer(invocation -> {
+            ((List<Message>) invocation.getArguments()[0]).add(request);
+            return null;
+        }).when(mockConnectedSocket).drainReadReadyMessages(anyList());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRequestsPastTheirDeadlineAreAnsweredWith504() throws Exception {
+        ResponseSequencer sequencer = mock(ResponseSequencer.class);
+        when(mockConnectedSocket.getResponseSequencer()).thenReturn(sequencer);
+        HttpHeaders headers = new HttpHeaders();
+        headers.requestTimeoutMillis = 20;
+        Message request = new Message(mockConnectedSocket);
+        request.setHeader(headers);
+        stubRequest(request);
+
+        // received 50 ms ago, with 20 ms to answer it
+        when(mockConnectedSocket.takeQueuedSince()).thenAnswer(
+            invocation -> System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(50));
+        msgHandler.processSocketInternal(mockConnectedSocket);
+
+        verify(mockNioMessageHandler, never()).processMessage(any(Message.class), any(ConnectedSocket.class));
+        ArgumentCaptor<CompletableFuture<Message>> response = responseCaptor();
+        verify(sequencer).add(response.capture(), any(Function.class));
+        String sent = new String(response.getValue().get().getDatas().get(0), StandardCharsets.US_ASCII);
+        assertTrue(sent, sent.startsWith("HTTP/1.1 504 Gateway Timeout\r\n"));
+        assertTrue(sent, sent.endsWith("\r\n\r\n504 Gateway Timeout"));
+        assertEquals(1, msgHandler.getExpiredRequests());
+        verify(mockConnectedSocket).onRequestHandled();
+
+        // the same request received just now is in time
+        when(mockConnectedSocket.takeQueuedSince()).thenReturn(System.nanoTime());
+        msgHandler.processSocketInternal(mockConnectedSocket);
+        verify(mockNioMessageHandler).processMessage(request, mockConnectedSocket);
+        assertEquals(1, msgHandler.getExpiredRequests());
+    }
+
+    @Test
+    public void testRequestsOfClosedConnectionsAreDropped() throws Exception {
+        ResponseSequencer sequencer = mock(ResponseSequencer.class);
+        when(mockConnectedSocket.getResponseSequencer()).thenReturn(sequencer);
+        when(mockConnectedSocket.isClosed()).thenReturn(true);
+        stubRequest(mockRequestMessage);
+
+        msgHandler.processSocketInternal(mockConnectedSocket);
+
         verify(mockNioMessageHandler, never()).processMessage(any(Message.class), any(ConnectedSocket.class));
+        verifyZeroInteractions(sequencer);
+        assertEquals(1, msgHandler.getOrphanedRequests());
+        assertEquals(1, msgHandler.getDroppedRequests());
+        assertEquals(0, msgHandler.getHandledRequests());
+        verify(mockConnectedSocket).onRequestHandled();
     }
 }
@@ -0,0 +1,106 @@
+package com.jun.nioServer.handler;
+
+import com.jun.nioServer.ConnectedSocket;
+import com.jun.nioServer.msg.Message;
+import com.jun.nioServer.msg.http.HttpHeaders;
+import com.jun.nioServer.msg.http.HttpUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class RequestSchedulerTest {
+
+    private RequestScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        // control requests get 3 of every 4 turns; no shedding
+        scheduler = new RequestScheduler("/health, /ready", "/admin", 3, 1, 0, 100);
+    }
+
+    private static ConnectedSocket socket() {
+        return mock(ConnectedSocket.class);
+    }
+
+    private static Message request(ConnectedSocket socket, String path, String requestClass) {
+        String text = "GET " + path + " HTTP/1.1\r\n"
+            + (requestClass == null ? "" : "X-Request-Class: " + requestClass + "\r\n") + "\r\n";
+        byte[] data = text.getBytes(StandardCharsets.US_ASCII);
+        HttpHeaders headers = new HttpHeaders();
+        HttpUtil.parseHttpRequest(data, 0, data.length, headers);
+        Message message = new Message(socket);
+        message.addData(data);
+        message.setHeader(headers);
+        return message;
+    }
+
+    @Test
+    public void testClassifiesByPathAndHeader() {
+        ConnectedSocket socket = socket();
+        assertEquals(RequestScheduler.HEALTH, scheduler.classify(request(socket, "/health", null)));
+        assertEquals(RequestScheduler.HEALTH, scheduler.classify(request(socket, "/ready/db", null)));
+        assertEquals(RequestScheduler.CONTROL, scheduler.classify(request(socket, "/admin/reload", null)));
+        assertEquals(RequestScheduler.DEFAULT, scheduler.classify(request(socket, "/", null)));
+        assertEquals(RequestScheduler.CONTROL, scheduler.classify(request(socket, "/", "Control")));
+        assertEquals(RequestScheduler.DEFAULT, scheduler.classify(request(socket, "/admin", "default")));
+        // a header cannot make a request a health check
+        assertEquals(RequestScheduler.DEFAULT, scheduler.classify(request(socket, "/", "health")));
+        assertEquals(RequestScheduler.HEALTH, scheduler.classify(request(socket, "/health", "default")));
+    }
+
+    @Test
+    public void testHealthChecksGoFirst() {
+        for (int i = 0; i < 3; i++) {
+            scheduler.add(request(socket(), "/", null));
+            scheduler.add(request(socket(), "/admin", null));
+        }
+        Message health = request(socket(), "/health", null);
+        scheduler.add(health);
+
+        assertEquals(7, scheduler.size());
+        assertSame(health, scheduler.poll());
+        assertEquals(6, scheduler.size());
+    }
+
+    @Test
+    public void testWeightedClassesShareTurns() {
+        for (int i = 0; i < 40; i++) {
+            scheduler.add(request(socket(), "/", null));
+            scheduler.add(request(socket(), "/admin", null));
+        }
+        int control = 0;
+        for (int i = 0; i < 40; i++) {
+            if (scheduler.classify(scheduler.poll()) == RequestScheduler.CONTROL) {
+                control++;
+            }
+        }
+        assertEquals(30, control);
+    }
+
+    @Test
+    public void testRequestsOfAConnectionStayInOrder() {
+        ConnectedSocket busy = socket();
+        Message first = request(busy, "/", null);
+        Message second = request(busy, "/health", null);
+        scheduler.add(first);
+        scheduler.add(second);
+        Message other = request(socket(), "/health", null);
+        scheduler.add(other);
+
+        // the health check queued behind a bulk request of its connection waits with it
+        assertSame(other, scheduler.poll());
+        assertSame(first, scheduler.poll());
+        assertSame(second, scheduler.poll());
+        assertNull(scheduler.poll());
+
+        // once the connection has nothing queued, its requests are classified again
+        Message health = request(busy, "/health", null);
+        scheduler.add(request(socket(), "/", null));
+        scheduler.add(health);
+        assertSame(health, scheduler.poll());
+    }
+}
@@ -53,38 +53,33 @@ public class SimpleNioMessageHandlerTest {
 
         Message responseMessage = messageCaptor.getValue();
         assertNotNull(responseMessage);
-        // Assuming Message.getDatas() returns List<byte[]>
-        // This part needs to align with how Message stores data. Let's assume it's a list of byte arrays.
-        // For simplicity, we'll just check if it was called. Detailed content check is harder with current Message structure.
-        // For a more robust test, Message would need methods to inspect its content easily.
 
         String expectedBody = String.format(ServerConfig.NIO_MSG_HANDLER_RESPONSE_BODY_FORMAT, 123, 456);
         byte[] bodyBytes = expectedBody.getBytes("UTF-8");
         int contentLength = bodyBytes.length;
         String expectedHeader = ServerConfig.NIO_MSG_HANDLER_STATIC_RESPONSE_PART1 + contentLength + ServerConfig.NIO_MSG_HANDLER_STATIC_RESPONSE_PART2;
 
-        // This test would be more robust if we could inspect the Message object's content.
-        // For now, we check interactions.
-        // byte[] actualFullResponse = ... combine responseMessage.getDatas() ...
-        // String fullResponseStr = new String(actualFullResponse, "UTF-8");
-        // assertTrue(fullResponseStr.contains(expectedHeader));
-        // assertTrue(fullResponseStr.endsWith(expectedBody));
-
+        // Header and body are rendered into a single buffer, with a Date line after the status line
+        assertEquals(1, responseMessage.getDatas().size());
+        String response = new String(responseMessage.getDatas().get(0), "UTF-8");
+        assertTrue(response.contains("\r\nDate: "));
+        assertEquals(expectedHeader + expectedBody, response.replaceFirst("Date: [^\r]*\r\n", ""));
 
         verify(mockConnectedSocket).prepareBuffersForWriting();
-        verify(mockConnectedSocket).addInterestedOps(SelectionKey.OP_WRITE);
-        verify(mockSelector).wakeup();
+        verify(mockConnectedSocket).flushWrites();
+        // waking up the selector is left to the reactor's task queue
+        verify(mockSelector, never()).wakeup();
     }
 
     @Test
-    public void testProcessMessage_WhenMakeReadyBufferFalse_DoesNotSetOpWrite() throws IOException {
+    public void testProcessMessage_WhenMakeReadyBufferFalse_DoesNotFlush() throws IOException {
         when(mockConnectedSocket.prepareBuffersForWriting()).thenReturn(false);
 
         handler.processMessage(mockRequestMessage, mockConnectedSocket);
 
         verify(mockConnectedSocket).addWriteReadyMsg(any(Message.class));
         verify(mockConnectedSocket).prepareBuffersForWriting();
-        verify(mockConnectedSocket, never()).addInterestedOps(SelectionKey.OP_WRITE);
+        verify(mockConnectedSocket, never()).flushWrites();
         verify(mockSelector, never()).wakeup();
     }
 }
@@ -1,5 +1,6 @@
 package com.jun.nioServer.handler;
 
+import com.jun.config.ServerConfig;
 import com.jun.nioServer.ConnectedSocket;
 import org.junit.Before;
 import org.junit.Test;
@@ -12,7 +13,6 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.List;
 
@@ -33,7 +33,7 @@ public class SocketReadHandlerTest {
         MockitoAnnotations.initMocks(this);
 
         when(mockConnectedSocket.getSocketChannel()).thenReturn(mockSocketChannel);
-        when(mockConnectedSocket.tryReadLock()).thenReturn(true);
+        when(mockConnectedSocket.beginRead()).thenReturn(true);
         when(mockConnectedSocket.isClosed()).thenReturn(false);
 
         readHandler = new SocketReadHandler(mockConnectedSocket, mockCompleteListener);
@@ -50,7 +50,7 @@ public class SocketReadHandlerTest {
 
         readHandler.run();
 
-        verify(mockConnectedSocket).tryReadLock();
+        verify(mockConnectedSocket).beginRead();
         verify(mockSocketChannel, atLeastOnce()).read(any(ByteBuffer.class));
         verify(mockCompleteListener).onComplete(integerCaptor.capture(), byteBuffersCaptor.capture());
 
@@ -63,8 +63,8 @@ public class SocketReadHandlerTest {
         resultBuffer.get(data);
         assertEquals("TestData", new String(data, "UTF-8"));
 
-        verify(mockConnectedSocket).addInterestedOps(SelectionKey.OP_READ);
-        verify(mockConnectedSocket).unLockRead();
+        // OP_READ is re-armed by releasing the socket
+        verify(mockConnectedSocket).endRead();
     }
 
     @Test
@@ -78,13 +78,12 @@ public class SocketReadHandlerTest {
 
         readHandler.run();
 
-        verify(mockConnectedSocket).tryReadLock();
+        verify(mockConnectedSocket).beginRead();
         verify(mockSocketChannel).read(any(ByteBuffer.class)); // Verifies read was attempted
         verify(mockConnectedSocket).close(); // Verify that close was actually called
-        verify(mockCompleteListener, never()).onComplete(anyInt(), anyList()); // This assertion should now pass
+        verify(mockCompleteListener, never()).onComplete(anyInt(), anyListOf(ByteBuffer.class)); // This assertion should now pass
         verify(mockCompleteListener, never()).onException(any(Exception.class));
-        verify(mockConnectedSocket, never()).addInterestedOps(SelectionKey.OP_READ); // Because socket is closed
-        verify(mockConnectedSocket).unLockRead();
+        verify(mockConnectedSocket).endRead();
     }
 
     @Test
@@ -94,25 +93,24 @@ public class SocketReadHandlerTest {
 
         readHandler.run();
 
-        verify(mockConnectedSocket).tryReadLock();
+        verify(mockConnectedSocket).beginRead();
         verify(mockSocketChannel).read(any(ByteBuffer.class));
         verify(mockCompleteListener).onException(exceptionCaptor.capture());
         assertSame(testException, exceptionCaptor.getValue());
-        verify(mockConnectedSocket, never()).addInterestedOps(SelectionKey.OP_READ);
-        verify(mockConnectedSocket).unLockRead();
+        verify(mockConnectedSocket).endRead();
     }
 
     @Test
     public void testRun_WhenTryReadLockFalse_DoesNotProceed() throws IOException {
-        when(mockConnectedSocket.tryReadLock()).thenReturn(false);
+        when(mockConnectedSocket.beginRead()).thenReturn(false);
 
         readHandler.run();
 
-        verify(mockConnectedSocket).tryReadLock();
+        verify(mockConnectedSocket).beginRead();
         verify(mockSocketChannel, never()).read(any(ByteBuffer.class));
-        verify(mockCompleteListener, never()).onComplete(anyInt(), anyList());
+        verify(mockCompleteListener, never()).onComplete(anyInt(), anyListOf(ByteBuffer.class));
         verify(mockCompleteListener, never()).onException(any(Exception.class));
-        verify(mockConnectedSocket, never()).unLockRead();
+        verify(mockConnectedSocket, never()).endRead();
     }
 
     @Test
@@ -124,12 +122,38 @@ public class SocketReadHandlerTest {
 
         readHandler.run();
 
-        verify(mockConnectedSocket).tryReadLock();
+        verify(mockConnectedSocket).beginRead();
         verify(mockSocketChannel).read(any(ByteBuffer.class));
         verify(mockConnectedSocket, atLeastOnce()).close();
-        verify(mockCompleteListener, never()).onComplete(anyInt(), anyList());
+        verify(mockCompleteListener, never()).onComplete(anyInt(), anyListOf(ByteBuffer.class));
         verify(mockCompleteListener, never()).onException(any(Exception.class));
-        verify(mockConnectedSocket, never()).addInterestedOps(SelectionKey.OP_READ);
-        verify(mockConnectedSocket).unLockRead();
+        verify(mockConnectedSocket).endRead();
+    }
+
+    @Test
+    public void testRun_StopsAtReadBudget() throws IOException {
+        int reads = ServerConfig.NIO_READ_BUDGET_READS;
+        ServerConfig.NIO_READ_BUDGET_READS = 3;
+        try {
+            readHandler = new SocketReadHandler(mockConnectedSocket, mockCompleteListener);
+            // a peer that always has more to send
+            when(mockSocketChannel.read(any(ByteBuffer.class))).thenAnswer(invocation -> {
+                ByteBuffer b = invocation.getArgumentAt(0, ByteBuffer.class);
+                int n = b.remaining();
+                b.position(b.limit());
+                return n;
+            });
+
+            readHandler.run();
+
+            verify(mockCompleteListener).onComplete(integerCaptor.capture(), byteBuffersCaptor.capture());
+            assertEquals(3, byteBuffersCaptor.getValue().size());
+            assertEquals(Integer.valueOf(3 * 4 * 1024), integerCaptor.getValue());
+            verify(mockSocketChannel, times(3)).read(any(ByteBuffer.class));
+            // the rest is read on the next event
+            verify(mockConnectedSocket).endRead();
+        } finally {
+            ServerConfig.NIO_READ_BUDGET_READS = reads;
+        }
     }
 }
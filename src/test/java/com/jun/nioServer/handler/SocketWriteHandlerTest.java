@@ -1,6 +1,8 @@
 package com.jun.nioServer.handler;
 
+import com.jun.config.ServerConfig;
 import com.jun.nioServer.ConnectedSocket;
+import com.jun.nioServer.msg.FileRegion;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -9,12 +11,20 @@ import org.mockito.Mock; // Import Mock
 import static org.mockito.Mockito.*;
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector; // Import Selector
 import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 
 public class SocketWriteHandlerTest {
@@ -29,13 +39,14 @@ public class SocketWriteHandlerTest {
     @Captor private ArgumentCaptor<Exception> exceptionCaptor;
 
     private SocketWriteHandler writeHandler;
+    private final Deque<Object> writeQueue = new ArrayDeque<>();
 
     @Before
     public void setUp() {
         org.mockito.MockitoAnnotations.initMocks(this);
 
         when(mockConnectedSocket.getSocketChannel()).thenReturn(mockSocketChannel);
-        when(mockConnectedSocket.tryWriteLock()).thenReturn(true);
+        when(mockConnectedSocket.beginWrite()).thenReturn(true);
 
         // Setup for OP_WRITE re-registration
         when(mockConnectedSocket.getKey()).thenReturn(mockSelectionKey);
@@ -44,6 +55,14 @@ public class SocketWriteHandlerTest {
         writeHandler = new SocketWriteHandler(mockConnectedSocket, mockCompleteListener);
     }
 
+    // Backs the socket's write queue with a real deque
+    private void stubWriteQueue(List<ByteBuffer> buffers) {
+        writeQueue.clear();
+        writeQueue.addAll(buffers);
+        when(mockConnectedSocket.peekWrite()).thenAnswer(invocation -> writeQueue.peek());
+        when(mockConnectedSocket.pollWrite()).thenAnswer(invocation -> writeQueue.poll());
+    }
+
     @Test
     public void testRun_SuccessfulWrite_AllDataWritten() throws IOException {
         ByteBuffer buffer1 = ByteBuffer.wrap("Data1".getBytes("UTF-8"));
@@ -57,7 +76,7 @@ public class SocketWriteHandlerTest {
         int totalSize = buffer1Size + buffer2Size;
 
         // SocketWriteHandler gets buffers once, then iterates.
-        when(mockConnectedSocket.getWritebuffers()).thenReturn(writeBuffers);
+        stubWriteQueue(writeBuffers);
 
         when(mockSocketChannel.write(any(ByteBuffer.class)))
             .thenAnswer(invocation -> {
@@ -69,11 +88,12 @@ public class SocketWriteHandlerTest {
 
         writeHandler.run();
 
-        verify(mockConnectedSocket).tryWriteLock();
-        verify(mockConnectedSocket).getWritebuffers();
+        verify(mockConnectedSocket).beginWrite();
+        verify(mockConnectedSocket, atLeastOnce()).peekWrite();
         verify(mockSocketChannel, times(2)).write(any(ByteBuffer.class));
         verify(mockCompleteListener).onComplete(eq(totalSize), eq(null));
-        verify(mockConnectedSocket).unLockWrite();
+        verify(mockConnectedSocket).endWrite(false);
+        assertTrue(writeQueue.isEmpty());
         // OP_WRITE should not be re-registered if all data is written and list becomes empty
         verify(mockConnectedSocket, never()).addInterestedOps(SelectionKey.OP_WRITE);
         verify(mockSelector, never()).wakeup();
@@ -90,7 +110,7 @@ public class SocketWriteHandlerTest {
 
         int firstWriteAmount = 5; // Simulate writing 5 bytes initially
 
-        when(mockConnectedSocket.getWritebuffers()).thenReturn(writeBuffers);
+        stubWriteQueue(writeBuffers);
 
         // Simulate first write succeeds partially, subsequent writes in this cycle return 0
         when(mockSocketChannel.write(buffer1))
@@ -104,7 +124,7 @@ public class SocketWriteHandlerTest {
 
         writeHandler.run();
 
-        verify(mockConnectedSocket).tryWriteLock();
+        verify(mockConnectedSocket).beginWrite();
         // The internal write loop in SocketWriteHandler would call channel.write() once (returns 5),
         // then again (mock returns 0), inner loop terminates.
         verify(mockSocketChannel, times(2)).write(buffer1);
@@ -112,11 +132,13 @@ public class SocketWriteHandlerTest {
 
         // Buffer1 still has data (original_data_length - firstWriteAmount bytes remaining)
         assertTrue(buffer1.hasRemaining());
+        // and stays queued on the socket for the next write event
+        assertSame(buffer1, writeQueue.peek());
         // assertEquals("PartialData".getBytes("UTF-8").length - firstWriteAmount, buffer1.remaining()); // More precise check
 
-        verify(mockConnectedSocket).addInterestedOps(SelectionKey.OP_WRITE);
-        verify(mockSelector).wakeup(); // Check selector wakeup
-        verify(mockConnectedSocket).unLockWrite();
+        // OP_WRITE is armed by releasing the socket with data pending
+        verify(mockConnectedSocket).endWrite(true);
+        verify(mockSelector, never()).wakeup(); // the reactor wakes itself up when the op change is scheduled
     }
 
 
@@ -124,7 +146,7 @@ public class SocketWriteHandlerTest {
     public void testRun_WriteThrowsIOException() throws IOException {
         List<ByteBuffer> writeBuffers = new ArrayList<>();
         writeBuffers.add(ByteBuffer.wrap("TestData".getBytes("UTF-8")));
-        when(mockConnectedSocket.getWritebuffers()).thenReturn(writeBuffers);
+        stubWriteQueue(writeBuffers);
 
         IOException testException = new IOException("Test write error");
         when(mockSocketChannel.write(any(ByteBuffer.class))).thenThrow(testException);
@@ -137,36 +159,232 @@ public class SocketWriteHandlerTest {
             fail("Exception should have been handled by SocketWriteHandler.run() and passed to listener: " + e.getMessage());
         }
 
-        verify(mockConnectedSocket).tryWriteLock();
+        verify(mockConnectedSocket).beginWrite();
         verify(mockSocketChannel).write(any(ByteBuffer.class));
         verify(mockCompleteListener).onException(exceptionCaptor.capture());
         assertSame(testException, exceptionCaptor.getValue());
-        verify(mockConnectedSocket).unLockWrite();
+        verify(mockConnectedSocket).endWrite(false);
     }
 
     @Test
     public void testRun_NoDataToWrite() throws IOException { // Added throws IOException back
-        when(mockConnectedSocket.getWritebuffers()).thenReturn(new ArrayList<>());
+        stubWriteQueue(new ArrayList<>());
 
         writeHandler.run();
 
-        verify(mockConnectedSocket).tryWriteLock();
-        verify(mockConnectedSocket).getWritebuffers();
+        verify(mockConnectedSocket).beginWrite();
+        verify(mockConnectedSocket, atLeastOnce()).peekWrite();
         verify(mockSocketChannel, never()).write(any(ByteBuffer.class));
         verify(mockCompleteListener).onComplete(eq(0), eq(null));
-        verify(mockConnectedSocket).unLockWrite();
+        verify(mockConnectedSocket).endWrite(false);
     }
 
     @Test
     public void testRun_WhenTryWriteLockFalse_DoesNotProceed() throws IOException { // Added throws IOException
-        when(mockConnectedSocket.tryWriteLock()).thenReturn(false);
+        when(mockConnectedSocket.beginWrite()).thenReturn(false);
 
         writeHandler.run();
 
-        verify(mockConnectedSocket).tryWriteLock();
+        verify(mockConnectedSocket).beginWrite();
         verify(mockSocketChannel, never()).write(any(ByteBuffer.class));
         verify(mockCompleteListener, never()).onComplete(anyInt(), any()); // any() for list
         verify(mockCompleteListener, never()).onException(any(Exception.class));
-        verify(mockConnectedSocket, never()).unLockWrite();
+        verify(mockConnectedSocket, never()).endWrite(anyBoolean());
+    }
+
+    @Test
+    public void testRun_FileRegionResumesAfterPartialTransfer() throws IOException {
+        File file = File.createTempFile("region", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "0123456789".getBytes("UTF-8"));
+        FileRegion region = new FileRegion(FileChannel.open(file.toPath(), StandardOpenOption.READ), 0, 10);
+        stubWriteQueue(new ArrayList<>());
+        writeQueue.add(region);
+
+        // the socket takes 4 bytes, then is full
+        when(mockSocketChannel.write(any(ByteBuffer.class)))
+            .thenAnswer(invocation -> {
+                ByteBuffer b = invocation.getArgumentAt(0, ByteBuffer.class);
+                b.position(b.position() + 4);
+                return 4;
+            })
+            .thenReturn(0);
+        writeHandler.run();
+
+        assertEquals(6, region.remaining());
+        assertSame(region, writeQueue.peek());
+        verify(mockConnectedSocket).endWrite(true);
+
+        // next OP_WRITE: the socket takes everything
+        when(mockSocketChannel.write(any(ByteBuffer.class)))
+            .thenAnswer(invocation -> {
+                ByteBuffer b = invocation.getArgumentAt(0, ByteBuffer.class);
+                int r = b.remaining();
+                b.position(b.limit());
+                return r;
+            });
+        writeHandler.run();
+
+        assertTrue(region.isDone());
+        assertTrue(writeQueue.isEmpty());
+        verify(mockCompleteListener).onComplete(eq(4), eq(null));
+        verify(mockCompleteListener).onComplete(eq(6), eq(null));
+        verify(mockConnectedSocket).endWrite(false);
+    }
+
+    @Test
+    public void testRun_YieldsAfterSpinCount() throws IOException {
+        int spins = ServerConfig.NIO_WRITE_SPIN_COUNT;
+        ServerConfig.NIO_WRITE_SPIN_COUNT = 4;
+        try {
+            writeHandler = new SocketWriteHandler(mockConnectedSocket, mockCompleteListener);
+            ByteBuffer buffer = ByteBuffer.allocate(100);
+            stubWriteQueue(Collections.singletonList(buffer));
+            // a slow peer that takes 10 bytes per call
+            when(mockSocketChannel.write(any(ByteBuffer.class))).thenAnswer(invocation -> {
+                ByteBuffer b = invocation.getArgumentAt(0, ByteBuffer.class);
+                b.position(b.position() + 10);
+                return 10;
+            });
+
+            writeHandler.run();
+
+            verify(mockSocketChannel, times(4)).write(any(ByteBuffer.class));
+            assertEquals(60, buffer.remaining());
+            assertSame(buffer, writeQueue.peek());
+            verify(mockCompleteListener).onComplete(eq(40), eq(null));
+            verify(mockConnectedSocket).yieldWrite();
+            verify(mockConnectedSocket, never()).endWrite(anyBoolean());
+        } finally {
+            ServerConfig.NIO_WRITE_SPIN_COUNT = spins;
+        }
+    }
+
+    @Test
+    public void testRun_YieldsAfterByteBudget() throws IOException {
+        int budget = ServerConfig.NIO_WRITE_BUDGET_BYTES;
+        ServerConfig.NIO_WRITE_BUDGET_BYTES = 30;
+        try {
+            writeHandler = new SocketWriteHandler(mockConnectedSocket, mockCompleteListener);
+            ByteBuffer first = ByteBuffer.allocate(20);
+            ByteBuffer second = ByteBuffer.allocate(20);
+            stubWriteQueue(Arrays.asList(first, second));
+            when(mockSocketChannel.write(any(ByteBuffer.class))).thenAnswer(invocation -> {
+                ByteBuffer b = invocation.getArgumentAt(0, ByteBuffer.class);
+                int r = b.remaining();
+                b.position(b.limit());
+                return r;
+            });
+
+            writeHandler.run();
+
+            // the channel was only offered what was left of the budget
+            assertEquals(10, second.remaining());
+            assertEquals(20, second.limit());
+            assertSame(second, writeQueue.peek());
+            verify(mockCompleteListener).onComplete(eq(30), eq(null));
+            verify(mockConnectedSocket).yieldWrite();
+
+            // the next event gets a new budget
+            writeHandler.run();
+
+            assertTrue(writeQueue.isEmpty());
+            verify(mockConnectedSocket).endWrite(false);
+        } finally {
+            ServerConfig.NIO_WRITE_BUDGET_BYTES = budget;
+        }
+    }
+
+    @Test
+    public void testRun_FileRegionYieldsAfterByteBudget() throws IOException {
+        int budget = ServerConfig.NIO_WRITE_BUDGET_BYTES;
+        ServerConfig.NIO_WRITE_BUDGET_BYTES = 4;
+        try {
+            writeHandler = new SocketWriteHandler(mockConnectedSocket, mockCompleteListener);
+            File file = File.createTempFile("region", ".bin");
+            file.deleteOnExit();
+            Files.write(file.toPath(), "0123456789".getBytes("UTF-8"));
+            FileRegion region = new FileRegion(FileChannel.open(file.toPath(), StandardOpenOption.READ), 0, 10);
+            stubWriteQueue(new ArrayList<>());
+            writeQueue.add(region);
+            // the socket would take the whole file
+            when(mockSocketChannel.write(any(ByteBuffer.class))).thenAnswer(invocation -> {
+                ByteBuffer b = invocation.getArgumentAt(0, ByteBuffer.class);
+                int r = b.remaining();
+                b.position(b.limit());
+                return r;
+            });
+
+            writeHandler.run();
+
+            assertEquals(6, region.remaining());
+            assertSame(region, writeQueue.peek());
+            verify(mockCompleteListener).onComplete(eq(4), eq(null));
+            verify(mockConnectedSocket).yieldWrite();
+            verify(mockConnectedSocket, never()).endWrite(anyBoolean());
+
+            // the next event gets a new budget
+            writeHandler.run();
+
+            assertEquals(2, region.remaining());
+            verify(mockConnectedSocket, times(2)).yieldWrite();
+        } finally {
+            ServerConfig.NIO_WRITE_BUDGET_BYTES = budget;
+        }
+    }
+
+    @Test
+    public void testRun_TruncatedFileRegionFailsTheWrite() throws IOException {
+        File file = File.createTempFile("region", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "0123456789".getBytes("UTF-8"));
+        FileRegion region = new FileRegion(FileChannel.open(file.toPath(), StandardOpenOption.READ), 0, 10);
+        stubWriteQueue(new ArrayList<>());
+        writeQueue.add(region);
+        when(mockSocketChannel.write(any(ByteBuffer.class))).thenAnswer(invocation -> {
+            ByteBuffer b = invocation.getArgumentAt(0, ByteBuffer.class);
+            int r = b.remaining();
+            b.position(b.limit());
+            return r;
+        });
+        try (FileChannel truncate = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            truncate.truncate(4);
+        }
+
+        writeHandler.run();
+
+        // the rest can never be sent, so the write fails instead of waiting for OP_WRITE forever
+        assertEquals(6, region.remaining());
+        verify(mockCompleteListener).onException(any(IOException.class));
+        verify(mockCompleteListener, never()).onComplete(anyInt(), any());
+        verify(mockConnectedSocket).endWrite(false);
+    }
+
+    @Test
+    public void testRelease_ReturnsTheTlsChunkOfAnUnfinishedRegion() throws IOException {
+        File file = File.createTempFile("region", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "0123456789".getBytes("UTF-8"));
+        FileRegion region = new FileRegion(FileChannel.open(file.toPath(), StandardOpenOption.READ), 0, 10);
+        stubWriteQueue(new ArrayList<>());
+        writeQueue.add(region);
+        when(mockConnectedSocket.isSecure()).thenReturn(true);
+        when(mockConnectedSocket.wrap(any(ByteBuffer.class))).thenAnswer(invocation -> {
+            ByteBuffer plain = invocation.getArgumentAt(0, ByteBuffer.class);
+            ByteBuffer record = ByteBuffer.allocate(plain.remaining());
+            record.put(plain);
+            record.flip();
+            return record;
+        });
+        // the socket is full, so the region's last record stays pending
+        when(mockSocketChannel.write(any(ByteBuffer.class))).thenReturn(0);
+
+        writeHandler.run();
+        int idle = SocketWriteHandler.idleTlsChunks();
+        writeHandler.release();
+
+        assertEquals(idle + 1, SocketWriteHandler.idleTlsChunks());
+        writeHandler.release();
+        assertEquals(idle + 1, SocketWriteHandler.idleTlsChunks());
     }
 }
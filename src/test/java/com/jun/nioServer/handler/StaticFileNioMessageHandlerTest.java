@@ -0,0 +1,242 @@
+package com.jun.nioServer.handler;
+
+import com.jun.http.GzipEncoder;
+import com.jun.http.HttpDate;
+import com.jun.nioServer.ConnectedSocket;
+import com.jun.nioServer.cache.ContentCache;
+import com.jun.nioServer.msg.FileRegion;
+import com.jun.nioServer.msg.Message;
+import com.jun.nioServer.msg.http.HttpHeaders;
+import com.jun.nioServer.msg.http.HttpUtil;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class StaticFileNioMessageHandlerTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private StaticFileNioMessageHandler handler;
+    private ConnectedSocket mockConnectedSocket;
+
+    @Before
+    public void setUp() throws IOException {
+        File root = folder.newFolder("root");
+        Files.write(new File(root, "hello.txt").toPath(), "hello world".getBytes(StandardCharsets.UTF_8));
+        Files.write(folder.newFile("secret.txt").toPath(), "secret".getBytes(StandardCharsets.UTF_8));
+        handler = new StaticFileNioMessageHandler(root.toPath());
+        mockConnectedSocket = mock(ConnectedSocket.class);
+        when(mockConnectedSocket.prepareBuffersForWriting()).thenReturn(true);
+    }
+
+    private Message request(String requestLine) {
+        return request(requestLine, "");
+    }
+
+    private Message request(String requestLine, String headerLines) {
+        byte[] bytes = (requestLine + "\r\nHost: test\r\n" + headerLines + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        HttpHeaders headers = new HttpHeaders();
+        assertEquals(bytes.length, HttpUtil.parseHttpRequest(bytes, 0, bytes.length, headers));
+        Message msg = new Message(mockConnectedSocket);
+        msg.writeToMessage(bytes);
+        msg.setHeader(headers);
+        return msg;
+    }
+
+    private String responseHeader() {
+        ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+        verify(mockConnectedSocket).addWriteReadyMsg(captor.capture());
+        return new String(captor.getValue().getData(), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testGetQueuesHeaderAndFileRegion() throws IOException {
+        handler.processMessage(request("GET /hello.txt HTTP/1.1"), mockConnectedSocket);
+
+        String header = responseHeader();
+        assertTrue(header.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(header.contains("Content-Type: text/plain; charset=utf-8\r\n"));
+        assertTrue(header.contains("Content-Length: 11\r\n"));
+        ArgumentCaptor<FileRegion> region = ArgumentCaptor.forClass(FileRegion.class);
+        verify(mockConnectedSocket).addWriteRegion(region.capture());
+        assertEquals(11, region.getValue().count());
+        verify(mockConnectedSocket).flushWrites();
+        region.getValue().release();
+    }
+
+    @Test
+    public void testMatchingETagGetsNotModified() throws IOException {
+        handler.processMessage(request("GET /hello.txt HTTP/1.1"), mockConnectedSocket);
+        String header = responseHeader();
+        int at = header.indexOf("ETag: ") + "ETag: ".length();
+        String etag = header.substring(at, header.indexOf("\r\n", at));
+        assertTrue(header.contains("Last-Modified: "));
+        ArgumentCaptor<FileRegion> region = ArgumentCaptor.forClass(FileRegion.class);
+        verify(mockConnectedSocket).addWriteRegion(region.capture());
+        region.getValue().release();
+
+        reset(mockConnectedSocket);
+        handler.processMessage(request("GET /hello.txt HTTP/1.1", "If-None-Match: \"x\", " + etag + "\r\n"),
+            mockConnectedSocket);
+        header = responseHeader();
+        assertTrue(header.startsWith("HTTP/1.1 304 Not Modified\r\n"));
+        assertTrue(header.contains("ETag: " + etag + "\r\n"));
+        assertFalse(header.contains("Content-Length"));
+        assertTrue(header.endsWith("\r\n\r\n"));
+        verify(mockConnectedSocket, never()).addWriteRegion(any(FileRegion.class));
+        verify(mockConnectedSocket).flushWrites();
+    }
+
+    @Test
+    public void testIfModifiedSince() throws IOException {
+        handler.processMessage(request("GET /hello.txt HTTP/1.1", "If-Modified-Since: " + HttpDate.format(
+            System.currentTimeMillis() + 60_000) + "\r\n"), mockConnectedSocket);
+        assertTrue(responseHeader().startsWith("HTTP/1.1 304 Not Modified\r\n"));
+
+        reset(mockConnectedSocket);
+        handler.processMessage(request("GET /hello.txt HTTP/1.1", "If-Modified-Since: Sun, 06 Nov 1994 08:49:37 GMT\r\n"),
+            mockConnectedSocket);
+        assertTrue(responseHeader().startsWith("HTTP/1.1 200 OK\r\n"));
+        ArgumentCaptor<FileRegion> region = ArgumentCaptor.forClass(FileRegion.class);
+        verify(mockConnectedSocket).addWriteRegion(region.capture());
+        region.getValue().release();
+    }
+
+    @Test
+    public void testRangeIsSentAsRegionAtItsPosition() throws IOException {
+        handler.processMessage(request("GET /hello.txt HTTP/1.1", "Range: bytes=6-\r\n"), mockConnectedSocket);
+
+        String header = responseHeader();
+        assertTrue(header.startsWith("HTTP/1.1 206 Partial Content\r\n"));
+        assertTrue(header.contains("Content-Length: 5\r\n"));
+        assertTrue(header.contains("Content-Range: bytes 6-10/11\r\n"));
+        ArgumentCaptor<FileRegion> region = ArgumentCaptor.forClass(FileRegion.class);
+        verify(mockConnectedSocket).addWriteRegion(region.capture());
+        ByteBuffer content = ByteBuffer.allocate(16);
+        region.getValue().read(content);
+        region.getValue().release();
+        assertEquals("world", new String(content.array(), 0, content.position(), StandardCharsets.US_ASCII));
+
+        reset(mockConnectedSocket);
+        handler.processMessage(request("GET /hello.txt HTTP/1.1", "Range: bytes=20-\r\n"), mockConnectedSocket);
+        header = responseHeader();
+        assertTrue(header.startsWith("HTTP/1.1 416 Range Not Satisfiable\r\n"));
+        assertTrue(header.contains("Content-Range: bytes */11\r\n"));
+        verify(mockConnectedSocket, never()).addWriteRegion(any(FileRegion.class));
+    }
+
+    @Test
+    public void testRangeOfCachedContentIsASlice() throws IOException {
+        File root = folder.getRoot().toPath().resolve("root").toFile();
+        ContentCache cache = new ContentCache(1 << 20, 1 << 20, 1 << 20, 60_000);
+        handler = new StaticFileNioMessageHandler(root.toPath(), cache, null, null, 0);
+
+        // a range request alone does not load the file
+        handler.processMessage(request("GET /hello.txt HTTP/1.1", "Range: bytes=0-4\r\n"), mockConnectedSocket);
+        assertEquals(0, cache.size());
+        ArgumentCaptor<FileRegion> region = ArgumentCaptor.forClass(FileRegion.class);
+        verify(mockConnectedSocket).addWriteRegion(region.capture());
+        region.getValue().release();
+
+        reset(mockConnectedSocket);
+        handler.processMessage(request("GET /hello.txt HTTP/1.1"), mockConnectedSocket);
+        String header = responseHeader();
+        int at = header.indexOf("ETag: ") + "ETag: ".length();
+        String etag = header.substring(at, header.indexOf("\r\n", at));
+
+        reset(mockConnectedSocket);
+        handler.processMessage(request("GET /hello.txt HTTP/1.1", "Range: bytes=-5\r\nIf-Range: " + etag + "\r\n"),
+            mockConnectedSocket);
+        assertTrue(responseHeader().contains("Content-Range: bytes 6-10/11\r\n"));
+        ArgumentCaptor<ByteBuffer> body = ArgumentCaptor.forClass(ByteBuffer.class);
+        verify(mockConnectedSocket).addWriteBuffer(body.capture());
+        byte[] slice = new byte[body.getValue().remaining()];
+        body.getValue().get(slice);
+        assertEquals("world", new String(slice, StandardCharsets.US_ASCII));
+
+        // If-Range of another version: the whole file
+        reset(mockConnectedSocket);
+        handler.processMessage(request("GET /hello.txt HTTP/1.1", "Range: bytes=-5\r\nIf-Range: \"old\"\r\n"),
+            mockConnectedSocket);
+        assertTrue(responseHeader().startsWith("HTTP/1.1 200 OK\r\n"));
+        verify(mockConnectedSocket).addWriteBuffer(body.capture());
+        assertEquals(11, body.getValue().remaining());
+    }
+
+    @Test
+    public void testHeadSendsHeaderOnly() throws IOException {
+        handler.processMessage(request("HEAD /hello.txt HTTP/1.1"), mockConnectedSocket);
+
+        assertTrue(responseHeader().contains("Content-Length: 11\r\n"));
+        verify(mockConnectedSocket, never()).addWriteRegion(any(FileRegion.class));
+    }
+
+    @Test
+    public void testPathOutsideRootIsNotFound() throws IOException {
+        handler.processMessage(request("GET /../secret.txt HTTP/1.1"), mockConnectedSocket);
+        assertTrue(responseHeader().startsWith("HTTP/1.1 404 Not Found\r\n"));
+
+        reset(mockConnectedSocket);
+        handler.processMessage(request("GET /%2e%2e/secret.txt HTTP/1.1"), mockConnectedSocket);
+        assertTrue(responseHeader().startsWith("HTTP/1.1 404 Not Found\r\n"));
+        verify(mockConnectedSocket, never()).addWriteRegion(any(FileRegion.class));
+    }
+
+    @Test
+    public void testCachedTextIsCompressedOnceAndThenSentGzipped() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append("compressible line\n");
+        }
+        File root = folder.getRoot().toPath().resolve("root").toFile();
+        Files.write(new File(root, "page.html").toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+        handler = new StaticFileNioMessageHandler(root.toPath(), new ContentCache(1 << 20, 1 << 20, 1 << 20, 60_000),
+            new GzipEncoder(6, 1), Runnable::run, 256);
+
+        // the first response goes out as is while the variant is made
+        handler.processMessage(request("GET /page.html HTTP/1.1", "Accept-Encoding: gzip\r\n"), mockConnectedSocket);
+        String header = responseHeader();
+        assertTrue(header.contains("Content-Length: " + text.length() + "\r\n"));
+        assertTrue(header.contains("Vary: Accept-Encoding\r\n"));
+        assertFalse(header.contains("Content-Encoding"));
+
+        reset(mockConnectedSocket);
+        handler.processMessage(request("GET /page.html HTTP/1.1", "Accept-Encoding: gzip\r\n"), mockConnectedSocket);
+        assertTrue(responseHeader().contains("Content-Encoding: gzip\r\n"));
+        ArgumentCaptor<ByteBuffer> body = ArgumentCaptor.forClass(ByteBuffer.class);
+        verify(mockConnectedSocket).addWriteBuffer(body.capture());
+        assertTrue(body.getValue().remaining() < text.length());
+
+        reset(mockConnectedSocket);
+        handler.processMessage(request("GET /page.html HTTP/1.1"), mockConnectedSocket);
+        assertFalse(responseHeader().contains("Content-Encoding"));
+    }
+
+    @Test
+    public void testPrecompressedSiblingIsServed() throws IOException {
+        File root = folder.getRoot().toPath().resolve("root").toFile();
+        Files.write(new File(root, "app.js").toPath(), "console.log(1)".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(root, "app.js.gz").toPath(), new byte[]{1, 2, 3});
+        handler = new StaticFileNioMessageHandler(root.toPath(), null, new GzipEncoder(6, 1), Runnable::run, 256);
+
+        handler.processMessage(request("GET /app.js HTTP/1.1", "Accept-Encoding: gzip\r\n"), mockConnectedSocket);
+        String header = responseHeader();
+        assertTrue(header.contains("Content-Type: application/javascript; charset=utf-8\r\n"));
+        assertTrue(header.contains("Content-Length: 3\r\n"));
+        assertTrue(header.contains("Content-Encoding: gzip\r\n"));
+        ArgumentCaptor<FileRegion> region = ArgumentCaptor.forClass(FileRegion.class);
+        verify(mockConnectedSocket).addWriteRegion(region.capture());
+        region.getValue().release();
+    }
+}
@@ -1,16 +1,105 @@
 package com.jun.nioServer.msg.http;
 
+import com.jun.nioServer.ConnectedSocket;
+import com.jun.nioServer.msg.Message;
+import org.junit.Before;
 import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
 
 public class HttpMessageReaderTest {
-    // Original tests for this class have been temporarily commented out/dummied
-    // due to intractable issues with Mockito 1.10.19 and Java 21, specifically when
-    // mocking certain NIO classes or encountering complex Mockito state interactions.
-    // These tests would require library upgrades (e.g., Mockito 5.x) or significant
-    // refactoring of either the tests or the SUT for full restoration.
+
+    private static final String GET = "GET /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n";
+    private static final String POST = "POST /upload HTTP/1.1\r\nHost: localhost\r\nContent-Length: 5\r\n\r\nhello";
+
+    private final HttpMessageReader reader = new HttpMessageReader();
+    private final ConnectedSocket socket = mock(ConnectedSocket.class);
+    // what the socket holds between parses
+    private final List<Message> readyMessages = new ArrayList<>();
+    private ByteBuffer remainder;
+
+    @Before
+    public void setUp() {
+        doAnswer(invocation -> readyMessages.add(invocation.getArgumentAt(0, Message.class)))
+            .when(socket).addReadReadyMsg(any(Message.class));
+        doAnswer(invocation -> remainder = invocation.getArgumentAt(0, ByteBuffer.class))
+            .when(socket).setReadRemainder(any(ByteBuffer.class), anyBoolean());
+        when(socket.takeReadRemainder()).thenAnswer(invocation -> {
+            ByteBuffer taken = remainder;
+            remainder = null;
+            return taken;
+        });
+    }
+
     @Test
-    public void dummyTestToEnsureBuildPasses() {
-        assertTrue("This is a placeholder test. See comments in file.", true);
+    public void testParsesPipelinedRequestsInOneBuffer() {
+        assertEquals(2, reader.parse(socket, buffers(GET + POST)));
+
+        List<Message> messages = drain();
+        assertEquals(2, messages.size());
+        assertEquals(GET, text(messages.get(0)));
+        assertEquals(POST, text(messages.get(1)));
+        assertEquals("/upload", uri(messages.get(1)));
+        assertNull(remainder);
+    }
+
+    @Test
+    public void testRequestSplitAcrossBuffers() {
+        String data = GET + POST;
+        int split = GET.length() + 10;
+        assertEquals(2, reader.parse(socket, buffers(data.substring(0, split), data.substring(split))));
+
+        List<Message> messages = drain();
+        assertEquals(POST, text(messages.get(1)));
+        assertEquals("/upload", uri(messages.get(1)));
+    }
+
+    @Test
+    public void testIncompleteRequestIsCompletedByLaterParse() {
+        int split = POST.length() - 3;
+        assertEquals(1, reader.parse(socket, buffers(GET + POST.substring(0, split))));
+        assertEquals(1, drain().size());
+
+        assertEquals(0, reader.parse(socket, buffers(POST.substring(split, split + 1))));
+        assertTrue(drain().isEmpty());
+
+        assertEquals(2, reader.parse(socket, buffers(POST.substring(split + 1) + GET)));
+        List<Message> messages = drain();
+        assertEquals(POST, text(messages.get(0)));
+        assertEquals("/upload", uri(messages.get(0)));
+        assertEquals(GET, text(messages.get(1)));
+        assertNull(remainder);
+    }
+
+    private static List<ByteBuffer> buffers(String... parts) {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (String part : Arrays.asList(parts)) {
+            buffers.add(ByteBuffer.wrap(part.getBytes(StandardCharsets.US_ASCII)));
+        }
+        return buffers;
+    }
+
+    private List<Message> drain() {
+        List<Message> messages = new ArrayList<>(readyMessages);
+        readyMessages.clear();
+        return messages;
+    }
+
+    private static String text(Message message) {
+        return new String(message.getData(), StandardCharsets.US_ASCII);
+    }
+
+    private static String uri(Message message) {
+        HttpHeaders headers = (HttpHeaders) message.getHeader();
+        return new String(message.getData(), headers.uriStartIndex,
+            headers.uriEndIndex - headers.uriStartIndex, StandardCharsets.US_ASCII);
     }
 }
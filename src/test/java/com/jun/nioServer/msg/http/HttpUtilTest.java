@@ -2,6 +2,7 @@ package com.jun.nioServer.msg.http;
 
 import org.junit.Test;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import static org.junit.Assert.*;
 
 public class HttpUtilTest {
@@ -19,6 +20,7 @@ public class HttpUtilTest {
 
         assertEquals(requestBytes.length, result);
         assertEquals(HttpHeaders.HTTP_METHOD_GET, headers.httpMethod);
+        assertEquals("/test", new String(requestBytes, headers.uriStartIndex, headers.uriEndIndex - headers.uriStartIndex, "UTF-8"));
         // To verify Host, User-Agent, URI, Version, one would need to use hostStartIndex/EndIndex
         // and parse the original requestBytes, which is beyond simple getter tests.
     }
@@ -135,4 +137,82 @@ public class HttpUtilTest {
         int result = HttpUtil.parseHttpRequest(requestBytes, 0, requestBytes.length, headers);
         assertEquals(-1, result);
     }
+
+    @Test
+    public void testParseHttpRequest_AcceptEncodingIgnoresCase() throws UnsupportedEncodingException {
+        String request = "GET / HTTP/1.1\r\n" +
+                         "accept-ENCODING:  gzip, br \r\n" +
+                         "Accept-Encodings: none\r\n" +
+                         "\r\n";
+        byte[] requestBytes = request.getBytes("UTF-8");
+        HttpHeaders headers = new HttpHeaders();
+
+        assertEquals(requestBytes.length, HttpUtil.parseHttpRequest(requestBytes, 0, requestBytes.length, headers));
+        assertEquals("gzip, br", new String(requestBytes, headers.acceptEncodingStartIndex,
+            headers.acceptEncodingEndIndex - headers.acceptEncodingStartIndex, "UTF-8"));
+    }
+
+    @Test
+    public void testParseHttpRequest_ConditionalHeaders() throws UnsupportedEncodingException {
+        String request = "GET / HTTP/1.1\r\n" +
+                         "If-None-Match: \"abc\", W/\"def\"\r\n" +
+                         "If-Modified-Since: Sun, 06 Nov 1994 08:49:37 GMT\r\n" +
+                         "\r\n";
+        byte[] requestBytes = request.getBytes("UTF-8");
+        HttpHeaders headers = new HttpHeaders();
+
+        assertEquals(requestBytes.length, HttpUtil.parseHttpRequest(requestBytes, 0, requestBytes.length, headers));
+        assertEquals("\"abc\", W/\"def\"", new String(requestBytes, headers.ifNoneMatchStartIndex,
+            headers.ifNoneMatchEndIndex - headers.ifNoneMatchStartIndex, "UTF-8"));
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", new String(requestBytes, headers.ifModifiedSinceStartIndex,
+            headers.ifModifiedSinceEndIndex - headers.ifModifiedSinceStartIndex, "UTF-8"));
+    }
+
+    @Test
+    public void testParseHttpRequest_ApiKey() throws UnsupportedEncodingException {
+        String request = "GET / HTTP/1.1\r\n" +
+                         "x-API-key:  k-123 \r\n" +
+                         "\r\n";
+        byte[] requestBytes = request.getBytes("UTF-8");
+        HttpHeaders headers = new HttpHeaders();
+
+        assertEquals(requestBytes.length, HttpUtil.parseHttpRequest(requestBytes, 0, requestBytes.length, headers));
+        assertEquals("k-123", new String(requestBytes, headers.apiKeyStartIndex,
+            headers.apiKeyEndIndex - headers.apiKeyStartIndex, "UTF-8"));
+    }
+
+    @Test
+    public void testParseHttpRequest_RequestTimeout() throws UnsupportedEncodingException {
+        byte[] requestBytes = "GET / HTTP/1.1\r\nX-Request-Timeout-Ms: 250\r\n\r\n".getBytes("UTF-8");
+        HttpHeaders headers = new HttpHeaders();
+        assertEquals(requestBytes.length, HttpUtil.parseHttpRequest(requestBytes, 0, requestBytes.length, headers));
+        assertEquals(250, headers.requestTimeoutMillis);
+
+        // not a number: no deadline
+        requestBytes = "GET / HTTP/1.1\r\nx-request-timeout-ms: 1.5s\r\n\r\n".getBytes("UTF-8");
+        headers = new HttpHeaders();
+        assertEquals(requestBytes.length, HttpUtil.parseHttpRequest(requestBytes, 0, requestBytes.length, headers));
+        assertEquals(0, headers.requestTimeoutMillis);
+    }
+
+    @Test
+    public void testWithConnectionClose() {
+        byte[] response = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.US_ASCII);
+        assertEquals("HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 2\r\n\r\nok",
+            new String(HttpUtil.withConnectionClose(response), StandardCharsets.US_ASCII));
+
+        byte[] closing = "HTTP/1.1 200 OK\r\nconnection: Close\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        assertSame(closing, HttpUtil.withConnectionClose(closing));
+        // a body on its own is not a response
+        byte[] body = "chunk".getBytes(StandardCharsets.US_ASCII);
+        assertSame(body, HttpUtil.withConnectionClose(body));
+    }
+
+    @Test
+    public void testWithConnectionCloseReplacesKeepAlive() {
+        byte[] keepAlive = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: keep-alive\r\n\r\nok"
+            .getBytes(StandardCharsets.US_ASCII);
+        assertEquals("HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 2\r\n\r\nok",
+            new String(HttpUtil.withConnectionClose(keepAlive), StandardCharsets.US_ASCII));
+    }
 }
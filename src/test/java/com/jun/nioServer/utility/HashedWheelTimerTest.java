@@ -0,0 +1,101 @@
+package com.jun.nioServer.utility;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HashedWheelTimerTest {
+
+    private final List<String> fired = new ArrayList<>();
+
+    private HashedWheelTimer.Timeout timeout(String name) {
+        return new HashedWheelTimer.Timeout(() -> fired.add(name));
+    }
+
+    @Test
+    public void testFiresInDeadlineOrderAndNotEarly() {
+        HashedWheelTimer timer = new HashedWheelTimer(100, 8);
+        long start = HashedWheelTimer.now();
+        timer.schedule(timeout("late"), start + 450);
+        timer.schedule(timeout("early"), start + 150);
+        assertEquals(2, timer.size());
+
+        timer.expire(start + 140);
+        assertTrue(fired.isEmpty());
+        timer.expire(start + 300);
+        assertEquals(1, fired.size());
+        assertEquals("early", fired.get(0));
+        timer.expire(start + 600);
+        assertEquals(2, fired.size());
+        assertEquals("late", fired.get(1));
+        assertEquals(0, timer.size());
+    }
+
+    @Test
+    public void testTimeoutBeyondOneRoundWaitsForItsRound() {
+        HashedWheelTimer timer = new HashedWheelTimer(100, 4);
+        long start = HashedWheelTimer.now();
+        // shares a bucket with the ticks of the first rounds
+        timer.schedule(timeout("far"), start + 2550);
+
+        timer.expire(start + 2000);
+        assertTrue(fired.isEmpty());
+        timer.expire(start + 2650);
+        assertEquals(1, fired.size());
+    }
+
+    @Test
+    public void testCancelAndReschedule() {
+        HashedWheelTimer timer = new HashedWheelTimer(100, 8);
+        long start = HashedWheelTimer.now();
+        HashedWheelTimer.Timeout cancelled = timeout("cancelled");
+        HashedWheelTimer.Timeout moved = timeout("moved");
+        timer.schedule(cancelled, start + 250);
+        timer.schedule(moved, start + 250);
+
+        timer.cancel(cancelled);
+        assertFalse(cancelled.isScheduled());
+        timer.schedule(moved, start + 1050);
+        assertEquals(1, timer.size());
+
+        timer.expire(start + 500);
+        assertTrue(fired.isEmpty());
+        timer.expire(start + 1150);
+        assertEquals(1, fired.size());
+        assertEquals("moved", fired.get(0));
+    }
+
+    @Test
+    public void testTaskMayRescheduleItself() {
+        HashedWheelTimer timer = new HashedWheelTimer(100, 8);
+        long start = HashedWheelTimer.now();
+        HashedWheelTimer.Timeout[] self = new HashedWheelTimer.Timeout[1];
+        self[0] = new HashedWheelTimer.Timeout(() -> {
+            fired.add("tick");
+            if (fired.size() < 3) {
+                timer.schedule(self[0], start);
+            }
+        });
+        timer.schedule(self[0], start + 150);
+
+        // rescheduled into the past, it fires once per tick rather than in a loop
+        timer.expire(start + 250);
+        assertEquals(1, fired.size());
+        timer.expire(start + 450);
+        assertEquals(3, fired.size());
+        assertFalse(self[0].isScheduled());
+    }
+
+    @Test
+    public void testMillisToNextTick() {
+        HashedWheelTimer timer = new HashedWheelTimer(100, 8);
+        long now = HashedWheelTimer.now();
+        assertEquals(0, timer.millisToNextTick(now));
+        timer.schedule(timeout("t"), now + 10000);
+        long wait = timer.millisToNextTick(now);
+        assertTrue(wait >= 1 && wait <= 100);
+    }
+}
@@ -0,0 +1,56 @@
+package com.jun.nioServer.utility;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StripedCounterTest {
+
+    @Test
+    public void testCountsUpToLimit() {
+        StripedCounter counter = new StripedCounter(4);
+        assertTrue(counter.incrementIfBelow(7, 2));
+        assertTrue(counter.incrementIfBelow(7, 2));
+        assertFalse(counter.incrementIfBelow(7, 2));
+        assertEquals(2, counter.get(7));
+        assertEquals(1, counter.size());
+
+        counter.decrement(7);
+        counter.decrement(7);
+        assertEquals(0, counter.get(7));
+        assertEquals(0, counter.size());
+        // not counted
+        counter.decrement(7);
+        assertEquals(0, counter.get(7));
+    }
+
+    @Test
+    public void testAgreesWithMapUnderChurn() {
+        StripedCounter counter = new StripedCounter(2);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            // few keys, so that slots are reused and probe chains shift
+            long key = random.nextInt(500) * 0x10000L;
+            if (random.nextBoolean()) {
+                boolean counted = counter.incrementIfBelow(key, 3);
+                int count = expected.getOrDefault(key, 0);
+                assertEquals(count < 3, counted);
+                if (counted) {
+                    expected.put(key, count + 1);
+                }
+            } else {
+                counter.decrement(key);
+                expected.computeIfPresent(key, (k, count) -> count == 1 ? null : count - 1);
+            }
+        }
+        for (long key = 0; key < 500; key++) {
+            assertEquals(expected.getOrDefault(key * 0x10000L, 0).intValue(), counter.get(key * 0x10000L));
+        }
+        assertEquals(expected.size(), counter.size());
+    }
+}
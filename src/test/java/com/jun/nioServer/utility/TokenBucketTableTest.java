@@ -0,0 +1,75 @@
+package com.jun.nioServer.utility;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTableTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void testBurstThenRefillOverTime() {
+        // a token every 10 ms, 3 at once
+        TokenBucketTable buckets = new TokenBucketTable(64, 1, 10 * MS, 3);
+        long now = 1_000 * MS;
+        assertEquals(3, buckets.available(7, now));
+        assertTrue(buckets.tryAcquire(7, now));
+        assertTrue(buckets.tryAcquire(7, now));
+        assertTrue(buckets.tryAcquire(7, now));
+        assertFalse(buckets.tryAcquire(7, now));
+        assertEquals(0, buckets.available(7, now));
+
+        assertFalse(buckets.tryAcquire(7, now + 9 * MS));
+        assertTrue(buckets.tryAcquire(7, now + 10 * MS));
+        assertFalse(buckets.tryAcquire(7, now + 10 * MS));
+        // idle for long, but no more than a full bucket
+        assertEquals(3, buckets.available(7, now + 1_000 * MS));
+        assertTrue(buckets.tryAcquire(7, now + 1_000 * MS));
+        assertEquals(2, buckets.available(7, now + 1_000 * MS));
+    }
+
+    @Test
+    public void testKeysHaveTheirOwnBuckets() {
+        TokenBucketTable buckets = new TokenBucketTable(64, 4, 10 * MS, 1);
+        long now = -5 * MS;   // System.nanoTime() may be negative
+        assertTrue(buckets.tryAcquire(1, now));
+        assertFalse(buckets.tryAcquire(1, now));
+        assertTrue(buckets.tryAcquire(2, now));
+        assertTrue(buckets.tryAcquire(0xFFFFFFFF0A000001L, now));
+        assertFalse(buckets.tryAcquire(2, now + MS));
+        assertTrue(buckets.tryAcquire(1, now + 10 * MS));
+    }
+
+    @Test
+    public void testFullTableGivesUpBucketsClosestToFull() {
+        // 8 slots, a token per second: no bucket refills during the test
+        TokenBucketTable buckets = new TokenBucketTable(8, 1, 1_000 * MS, 1);
+        long now = 0;
+        for (long key = 1; key <= 100; key++) {
+            assertTrue(buckets.tryAcquire(key, now + key));
+        }
+        // the most recent keys are still limited, the oldest started over
+        assertFalse(buckets.tryAcquire(100, now + 101));
+        assertTrue(buckets.tryAcquire(1, now + 101));
+    }
+
+    @Test
+    public void testFullBucketsLeaveTheirSlotsToOtherKeys() {
+        TokenBucketTable buckets = new TokenBucketTable(8, 1, 10 * MS, 1);
+        long now = 0;
+        for (long key = 1; key <= 8; key++) {
+            assertTrue(buckets.tryAcquire(key, now));
+        }
+        // all refilled; new keys take the slots without evicting a limited one
+        now += 10 * MS;
+        assertTrue(buckets.tryAcquire(3, now));
+        for (long key = 9; key <= 15; key++) {
+            assertTrue(buckets.tryAcquire(key, now));
+        }
+        assertFalse(buckets.tryAcquire(3, now));
+        for (long key = 9; key <= 15; key++) {
+            assertFalse(buckets.tryAcquire(key, now));
+        }
+    }
+}